@@ -35,17 +35,36 @@ public class BizConfig extends RefreshableConfig {
 
   private static final int DEFAULT_ITEM_KEY_LENGTH = 128;
   private static final int DEFAULT_ITEM_VALUE_LENGTH = 20000;
-  private static final int DEFAULT_APPNAMESPACE_CACHE_REBUILD_INTERVAL = 60; //60s
+  private static final int DEFAULT_APPNAMESPACE_CACHE_REBUILD_INTERVAL = 600; //10 minutes
   private static final int DEFAULT_GRAY_RELEASE_RULE_SCAN_INTERVAL = 60; //60s
+  private static final int DEFAULT_GRAY_RELEASE_RULE_REBUILD_INTERVAL = 600; //10 minutes
   private static final int DEFAULT_APPNAMESPACE_CACHE_SCAN_INTERVAL = 1; //1s
   private static final int DEFAULT_ACCESS_KEY_CACHE_SCAN_INTERVAL = 1; //1s
-  private static final int DEFAULT_ACCESS_KEY_CACHE_REBUILD_INTERVAL = 60; //60s
+  private static final int DEFAULT_ACCESS_KEY_CACHE_REBUILD_INTERVAL = 600; //10 minutes
+  private static final int DEFAULT_CACHE_INCREMENTAL_LOAD_OVERLAP_IN_MILLI = 60000; //60s
   private static final int DEFAULT_ACCESS_KEY_AUTH_TIME_DIFF_TOLERANCE = 60; //60s
+  private static final int DEFAULT_ACCESS_KEY_AUTH_CACHE_TTL_IN_MILLI = 0; //disabled
   private static final int DEFAULT_RELEASE_MESSAGE_CACHE_SCAN_INTERVAL = 1; //1s
+  private static final int DEFAULT_RELEASE_MESSAGE_CACHE_LOAD_PAGE_SIZE = 500;
+  private static final int DEFAULT_RELEASE_MESSAGE_CACHE_LOAD_PARALLELISM = 4;
   private static final int DEFAULT_RELEASE_MESSAGE_SCAN_INTERVAL_IN_MS = 1000; //1000ms
   private static final int DEFAULT_RELEASE_MESSAGE_NOTIFICATION_BATCH = 100;
   private static final int DEFAULT_RELEASE_MESSAGE_NOTIFICATION_BATCH_INTERVAL_IN_MILLI = 100;//100ms
+  private static final int DEFAULT_RELEASE_MESSAGE_NOTIFICATION_THREADS = 8;
   private static final int DEFAULT_LONG_POLLING_TIMEOUT = 60; //60s
+  private static final int DEFAULT_NOTIFICATION_STREAM_TIMEOUT = 600; //600s
+  private static final int DEFAULT_LONG_POLLING_DRAIN_PERIOD_IN_MILLI = 10000; //10s
+  private static final int DEFAULT_LONG_POLLING_DRAIN_WAVES = 10;
+  private static final int DEFAULT_LONG_POLLING_RETRY_AFTER_IN_MILLI = 1000; //1s
+  private static final int DEFAULT_LONG_POLLING_RETRY_JITTER_IN_MILLI = 30000; //30s
+  private static final int DEFAULT_RELEASE_MESSAGE_BROADCAST_TIMEOUT_IN_MILLI = 1000; //1000ms
+  private static final int DEFAULT_RELEASE_MESSAGE_SCAN_LEASE_TIMEOUT_IN_MILLI = 10000; //10s
+  private static final int DEFAULT_CONFIG_SERVICE_CACHE_MAX_SIZE_IN_MB = 256; //256MB
+  private static final int DEFAULT_CONFIG_SERVICE_CACHE_REFRESH_THREADS = 4;
+  private static final String DEFAULT_CONFIG_SERVICE_CACHE_SNAPSHOT_PATH = "/opt/data/apollo-configservice/cache.snapshot";
+  private static final int DEFAULT_CONFIG_SERVICE_CACHE_SNAPSHOT_INTERVAL_IN_SECONDS = 300; //5 minutes
+  private static final int DEFAULT_INSTANCE_CONFIG_AUDIT_WORKERS = 4;
+  private static final int DEFAULT_INSTANCE_CONFIG_AUDIT_FLUSH_INTERVAL_IN_MILLI = 1000; //1000ms
 
   private static final Gson GSON = new Gson();
 
@@ -78,12 +97,63 @@ public class BizConfig extends RefreshableConfig {
     return checkInt(interval, 1, Integer.MAX_VALUE, DEFAULT_GRAY_RELEASE_RULE_SCAN_INTERVAL);
   }
 
+  public int grayReleaseRuleRebuildInterval() {
+    int interval = getIntProperty("apollo.gray-release-rule-rebuild.interval", DEFAULT_GRAY_RELEASE_RULE_REBUILD_INTERVAL);
+    return checkInt(interval, 1, Integer.MAX_VALUE, DEFAULT_GRAY_RELEASE_RULE_REBUILD_INTERVAL);
+  }
+
+  /**
+   * The rows modified within this period before the last one loaded are loaded again, so that the rows committed late
+   * or written by hosts with clock skew are not missed. DataChange_LastTime is set by the application on inserts and
+   * updates, and by the database on soft deletes, so the skew between them counts as well
+   */
+  public int cacheIncrementalLoadOverlapInMilli() {
+    int overlap = getIntProperty("apollo.cache-incremental-load.overlap", DEFAULT_CACHE_INCREMENTAL_LOAD_OVERLAP_IN_MILLI);
+    return checkInt(overlap, 0, Integer.MAX_VALUE, DEFAULT_CACHE_INCREMENTAL_LOAD_OVERLAP_IN_MILLI);
+  }
+
   public long longPollingTimeoutInMilli() {
     int timeout = getIntProperty("long.polling.timeout", DEFAULT_LONG_POLLING_TIMEOUT);
     // java client's long polling timeout is 90 seconds, so server side long polling timeout must be less than 90
     return 1000 * checkInt(timeout, 1, 90, DEFAULT_LONG_POLLING_TIMEOUT);
   }
 
+  public long notificationStreamTimeoutInMilli() {
+    int timeout = getIntProperty("notification.stream.timeout", DEFAULT_NOTIFICATION_STREAM_TIMEOUT);
+    // the stream is kept alive by heartbeats, the timeout only makes clients reconnect to rebalance the load
+    return 1000L * checkInt(timeout, 60, Integer.MAX_VALUE, DEFAULT_NOTIFICATION_STREAM_TIMEOUT);
+  }
+
+  /**
+   * The period over which the pending long polling requests are completed on shutdown
+   */
+  public int longPollingDrainPeriodInMilli() {
+    int period = getIntProperty("apollo.long-polling.drain.period", DEFAULT_LONG_POLLING_DRAIN_PERIOD_IN_MILLI);
+    // the drain must finish within spring's default lifecycle shutdown timeout, which is 30 seconds
+    return checkInt(period, 0, 25000, DEFAULT_LONG_POLLING_DRAIN_PERIOD_IN_MILLI);
+  }
+
+  public int longPollingDrainWaves() {
+    int waves = getIntProperty("apollo.long-polling.drain.waves", DEFAULT_LONG_POLLING_DRAIN_WAVES);
+    return checkInt(waves, 1, 1000, DEFAULT_LONG_POLLING_DRAIN_WAVES);
+  }
+
+  /**
+   * The delay the clients released by the drain wait before polling again
+   */
+  public int longPollingRetryAfterInMilli() {
+    int delay = getIntProperty("apollo.long-polling.retry-after", DEFAULT_LONG_POLLING_RETRY_AFTER_IN_MILLI);
+    return checkInt(delay, 0, 60000, DEFAULT_LONG_POLLING_RETRY_AFTER_IN_MILLI);
+  }
+
+  /**
+   * The window over which the clients released by the drain spread their reconnections
+   */
+  public int longPollingRetryJitterInMilli() {
+    int jitter = getIntProperty("apollo.long-polling.retry-jitter", DEFAULT_LONG_POLLING_RETRY_JITTER_IN_MILLI);
+    return checkInt(jitter, 0, 60000, DEFAULT_LONG_POLLING_RETRY_JITTER_IN_MILLI);
+  }
+
   public int itemKeyLengthLimit() {
     int limit = getIntProperty("item.key.length.limit", DEFAULT_ITEM_KEY_LENGTH);
     return checkInt(limit, 5, Integer.MAX_VALUE, DEFAULT_ITEM_KEY_LENGTH);
@@ -165,6 +235,14 @@ public class BizConfig extends RefreshableConfig {
         DEFAULT_ACCESS_KEY_AUTH_TIME_DIFF_TOLERANCE);
   }
 
+  /**
+   * How long a verified signature is remembered, so that the same signed request isn't verified again, 0 means disabled
+   */
+  public int accessKeyAuthCacheTtlInMilli() {
+    int ttl = getIntProperty("apollo.access-key.auth-cache-ttl", DEFAULT_ACCESS_KEY_AUTH_CACHE_TTL_IN_MILLI);
+    return checkInt(ttl, 0, 60000, DEFAULT_ACCESS_KEY_AUTH_CACHE_TTL_IN_MILLI);
+  }
+
   public int releaseMessageCacheScanInterval() {
     int interval = getIntProperty("apollo.release-message-cache-scan.interval", DEFAULT_RELEASE_MESSAGE_CACHE_SCAN_INTERVAL);
     return checkInt(interval, 1, Integer.MAX_VALUE, DEFAULT_RELEASE_MESSAGE_CACHE_SCAN_INTERVAL);
@@ -174,6 +252,18 @@ public class BizConfig extends RefreshableConfig {
     return TimeUnit.SECONDS;
   }
 
+  public int releaseMessageCacheLoadPageSize() {
+    int pageSize = getIntProperty("apollo.release-message-cache-load.page-size",
+        DEFAULT_RELEASE_MESSAGE_CACHE_LOAD_PAGE_SIZE);
+    return checkInt(pageSize, 1, 10000, DEFAULT_RELEASE_MESSAGE_CACHE_LOAD_PAGE_SIZE);
+  }
+
+  public int releaseMessageCacheLoadParallelism() {
+    int parallelism = getIntProperty("apollo.release-message-cache-load.parallelism",
+        DEFAULT_RELEASE_MESSAGE_CACHE_LOAD_PARALLELISM);
+    return checkInt(parallelism, 1, 32, DEFAULT_RELEASE_MESSAGE_CACHE_LOAD_PARALLELISM);
+  }
+
   public int releaseMessageScanIntervalInMilli() {
     int interval = getIntProperty("apollo.message-scan.interval", DEFAULT_RELEASE_MESSAGE_SCAN_INTERVAL_IN_MS);
     return checkInt(interval, 100, Integer.MAX_VALUE, DEFAULT_RELEASE_MESSAGE_SCAN_INTERVAL_IN_MS);
@@ -189,10 +279,77 @@ public class BizConfig extends RefreshableConfig {
     return checkInt(interval, 10, Integer.MAX_VALUE, DEFAULT_RELEASE_MESSAGE_NOTIFICATION_BATCH_INTERVAL_IN_MILLI);
   }
 
+  public int releaseMessageNotificationThreads() {
+    int threads = getIntProperty("apollo.release-message.notification.threads", DEFAULT_RELEASE_MESSAGE_NOTIFICATION_THREADS);
+    return checkInt(threads, 1, 64, DEFAULT_RELEASE_MESSAGE_NOTIFICATION_THREADS);
+  }
+
+  public boolean isReleaseMessageBroadcastEnabled() {
+    return getBooleanProperty("apollo.release-message.broadcast.enabled", false);
+  }
+
+  public int releaseMessageBroadcastTimeoutInMilli() {
+    int timeout = getIntProperty("apollo.release-message.broadcast.timeout",
+        DEFAULT_RELEASE_MESSAGE_BROADCAST_TIMEOUT_IN_MILLI);
+    return checkInt(timeout, 10, Integer.MAX_VALUE, DEFAULT_RELEASE_MESSAGE_BROADCAST_TIMEOUT_IN_MILLI);
+  }
+
+  public String releaseMessageBroadcastToken() {
+    return getValue("apollo.release-message.broadcast.token");
+  }
+
+  public boolean isReleaseMessageScanLeaseEnabled() {
+    return getBooleanProperty("apollo.release-message.scan.lease.enabled", false);
+  }
+
+  public int releaseMessageScanLeaseTimeoutInMilli() {
+    int timeout = getIntProperty("apollo.release-message.scan.lease.timeout",
+        DEFAULT_RELEASE_MESSAGE_SCAN_LEASE_TIMEOUT_IN_MILLI);
+    return checkInt(timeout, 1000, Integer.MAX_VALUE, DEFAULT_RELEASE_MESSAGE_SCAN_LEASE_TIMEOUT_IN_MILLI);
+  }
+
   public boolean isConfigServiceCacheEnabled() {
     return getBooleanProperty("config-service.cache.enabled", false);
   }
 
+  public int configServiceCacheMaxSizeInMB() {
+    int size = getIntProperty("config-service.cache.max-size-in-mb", DEFAULT_CONFIG_SERVICE_CACHE_MAX_SIZE_IN_MB);
+    return checkInt(size, 1, Integer.MAX_VALUE, DEFAULT_CONFIG_SERVICE_CACHE_MAX_SIZE_IN_MB);
+  }
+
+  /**
+   * The threads reloading the cached configs after releases, only read on startup
+   */
+  public int configServiceCacheRefreshThreads() {
+    int threads = getIntProperty("config-service.cache.refresh-threads", DEFAULT_CONFIG_SERVICE_CACHE_REFRESH_THREADS);
+    return checkInt(threads, 1, 64, DEFAULT_CONFIG_SERVICE_CACHE_REFRESH_THREADS);
+  }
+
+  public boolean isConfigServiceCacheSnapshotEnabled() {
+    return getBooleanProperty("config-service.cache.snapshot.enabled", false);
+  }
+
+  public String configServiceCacheSnapshotPath() {
+    return getValue("config-service.cache.snapshot.path", DEFAULT_CONFIG_SERVICE_CACHE_SNAPSHOT_PATH);
+  }
+
+  public int configServiceCacheSnapshotIntervalInSeconds() {
+    int interval = getIntProperty("config-service.cache.snapshot.interval",
+        DEFAULT_CONFIG_SERVICE_CACHE_SNAPSHOT_INTERVAL_IN_SECONDS);
+    return checkInt(interval, 10, Integer.MAX_VALUE, DEFAULT_CONFIG_SERVICE_CACHE_SNAPSHOT_INTERVAL_IN_SECONDS);
+  }
+
+  public int instanceConfigAuditWorkers() {
+    int workers = getIntProperty("apollo.instance-config-audit.workers", DEFAULT_INSTANCE_CONFIG_AUDIT_WORKERS);
+    return checkInt(workers, 1, 32, DEFAULT_INSTANCE_CONFIG_AUDIT_WORKERS);
+  }
+
+  public int instanceConfigAuditFlushIntervalInMilli() {
+    int interval = getIntProperty("apollo.instance-config-audit.flush-interval",
+        DEFAULT_INSTANCE_CONFIG_AUDIT_FLUSH_INTERVAL_IN_MILLI);
+    return checkInt(interval, 100, 60000, DEFAULT_INSTANCE_CONFIG_AUDIT_FLUSH_INTERVAL_IN_MILLI);
+  }
+
   int checkInt(int value, int min, int max, int defaultValue) {
     if (value >= min && value <= max) {
       return value;
@@ -27,12 +27,14 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.PrePersist;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
  */
 @Entity
-@Table(name = "Instance")
+@Table(name = "Instance", uniqueConstraints = @UniqueConstraint(name = "UK_Instance",
+    columnNames = {"AppId", "ClusterName", "Ip", "DataCenter"}))
 public class Instance {
   @Id
   @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.grayReleaseRule;
+
+import com.ctrip.framework.apollo.common.dto.GrayReleaseRuleItemDTO;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable matcher of the client ips in gray release rules, which supports <code>*</code>, exact
+ * ips and IPv4 CIDR ranges like <code>10.0.0.0/8</code>. Matching doesn't allocate.
+ */
+public final class ClientIpMatcher {
+  private static final char CIDR_SEPARATOR = '/';
+  private static final long IPV4_MASK = 0xFFFFFFFFL;
+
+  private final boolean matchAll;
+  private final ImmutableSet<String> ips;
+  private final long[] networks;
+  private final long[] masks;
+
+  private ClientIpMatcher(boolean matchAll, ImmutableSet<String> ips, long[] networks, long[] masks) {
+    this.matchAll = matchAll;
+    this.ips = ips;
+    this.networks = networks;
+    this.masks = masks;
+  }
+
+  public static ClientIpMatcher compile(Collection<String> clientIps) {
+    boolean matchAll = false;
+    ImmutableSet.Builder<String> ips = ImmutableSet.builder();
+    List<Long> networks = Lists.newArrayList();
+    List<Long> masks = Lists.newArrayList();
+    if (clientIps != null) {
+      for (String clientIp : clientIps) {
+        if (clientIp == null) {
+          continue;
+        }
+        if (GrayReleaseRuleItemDTO.ALL_IP.equals(clientIp)) {
+          matchAll = true;
+          continue;
+        }
+        long mask = parseCidrMask(clientIp);
+        if (mask < 0) {
+          ips.add(clientIp);
+          continue;
+        }
+        long address = parseIpv4(clientIp, 0, clientIp.indexOf(CIDR_SEPARATOR));
+        networks.add(address & mask);
+        masks.add(mask);
+      }
+    }
+    return new ClientIpMatcher(matchAll, ips.build(), Longs.toArray(networks), Longs.toArray(masks));
+  }
+
+  public boolean matches(String clientIp) {
+    if (matchAll) {
+      return true;
+    }
+    if (clientIp == null) {
+      return false;
+    }
+    if (ips.contains(clientIp)) {
+      return true;
+    }
+    if (networks.length == 0) {
+      return false;
+    }
+    long address = parseIpv4(clientIp, 0, clientIp.length());
+    if (address < 0) {
+      return false;
+    }
+    for (int i = 0; i < networks.length; i++) {
+      if ((address & masks[i]) == networks[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public boolean isEmpty() {
+    return !matchAll && ips.isEmpty() && networks.length == 0;
+  }
+
+  /**
+   * @return the mask of the CIDR range, or -1 if it's not a valid IPv4 CIDR range
+   */
+  private static long parseCidrMask(String cidr) {
+    int separatorIndex = cidr.indexOf(CIDR_SEPARATOR);
+    if (separatorIndex < 0 || parseIpv4(cidr, 0, separatorIndex) < 0) {
+      return -1;
+    }
+    int prefixLength = 0;
+    int digits = cidr.length() - separatorIndex - 1;
+    if (digits < 1 || digits > 2) {
+      return -1;
+    }
+    for (int i = separatorIndex + 1; i < cidr.length(); i++) {
+      char c = cidr.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      prefixLength = prefixLength * 10 + (c - '0');
+    }
+    if (prefixLength > 32) {
+      return -1;
+    }
+    return (IPV4_MASK << (32 - prefixLength)) & IPV4_MASK;
+  }
+
+  /**
+   * @return the IPv4 address as an unsigned int, or -1 if it's not a valid IPv4 address
+   */
+  static long parseIpv4(String ip, int from, int to) {
+    long address = 0;
+    int octet = -1;
+    int dots = 0;
+    for (int i = from; i < to; i++) {
+      char c = ip.charAt(i);
+      if (c >= '0' && c <= '9') {
+        octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+        if (octet > 255) {
+          return -1;
+        }
+      } else if (c == '.' && octet >= 0 && dots < 3) {
+        address = (address << 8) | octet;
+        octet = -1;
+        dots++;
+      } else {
+        return -1;
+      }
+    }
+    if (dots != 3 || octet < 0) {
+      return -1;
+    }
+    return (address << 8) | octet;
+  }
+}
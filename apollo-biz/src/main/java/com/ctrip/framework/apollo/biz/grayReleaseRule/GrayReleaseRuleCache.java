@@ -31,6 +31,9 @@ public class GrayReleaseRuleCache implements Comparable<GrayReleaseRuleCache> {
   private long loadVersion;
   private int branchStatus;
   private Set<GrayReleaseRuleItemDTO> ruleItems;
+  //compiled from rule items, so that matching doesn't allocate
+  private final String[] clientAppIds;
+  private final ClientIpMatcher[] clientIpMatchers;
 
   public GrayReleaseRuleCache(long ruleId, String branchName, String namespaceName, long
       releaseId, int branchStatus, long loadVersion, Set<GrayReleaseRuleItemDTO> ruleItems) {
@@ -41,6 +44,14 @@ public class GrayReleaseRuleCache implements Comparable<GrayReleaseRuleCache> {
     this.branchStatus = branchStatus;
     this.loadVersion = loadVersion;
     this.ruleItems = ruleItems;
+    this.clientAppIds = new String[ruleItems.size()];
+    this.clientIpMatchers = new ClientIpMatcher[ruleItems.size()];
+    int i = 0;
+    for (GrayReleaseRuleItemDTO ruleItem : ruleItems) {
+      clientAppIds[i] = ruleItem.getClientAppId();
+      clientIpMatchers[i] = ClientIpMatcher.compile(ruleItem.getClientIpList());
+      i++;
+    }
   }
 
   public long getRuleId() {
@@ -76,8 +87,8 @@ public class GrayReleaseRuleCache implements Comparable<GrayReleaseRuleCache> {
   }
 
   public boolean matches(String clientAppId, String clientIp) {
-    for (GrayReleaseRuleItemDTO ruleItem : ruleItems) {
-      if (ruleItem.matches(clientAppId, clientIp)) {
+    for (int i = 0; i < clientAppIds.length; i++) {
+      if (clientAppIds[i].equalsIgnoreCase(clientAppId) && clientIpMatchers[i].matches(clientIp)) {
         return true;
       }
     }
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.grayReleaseRule;
+
+import com.ctrip.framework.apollo.common.constants.NamespaceBranchStatus;
+import com.ctrip.framework.apollo.common.dto.GrayReleaseRuleItemDTO;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the active gray release rules, indexed by configAppId+configCluster+configNamespace and by
+ * clientAppId+configNamespace. It's rebuilt and swapped as a whole when the rules change, so lookups are lock free and
+ * don't allocate, except for boxing the release id found.
+ */
+public final class GrayReleaseRuleIndex {
+  private static final char SEPARATOR = ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR.charAt(0);
+  private static final Joiner STRING_JOINER = Joiner.on(SEPARATOR);
+
+  public static final GrayReleaseRuleIndex EMPTY = build(null);
+
+  //store configAppId+configCluster+configNamespace -> active rules, ordered by rule id
+  private final KeyTable<GrayReleaseRuleCache[]> rules;
+  //store clientAppId+configNamespace -> client ips of the active rules
+  private final KeyTable<ClientIpMatcher> clientIps;
+  private final int size;
+
+  private GrayReleaseRuleIndex(Map<String, GrayReleaseRuleCache[]> rules, Map<String, ClientIpMatcher> clientIps,
+      int size) {
+    this.rules = new KeyTable<>(rules);
+    this.clientIps = new KeyTable<>(clientIps);
+    this.size = size;
+  }
+
+  /**
+   * @param grayReleaseRules configAppId+configCluster+configNamespace -> rules, the keys are case insensitive and the
+   * rules are ordered by rule id
+   */
+  public static GrayReleaseRuleIndex build(Multimap<String, GrayReleaseRuleCache> grayReleaseRules) {
+    Map<String, GrayReleaseRuleCache[]> rules = Maps.newHashMap();
+    Map<String, Set<String>> clientIps = Maps.newTreeMap(String.CASE_INSENSITIVE_ORDER);
+    int size = 0;
+    if (grayReleaseRules != null) {
+      for (Map.Entry<String, Collection<GrayReleaseRuleCache>> entry : grayReleaseRules.asMap().entrySet()) {
+        List<GrayReleaseRuleCache> activeRules = Lists.newArrayList();
+        for (GrayReleaseRuleCache rule : entry.getValue()) {
+          if (rule.getBranchStatus() != NamespaceBranchStatus.ACTIVE) {
+            continue;
+          }
+          activeRules.add(rule);
+          for (GrayReleaseRuleItemDTO ruleItem : rule.getRuleItems()) {
+            clientIps.computeIfAbsent(STRING_JOINER.join(ruleItem.getClientAppId(), rule.getNamespaceName()),
+                key -> Sets.newHashSet()).addAll(ruleItem.getClientIpList());
+          }
+        }
+        if (!activeRules.isEmpty()) {
+          rules.put(entry.getKey(), activeRules.toArray(new GrayReleaseRuleCache[0]));
+          size += activeRules.size();
+        }
+      }
+    }
+    Map<String, ClientIpMatcher> clientIpMatchers = Maps.newHashMapWithExpectedSize(clientIps.size());
+    for (Map.Entry<String, Set<String>> entry : clientIps.entrySet()) {
+      clientIpMatchers.put(entry.getKey(), ClientIpMatcher.compile(entry.getValue()));
+    }
+    return new GrayReleaseRuleIndex(rules, clientIpMatchers, size);
+  }
+
+  public Long findReleaseId(String clientAppId, String clientIp, String configAppId, String configCluster,
+      String configNamespaceName) {
+    GrayReleaseRuleCache[] candidates = this.rules.get(configAppId, configCluster, configNamespaceName);
+    if (candidates == null) {
+      return null;
+    }
+    for (GrayReleaseRuleCache rule : candidates) {
+      if (rule.matches(clientAppId, clientIp)) {
+        return rule.getReleaseId();
+      }
+    }
+    return null;
+  }
+
+  public boolean hasGrayReleaseRule(String clientAppId, String clientIp, String namespaceName) {
+    ClientIpMatcher matcher = clientIps.get(clientAppId, namespaceName, null);
+    return matcher != null && matcher.matches(clientIp);
+  }
+
+  /**
+   * @return the number of active rules
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Open addressing hash table keyed by case insensitive strings joined with the separator, which could be looked up by
+   * the parts of the key directly, so that no key needs to be assembled.
+   */
+  private static final class KeyTable<V> {
+    private final String[] keys;
+    private final Object[] values;
+    private final int mask;
+
+    KeyTable(Map<String, V> entries) {
+      int capacity = 2;
+      while (capacity < entries.size() * 2) {
+        capacity <<= 1;
+      }
+      keys = new String[capacity];
+      values = new Object[capacity];
+      mask = capacity - 1;
+      for (Map.Entry<String, V> entry : entries.entrySet()) {
+        int index = spread(hash(0, entry.getKey())) & mask;
+        while (keys[index] != null) {
+          index = (index + 1) & mask;
+        }
+        keys[index] = entry.getKey();
+        values[index] = entry.getValue();
+      }
+    }
+
+    /**
+     * @param third the third part of the key, null if the key only consists of two parts
+     */
+    @SuppressWarnings("unchecked")
+    V get(String first, String second, String third) {
+      if (first == null || second == null) {
+        return null;
+      }
+      int hash = hash(hash(hash(0, first), SEPARATOR), second);
+      int length = first.length() + second.length() + 1;
+      if (third != null) {
+        hash = hash(hash(hash, SEPARATOR), third);
+        length += third.length() + 1;
+      }
+      int index = spread(hash) & mask;
+      String key;
+      while ((key = keys[index]) != null) {
+        if (key.length() == length && regionMatches(key, 0, first) && key.charAt(first.length()) == SEPARATOR
+            && regionMatches(key, first.length() + 1, second)
+            && (third == null || key.charAt(first.length() + second.length() + 1) == SEPARATOR
+            && regionMatches(key, first.length() + second.length() + 2, third))) {
+          return (V) values[index];
+        }
+        index = (index + 1) & mask;
+      }
+      return null;
+    }
+
+    private static boolean regionMatches(String key, int offset, String part) {
+      return key.regionMatches(true, offset, part, 0, part.length());
+    }
+
+    private static int hash(int hash, String part) {
+      for (int i = 0; i < part.length(); i++) {
+        hash = hash(hash, part.charAt(i));
+      }
+      return hash;
+    }
+
+    private static int hash(int hash, char c) {
+      //the same folding as String.equalsIgnoreCase
+      return 31 * hash + Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static int spread(int hash) {
+      return hash ^ (hash >>> 16);
+    }
+  }
+}
@@ -21,7 +21,6 @@ import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 
@@ -31,6 +30,7 @@ import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.message.ReleaseMessageListener;
 import com.ctrip.framework.apollo.biz.message.Topics;
 import com.ctrip.framework.apollo.biz.repository.GrayReleaseRuleRepository;
+import com.ctrip.framework.apollo.biz.utils.IncrementalChangeLoader;
 import com.ctrip.framework.apollo.common.constants.NamespaceBranchStatus;
 import com.ctrip.framework.apollo.common.dto.GrayReleaseRuleItemDTO;
 import com.ctrip.framework.apollo.common.utils.GrayReleaseRuleItemTransformer;
@@ -68,20 +68,21 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
   private BizConfig bizConfig;
 
   private int databaseScanInterval;
+  private int databaseRebuildInterval;
   private ScheduledExecutorService executorService;
-  //store configAppId+configCluster+configNamespace -> GrayReleaseRuleCache map
+  private IncrementalChangeLoader<GrayReleaseRule> changeLoader;
+  //store configAppId+configCluster+configNamespace -> GrayReleaseRuleCache map, only accessed by the writers
   private Multimap<String, GrayReleaseRuleCache> grayReleaseRuleCache;
-  //store clientAppId+clientNamespace+ip -> ruleId map
-  private Multimap<String, Long> reversedGrayReleaseRuleCache;
-  //an auto increment version to indicate the age of rules
+  //immutable snapshot of grayReleaseRuleCache for lookups, swapped whenever the rules change
+  private volatile GrayReleaseRuleIndex grayReleaseRuleIndex;
+  private boolean grayReleaseRuleCacheChanged;
+  //an auto increment version to indicate the age of rules, which is increased by each full scan
   private AtomicLong loadVersion;
 
   public GrayReleaseRulesHolder() {
     loadVersion = new AtomicLong();
-    grayReleaseRuleCache = Multimaps.synchronizedSetMultimap(
-        TreeMultimap.create(String.CASE_INSENSITIVE_ORDER, Ordering.natural()));
-    reversedGrayReleaseRuleCache = Multimaps.synchronizedSetMultimap(
-        TreeMultimap.create(String.CASE_INSENSITIVE_ORDER, Ordering.natural()));
+    grayReleaseRuleCache = TreeMultimap.create(String.CASE_INSENSITIVE_ORDER, Ordering.natural());
+    grayReleaseRuleIndex = GrayReleaseRuleIndex.EMPTY;
     executorService = Executors.newScheduledThreadPool(1, ApolloThreadFactory
         .create("GrayReleaseRulesHolder", true));
   }
@@ -89,11 +90,20 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
   @Override
   public void afterPropertiesSet() throws Exception {
     populateDataBaseInterval();
-    //force sync load for the first time
+    changeLoader = new IncrementalChangeLoader<>(grayReleaseRuleRepository::findChangesIncludingDeleted,
+        bizConfig.cacheIncrementalLoadOverlapInMilli());
+    //force sync load for the first time, and only the changes since then need to be scanned afterwards
+    long loadStartTime = System.currentTimeMillis();
     periodicScanRules();
-    executorService.scheduleWithFixedDelay(this::periodicScanRules,
+    changeLoader.setHighWaterMark(loadStartTime);
+
+    executorService.scheduleWithFixedDelay(this::periodicScanChangedRules,
         getDatabaseScanIntervalSecond(), getDatabaseScanIntervalSecond(), getDatabaseScanTimeUnit()
     );
+    //full scan is only a consistency check now
+    executorService.scheduleWithFixedDelay(this::periodicScanRules,
+        databaseRebuildInterval, databaseRebuildInterval, getDatabaseScanTimeUnit()
+    );
   }
 
   @Override
@@ -134,24 +144,27 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
     }
   }
 
-  public Long findReleaseIdFromGrayReleaseRule(String clientAppId, String clientIp, String
-      configAppId, String configCluster, String configNamespaceName) {
-    String key = assembleGrayReleaseRuleKey(configAppId, configCluster, configNamespaceName);
-    if (!grayReleaseRuleCache.containsKey(key)) {
-      return null;
-    }
-    //create a new list to avoid ConcurrentModificationException
-    List<GrayReleaseRuleCache> rules = Lists.newArrayList(grayReleaseRuleCache.get(key));
-    for (GrayReleaseRuleCache rule : rules) {
-      //check branch status
-      if (rule.getBranchStatus() != NamespaceBranchStatus.ACTIVE) {
-        continue;
-      }
-      if (rule.matches(clientAppId, clientIp)) {
-        return rule.getReleaseId();
+  private void periodicScanChangedRules() {
+    Transaction transaction = Tracer.newTransaction("Apollo.GrayReleaseRulesScanner",
+        "scanChangedGrayReleaseRules");
+    try {
+      int scanned = changeLoader.load(this::mergeGrayReleaseRules);
+      if (scanned > 0) {
+        logger.info("Loaded {} changed gray release rules", scanned);
       }
+      transaction.setStatus(Transaction.SUCCESS);
+    } catch (Throwable ex) {
+      transaction.setStatus(ex);
+      logger.error("Scan changed gray release rules failed", ex);
+    } finally {
+      transaction.complete();
     }
-    return null;
+  }
+
+  public Long findReleaseIdFromGrayReleaseRule(String clientAppId, String clientIp, String
+      configAppId, String configCluster, String configNamespaceName) {
+    return grayReleaseRuleIndex.findReleaseId(clientAppId, clientIp, configAppId, configCluster,
+        configNamespaceName);
   }
 
   /**
@@ -160,10 +173,7 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
    * load gray releases. Because gray release rules actually apply to one more dimension - cluster.
    */
   public boolean hasGrayReleaseRule(String clientAppId, String clientIp, String namespaceName) {
-    return reversedGrayReleaseRuleCache.containsKey(assembleReversedGrayReleaseRuleKey(clientAppId,
-        namespaceName, clientIp)) || reversedGrayReleaseRuleCache.containsKey
-        (assembleReversedGrayReleaseRuleKey(clientAppId, namespaceName, GrayReleaseRuleItemDTO
-            .ALL_IP));
+    return grayReleaseRuleIndex.hasGrayReleaseRule(clientAppId, clientIp, namespaceName);
   }
 
   private void scanGrayReleaseRules() {
@@ -184,21 +194,32 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
     }
   }
 
-  private void mergeGrayReleaseRules(List<GrayReleaseRule> grayReleaseRules) {
+  private synchronized void mergeGrayReleaseRules(List<GrayReleaseRule> grayReleaseRules) {
     if (CollectionUtils.isEmpty(grayReleaseRules)) {
       return;
     }
+    doMergeGrayReleaseRules(grayReleaseRules);
+    if (grayReleaseRuleCacheChanged) {
+      grayReleaseRuleIndex = GrayReleaseRuleIndex.build(grayReleaseRuleCache);
+      grayReleaseRuleCacheChanged = false;
+    }
+  }
+
+  private void doMergeGrayReleaseRules(List<GrayReleaseRule> grayReleaseRules) {
     for (GrayReleaseRule grayReleaseRule : grayReleaseRules) {
+      if (grayReleaseRule.isDeleted()) {
+        //the deleted rule is usually replaced by a newer one, which is merged as well
+        removeDeletedRule(grayReleaseRule);
+        continue;
+      }
       if (grayReleaseRule.getReleaseId() == null || grayReleaseRule.getReleaseId() == 0) {
         //filter rules with no release id, i.e. never released
         continue;
       }
       String key = assembleGrayReleaseRuleKey(grayReleaseRule.getAppId(), grayReleaseRule
           .getClusterName(), grayReleaseRule.getNamespaceName());
-      //create a new list to avoid ConcurrentModificationException
-      List<GrayReleaseRuleCache> rules = Lists.newArrayList(grayReleaseRuleCache.get(key));
       GrayReleaseRuleCache oldRule = null;
-      for (GrayReleaseRuleCache ruleCache : rules) {
+      for (GrayReleaseRuleCache ruleCache : grayReleaseRuleCache.get(key)) {
         if (ruleCache.getBranchName().equals(grayReleaseRule.getBranchName())) {
           oldRule = ruleCache;
           break;
@@ -228,26 +249,24 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
     }
   }
 
-  private void addCache(String key, GrayReleaseRuleCache ruleCache) {
-    if (ruleCache.getBranchStatus() == NamespaceBranchStatus.ACTIVE) {
-      for (GrayReleaseRuleItemDTO ruleItemDTO : ruleCache.getRuleItems()) {
-        for (String clientIp : ruleItemDTO.getClientIpList()) {
-          reversedGrayReleaseRuleCache.put(assembleReversedGrayReleaseRuleKey(ruleItemDTO
-              .getClientAppId(), ruleCache.getNamespaceName(), clientIp), ruleCache.getRuleId());
-        }
+  private void removeDeletedRule(GrayReleaseRule grayReleaseRule) {
+    String key = assembleGrayReleaseRuleKey(grayReleaseRule.getAppId(), grayReleaseRule
+        .getClusterName(), grayReleaseRule.getNamespaceName());
+    //create a new list to avoid ConcurrentModificationException
+    for (GrayReleaseRuleCache ruleCache : Lists.newArrayList(grayReleaseRuleCache.get(key))) {
+      if (ruleCache.getRuleId() == grayReleaseRule.getId()) {
+        removeCache(key, ruleCache);
       }
     }
+  }
+
+  private void addCache(String key, GrayReleaseRuleCache ruleCache) {
     grayReleaseRuleCache.put(key, ruleCache);
+    grayReleaseRuleCacheChanged = true;
   }
 
   private void removeCache(String key, GrayReleaseRuleCache ruleCache) {
-    grayReleaseRuleCache.remove(key, ruleCache);
-    for (GrayReleaseRuleItemDTO ruleItemDTO : ruleCache.getRuleItems()) {
-      for (String clientIp : ruleItemDTO.getClientIpList()) {
-        reversedGrayReleaseRuleCache.remove(assembleReversedGrayReleaseRuleKey(ruleItemDTO
-            .getClientAppId(), ruleCache.getNamespaceName(), clientIp), ruleCache.getRuleId());
-      }
-    }
+    grayReleaseRuleCacheChanged |= grayReleaseRuleCache.remove(key, ruleCache);
   }
 
   private GrayReleaseRuleCache transformRuleToRuleCache(GrayReleaseRule grayReleaseRule) {
@@ -269,6 +288,7 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
 
   private void populateDataBaseInterval() {
     databaseScanInterval = bizConfig.grayReleaseRuleScanInterval();
+    databaseRebuildInterval = bizConfig.grayReleaseRuleRebuildInterval();
   }
 
   private int getDatabaseScanIntervalSecond() {
@@ -284,9 +304,4 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
     return STRING_JOINER.join(configAppId, configCluster, configNamespaceName);
   }
 
-  private String assembleReversedGrayReleaseRuleKey(String clientAppId, String
-      clientNamespaceName, String clientIp) {
-    return STRING_JOINER.join(clientAppId, clientNamespaceName, clientIp);
-  }
-
 }
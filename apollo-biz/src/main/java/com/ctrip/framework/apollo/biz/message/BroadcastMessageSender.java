@@ -0,0 +1,181 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.message;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.ctrip.framework.apollo.tracer.spi.Transaction;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Save the release messages to database and then broadcast them to the config service instances, so that the config
+ * services could scan the new messages immediately instead of waiting for the next scan interval. The database scan
+ * is still the source of truth, the broadcast is only a hint, which is sent with the token shared via ConfigDB.
+ */
+@Primary
+@Component
+public class BroadcastMessageSender implements MessageSender {
+  private static final Logger logger = LoggerFactory.getLogger(BroadcastMessageSender.class);
+  public static final String RELEASE_MESSAGE_PATH = "/release-messages";
+  private static final String CONFIG_SERVICES_PATH = "services/config";
+  private static final String EUREKA_PATH = "eureka/";
+  private static final int BROADCAST_THREADS = 4;
+  private static final long CONFIG_SERVICES_REFRESH_INTERVAL_IN_MILLI = TimeUnit.SECONDS.toMillis(30);
+
+  private final DatabaseMessageSender databaseMessageSender;
+  private final BizConfig bizConfig;
+  private final ExecutorService broadcastExecutorService;
+  private volatile RestTemplate restTemplate;
+  private volatile int restTemplateTimeout;
+  private volatile List<ServiceDTO> configServices = Collections.emptyList();
+  private volatile long configServicesRefreshedAt;
+
+  public BroadcastMessageSender(
+      final DatabaseMessageSender databaseMessageSender,
+      final BizConfig bizConfig) {
+    this.databaseMessageSender = databaseMessageSender;
+    this.bizConfig = bizConfig;
+    this.broadcastExecutorService = Executors.newFixedThreadPool(BROADCAST_THREADS,
+        ApolloThreadFactory.create("BroadcastMessageSender", true));
+  }
+
+  @Override
+  @Transactional
+  public void sendMessage(String message, String channel) {
+    ReleaseMessage releaseMessage = databaseMessageSender.saveMessage(message, channel);
+    if (releaseMessage == null || !bizConfig.isReleaseMessageBroadcastEnabled()) {
+      return;
+    }
+    //the config services only accept the broadcast with the shared token
+    String token = bizConfig.releaseMessageBroadcastToken();
+    if (Strings.isNullOrEmpty(token)) {
+      logger.warn("Release message broadcast is enabled but apollo.release-message.broadcast.token is not set");
+      return;
+    }
+
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      broadcastExecutorService.submit(() -> broadcast(releaseMessage, token));
+      return;
+    }
+
+    //the config services could only scan the message after it's committed
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        broadcastExecutorService.submit(() -> broadcast(releaseMessage, token));
+      }
+    });
+  }
+
+  void broadcast(ReleaseMessage releaseMessage, String token) {
+    Transaction transaction = Tracer.newTransaction("Apollo.AdminService", "broadcastMessage");
+    try {
+      //post to each config service separately, so that a slow instance won't delay the others
+      for (ServiceDTO configService : getConfigServices()) {
+        broadcastExecutorService.submit(() -> notifyConfigService(configService, releaseMessage, token));
+      }
+      transaction.setStatus(Transaction.SUCCESS);
+    } catch (Throwable ex) {
+      logger.warn("Broadcasting release message {} failed", releaseMessage.getId(), ex);
+      transaction.setStatus(ex);
+    } finally {
+      transaction.complete();
+    }
+  }
+
+  private void notifyConfigService(ServiceDTO configService, ReleaseMessage releaseMessage, String token) {
+    String url = appendPath(configService.getHomepageUrl(), RELEASE_MESSAGE_PATH) + "?id={id}";
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.AUTHORIZATION, token);
+    try {
+      getRestTemplate().postForLocation(url, new HttpEntity<>(headers), releaseMessage.getId());
+    } catch (Throwable ex) {
+      //the config service would still find the message by scanning the database
+      logger.debug("Broadcasting release message {} to {} failed", releaseMessage.getId(),
+          configService.getHomepageUrl(), ex);
+      Tracer.logEvent("Apollo.AdminService.BroadcastMessageFailed", configService.getHomepageUrl());
+    }
+  }
+
+  /**
+   * The config services are discovered via the meta service, which is deployed together with the config service
+   * registering the eureka service urls
+   */
+  private List<ServiceDTO> getConfigServices() {
+    if (System.currentTimeMillis() - configServicesRefreshedAt < CONFIG_SERVICES_REFRESH_INTERVAL_IN_MILLI) {
+      return configServices;
+    }
+    for (String eurekaServiceUrl : bizConfig.eurekaServiceUrls()) {
+      String metaServiceUrl = eurekaServiceUrl.endsWith(EUREKA_PATH) ? eurekaServiceUrl
+          .substring(0, eurekaServiceUrl.length() - EUREKA_PATH.length()) : eurekaServiceUrl;
+      try {
+        ServiceDTO[] services = getRestTemplate()
+            .getForObject(appendPath(metaServiceUrl, CONFIG_SERVICES_PATH), ServiceDTO[].class);
+        configServices = services == null ? Collections.emptyList() : Lists.newArrayList(services);
+        configServicesRefreshedAt = System.currentTimeMillis();
+        break;
+      } catch (Throwable ex) {
+        logger.debug("Loading config services from {} failed", metaServiceUrl, ex);
+      }
+    }
+    return configServices;
+  }
+
+  private RestTemplate getRestTemplate() {
+    int timeout = bizConfig.releaseMessageBroadcastTimeoutInMilli();
+    if (restTemplate == null || restTemplateTimeout != timeout) {
+      SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+      requestFactory.setConnectTimeout(timeout);
+      requestFactory.setReadTimeout(timeout);
+      restTemplateTimeout = timeout;
+      restTemplate = new RestTemplate(requestFactory);
+    }
+    return restTemplate;
+  }
+
+  private static String appendPath(String url, String path) {
+    boolean urlEndsWithSlash = url.endsWith("/");
+    boolean pathStartsWithSlash = path.startsWith("/");
+    if (urlEndsWithSlash && pathStartsWithSlash) {
+      return url + path.substring(1);
+    }
+    if (urlEndsWithSlash || pathStartsWithSlash) {
+      return url + path;
+    }
+    return url + "/" + path;
+  }
+}
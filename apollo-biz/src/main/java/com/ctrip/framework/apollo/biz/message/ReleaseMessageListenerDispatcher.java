@@ -0,0 +1,172 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.message;
+
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.ctrip.framework.apollo.tracer.spi.Transaction;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Dispatch the scanned release messages to one listener according to its {@link ReleaseMessageListenerMode}
+ */
+class ReleaseMessageListenerDispatcher {
+  private static final Logger logger = LoggerFactory.getLogger(ReleaseMessageListenerDispatcher.class);
+  private final ReleaseMessageListener listener;
+  private final ReleaseMessageListenerMode mode;
+  private final String listenerName;
+  private final ExecutorService executorService;
+  // key => the latest message not handled yet, only used by async listeners
+  private final ConcurrentMap<String, PendingMessage> pendingMessages;
+  private final AtomicBoolean draining;
+  private final AtomicLong messagesDispatched;
+  private final AtomicLong messagesHandled;
+  private volatile long lastHandledMessageId;
+  private volatile long lastLagMillis;
+  private volatile long maxLagMillis;
+
+  ReleaseMessageListenerDispatcher(ReleaseMessageListener listener, ReleaseMessageListenerMode mode) {
+    this.listener = listener;
+    this.mode = mode;
+    this.listenerName = listener.getClass().getSimpleName();
+    this.pendingMessages = Maps.newConcurrentMap();
+    this.draining = new AtomicBoolean(false);
+    this.messagesDispatched = new AtomicLong();
+    this.messagesHandled = new AtomicLong();
+    // there is at most one drain task at any time, and the pending messages are bounded by the number of keys
+    this.executorService = mode == ReleaseMessageListenerMode.ASYNC ? Executors.newSingleThreadExecutor(
+        ApolloThreadFactory.create("ReleaseMessageListener-" + listenerName, true)) : null;
+  }
+
+  ReleaseMessageListener getListener() {
+    return listener;
+  }
+
+  /**
+   * @param messages the scanned messages
+   * @param coalescedMessages the scanned messages with only the latest one of each key kept
+   * @param scannedAt when the messages are scanned
+   */
+  void dispatch(List<ReleaseMessage> messages, List<ReleaseMessage> coalescedMessages, long scannedAt) {
+    messagesDispatched.addAndGet(messages.size());
+    switch (mode) {
+      case EVERY_MESSAGE:
+        handleMessages(messages, scannedAt);
+        break;
+      case COALESCING:
+        handleMessages(coalescedMessages, scannedAt);
+        break;
+      case ASYNC:
+        for (ReleaseMessage message : coalescedMessages) {
+          pendingMessages.merge(message.getMessage(), new PendingMessage(message, scannedAt), PendingMessage::merge);
+        }
+        if (draining.compareAndSet(false, true)) {
+          executorService.submit(this::drainPendingMessages);
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unknown mode: " + mode);
+    }
+  }
+
+  ReleaseMessageListenerStats getStats() {
+    return new ReleaseMessageListenerStats(listenerName, mode, messagesDispatched.get(), messagesHandled.get(),
+        pendingMessages.size(), lastHandledMessageId, lastLagMillis, maxLagMillis);
+  }
+
+  private void handleMessages(List<ReleaseMessage> messages, long scannedAt) {
+    if (messages.isEmpty()) {
+      return;
+    }
+    Transaction transaction = Tracer.newTransaction("Apollo.ReleaseMessageListener", listenerName);
+    try {
+      for (ReleaseMessage message : messages) {
+        handleMessage(message, scannedAt);
+      }
+      transaction.setStatus(Transaction.SUCCESS);
+    } finally {
+      transaction.complete();
+    }
+  }
+
+  private void drainPendingMessages() {
+    do {
+      Transaction transaction = Tracer.newTransaction("Apollo.ReleaseMessageListener", listenerName);
+      try {
+        Iterator<Map.Entry<String, PendingMessage>> iterator = pendingMessages.entrySet().iterator();
+        while (iterator.hasNext()) {
+          Map.Entry<String, PendingMessage> entry = iterator.next();
+          // a newer message might be merged in between, which would be handled in the next round
+          if (pendingMessages.remove(entry.getKey(), entry.getValue())) {
+            handleMessage(entry.getValue().message, entry.getValue().scannedAt);
+          }
+        }
+        transaction.setStatus(Transaction.SUCCESS);
+      } finally {
+        transaction.complete();
+      }
+      draining.set(false);
+      // check again in case some messages are added after the iteration but before draining is reset
+    } while (!pendingMessages.isEmpty() && draining.compareAndSet(false, true));
+  }
+
+  private void handleMessage(ReleaseMessage message, long scannedAt) {
+    try {
+      listener.handleMessage(message, Topics.APOLLO_RELEASE_TOPIC);
+    } catch (Throwable ex) {
+      Tracer.logError(ex);
+      logger.error("Failed to invoke message listener {}", listener.getClass(), ex);
+    }
+    long lag = System.currentTimeMillis() - scannedAt;
+    messagesHandled.incrementAndGet();
+    lastHandledMessageId = message.getId();
+    lastLagMillis = lag;
+    if (lag > maxLagMillis) {
+      maxLagMillis = lag;
+    }
+  }
+
+  private static class PendingMessage {
+    private final ReleaseMessage message;
+    private final long scannedAt;
+
+    PendingMessage(ReleaseMessage message, long scannedAt) {
+      this.message = message;
+      this.scannedAt = scannedAt;
+    }
+
+    /**
+     * keep the latest message, while the lag is measured since the earliest one not handled
+     */
+    static PendingMessage merge(PendingMessage existing, PendingMessage newer) {
+      ReleaseMessage latest = newer.message.getId() > existing.message.getId() ? newer.message : existing.message;
+      return new PendingMessage(latest, Math.min(existing.scannedAt, newer.scannedAt));
+    }
+  }
+}
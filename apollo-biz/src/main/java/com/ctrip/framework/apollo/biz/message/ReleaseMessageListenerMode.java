@@ -0,0 +1,36 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.message;
+
+/**
+ * How the scanned release messages are dispatched to a {@link ReleaseMessageListener}
+ */
+public enum ReleaseMessageListenerMode {
+  /**
+   * Every message is handled on the scanner thread, in the order of scanning
+   */
+  EVERY_MESSAGE,
+  /**
+   * Only the latest message of each key in a scanned batch is handled, on the scanner thread
+   */
+  COALESCING,
+  /**
+   * Only the latest message of each key not handled yet is handled, on the listener's own thread, so that slow
+   * listeners won't delay the others
+   */
+  ASYNC
+}
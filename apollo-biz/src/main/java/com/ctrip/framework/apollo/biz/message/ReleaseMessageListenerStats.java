@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.message;
+
+/**
+ * A snapshot of how a {@link ReleaseMessageListener} keeps up with the scanned release messages
+ */
+public class ReleaseMessageListenerStats {
+  private final String listenerName;
+  private final ReleaseMessageListenerMode mode;
+  private final long messagesDispatched;
+  private final long messagesHandled;
+  private final int pendingMessages;
+  private final long lastHandledMessageId;
+  private final long lastLagMillis;
+  private final long maxLagMillis;
+
+  public ReleaseMessageListenerStats(String listenerName, ReleaseMessageListenerMode mode, long messagesDispatched,
+      long messagesHandled, int pendingMessages, long lastHandledMessageId, long lastLagMillis, long maxLagMillis) {
+    this.listenerName = listenerName;
+    this.mode = mode;
+    this.messagesDispatched = messagesDispatched;
+    this.messagesHandled = messagesHandled;
+    this.pendingMessages = pendingMessages;
+    this.lastHandledMessageId = lastHandledMessageId;
+    this.lastLagMillis = lastLagMillis;
+    this.maxLagMillis = maxLagMillis;
+  }
+
+  public String getListenerName() {
+    return listenerName;
+  }
+
+  public ReleaseMessageListenerMode getMode() {
+    return mode;
+  }
+
+  /**
+   * @return the number of messages scanned for the listener, including the coalesced ones
+   */
+  public long getMessagesDispatched() {
+    return messagesDispatched;
+  }
+
+  /**
+   * @return the number of messages the listener has handled
+   */
+  public long getMessagesHandled() {
+    return messagesHandled;
+  }
+
+  /**
+   * @return the number of messages waiting to be handled, only async listeners could have pending messages
+   */
+  public int getPendingMessages() {
+    return pendingMessages;
+  }
+
+  public long getLastHandledMessageId() {
+    return lastHandledMessageId;
+  }
+
+  /**
+   * @return the time between the last handled message being scanned and handled
+   */
+  public long getLastLagMillis() {
+    return lastLagMillis;
+  }
+
+  public long getMaxLagMillis() {
+    return maxLagMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "ReleaseMessageListenerStats{" +
+        "listenerName='" + listenerName + '\'' +
+        ", mode=" + mode +
+        ", messagesDispatched=" + messagesDispatched +
+        ", messagesHandled=" + messagesHandled +
+        ", pendingMessages=" + pendingMessages +
+        ", lastHandledMessageId=" + lastHandledMessageId +
+        ", lastLagMillis=" + lastLagMillis +
+        ", maxLagMillis=" + maxLagMillis +
+        '}';
+  }
+}
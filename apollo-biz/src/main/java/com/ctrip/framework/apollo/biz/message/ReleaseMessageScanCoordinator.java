@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.message;
+
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import java.util.List;
+
+/**
+ * Decide whether the {@link ReleaseMessageScanner} should scan the database itself, e.g. when only one of the config
+ * service instances scans the database and shares the scanned messages with the others.
+ */
+public interface ReleaseMessageScanCoordinator {
+
+  /**
+   * @return whether the scanner should scan the database in the current round
+   */
+  boolean shouldScan();
+
+  /**
+   * Called on the scanner thread after the scanner found some messages in the database
+   *
+   * @param previousMaxIdScanned the max id scanned before these messages, or -1 if the messages are the missing ones
+   * found later, whose ids are less than the max id scanned
+   * @param messages the messages scanned, in the order of id
+   */
+  void onMessagesScanned(long previousMaxIdScanned, List<ReleaseMessage> messages);
+}
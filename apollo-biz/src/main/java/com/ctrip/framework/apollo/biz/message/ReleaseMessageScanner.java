@@ -16,6 +16,7 @@
  */
 package com.ctrip.framework.apollo.biz.message;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 import java.util.Iterator;
 import java.util.List;
@@ -25,6 +26,7 @@ import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +41,8 @@ import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.ctrip.framework.apollo.tracer.spi.Transaction;
 import com.google.common.collect.Lists;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
@@ -51,16 +55,22 @@ public class ReleaseMessageScanner implements InitializingBean {
   @Autowired
   private ReleaseMessageRepository releaseMessageRepository;
   private int databaseScanInterval;
-  private final List<ReleaseMessageListener> listeners;
+  private final List<ReleaseMessageListenerDispatcher> listeners;
   private final ScheduledExecutorService executorService;
   private final Map<Long, Integer> missingReleaseMessages; // missing release message id => age counter
-  private long maxIdScanned;
+  private volatile long maxIdScanned;
+  private final AtomicBoolean scanTriggered;
+  //the smallest id not found by the triggered scans since the last scheduled scan
+  private volatile long minIdNotFound;
+  private volatile ReleaseMessageScanCoordinator scanCoordinator;
 
   public ReleaseMessageScanner() {
     listeners = Lists.newCopyOnWriteArrayList();
     executorService = Executors.newScheduledThreadPool(1, ApolloThreadFactory
         .create("ReleaseMessageScanner", true));
     missingReleaseMessages = Maps.newHashMap();
+    scanTriggered = new AtomicBoolean(false);
+    minIdNotFound = Long.MAX_VALUE;
   }
 
   @Override
@@ -68,6 +78,14 @@ public class ReleaseMessageScanner implements InitializingBean {
     databaseScanInterval = bizConfig.releaseMessageScanIntervalInMilli();
     maxIdScanned = loadLargestMessageId();
     executorService.scheduleWithFixedDelay(() -> {
+      ReleaseMessageScanCoordinator coordinator = scanCoordinator;
+      if (coordinator != null && !coordinator.shouldScan()) {
+        //the messages are pushed by the scanning instance, including the missing ones found later
+        missingReleaseMessages.clear();
+        return;
+      }
+      //the ids not found before could be triggered again after this scan
+      minIdNotFound = Long.MAX_VALUE;
       Transaction transaction = Tracer.newTransaction("Apollo.ReleaseMessageScanner", "scanMessage");
       try {
         scanMissingMessages();
@@ -84,13 +102,170 @@ public class ReleaseMessageScanner implements InitializingBean {
   }
 
   /**
-   * add message listeners for release message
+   * set the coordinator deciding whether this scanner should scan the database, the scanner always scans the
+   * database if no coordinator is set
+   * @param scanCoordinator
+   */
+  public void setScanCoordinator(ReleaseMessageScanCoordinator scanCoordinator) {
+    this.scanCoordinator = scanCoordinator;
+  }
+
+  /**
+   * @return the max id of the release messages scanned or received
+   */
+  public long getMaxIdScanned() {
+    return maxIdScanned;
+  }
+
+  /**
+   * @return how many ids the scanned messages are behind the database, the database is queried so it's only used by
+   * the metrics
+   */
+  public long getScanLag() {
+    return Math.max(0, loadLargestMessageId() - maxIdScanned);
+  }
+
+  /**
+   * Register the gauges of the scanner and its listeners, they are computed only when the metrics are collected, so
+   * the listeners should be added before
+   */
+  public void registerMetrics(MeterRegistry meterRegistry) {
+    Gauge.builder("apollo.release-message.scanner.max-id", this, ReleaseMessageScanner::getMaxIdScanned)
+        .description("The max id of the release messages scanned or received")
+        .register(meterRegistry);
+    Gauge.builder("apollo.release-message.scanner.lag", this, ReleaseMessageScanner::getScanLag)
+        .description("The number of ids the scanned release messages are behind the database")
+        .register(meterRegistry);
+    for (ReleaseMessageListenerDispatcher dispatcher : listeners) {
+      ReleaseMessageListenerStats stats = dispatcher.getStats();
+      Gauge.builder("apollo.release-message.listener.pending", dispatcher,
+          d -> d.getStats().getPendingMessages())
+          .description("Release messages waiting to be handled by the listener")
+          .tags("listener", stats.getListenerName(), "mode", stats.getMode().name())
+          .register(meterRegistry);
+      Gauge.builder("apollo.release-message.listener.lag", dispatcher, d -> d.getStats().getLastLagMillis())
+          .description("Milliseconds between the last handled release message being scanned and handled")
+          .tags("listener", stats.getListenerName(), "mode", stats.getMode().name())
+          .baseUnit("milliseconds")
+          .register(meterRegistry);
+    }
+  }
+
+  /**
+   * add message listeners for release message, every message is handled on the scanner thread
    * @param listener
    */
   public void addMessageListener(ReleaseMessageListener listener) {
-    if (!listeners.contains(listener)) {
-      listeners.add(listener);
+    addMessageListener(listener, ReleaseMessageListenerMode.EVERY_MESSAGE);
+  }
+
+  /**
+   * add message listeners for release message
+   * @param listener
+   * @param mode how the messages are dispatched to the listener
+   */
+  public synchronized void addMessageListener(ReleaseMessageListener listener, ReleaseMessageListenerMode mode) {
+    for (ReleaseMessageListenerDispatcher dispatcher : listeners) {
+      if (dispatcher.getListener() == listener) {
+        return;
+      }
     }
+    listeners.add(new ReleaseMessageListenerDispatcher(listener, mode));
+  }
+
+  /**
+   * @return how each listener keeps up with the scanned messages, in the order of registration
+   */
+  public List<ReleaseMessageListenerStats> getListenerStats() {
+    List<ReleaseMessageListenerStats> stats = Lists.newArrayListWithCapacity(listeners.size());
+    for (ReleaseMessageListenerDispatcher dispatcher : listeners) {
+      stats.add(dispatcher.getStats());
+    }
+    return stats;
+  }
+
+  /**
+   * Scan the messages immediately if the given message is not scanned yet, e.g. when it's broadcast by the admin
+   * service, instead of waiting for the next scan interval. It's skipped if the coordinator says this scanner should
+   * not scan, as the message would be pushed by the scanning instance, or if an id not larger than it is not found by
+   * a triggered scan since the last scheduled scan, so that the bogus ids won't cause a scan on every call.
+   *
+   * @param messageId the id of the new release message
+   */
+  public void triggerScan(long messageId) {
+    if (messageId <= maxIdScanned || messageId >= minIdNotFound) {
+      return;
+    }
+    ReleaseMessageScanCoordinator coordinator = scanCoordinator;
+    if (coordinator != null && !coordinator.shouldScan()) {
+      return;
+    }
+    if (!scanTriggered.compareAndSet(false, true)) {
+      return;
+    }
+    //run on the scanner thread, so that it won't interleave with the scheduled scans
+    executorService.execute(() -> {
+      scanTriggered.set(false);
+      Transaction transaction = Tracer.newTransaction("Apollo.ReleaseMessageScanner", "triggerScan");
+      try {
+        scanMessages();
+        if (messageId > maxIdScanned) {
+          minIdNotFound = Math.min(minIdNotFound, messageId);
+        }
+        transaction.setStatus(Transaction.SUCCESS);
+      } catch (Throwable ex) {
+        transaction.setStatus(ex);
+        logger.error("Scan and send message failed", ex);
+      } finally {
+        transaction.complete();
+      }
+    });
+  }
+
+  /**
+   * Receive the messages scanned by another instance, the messages are handled on the scanner thread just like the
+   * scanned ones
+   *
+   * @param previousMaxIdScanned the max id scanned by the other instance before these messages, or -1 if the
+   * messages are the missing ones found later
+   * @param messages the messages in the order of id
+   */
+  public void receiveMessages(long previousMaxIdScanned, List<ReleaseMessage> messages) {
+    executorService.execute(() -> {
+      Transaction transaction = Tracer.newTransaction("Apollo.ReleaseMessageScanner", "receiveMessage");
+      try {
+        doReceiveMessages(previousMaxIdScanned, messages);
+        transaction.setStatus(Transaction.SUCCESS);
+      } catch (Throwable ex) {
+        transaction.setStatus(ex);
+        logger.error("Receive and send message failed", ex);
+      } finally {
+        transaction.complete();
+      }
+    });
+  }
+
+  private void doReceiveMessages(long previousMaxIdScanned, List<ReleaseMessage> messages) {
+    if (previousMaxIdScanned < 0) {
+      fireMessageScanned(messages);
+      return;
+    }
+    if (previousMaxIdScanned > maxIdScanned) {
+      //some messages are not received, e.g. the previous push failed, so catch up from the database
+      scanMessages();
+      return;
+    }
+    List<ReleaseMessage> newMessages = Lists.newArrayListWithCapacity(messages.size());
+    for (ReleaseMessage message : messages) {
+      if (message.getId() > maxIdScanned) {
+        newMessages.add(message);
+      }
+    }
+    if (newMessages.isEmpty()) {
+      return;
+    }
+    fireMessageScanned(newMessages);
+    maxIdScanned = newMessages.get(newMessages.size() - 1).getId();
   }
 
   /**
@@ -116,6 +291,7 @@ public class ReleaseMessageScanner implements InitializingBean {
       return false;
     }
     fireMessageScanned(releaseMessages);
+    notifyCoordinator(maxIdScanned, releaseMessages);
     int messageScanned = releaseMessages.size();
     long newMaxIdScanned = releaseMessages.get(messageScanned - 1).getId();
     // check id gaps, possible reasons are release message not committed yet or already rolled back
@@ -128,15 +304,28 @@ public class ReleaseMessageScanner implements InitializingBean {
 
   private void scanMissingMessages() {
     Set<Long> missingReleaseMessageIds = missingReleaseMessages.keySet();
-    Iterable<ReleaseMessage> releaseMessages = releaseMessageRepository
-        .findAllById(missingReleaseMessageIds);
+    List<ReleaseMessage> releaseMessages = Lists.newArrayList(releaseMessageRepository
+        .findAllById(missingReleaseMessageIds));
     fireMessageScanned(releaseMessages);
+    notifyCoordinator(-1, releaseMessages);
     releaseMessages.forEach(releaseMessage -> {
       missingReleaseMessageIds.remove(releaseMessage.getId());
     });
     growAndCleanMissingMessages();
   }
 
+  private void notifyCoordinator(long previousMaxIdScanned, List<ReleaseMessage> messages) {
+    ReleaseMessageScanCoordinator coordinator = scanCoordinator;
+    if (coordinator == null || messages.isEmpty()) {
+      return;
+    }
+    try {
+      coordinator.onMessagesScanned(previousMaxIdScanned, messages);
+    } catch (Throwable ex) {
+      logger.error("Notify scan coordinator failed", ex);
+    }
+  }
+
   private void growAndCleanMissingMessages() {
     Iterator<Entry<Long, Integer>> iterator = missingReleaseMessages.entrySet()
         .iterator();
@@ -176,15 +365,33 @@ public class ReleaseMessageScanner implements InitializingBean {
    * @param messages
    */
   private void fireMessageScanned(Iterable<ReleaseMessage> messages) {
+    List<ReleaseMessage> messageList = Lists.newArrayList(messages);
+    if (messageList.isEmpty()) {
+      return;
+    }
+    List<ReleaseMessage> coalescedMessages = coalesceMessages(messageList);
+    long scannedAt = System.currentTimeMillis();
+    for (ReleaseMessageListenerDispatcher dispatcher : listeners) {
+      dispatcher.dispatch(messageList, coalescedMessages, scannedAt);
+    }
+  }
+
+  /**
+   * Keep only the latest message of each key, the messages without content are dropped
+   */
+  private List<ReleaseMessage> coalesceMessages(List<ReleaseMessage> messages) {
+    Map<String, ReleaseMessage> latestMessages = Maps.newLinkedHashMap();
     for (ReleaseMessage message : messages) {
-      for (ReleaseMessageListener listener : listeners) {
-        try {
-          listener.handleMessage(message, Topics.APOLLO_RELEASE_TOPIC);
-        } catch (Throwable ex) {
-          Tracer.logError(ex);
-          logger.error("Failed to invoke message listener {}", listener.getClass(), ex);
-        }
+      if (Strings.isNullOrEmpty(message.getMessage())) {
+        continue;
+      }
+      ReleaseMessage existing = latestMessages.get(message.getMessage());
+      if (existing == null || message.getId() > existing.getId()) {
+        //keep the messages in the order of the latest ones
+        latestMessages.remove(message.getMessage());
+        latestMessages.put(message.getMessage(), message);
       }
     }
+    return Lists.newArrayList(latestMessages.values());
   }
 }
@@ -20,7 +20,9 @@ package com.ctrip.framework.apollo.biz.repository;
 import com.ctrip.framework.apollo.biz.entity.AccessKey;
 import java.util.Date;
 import java.util.List;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 
 public interface AccessKeyRepository extends PagingAndSortingRepository<AccessKey, Long> {
 
@@ -33,4 +35,10 @@ public interface AccessKeyRepository extends PagingAndSortingRepository<AccessKe
   List<AccessKey> findFirst500ByDataChangeLastModifiedTimeGreaterThanOrderByDataChangeLastModifiedTimeAsc(Date date);
 
   List<AccessKey> findByDataChangeLastModifiedTime(Date date);
+
+  @Query(value = "SELECT * FROM `AccessKey` WHERE `DataChange_LastTime` > :lastModifiedTime OR " +
+      "(`DataChange_LastTime` = :lastModifiedTime AND `Id` > :id) ORDER BY `DataChange_LastTime`, `Id` LIMIT :limit",
+      nativeQuery = true)
+  List<AccessKey> findChangesIncludingDeleted(@Param("lastModifiedTime") Date lastModifiedTime,
+      @Param("id") long id, @Param("limit") int limit);
 }
@@ -21,7 +21,9 @@ import com.ctrip.framework.apollo.common.entity.AppNamespace;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
@@ -42,6 +44,12 @@ public interface AppNamespaceRepository extends PagingAndSortingRepository<AppNa
 
   List<AppNamespace> findFirst500ByIdGreaterThanOrderByIdAsc(long id);
 
+  @Query(value = "SELECT * FROM `AppNamespace` WHERE `DataChange_LastTime` > :lastModifiedTime OR " +
+      "(`DataChange_LastTime` = :lastModifiedTime AND `Id` > :id) ORDER BY `DataChange_LastTime`, `Id` LIMIT :limit",
+      nativeQuery = true)
+  List<AppNamespace> findChangesIncludingDeleted(@Param("lastModifiedTime") Date lastModifiedTime,
+      @Param("id") long id, @Param("limit") int limit);
+
   @Modifying
   @Query("UPDATE AppNamespace SET IsDeleted=1,DataChange_LastModifiedBy = ?2 WHERE AppId=?1")
   int batchDeleteByAppId(String appId, String operator);
@@ -18,8 +18,11 @@ package com.ctrip.framework.apollo.biz.repository;
 
 import com.ctrip.framework.apollo.biz.entity.GrayReleaseRule;
 
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Date;
 import java.util.List;
 
 
@@ -33,4 +36,10 @@ public interface GrayReleaseRuleRepository extends PagingAndSortingRepository<Gr
 
   List<GrayReleaseRule> findFirst500ByIdGreaterThanOrderByIdAsc(Long id);
 
+  @Query(value = "SELECT * FROM `GrayReleaseRule` WHERE `DataChange_LastTime` > :lastModifiedTime OR " +
+      "(`DataChange_LastTime` = :lastModifiedTime AND `Id` > :id) ORDER BY `DataChange_LastTime`, `Id` LIMIT :limit",
+      nativeQuery = true)
+  List<GrayReleaseRule> findChangesIncludingDeleted(@Param("lastModifiedTime") Date lastModifiedTime,
+      @Param("id") long id, @Param("limit") int limit);
+
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.repository;
+
+import com.ctrip.framework.apollo.biz.entity.Lease;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface LeaseRepository extends PagingAndSortingRepository<Lease, Long> {
+  Lease findByName(String name);
+
+  /**
+   * @return 1 if the lease is still held by the owner and renewed, 0 otherwise
+   */
+  @Modifying
+  @Transactional
+  @Query("update Lease set version = version + 1, dataChangeLastModifiedTime = CURRENT_TIMESTAMP "
+      + "where name = :name and owner = :owner")
+  int renew(@Param("name") String name, @Param("owner") String owner);
+
+  /**
+   * Take over the lease if it's not renewed since the observed version
+   *
+   * @return 1 if taken over, 0 otherwise
+   */
+  @Modifying
+  @Transactional
+  @Query("update Lease set owner = :owner, token = :token, version = version + 1, "
+      + "dataChangeLastModifiedTime = CURRENT_TIMESTAMP where name = :name and version = :version")
+  int takeOver(@Param("name") String name, @Param("owner") String owner, @Param("token") String token,
+      @Param("version") long observedVersion);
+}
@@ -26,11 +26,13 @@ import java.util.Objects;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 
 import java.math.BigInteger;
+import java.sql.Timestamp;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
@@ -43,14 +45,30 @@ import java.util.stream.Collectors;
  */
 @Service
 public class InstanceService {
+  private static final int ROWS_PER_STATEMENT = 100;
+  private static final String INSERT_INSTANCES = "INSERT INTO Instance (AppId, ClusterName, DataCenter, Ip, "
+      + "DataChange_CreatedTime, DataChange_LastTime) VALUES ";
+  private static final String INSTANCE_VALUES = "(?, ?, ?, ?, ?, ?)";
+  private static final String INSERT_INSTANCES_ON_DUPLICATE_KEY = " ON DUPLICATE KEY UPDATE Id = Id";
+  private static final String INSERT_INSTANCE_CONFIGS = "INSERT INTO InstanceConfig (InstanceId, ConfigAppId, "
+      + "ConfigClusterName, ConfigNamespaceName, ReleaseKey, ReleaseDeliveryTime, DataChange_CreatedTime, "
+      + "DataChange_LastTime) VALUES ";
+  private static final String INSTANCE_CONFIG_VALUES = "(?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String INSERT_INSTANCE_CONFIGS_ON_DUPLICATE_KEY = " ON DUPLICATE KEY UPDATE "
+      + "ConfigClusterName = VALUES(ConfigClusterName), ReleaseKey = VALUES(ReleaseKey), "
+      + "ReleaseDeliveryTime = VALUES(ReleaseDeliveryTime), DataChange_LastTime = VALUES(DataChange_LastTime)";
+
   private final InstanceRepository instanceRepository;
   private final InstanceConfigRepository instanceConfigRepository;
+  private final JdbcTemplate jdbcTemplate;
 
   public InstanceService(
       final InstanceRepository instanceRepository,
-      final InstanceConfigRepository instanceConfigRepository) {
+      final InstanceConfigRepository instanceConfigRepository,
+      final JdbcTemplate jdbcTemplate) {
     this.instanceRepository = instanceRepository;
     this.instanceConfigRepository = instanceConfigRepository;
+    this.jdbcTemplate = jdbcTemplate;
   }
 
   public Instance findInstance(String appId, String clusterName, String dataCenter, String ip) {
@@ -77,6 +95,13 @@ public class InstanceService {
             instanceId, configAppId, configNamespaceName);
   }
 
+  public List<InstanceConfig> findInstanceConfigsByInstanceIds(Set<Long> instanceIds) {
+    if (CollectionUtils.isEmpty(instanceIds)) {
+      return Collections.emptyList();
+    }
+    return instanceConfigRepository.findByInstanceIdIn(instanceIds);
+  }
+
   public Page<InstanceConfig> findActiveInstanceConfigsByReleaseKey(String releaseKey, Pageable
       pageable) {
     return instanceConfigRepository.findByReleaseKeyAndDataChangeLastModifiedTimeAfter(releaseKey,
@@ -185,6 +210,91 @@ public class InstanceService {
     return instanceConfigRepository.save(existedInstanceConfig);
   }
 
+  /**
+   * Create the instances, the ones created by other config services concurrently are skipped
+   *
+   * @see #findInstancesByIps(String, String, Set) to find the ids of the instances
+   */
+  @Transactional
+  public void batchCreateInstances(List<Instance> instances) {
+    List<Object[]> rows = Lists.newArrayListWithCapacity(instances.size());
+    for (Instance instance : instances) {
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      rows.add(new Object[]{instance.getAppId(), instance.getClusterName(), instance.getDataCenter(),
+          instance.getIp(), now, now});
+    }
+    batchUpdateInRows(INSERT_INSTANCES, INSTANCE_VALUES, INSERT_INSTANCES_ON_DUPLICATE_KEY, rows);
+  }
+
+  /**
+   * Find the instances of the app and cluster with the ips, in all the data centers
+   */
+  public List<Instance> findInstancesByIps(String appId, String clusterName, Set<String> ips) {
+    if (CollectionUtils.isEmpty(ips)) {
+      return Collections.emptyList();
+    }
+    return instanceRepository.findByAppIdAndClusterNameAndIpIn(appId, clusterName, ips);
+  }
+
+  /**
+   * Create or update the instance configs by the unique key of instance id, config app id and config namespace name
+   */
+  @Transactional
+  public void batchSaveInstanceConfigs(List<InstanceConfig> instanceConfigs) {
+    List<Object[]> rows = Lists.newArrayListWithCapacity(instanceConfigs.size());
+    for (InstanceConfig instanceConfig : instanceConfigs) {
+      Date lastModifiedTime = instanceConfig.getDataChangeLastModifiedTime() == null ? new Date()
+          : instanceConfig.getDataChangeLastModifiedTime();
+      Date createdTime = instanceConfig.getDataChangeCreatedTime() == null ? lastModifiedTime
+          : instanceConfig.getDataChangeCreatedTime();
+      rows.add(new Object[]{instanceConfig.getInstanceId(), instanceConfig.getConfigAppId(),
+          instanceConfig.getConfigClusterName(), instanceConfig.getConfigNamespaceName(),
+          instanceConfig.getReleaseKey(), toTimestamp(instanceConfig.getReleaseDeliveryTime()),
+          toTimestamp(createdTime), toTimestamp(lastModifiedTime)});
+    }
+    batchUpdateInRows(INSERT_INSTANCE_CONFIGS, INSTANCE_CONFIG_VALUES, INSERT_INSTANCE_CONFIGS_ON_DUPLICATE_KEY,
+        rows);
+  }
+
+  /**
+   * Write the rows with multi-row statements of up to {@value #ROWS_PER_STATEMENT} rows, and send the full
+   * statements in one jdbc batch
+   */
+  private void batchUpdateInRows(String insert, String values, String onDuplicateKey, List<Object[]> rows) {
+    if (rows.isEmpty()) {
+      return;
+    }
+    int fullStatements = rows.size() / ROWS_PER_STATEMENT;
+    if (fullStatements > 0) {
+      List<Object[]> batchArgs = Lists.newArrayListWithCapacity(fullStatements);
+      for (int i = 0; i < fullStatements; i++) {
+        batchArgs.add(flatten(rows.subList(i * ROWS_PER_STATEMENT, (i + 1) * ROWS_PER_STATEMENT)));
+      }
+      jdbcTemplate.batchUpdate(assembleMultiRowSql(insert, values, onDuplicateKey, ROWS_PER_STATEMENT), batchArgs);
+    }
+    List<Object[]> remainingRows = rows.subList(fullStatements * ROWS_PER_STATEMENT, rows.size());
+    if (!remainingRows.isEmpty()) {
+      jdbcTemplate.update(assembleMultiRowSql(insert, values, onDuplicateKey, remainingRows.size()),
+          flatten(remainingRows));
+    }
+  }
+
+  private String assembleMultiRowSql(String insert, String values, String onDuplicateKey, int rows) {
+    return insert + String.join(", ", Collections.nCopies(rows, values)) + onDuplicateKey;
+  }
+
+  private Object[] flatten(List<Object[]> rows) {
+    List<Object> args = Lists.newArrayListWithCapacity(rows.size() * rows.get(0).length);
+    for (Object[] row : rows) {
+      Collections.addAll(args, row);
+    }
+    return args.toArray();
+  }
+
+  private Timestamp toTimestamp(Date date) {
+    return date == null ? null : new Timestamp(date.getTime());
+  }
+
   @Transactional
   public int batchDeleteInstanceConfig(String configAppId, String configClusterName, String configNamespaceName){
     return instanceConfigRepository.batchDelete(configAppId, configClusterName, configNamespaceName);
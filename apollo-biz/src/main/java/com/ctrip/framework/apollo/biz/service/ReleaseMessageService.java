@@ -38,6 +38,14 @@ public class ReleaseMessageService {
     this.releaseMessageRepository = releaseMessageRepository;
   }
 
+  /**
+   * @return the id of the latest release message, or 0 if there is no release message
+   */
+  public long findLatestReleaseMessageId() {
+    ReleaseMessage releaseMessage = releaseMessageRepository.findTopByOrderByIdDesc();
+    return releaseMessage == null ? 0 : releaseMessage.getId();
+  }
+
   public ReleaseMessage findLatestReleaseMessageForMessages(Collection<String> messages) {
     if (CollectionUtils.isEmpty(messages)) {
       return null;
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.utils;
+
+import com.ctrip.framework.apollo.common.entity.BaseEntity;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+import org.springframework.util.CollectionUtils;
+
+/**
+ * Load the rows modified since the last load, including the soft deleted ones, so that the caches don't have to read
+ * the whole table periodically.
+ *
+ * <p>The rows are read in the order of (DataChange_LastTime, Id), and the rows modified within the overlap before the
+ * high-water mark are read again, since the rows might be committed late or written by hosts with clock skew. So the
+ * consumer should be idempotent.</p>
+ *
+ * @param <T> the entity type
+ */
+public class IncrementalChangeLoader<T extends BaseEntity> {
+  private static final int BATCH_SIZE = 500;
+
+  private final ChangeFinder<T> changeFinder;
+  private final long overlapInMilli;
+  private volatile long highWaterMark;
+
+  public IncrementalChangeLoader(ChangeFinder<T> changeFinder, long overlapInMilli) {
+    this.changeFinder = changeFinder;
+    this.overlapInMilli = overlapInMilli;
+  }
+
+  /**
+   * Load the rows modified since the last load and pass them to the consumer batch by batch
+   *
+   * @return the number of rows loaded
+   */
+  public int load(Consumer<List<T>> consumer) {
+    long maxLastModifiedTime = highWaterMark;
+    Date lastModifiedTime = new Date(Math.max(0, maxLastModifiedTime - overlapInMilli));
+    long id = 0;
+    int loaded = 0;
+
+    while (!Thread.currentThread().isInterrupted()) {
+      List<T> changes = changeFinder.findChanges(lastModifiedTime, id, BATCH_SIZE);
+      if (CollectionUtils.isEmpty(changes)) {
+        break;
+      }
+      consumer.accept(changes);
+      loaded += changes.size();
+
+      T last = changes.get(changes.size() - 1);
+      lastModifiedTime = last.getDataChangeLastModifiedTime();
+      id = last.getId();
+      maxLastModifiedTime = Math.max(maxLastModifiedTime, lastModifiedTime.getTime());
+      if (changes.size() < BATCH_SIZE) {
+        break;
+      }
+    }
+
+    highWaterMark = maxLastModifiedTime;
+    return loaded;
+  }
+
+  /**
+   * @return the max DataChange_LastTime loaded, in milliseconds
+   */
+  public long getHighWaterMark() {
+    return highWaterMark;
+  }
+
+  /**
+   * Continue from the high-water mark, e.g. the one restored from a snapshot
+   */
+  public void setHighWaterMark(long highWaterMark) {
+    this.highWaterMark = highWaterMark;
+  }
+
+  @FunctionalInterface
+  public interface ChangeFinder<T> {
+
+    /**
+     * @return at most limit rows, including the soft deleted ones, which are modified after lastModifiedTime, or at
+     * lastModifiedTime with an id greater than the given one, ordered by (DataChange_LastTime, Id)
+     */
+    List<T> findChanges(Date lastModifiedTime, long id, int limit);
+  }
+}
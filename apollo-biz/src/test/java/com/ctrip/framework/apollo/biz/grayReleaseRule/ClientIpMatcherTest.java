@@ -0,0 +1,99 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.grayReleaseRule;
+
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClientIpMatcherTest {
+
+  @Test
+  public void testMatchExactIps() throws Exception {
+    ClientIpMatcher matcher = ClientIpMatcher.compile(Sets.newHashSet("1.1.1.1", "some-host", "::1"));
+
+    assertTrue(matcher.matches("1.1.1.1"));
+    assertTrue(matcher.matches("some-host"));
+    assertTrue(matcher.matches("::1"));
+    assertFalse(matcher.matches("1.1.1.2"));
+    assertFalse(matcher.matches(null));
+    assertFalse(matcher.isEmpty());
+  }
+
+  @Test
+  public void testMatchAllIps() throws Exception {
+    ClientIpMatcher matcher = ClientIpMatcher.compile(Sets.newHashSet("*"));
+
+    assertTrue(matcher.matches("1.1.1.1"));
+    assertTrue(matcher.matches("some-host"));
+  }
+
+  @Test
+  public void testMatchCidrRanges() throws Exception {
+    ClientIpMatcher matcher = ClientIpMatcher.compile(Sets.newHashSet("10.1.0.0/16", "192.168.1.1/32",
+        "172.16.5.10/20"));
+
+    assertTrue(matcher.matches("10.1.0.0"));
+    assertTrue(matcher.matches("10.1.255.255"));
+    assertFalse(matcher.matches("10.2.0.1"));
+    assertTrue(matcher.matches("192.168.1.1"));
+    assertFalse(matcher.matches("192.168.1.2"));
+    assertTrue(matcher.matches("172.16.0.1"));
+    assertTrue(matcher.matches("172.16.15.254"));
+    assertFalse(matcher.matches("172.16.16.1"));
+    assertFalse(matcher.matches("10.1.0"));
+    assertFalse(matcher.matches("10.1.0.256"));
+    assertFalse(matcher.matches("some-host"));
+  }
+
+  @Test
+  public void testMatchWholeIpv4Range() throws Exception {
+    ClientIpMatcher matcher = ClientIpMatcher.compile(Sets.newHashSet("0.0.0.0/0"));
+
+    assertTrue(matcher.matches("0.0.0.0"));
+    assertTrue(matcher.matches("255.255.255.255"));
+    assertFalse(matcher.matches("::1"));
+  }
+
+  @Test
+  public void testInvalidCidrRangesAreMatchedExactly() throws Exception {
+    ClientIpMatcher matcher = ClientIpMatcher.compile(Sets.newHashSet("10.0.0.0/33", "10.0.0/8", "10.0.0.0/"));
+
+    assertTrue(matcher.matches("10.0.0.0/33"));
+    assertFalse(matcher.matches("10.0.0.1"));
+  }
+
+  @Test
+  public void testParseIpv4() throws Exception {
+    assertEquals(0x01020304L, ClientIpMatcher.parseIpv4("1.2.3.4", 0, 7));
+    assertEquals(0xFFFFFFFFL, ClientIpMatcher.parseIpv4("255.255.255.255", 0, 15));
+    assertEquals(-1, ClientIpMatcher.parseIpv4("1.2.3.", 0, 6));
+    assertEquals(-1, ClientIpMatcher.parseIpv4("1..3.4", 0, 6));
+    assertEquals(-1, ClientIpMatcher.parseIpv4("1.2.3.4.5", 0, 9));
+    assertEquals(-1, ClientIpMatcher.parseIpv4("a.2.3.4", 0, 7));
+  }
+
+  @Test
+  public void testIsEmpty() throws Exception {
+    assertTrue(ClientIpMatcher.compile(null).isEmpty());
+    assertTrue(ClientIpMatcher.compile(Sets.newHashSet()).isEmpty());
+  }
+}
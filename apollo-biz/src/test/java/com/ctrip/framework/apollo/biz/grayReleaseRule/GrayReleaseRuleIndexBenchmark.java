@@ -0,0 +1,181 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.grayReleaseRule;
+
+import com.ctrip.framework.apollo.common.constants.NamespaceBranchStatus;
+import com.ctrip.framework.apollo.common.dto.GrayReleaseRuleItemDTO;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.google.common.collect.TreeMultimap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the gray release rule lookups of {@link GrayReleaseRuleIndex} with the synchronized TreeMultimap storage
+ * which {@link GrayReleaseRulesHolder} used before, with a rule of its own for each of the gray released namespaces.
+ *
+ * <p>Run it after {@code mvn test-compile -pl apollo-biz} with the main method, or with
+ * {@code org.openjdk.jmh.Main GrayReleaseRuleIndexBenchmark} and the test classpath of apollo-biz.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class GrayReleaseRuleIndexBenchmark {
+  private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
+  private static final String CONFIG_CLUSTER = "default";
+  private static final int IPS_PER_RULE = 10;
+
+  @Param({"100", "1000", "10000"})
+  private int rules;
+
+  //the storage of the holder before the index
+  private Multimap<String, GrayReleaseRuleCache> grayReleaseRuleCache;
+  private Multimap<String, Long> reversedGrayReleaseRuleCache;
+
+  private GrayReleaseRuleIndex grayReleaseRuleIndex;
+
+  private String configAppId;
+  private String namespaceName;
+  private String clientAppId;
+  private String matchedClientIp;
+  private String unmatchedClientIp;
+
+  @Setup
+  public void setUp() {
+    grayReleaseRuleCache = Multimaps.synchronizedSetMultimap(
+        TreeMultimap.create(String.CASE_INSENSITIVE_ORDER, Ordering.natural()));
+    reversedGrayReleaseRuleCache = Multimaps.synchronizedSetMultimap(
+        TreeMultimap.create(String.CASE_INSENSITIVE_ORDER, Ordering.natural()));
+
+    for (int i = 0; i < rules; i++) {
+      Set<String> clientIps = Sets.newHashSet();
+      for (int j = 0; j < IPS_PER_RULE; j++) {
+        clientIps.add(assembleClientIp(i, j));
+      }
+      GrayReleaseRuleItemDTO ruleItem = new GrayReleaseRuleItemDTO("clientAppId" + i, clientIps);
+      GrayReleaseRuleCache rule = new GrayReleaseRuleCache(i, "branch" + i, "namespace" + i, i,
+          NamespaceBranchStatus.ACTIVE, 0, Sets.newHashSet(ruleItem));
+
+      grayReleaseRuleCache.put(STRING_JOINER.join("appId" + i, CONFIG_CLUSTER, "namespace" + i), rule);
+      for (String clientIp : clientIps) {
+        reversedGrayReleaseRuleCache.put(STRING_JOINER.join(ruleItem.getClientAppId(), rule.getNamespaceName(),
+            clientIp), rule.getRuleId());
+      }
+    }
+
+    grayReleaseRuleIndex = GrayReleaseRuleIndex.build(grayReleaseRuleCache);
+
+    int target = rules / 2;
+    configAppId = "appId" + target;
+    namespaceName = "namespace" + target;
+    clientAppId = "clientAppId" + target;
+    matchedClientIp = assembleClientIp(target, IPS_PER_RULE - 1);
+    unmatchedClientIp = "192.168.0.1";
+  }
+
+  @Benchmark
+  public Long baselineFindReleaseIdMatched() {
+    return baselineFindReleaseId(clientAppId, matchedClientIp, configAppId, CONFIG_CLUSTER, namespaceName);
+  }
+
+  @Benchmark
+  public Long baselineFindReleaseIdUnmatched() {
+    return baselineFindReleaseId(clientAppId, unmatchedClientIp, configAppId, CONFIG_CLUSTER, namespaceName);
+  }
+
+  @Benchmark
+  public boolean baselineHasGrayReleaseRuleUnmatched() {
+    return baselineHasGrayReleaseRule(clientAppId, unmatchedClientIp, namespaceName);
+  }
+
+  @Benchmark
+  public Long indexFindReleaseIdMatched() {
+    return grayReleaseRuleIndex.findReleaseId(clientAppId, matchedClientIp, configAppId, CONFIG_CLUSTER,
+        namespaceName);
+  }
+
+  @Benchmark
+  public Long indexFindReleaseIdUnmatched() {
+    return grayReleaseRuleIndex.findReleaseId(clientAppId, unmatchedClientIp, configAppId, CONFIG_CLUSTER,
+        namespaceName);
+  }
+
+  @Benchmark
+  public boolean indexHasGrayReleaseRuleUnmatched() {
+    return grayReleaseRuleIndex.hasGrayReleaseRule(clientAppId, unmatchedClientIp, namespaceName);
+  }
+
+  private Long baselineFindReleaseId(String clientAppId, String clientIp, String configAppId, String configCluster,
+      String configNamespaceName) {
+    String key = STRING_JOINER.join(configAppId, configCluster, configNamespaceName);
+    if (!grayReleaseRuleCache.containsKey(key)) {
+      return null;
+    }
+    //create a new list to avoid ConcurrentModificationException
+    List<GrayReleaseRuleCache> rules = Lists.newArrayList(grayReleaseRuleCache.get(key));
+    for (GrayReleaseRuleCache rule : rules) {
+      if (rule.getBranchStatus() != NamespaceBranchStatus.ACTIVE) {
+        continue;
+      }
+      for (GrayReleaseRuleItemDTO ruleItem : rule.getRuleItems()) {
+        if (ruleItem.matches(clientAppId, clientIp)) {
+          return rule.getReleaseId();
+        }
+      }
+    }
+    return null;
+  }
+
+  private boolean baselineHasGrayReleaseRule(String clientAppId, String clientIp, String namespaceName) {
+    return reversedGrayReleaseRuleCache.containsKey(STRING_JOINER.join(clientAppId, namespaceName, clientIp))
+        || reversedGrayReleaseRuleCache.containsKey(STRING_JOINER.join(clientAppId, namespaceName,
+        GrayReleaseRuleItemDTO.ALL_IP));
+  }
+
+  private static String assembleClientIp(int rule, int ip) {
+    return String.format("10.%d.%d.%d", rule / 256 % 256, rule % 256, ip + 1);
+  }
+
+  public static void main(String[] args) throws Exception {
+    new Runner(new OptionsBuilder().include(GrayReleaseRuleIndexBenchmark.class.getSimpleName()).build()).run();
+  }
+}
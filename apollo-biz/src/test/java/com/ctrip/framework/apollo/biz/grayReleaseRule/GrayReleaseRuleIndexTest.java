@@ -0,0 +1,120 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.grayReleaseRule;
+
+import com.ctrip.framework.apollo.common.constants.NamespaceBranchStatus;
+import com.ctrip.framework.apollo.common.dto.GrayReleaseRuleItemDTO;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.google.common.collect.TreeMultimap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GrayReleaseRuleIndexTest {
+  private Multimap<String, GrayReleaseRuleCache> rules;
+
+  @Before
+  public void setUp() throws Exception {
+    rules = TreeMultimap.create(String.CASE_INSENSITIVE_ORDER, Ordering.natural());
+  }
+
+  @Test
+  public void testFindReleaseId() throws Exception {
+    rules.put("someAppId+default+application", assembleRule(2, "application", 20, NamespaceBranchStatus.ACTIVE,
+        "clientAppId", "10.0.0.0/8"));
+    rules.put("someAppId+default+application", assembleRule(1, "application", 10, NamespaceBranchStatus.ACTIVE,
+        "clientAppId", "10.0.0.1"));
+    rules.put("someAppId+default+application", assembleRule(3, "application", 30, NamespaceBranchStatus.DELETED,
+        "clientAppId", "*"));
+
+    GrayReleaseRuleIndex index = GrayReleaseRuleIndex.build(rules);
+
+    assertEquals(2, index.size());
+    //the rule with smaller id wins
+    assertEquals(10L, index.findReleaseId("clientAppId", "10.0.0.1", "someAppId", "default", "application")
+        .longValue());
+    assertEquals(20L, index.findReleaseId("CLIENTAPPID", "10.0.0.2", "SOMEAPPID", "DEFAULT", "Application")
+        .longValue());
+    assertNull(index.findReleaseId("clientAppId", "11.0.0.1", "someAppId", "default", "application"));
+    assertNull(index.findReleaseId("anotherClientAppId", "10.0.0.1", "someAppId", "default", "application"));
+    assertNull(index.findReleaseId("clientAppId", "10.0.0.1", "someAppId", "default", "anotherNamespace"));
+    assertNull(index.findReleaseId("clientAppId", "10.0.0.1", "someAppId", "defaul", "tapplication"));
+    assertNull(index.findReleaseId("clientAppId", "10.0.0.1", null, "default", "application"));
+  }
+
+  @Test
+  public void testHasGrayReleaseRule() throws Exception {
+    rules.put("someAppId+default+application", assembleRule(1, "application", 10, NamespaceBranchStatus.ACTIVE,
+        "clientAppId", "10.0.0.1"));
+    rules.put("someAppId+another+application", assembleRule(2, "application", 20, NamespaceBranchStatus.ACTIVE,
+        "clientAppId", "192.168.0.0/16"));
+    rules.put("someAppId+default+someNamespace", assembleRule(3, "someNamespace", 30, NamespaceBranchStatus.ACTIVE,
+        "anotherClientAppId", "*"));
+    rules.put("someAppId+default+inactiveNamespace", assembleRule(4, "inactiveNamespace", 40,
+        NamespaceBranchStatus.MERGED, "clientAppId", "*"));
+
+    GrayReleaseRuleIndex index = GrayReleaseRuleIndex.build(rules);
+
+    assertTrue(index.hasGrayReleaseRule("clientAppId", "10.0.0.1", "application"));
+    assertTrue(index.hasGrayReleaseRule("ClientAppId", "192.168.1.1", "APPLICATION"));
+    assertFalse(index.hasGrayReleaseRule("clientAppId", "10.0.0.2", "application"));
+    assertTrue(index.hasGrayReleaseRule("anotherClientAppId", "1.1.1.1", "someNamespace"));
+    assertFalse(index.hasGrayReleaseRule("clientAppId", "1.1.1.1", "someNamespace"));
+    assertFalse(index.hasGrayReleaseRule("clientAppId", "1.1.1.1", "inactiveNamespace"));
+  }
+
+  @Test
+  public void testLookupWithManyRules() throws Exception {
+    int size = 5000;
+    for (int i = 0; i < size; i++) {
+      rules.put("someAppId" + i + "+default+application", assembleRule(i, "application", i,
+          NamespaceBranchStatus.ACTIVE, "clientAppId" + i, "10.0." + (i / 256) + "." + (i % 256)));
+    }
+
+    GrayReleaseRuleIndex index = GrayReleaseRuleIndex.build(rules);
+
+    assertEquals(size, index.size());
+    for (int i = 0; i < size; i++) {
+      String clientIp = "10.0." + (i / 256) + "." + (i % 256);
+      assertEquals(i, index.findReleaseId("clientAppId" + i, clientIp, "someAppId" + i, "default", "application")
+          .longValue());
+      assertTrue(index.hasGrayReleaseRule("clientAppId" + i, clientIp, "application"));
+    }
+    assertNull(index.findReleaseId("clientAppId0", "10.0.0.0", "someAppId" + size, "default", "application"));
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    assertEquals(0, GrayReleaseRuleIndex.EMPTY.size());
+    assertNull(GrayReleaseRuleIndex.EMPTY.findReleaseId("clientAppId", "1.1.1.1", "someAppId", "default",
+        "application"));
+    assertFalse(GrayReleaseRuleIndex.EMPTY.hasGrayReleaseRule("clientAppId", "1.1.1.1", "application"));
+  }
+
+  private GrayReleaseRuleCache assembleRule(long ruleId, String namespaceName, long releaseId, int branchStatus,
+      String clientAppId, String clientIp) {
+    return new GrayReleaseRuleCache(ruleId, "someBranch" + ruleId, namespaceName, releaseId, branchStatus, 0,
+        Sets.newHashSet(new GrayReleaseRuleItemDTO(clientAppId, Sets.newHashSet(clientIp))));
+  }
+}
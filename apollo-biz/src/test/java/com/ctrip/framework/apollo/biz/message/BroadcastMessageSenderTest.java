@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.message;
+
+import com.ctrip.framework.apollo.biz.AbstractUnitTest;
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BroadcastMessageSenderTest extends AbstractUnitTest {
+  private BroadcastMessageSender messageSender;
+  @Mock
+  private DatabaseMessageSender databaseMessageSender;
+  @Mock
+  private BizConfig bizConfig;
+  private String someMessage;
+  private ReleaseMessage someReleaseMessage;
+  private String someToken;
+
+  @Before
+  public void setUp() throws Exception {
+    messageSender = spy(new BroadcastMessageSender(databaseMessageSender, bizConfig));
+    someMessage = "some-message";
+    someReleaseMessage = new ReleaseMessage(someMessage);
+    someReleaseMessage.setId(1);
+    someToken = "someToken";
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  public void testSendMessageWithBroadcastDisabled() throws Exception {
+    when(databaseMessageSender.saveMessage(someMessage, Topics.APOLLO_RELEASE_TOPIC)).thenReturn(someReleaseMessage);
+    when(bizConfig.isReleaseMessageBroadcastEnabled()).thenReturn(false);
+
+    messageSender.sendMessage(someMessage, Topics.APOLLO_RELEASE_TOPIC);
+
+    verify(databaseMessageSender, times(1)).saveMessage(someMessage, Topics.APOLLO_RELEASE_TOPIC);
+    verify(messageSender, after(100).never()).broadcast(someReleaseMessage, someToken);
+  }
+
+  @Test
+  public void testSendMessageWithoutBroadcastToken() throws Exception {
+    when(databaseMessageSender.saveMessage(someMessage, Topics.APOLLO_RELEASE_TOPIC)).thenReturn(someReleaseMessage);
+    when(bizConfig.isReleaseMessageBroadcastEnabled()).thenReturn(true);
+    when(bizConfig.releaseMessageBroadcastToken()).thenReturn(null);
+
+    messageSender.sendMessage(someMessage, Topics.APOLLO_RELEASE_TOPIC);
+
+    verify(databaseMessageSender, times(1)).saveMessage(someMessage, Topics.APOLLO_RELEASE_TOPIC);
+    verify(messageSender, after(100).never()).broadcast(eq(someReleaseMessage), any());
+  }
+
+  @Test
+  public void testSendUnsupportedMessage() throws Exception {
+    String someUnsupportedTopic = "some-invalid-topic";
+
+    messageSender.sendMessage(someMessage, someUnsupportedTopic);
+
+    verify(bizConfig, never()).isReleaseMessageBroadcastEnabled();
+    verify(messageSender, after(100).never()).broadcast(someReleaseMessage, someToken);
+  }
+
+  @Test
+  public void testSendMessageBroadcastAfterCommit() throws Exception {
+    when(databaseMessageSender.saveMessage(someMessage, Topics.APOLLO_RELEASE_TOPIC)).thenReturn(someReleaseMessage);
+    when(bizConfig.isReleaseMessageBroadcastEnabled()).thenReturn(true);
+    when(bizConfig.releaseMessageBroadcastToken()).thenReturn(someToken);
+    TransactionSynchronizationManager.initSynchronization();
+
+    messageSender.sendMessage(someMessage, Topics.APOLLO_RELEASE_TOPIC);
+
+    verify(messageSender, after(100).never()).broadcast(someReleaseMessage, someToken);
+
+    List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+    assertEquals(1, synchronizations.size());
+    synchronizations.get(0).afterCommit();
+
+    verify(messageSender, timeout(1000).times(1)).broadcast(someReleaseMessage, someToken);
+  }
+
+  @Test
+  public void testSendMessageBroadcastWithoutTransaction() throws Exception {
+    when(databaseMessageSender.saveMessage(someMessage, Topics.APOLLO_RELEASE_TOPIC)).thenReturn(someReleaseMessage);
+    when(bizConfig.isReleaseMessageBroadcastEnabled()).thenReturn(true);
+    when(bizConfig.releaseMessageBroadcastToken()).thenReturn(someToken);
+
+    messageSender.sendMessage(someMessage, Topics.APOLLO_RELEASE_TOPIC);
+
+    verify(messageSender, timeout(1000).times(1)).broadcast(someReleaseMessage, someToken);
+  }
+}
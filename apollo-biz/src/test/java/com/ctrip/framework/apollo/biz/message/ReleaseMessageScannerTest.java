@@ -26,7 +26,10 @@ import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.repository.ReleaseMessageRepository;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import org.awaitility.Awaitility;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -37,6 +40,12 @@ import java.util.concurrent.TimeUnit;
 import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -182,6 +191,269 @@ public class ReleaseMessageScannerTest extends AbstractUnitTest {
     });
   }
 
+  @Test
+  public void testScanMessageAndNotifyCoalescingMessageListener() throws Exception {
+    List<ReleaseMessage> everyMessage = Lists.newCopyOnWriteArrayList();
+    List<ReleaseMessage> coalescedMessage = Lists.newCopyOnWriteArrayList();
+    releaseMessageScanner.addMessageListener((message, channel) -> everyMessage.add(message));
+    releaseMessageScanner.addMessageListener((message, channel) -> coalescedMessage.add(message),
+        ReleaseMessageListenerMode.COALESCING);
+
+    ReleaseMessage someReleaseMessage = assembleReleaseMessage(1, "someMessage");
+    ReleaseMessage anotherReleaseMessage = assembleReleaseMessage(2, "anotherMessage");
+    ReleaseMessage someNewerReleaseMessage = assembleReleaseMessage(3, "someMessage");
+
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0L)).thenReturn(
+        Lists.newArrayList(someReleaseMessage, anotherReleaseMessage, someNewerReleaseMessage));
+
+    await().untilAsserted(() -> {
+      assertEquals(Lists.newArrayList(someReleaseMessage, anotherReleaseMessage, someNewerReleaseMessage),
+          everyMessage);
+      assertEquals(Lists.newArrayList(anotherReleaseMessage, someNewerReleaseMessage), coalescedMessage);
+    });
+
+    List<ReleaseMessageListenerStats> stats = releaseMessageScanner.getListenerStats();
+    assertEquals(2, stats.size());
+    assertEquals(ReleaseMessageListenerMode.COALESCING, stats.get(1).getMode());
+    assertEquals(3, stats.get(1).getMessagesDispatched());
+    assertEquals(2, stats.get(1).getMessagesHandled());
+    assertEquals(someNewerReleaseMessage.getId(), stats.get(1).getLastHandledMessageId());
+  }
+
+  @Test
+  public void testSlowAsyncMessageListenerNotBlockingOthers() throws Exception {
+    CountDownLatch slowListenerLatch = new CountDownLatch(1);
+    List<ReleaseMessage> slowListenerMessages = Lists.newCopyOnWriteArrayList();
+    List<ReleaseMessage> otherListenerMessages = Lists.newCopyOnWriteArrayList();
+    releaseMessageScanner.addMessageListener((message, channel) -> {
+      try {
+        slowListenerLatch.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      slowListenerMessages.add(message);
+    }, ReleaseMessageListenerMode.ASYNC);
+    releaseMessageScanner.addMessageListener((message, channel) -> otherListenerMessages.add(message));
+
+    ReleaseMessage someReleaseMessage = assembleReleaseMessage(1, "someMessage");
+    ReleaseMessage anotherReleaseMessage = assembleReleaseMessage(2, "anotherMessage");
+    ReleaseMessage someNewerReleaseMessage = assembleReleaseMessage(3, "someMessage");
+
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0L)).thenReturn(
+        Lists.newArrayList(someReleaseMessage));
+    await().untilAsserted(() -> assertEquals(Lists.newArrayList(someReleaseMessage), otherListenerMessages));
+
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(1L)).thenReturn(
+        Lists.newArrayList(anotherReleaseMessage, someNewerReleaseMessage));
+    await().untilAsserted(() -> {
+      assertEquals(3, otherListenerMessages.size());
+      // the first message is being handled while the others are pending
+      assertEquals(2, releaseMessageScanner.getListenerStats().get(0).getPendingMessages());
+    });
+
+    assertTrue(slowListenerMessages.isEmpty());
+
+    slowListenerLatch.countDown();
+
+    await().untilAsserted(() -> {
+      assertEquals(3, slowListenerMessages.size());
+      assertSame(someReleaseMessage, slowListenerMessages.get(0));
+      assertTrue(slowListenerMessages.containsAll(Lists.newArrayList(anotherReleaseMessage, someNewerReleaseMessage)));
+      ReleaseMessageListenerStats stats = releaseMessageScanner.getListenerStats().get(0);
+      assertEquals(0, stats.getPendingMessages());
+      assertEquals(3, stats.getMessagesHandled());
+      assertTrue(stats.getMaxLagMillis() >= 0);
+    });
+  }
+
+  @Test
+  public void testTriggerScan() throws Exception {
+    ReleaseMessageScanner anotherReleaseMessageScanner = new ReleaseMessageScanner();
+    ReflectionTestUtils
+        .setField(anotherReleaseMessageScanner, "releaseMessageRepository", releaseMessageRepository);
+    ReflectionTestUtils.setField(anotherReleaseMessageScanner, "bizConfig", bizConfig);
+    //won't be scanned by schedule during the test
+    when(bizConfig.releaseMessageScanIntervalInMilli()).thenReturn(Integer.MAX_VALUE);
+    anotherReleaseMessageScanner.afterPropertiesSet();
+
+    SettableFuture<ReleaseMessage> someListenerFuture = SettableFuture.create();
+    anotherReleaseMessageScanner.addMessageListener((message, channel) -> someListenerFuture.set(message));
+
+    long someId = 1;
+    ReleaseMessage someReleaseMessage = assembleReleaseMessage(someId, "someMessage");
+
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0L)).thenReturn(
+        Lists.newArrayList(someReleaseMessage));
+
+    anotherReleaseMessageScanner.triggerScan(someId);
+
+    assertSame(someReleaseMessage, someListenerFuture.get(5000, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testTriggerScanWithIdNotFound() throws Exception {
+    //not shared with the scheduled scans of the other scanner
+    ReleaseMessageRepository anotherReleaseMessageRepository = mock(ReleaseMessageRepository.class);
+    ReleaseMessageScanner anotherReleaseMessageScanner = new ReleaseMessageScanner();
+    ReflectionTestUtils
+        .setField(anotherReleaseMessageScanner, "releaseMessageRepository", anotherReleaseMessageRepository);
+    ReflectionTestUtils.setField(anotherReleaseMessageScanner, "bizConfig", bizConfig);
+    //won't be scanned by schedule during the test
+    when(bizConfig.releaseMessageScanIntervalInMilli()).thenReturn(Integer.MAX_VALUE);
+    anotherReleaseMessageScanner.afterPropertiesSet();
+
+    SettableFuture<ReleaseMessage> someListenerFuture = SettableFuture.create();
+    anotherReleaseMessageScanner.addMessageListener((message, channel) -> someListenerFuture.set(message));
+
+    long someId = 1;
+    long someBogusId = 100;
+    ReleaseMessage someReleaseMessage = assembleReleaseMessage(someId, "someMessage");
+
+    when(anotherReleaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0L)).thenReturn(
+        Lists.newArrayList(someReleaseMessage));
+
+    anotherReleaseMessageScanner.triggerScan(someBogusId);
+
+    assertSame(someReleaseMessage, someListenerFuture.get(5000, TimeUnit.MILLISECONDS));
+    await().untilAsserted(() -> assertEquals(someBogusId,
+        (long) ReflectionTestUtils.getField(anotherReleaseMessageScanner, "minIdNotFound")));
+
+    //the id not found by the triggered scan won't trigger another one until the next scheduled scan
+    anotherReleaseMessageScanner.triggerScan(someBogusId);
+    anotherReleaseMessageScanner.triggerScan(someBogusId + 1);
+
+    verify(anotherReleaseMessageRepository, after(100).times(1)).findFirst500ByIdGreaterThanOrderByIdAsc(anyLong());
+  }
+
+  @Test
+  public void testTriggerScanWhenNotScanning() throws Exception {
+    //not shared with the scheduled scans of the other scanner
+    ReleaseMessageRepository anotherReleaseMessageRepository = mock(ReleaseMessageRepository.class);
+    ReleaseMessageScanner anotherReleaseMessageScanner = new ReleaseMessageScanner();
+    ReflectionTestUtils
+        .setField(anotherReleaseMessageScanner, "releaseMessageRepository", anotherReleaseMessageRepository);
+    ReflectionTestUtils.setField(anotherReleaseMessageScanner, "bizConfig", bizConfig);
+    //won't be scanned by schedule during the test
+    when(bizConfig.releaseMessageScanIntervalInMilli()).thenReturn(Integer.MAX_VALUE);
+    anotherReleaseMessageScanner.afterPropertiesSet();
+    //a follower, whose messages are pushed by the scanning instance
+    anotherReleaseMessageScanner.setScanCoordinator(new ReleaseMessageScanCoordinator() {
+      @Override
+      public boolean shouldScan() {
+        return false;
+      }
+
+      @Override
+      public void onMessagesScanned(long previousMaxIdScanned, List<ReleaseMessage> messages) {
+      }
+    });
+
+    List<ReleaseMessage> receivedMessages = Lists.newCopyOnWriteArrayList();
+    anotherReleaseMessageScanner.addMessageListener((message, channel) -> receivedMessages.add(message));
+
+    long someId = 1;
+    anotherReleaseMessageScanner.triggerScan(someId);
+
+    //the message would be pushed by the scanning instance, so no scan is submitted
+    verify(anotherReleaseMessageRepository, never()).findFirst500ByIdGreaterThanOrderByIdAsc(anyLong());
+    assertTrue(receivedMessages.isEmpty());
+    assertEquals(0, anotherReleaseMessageScanner.getMaxIdScanned());
+  }
+
+  @Test
+  public void testScanMessageAndNotifyScanCoordinator() throws Exception {
+    SettableFuture<List<ReleaseMessage>> coordinatorFuture = SettableFuture.create();
+    releaseMessageScanner.setScanCoordinator(new ReleaseMessageScanCoordinator() {
+      @Override
+      public boolean shouldScan() {
+        return true;
+      }
+
+      @Override
+      public void onMessagesScanned(long previousMaxIdScanned, List<ReleaseMessage> messages) {
+        assertEquals(0, previousMaxIdScanned);
+        coordinatorFuture.set(messages);
+      }
+    });
+
+    ReleaseMessage someReleaseMessage = assembleReleaseMessage(1, "someMessage");
+
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0L)).thenReturn(
+        Lists.newArrayList(someReleaseMessage));
+
+    assertEquals(Lists.newArrayList(someReleaseMessage), coordinatorFuture.get(5000, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testReceiveMessages() throws Exception {
+    ReleaseMessageScanner anotherReleaseMessageScanner = new ReleaseMessageScanner();
+    ReflectionTestUtils
+        .setField(anotherReleaseMessageScanner, "releaseMessageRepository", releaseMessageRepository);
+    ReflectionTestUtils.setField(anotherReleaseMessageScanner, "bizConfig", bizConfig);
+    when(bizConfig.releaseMessageScanIntervalInMilli()).thenReturn(databaseScanInterval);
+    anotherReleaseMessageScanner.afterPropertiesSet();
+    anotherReleaseMessageScanner.setScanCoordinator(new ReleaseMessageScanCoordinator() {
+      @Override
+      public boolean shouldScan() {
+        return false;
+      }
+
+      @Override
+      public void onMessagesScanned(long previousMaxIdScanned, List<ReleaseMessage> messages) {
+      }
+    });
+
+    List<ReleaseMessage> receivedMessages = Lists.newCopyOnWriteArrayList();
+    anotherReleaseMessageScanner.addMessageListener((message, channel) -> receivedMessages.add(message));
+
+    ReleaseMessage someReleaseMessage = assembleReleaseMessage(1, "someMessage");
+    ReleaseMessage anotherReleaseMessage = assembleReleaseMessage(2, "anotherMessage");
+    ReleaseMessage yetAnotherReleaseMessage = assembleReleaseMessage(3, "yetAnotherMessage");
+    ReleaseMessage someMissedReleaseMessage = assembleReleaseMessage(5, "someMissedMessage");
+
+    anotherReleaseMessageScanner.receiveMessages(0, Lists.newArrayList(someReleaseMessage, anotherReleaseMessage));
+    //the messages already received are skipped
+    anotherReleaseMessageScanner.receiveMessages(1, Lists.newArrayList(anotherReleaseMessage,
+        yetAnotherReleaseMessage));
+
+    await().untilAsserted(() -> {
+      assertEquals(Lists.newArrayList(someReleaseMessage, anotherReleaseMessage, yetAnotherReleaseMessage),
+          receivedMessages);
+      assertEquals(3, anotherReleaseMessageScanner.getMaxIdScanned());
+    });
+
+    //message 4 and 5 are not received, so catch up from the database
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(3L)).thenReturn(
+        Lists.newArrayList(someMissedReleaseMessage));
+    anotherReleaseMessageScanner.receiveMessages(5, Lists.newArrayList());
+
+    await().untilAsserted(() -> {
+      assertEquals(4, receivedMessages.size());
+      assertSame(someMissedReleaseMessage, receivedMessages.get(3));
+      assertEquals(5, anotherReleaseMessageScanner.getMaxIdScanned());
+    });
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    ReleaseMessageListener someListener = (message, channel) -> {
+    };
+    releaseMessageScanner.addMessageListener(someListener, ReleaseMessageListenerMode.COALESCING);
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    releaseMessageScanner.registerMetrics(meterRegistry);
+
+    long someLatestId = 5;
+    when(releaseMessageRepository.findTopByOrderByIdDesc())
+        .thenReturn(assembleReleaseMessage(someLatestId, "someMessage"));
+
+    assertEquals(0, meterRegistry.get("apollo.release-message.scanner.max-id").gauge().value(), 0);
+    assertEquals(someLatestId, meterRegistry.get("apollo.release-message.scanner.lag").gauge().value(), 0);
+    assertEquals(0, meterRegistry.get("apollo.release-message.listener.pending")
+        .tag("mode", ReleaseMessageListenerMode.COALESCING.name()).gauge().value(), 0);
+    assertEquals(0, meterRegistry.get("apollo.release-message.listener.lag").gauge().value(), 0);
+  }
+
   private ReleaseMessage assembleReleaseMessage(long id, String message) {
     ReleaseMessage releaseMessage = new ReleaseMessage();
     releaseMessage.setId(id);
@@ -84,4 +84,22 @@ public class AccessKeyRepositoryTest extends AbstractIntegrationTest {
     assertThat(accessKeyList.get(1).getSecret()).isEqualTo("c715cbc80fc44171b43732c3119c9456");
   }
 
-}
\ No newline at end of file
+  @Test
+  @Sql(scripts = "/sql/accesskey-test.sql", executionPhase = ExecutionPhase.BEFORE_TEST_METHOD)
+  @Sql(scripts = "/sql/clean.sql", executionPhase = ExecutionPhase.AFTER_TEST_METHOD)
+  public void testFindChangesIncludingDeleted() {
+    Instant instant = LocalDateTime.of(2019, 12, 19, 13, 44, 19)
+        .atZone(ZoneId.systemDefault())
+        .toInstant();
+    Date date = Date.from(instant);
+
+    List<AccessKey> accessKeyList = accessKeyRepository.findChangesIncludingDeleted(date, 2, 2);
+
+    assertThat(accessKeyList).hasSize(2);
+    assertThat(accessKeyList.get(0).getId()).isEqualTo(3);
+    assertThat(accessKeyList.get(0).isDeleted()).isTrue();
+    assertThat(accessKeyList.get(1).getId()).isEqualTo(4);
+    assertThat(accessKeyList.get(1).isDeleted()).isFalse();
+  }
+
+}
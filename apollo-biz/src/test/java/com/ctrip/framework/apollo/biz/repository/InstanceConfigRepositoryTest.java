@@ -46,6 +46,8 @@ public class InstanceConfigRepositoryTest extends AbstractIntegrationTest {
     for (int i = 0; i < 25; i++) {
       Instance instance = new Instance();
       instance.setAppId("appId");
+      // the instances are unique by appId, cluster, ip and data center
+      instance.setIp("10.0.0." + i);
       instanceRepository.save(instance);
 
       final InstanceConfig instanceConfig = new InstanceConfig();
@@ -39,6 +39,7 @@ import java.util.stream.Collectors;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
@@ -126,6 +127,95 @@ public class InstanceServiceTest extends AbstractIntegrationTest {
     assertEquals(anotherReleaseKey, updated.getReleaseKey());
   }
 
+  @Test
+  @Rollback
+  public void testBatchSaveAndFindInstanceConfigs() throws Exception {
+    long someInstanceId = 1;
+    long anotherInstanceId = 2;
+    String someConfigAppId = "someConfigAppId";
+    String someConfigClusterName = "someConfigClusterName";
+    String anotherConfigClusterName = "anotherConfigClusterName";
+    String someConfigNamespaceName = "someConfigNamespaceName";
+    String anotherConfigNamespaceName = "anotherConfigNamespaceName";
+    String someReleaseKey = "someReleaseKey";
+    String anotherReleaseKey = "anotherReleaseKey";
+
+    instanceService.batchSaveInstanceConfigs(Lists.newArrayList(assembleInstanceConfig(someInstanceId,
+        someConfigAppId, someConfigClusterName, someConfigNamespaceName, someReleaseKey)));
+
+    //the existing one is updated by the unique key
+    instanceService.batchSaveInstanceConfigs(Lists.newArrayList(
+        assembleInstanceConfig(someInstanceId, someConfigAppId, anotherConfigClusterName, someConfigNamespaceName,
+            anotherReleaseKey),
+        assembleInstanceConfig(someInstanceId, someConfigAppId, someConfigClusterName,
+            anotherConfigNamespaceName, someReleaseKey),
+        assembleInstanceConfig(anotherInstanceId, someConfigAppId, someConfigClusterName,
+            someConfigNamespaceName, someReleaseKey)));
+
+    List<InstanceConfig> instanceConfigs = instanceService.findInstanceConfigsByInstanceIds(
+        Sets.newHashSet(someInstanceId));
+    InstanceConfig updated = instanceService.findInstanceConfig(someInstanceId, someConfigAppId,
+        someConfigNamespaceName);
+
+    assertEquals(2, instanceConfigs.size());
+    assertEquals(anotherReleaseKey, updated.getReleaseKey());
+    assertEquals(anotherConfigClusterName, updated.getConfigClusterName());
+    assertEquals(someReleaseKey, instanceService.findInstanceConfig(someInstanceId, someConfigAppId,
+        anotherConfigNamespaceName).getReleaseKey());
+    assertEquals(3, instanceService.findInstanceConfigsByInstanceIds(
+        Sets.newHashSet(someInstanceId, anotherInstanceId)).size());
+  }
+
+  @Test
+  @Rollback
+  public void testBatchSaveInstanceConfigsInMultipleStatements() throws Exception {
+    long someInstanceId = 1;
+    String someConfigAppId = "someConfigAppId";
+    String someConfigClusterName = "someConfigClusterName";
+    String someReleaseKey = "someReleaseKey";
+    int size = 250;
+
+    List<InstanceConfig> instanceConfigs = Lists.newArrayList();
+    for (int i = 0; i < size; i++) {
+      instanceConfigs.add(assembleInstanceConfig(someInstanceId, someConfigAppId, someConfigClusterName,
+          "someConfigNamespaceName" + i, someReleaseKey));
+    }
+
+    instanceService.batchSaveInstanceConfigs(instanceConfigs);
+
+    assertEquals(size, instanceService.findInstanceConfigsByInstanceIds(Sets.newHashSet(someInstanceId)).size());
+  }
+
+  @Test
+  @Rollback
+  public void testBatchCreateAndFindInstances() throws Exception {
+    String someAppId = "someAppId";
+    String anotherAppId = "anotherAppId";
+    String someClusterName = "someClusterName";
+    String someDataCenter = "someDataCenter";
+    String someIp = "someIp";
+    String anotherIp = "anotherIp";
+
+    Instance someInstance = instanceService.createInstance(assembleInstance(someAppId, someClusterName,
+        someDataCenter, someIp));
+
+    //the existing one is skipped
+    instanceService.batchCreateInstances(Lists.newArrayList(
+        assembleInstance(someAppId, someClusterName, someDataCenter, someIp),
+        assembleInstance(anotherAppId, someClusterName, someDataCenter, someIp),
+        assembleInstance(someAppId, someClusterName, someDataCenter, anotherIp)));
+
+    List<Instance> instances = instanceService.findInstancesByIps(someAppId, someClusterName,
+        Sets.newHashSet(someIp));
+
+    //the instance of another app with the same ip is not found
+    assertEquals(Lists.newArrayList(someInstance), instances);
+    assertEquals(2, instanceService.findInstancesByIps(someAppId, someClusterName,
+        Sets.newHashSet(someIp, anotherIp)).size());
+    assertEquals(1, instanceService.findInstancesByIps(anotherAppId, someClusterName,
+        Sets.newHashSet(someIp, anotherIp)).size());
+  }
+
   @Test
   @Rollback
   public void testFindActiveInstanceConfigs() throws Exception {
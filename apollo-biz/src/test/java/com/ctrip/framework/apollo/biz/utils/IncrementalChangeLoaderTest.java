@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.ctrip.framework.apollo.biz.entity.AccessKey;
+import com.google.common.collect.Lists;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IncrementalChangeLoaderTest {
+  private static final Comparator<AccessKey> CHANGE_ORDER = Comparator
+      .comparing(AccessKey::getDataChangeLastModifiedTime).thenComparing(AccessKey::getId);
+
+  private List<AccessKey> table;
+  private List<Date> queriedTimes;
+  private List<Long> queriedIds;
+
+  @Before
+  public void setUp() throws Exception {
+    table = Lists.newArrayList();
+    queriedTimes = Lists.newArrayList();
+    queriedIds = Lists.newArrayList();
+  }
+
+  @Test
+  public void testLoadRowsModifiedAtTheSameTime() throws Exception {
+    long someTime = 1577808000000L;
+    //more than one batch
+    for (int i = 1; i <= 501; i++) {
+      table.add(assembleAccessKey(i, someTime, false));
+    }
+    IncrementalChangeLoader<AccessKey> changeLoader = new IncrementalChangeLoader<>(this::findChanges, 0);
+    List<AccessKey> loaded = Lists.newArrayList();
+
+    assertEquals(501, changeLoader.load(loaded::addAll));
+
+    assertEquals(501, loaded.size());
+    assertEquals(someTime, changeLoader.getHighWaterMark());
+    assertEquals(Lists.newArrayList(new Date(0), new Date(someTime)), queriedTimes);
+    assertEquals(Lists.newArrayList(0L, 500L), queriedIds);
+  }
+
+  @Test
+  public void testLoadChangesWithOverlap() throws Exception {
+    long someTime = 1577808000000L;
+    long someOverlap = 1000;
+    table.add(assembleAccessKey(1, someTime, false));
+    IncrementalChangeLoader<AccessKey> changeLoader = new IncrementalChangeLoader<>(this::findChanges,
+        someOverlap);
+
+    assertEquals(1, changeLoader.load(changes -> {
+    }));
+
+    //modified and deleted
+    long anotherTime = someTime + 500;
+    table.clear();
+    table.add(assembleAccessKey(1, anotherTime, true));
+    List<AccessKey> loaded = Lists.newArrayList();
+
+    assertEquals(1, changeLoader.load(loaded::addAll));
+
+    assertEquals(new Date(someTime - someOverlap), queriedTimes.get(queriedTimes.size() - 1));
+    assertEquals(1, loaded.size());
+    assertTrue(loaded.get(0).isDeleted());
+    assertEquals(anotherTime, changeLoader.getHighWaterMark());
+
+    //the high-water mark never goes back
+    table.clear();
+    assertEquals(0, changeLoader.load(changes -> {
+    }));
+    assertEquals(anotherTime, changeLoader.getHighWaterMark());
+  }
+
+  private List<AccessKey> findChanges(Date lastModifiedTime, long id, int limit) {
+    queriedTimes.add(lastModifiedTime);
+    queriedIds.add(id);
+    AccessKey cursor = assembleAccessKey(id, lastModifiedTime.getTime(), false);
+    return table.stream()
+        .filter(accessKey -> CHANGE_ORDER.compare(accessKey, cursor) > 0)
+        .sorted(CHANGE_ORDER)
+        .limit(limit)
+        .collect(Collectors.toList());
+  }
+
+  private AccessKey assembleAccessKey(long id, long lastModifiedTime, boolean deleted) {
+    AccessKey accessKey = new AccessKey();
+    accessKey.setId(id);
+    accessKey.setDataChangeLastModifiedTime(new Date(lastModifiedTime));
+    accessKey.setDeleted(deleted);
+    return accessKey;
+  }
+}
@@ -50,6 +50,20 @@ public class ApolloClientLongPollingExtensionInitializer implements
   @Override
   public void initialize(ApolloClientProperties apolloClientProperties, Binder binder,
       BindHandler bindHandler) {
+    HttpClient httpClient = this.createHttpClient(apolloClientProperties, binder, bindHandler);
+    ApolloConfigDataInjectorCustomizer.registerIfAbsent(HttpClient.class, () -> httpClient);
+  }
+
+  /**
+   * create the webclient based http client customized by {@link ApolloClientWebClientCustomizerFactory}
+   *
+   * @param apolloClientProperties apollo client extension properties
+   * @param binder                 properties binder
+   * @param bindHandler            properties bind handler
+   * @return the http client
+   */
+  public HttpClient createHttpClient(ApolloClientProperties apolloClientProperties, Binder binder,
+      BindHandler bindHandler) {
     WebClient.Builder webClientBuilder = WebClient.builder();
     List<ApolloClientWebClientCustomizerFactory> factories = ServiceBootstrap
         .loadAllOrdered(ApolloClientWebClientCustomizerFactory.class);
@@ -63,7 +77,6 @@ public class ApolloClientLongPollingExtensionInitializer implements
         }
       }
     }
-    HttpClient httpClient = new ApolloWebClientHttpClient(webClientBuilder.build());
-    ApolloConfigDataInjectorCustomizer.registerIfAbsent(HttpClient.class, () -> httpClient);
+    return new ApolloWebClientHttpClient(webClientBuilder.build());
   }
 }
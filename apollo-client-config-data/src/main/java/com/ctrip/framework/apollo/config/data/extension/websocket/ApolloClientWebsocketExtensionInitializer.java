@@ -18,29 +18,69 @@ package com.ctrip.framework.apollo.config.data.extension.websocket;
 
 import com.ctrip.framework.apollo.config.data.extension.initialize.ApolloClientExtensionInitializer;
 import com.ctrip.framework.apollo.config.data.extension.properties.ApolloClientProperties;
+import com.ctrip.framework.apollo.config.data.extension.webclient.ApolloClientLongPollingExtensionInitializer;
+import com.ctrip.framework.apollo.config.data.injector.ApolloConfigDataInjectorCustomizer;
+import com.ctrip.framework.apollo.config.data.util.Slf4jLogMessageFormatter;
+import com.ctrip.framework.apollo.core.ApolloClientSystemConsts;
+import com.ctrip.framework.apollo.util.http.HttpClient;
 import org.apache.commons.logging.Log;
 import org.springframework.boot.ConfigurableBootstrapContext;
 import org.springframework.boot.context.properties.bind.BindHandler;
 import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
 
 /**
+ * Receive the notifications over websocket instead of long polling, the other requests are still
+ * sent by the webclient customized as in {@link ApolloClientLongPollingExtensionInitializer}.
+ *
  * @author vdisk <vdisk@foxmail.com>
  */
 public class ApolloClientWebsocketExtensionInitializer implements ApolloClientExtensionInitializer {
 
+  private static final String REACTOR_NETTY_HTTP_CLIENT_CLASS = "reactor.netty.http.client.HttpClient";
+
   private final Log log;
 
   private final ConfigurableBootstrapContext bootstrapContext;
 
+  private final ApolloClientLongPollingExtensionInitializer apolloClientLongPollingExtensionInitializer;
+
   public ApolloClientWebsocketExtensionInitializer(Log log,
       ConfigurableBootstrapContext bootstrapContext) {
     this.log = log;
     this.bootstrapContext = bootstrapContext;
+    this.apolloClientLongPollingExtensionInitializer = new ApolloClientLongPollingExtensionInitializer(
+        log, bootstrapContext);
   }
 
   @Override
   public void initialize(ApolloClientProperties apolloClientProperties, Binder binder,
       BindHandler bindHandler) {
-    throw new UnsupportedOperationException("apollo client websocket support is not complete yet.");
+    if (!ClassUtils.isPresent(REACTOR_NETTY_HTTP_CLIENT_CLASS, null)) {
+      throw new IllegalStateException(
+          "apollo client websocket messaging requires reactor-netty-http on the classpath");
+    }
+    HttpClient httpClient = new ApolloWebSocketHttpClient(
+        this.apolloClientLongPollingExtensionInitializer
+            .createHttpClient(apolloClientProperties, binder, bindHandler),
+        new ReactorNettyWebSocketClient());
+    ApolloConfigDataInjectorCustomizer.registerIfAbsent(HttpClient.class, () -> httpClient);
+    this.enableNotificationStream();
+  }
+
+  /**
+   * the notifications are received with the notification stream, which is opt-in for the other
+   * http clients
+   */
+  private void enableNotificationStream() {
+    String propertyName = ApolloClientSystemConsts.APOLLO_NOTIFICATION_STREAM_ENABLE;
+    if (System.getProperty(propertyName) != null || System.getenv(
+        ApolloClientSystemConsts.APOLLO_NOTIFICATION_STREAM_ENABLE_ENVIRONMENT_VARIABLES) != null) {
+      return;
+    }
+    this.log.debug(Slf4jLogMessageFormatter
+        .format("apollo client set system property key=[{}] value=[{}]", propertyName, true));
+    System.setProperty(propertyName, Boolean.TRUE.toString());
   }
 }
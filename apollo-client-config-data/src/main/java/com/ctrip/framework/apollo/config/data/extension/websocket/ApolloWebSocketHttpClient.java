@@ -0,0 +1,277 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.config.data.extension.websocket;
+
+import com.ctrip.framework.apollo.build.ApolloInjector;
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
+import com.ctrip.framework.apollo.core.signature.Signature;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.ctrip.framework.apollo.util.http.EventStreamHttpClient;
+import com.ctrip.framework.apollo.util.http.HttpClient;
+import com.ctrip.framework.apollo.util.http.HttpEventStream;
+import com.ctrip.framework.apollo.util.http.HttpRequest;
+import com.ctrip.framework.apollo.util.http.HttpResponse;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakeException;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.reactive.socket.client.WebSocketClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+/**
+ * Delivers the notification stream over websocket, while the other requests are sent by the given http client.
+ * <p>
+ * The notification stream url is mapped to the websocket endpoint of the config service, which sends the same json
+ * notifications as text messages and an empty text message as the heartbeat. When the config service is shutting
+ * down, it closes the websocket with {@code 1012 (Service Restart)} whose reason is the json object of the retry
+ * hint.
+ *
+ * @see com.ctrip.framework.apollo.internals.RemoteConfigLongPollService
+ */
+public class ApolloWebSocketHttpClient implements HttpClient, EventStreamHttpClient {
+
+  private static final String NOTIFICATION_STREAM_PATH = "/notifications/v3/stream";
+
+  private static final String NOTIFICATION_WEBSOCKET_PATH = "/notifications/v3/websocket";
+
+  private final HttpClient httpClient;
+
+  private final WebSocketClient webSocketClient;
+
+  private final ConfigUtil configUtil;
+
+  private final Gson gson;
+
+  public ApolloWebSocketHttpClient(HttpClient httpClient, WebSocketClient webSocketClient) {
+    this(httpClient, webSocketClient, ApolloInjector.getInstance(ConfigUtil.class), new Gson());
+  }
+
+  public ApolloWebSocketHttpClient(HttpClient httpClient, WebSocketClient webSocketClient,
+      ConfigUtil configUtil, Gson gson) {
+    this.httpClient = httpClient;
+    this.webSocketClient = webSocketClient;
+    this.configUtil = configUtil;
+    this.gson = gson;
+  }
+
+  @Override
+  public <T> HttpResponse<T> doGet(HttpRequest httpRequest, Class<T> responseType)
+      throws ApolloConfigException {
+    return this.httpClient.doGet(httpRequest, responseType);
+  }
+
+  @Override
+  public <T> HttpResponse<T> doGet(HttpRequest httpRequest, Type responseType)
+      throws ApolloConfigException {
+    return this.httpClient.doGet(httpRequest, responseType);
+  }
+
+  @Override
+  public <T> HttpEventStream<T> doGetEventStream(HttpRequest httpRequest, Type eventDataType)
+      throws ApolloConfigException {
+    String url = httpRequest.getUrl().replace(NOTIFICATION_STREAM_PATH, NOTIFICATION_WEBSOCKET_PATH);
+    int connectTimeout = httpRequest.getConnectTimeout() > 0 ? httpRequest.getConnectTimeout()
+        : this.configUtil.getConnectTimeout();
+    int readTimeout = httpRequest.getReadTimeout() > 0 ? httpRequest.getReadTimeout()
+        : this.configUtil.getReadTimeout();
+
+    WebSocketHttpEventStream<T> eventStream = new WebSocketHttpEventStream<>(this.gson,
+        eventDataType, readTimeout);
+    Disposable connection = this.webSocketClient
+        .execute(toWebSocketUri(url), this.buildHeaders(httpRequest, url), eventStream::receive)
+        .subscribe(null, eventStream::onError, eventStream::onComplete);
+    eventStream.setConnection(connection);
+
+    try {
+      eventStream.awaitOpened(connectTimeout + readTimeout);
+      return eventStream;
+    } catch (ExecutionException ex) {
+      eventStream.close();
+      if (ex.getCause() instanceof WebSocketClientHandshakeException) {
+        int statusCode = ((WebSocketClientHandshakeException) ex.getCause()).response().status()
+            .code();
+        throw new ApolloConfigStatusCodeException(statusCode,
+            String.format("Subscribe notification websocket failed for %s", url));
+      }
+      throw new ApolloConfigException(
+          String.format("Subscribe notification websocket failed for %s", url), ex.getCause());
+    } catch (InterruptedException | TimeoutException ex) {
+      eventStream.close();
+      throw new ApolloConfigException(
+          String.format("Subscribe notification websocket failed for %s", url), ex);
+    }
+  }
+
+  /**
+   * The signature is computed with the path of the request, so it has to be built again for the websocket url
+   */
+  private HttpHeaders buildHeaders(HttpRequest httpRequest, String url) {
+    HttpHeaders headers = new HttpHeaders();
+    if (!CollectionUtils.isEmpty(httpRequest.getHeaders())) {
+      headers.setAll(httpRequest.getHeaders());
+    }
+    String secret = this.configUtil.getAccessKeySecret();
+    if (StringUtils.hasText(secret)) {
+      for (Map.Entry<String, String> entry : Signature
+          .buildHttpHeaders(url, this.configUtil.getAppId(), secret).entrySet()) {
+        headers.set(entry.getKey(), entry.getValue());
+      }
+    }
+    return headers;
+  }
+
+  private static URI toWebSocketUri(String url) {
+    // http -> ws, https -> wss
+    return URI.create("ws" + url.substring("http".length()));
+  }
+
+  private static class WebSocketHttpEventStream<T> implements HttpEventStream<T> {
+
+    private static final Object END_OF_STREAM = new Object();
+
+    private final Gson gson;
+
+    private final Type eventDataType;
+
+    private final int readTimeout;
+
+    private final CompletableFuture<Void> opened = new CompletableFuture<>();
+
+    private final BlockingQueue<Object> messages = new LinkedBlockingQueue<>();
+
+    private volatile Disposable connection;
+
+    private volatile Throwable error;
+
+    private volatile RetryHint retryHint;
+
+    private volatile boolean closed;
+
+    WebSocketHttpEventStream(Gson gson, Type eventDataType, int readTimeout) {
+      this.gson = gson;
+      this.eventDataType = eventDataType;
+      this.readTimeout = readTimeout;
+    }
+
+    Mono<Void> receive(WebSocketSession session) {
+      this.opened.complete(null);
+      // the close status is kept before the end of stream is offered on completion
+      Mono<Void> closeStatus = session.closeStatus()
+          .doOnNext(this::onCloseStatus)
+          .then();
+      return session.receive()
+          .map(WebSocketMessage::getPayloadAsText)
+          .doOnNext(this.messages::offer)
+          .then(closeStatus);
+    }
+
+    void onCloseStatus(CloseStatus status) {
+      if (status.getCode() != CloseStatus.SERVICE_RESTARTED.getCode()
+          || !StringUtils.hasText(status.getReason())) {
+        return;
+      }
+      try {
+        this.retryHint = this.gson.fromJson(status.getReason(), RetryHint.class);
+      } catch (JsonParseException ex) {
+        //ignore, the client retries as if the stream were completed normally
+      }
+    }
+
+    void onError(Throwable ex) {
+      this.error = ex;
+      this.opened.completeExceptionally(ex);
+      this.messages.offer(END_OF_STREAM);
+    }
+
+    void onComplete() {
+      this.messages.offer(END_OF_STREAM);
+    }
+
+    void setConnection(Disposable connection) {
+      this.connection = connection;
+    }
+
+    void awaitOpened(long timeoutInMillis)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      this.opened.get(timeoutInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public T nextEvent() throws IOException {
+      while (!this.closed) {
+        Object message;
+        try {
+          message = this.messages.poll(this.readTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          return null;
+        }
+        if (message == null) {
+          this.close();
+          throw new SocketTimeoutException(
+              String.format("No message received in %d ms", this.readTimeout));
+        }
+        if (message == END_OF_STREAM) {
+          if (this.error != null && !this.closed) {
+            throw new IOException("Notification websocket failed", this.error);
+          }
+          return null;
+        }
+        // an empty message is the heartbeat
+        String text = (String) message;
+        if (!text.isEmpty()) {
+          return this.gson.fromJson(text, this.eventDataType);
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public RetryHint getRetryHint() {
+      return this.retryHint;
+    }
+
+    @Override
+    public void close() {
+      this.closed = true;
+      Disposable connection = this.connection;
+      if (connection != null) {
+        connection.dispose();
+      }
+      this.messages.offer(END_OF_STREAM);
+    }
+  }
+}
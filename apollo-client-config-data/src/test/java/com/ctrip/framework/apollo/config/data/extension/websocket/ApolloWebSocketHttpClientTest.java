@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.config.data.extension.websocket;
+
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.ctrip.framework.apollo.util.http.HttpEventStream;
+import com.ctrip.framework.apollo.util.http.HttpRequest;
+import com.google.common.net.HttpHeaders;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+public class ApolloWebSocketHttpClientTest {
+
+  private static final Type NOTIFICATIONS_TYPE = new TypeToken<List<ApolloConfigNotification>>() {
+  }.getType();
+
+  private final AtomicReference<String> receivedAuthorization = new AtomicReference<>();
+
+  private DisposableServer server;
+
+  private ApolloWebSocketHttpClient httpClient;
+
+  @Before
+  public void setUp() {
+    this.server = HttpServer.create().port(0)
+        .route(routes -> routes.ws("/notifications/v3/websocket", (inbound, outbound) -> {
+          this.receivedAuthorization.set(inbound.headers().get(HttpHeaders.AUTHORIZATION));
+          return outbound.sendString(Flux.just(
+              "[{\"namespaceName\":\"application\",\"notificationId\":1}]",
+              "",
+              "[{\"namespaceName\":\"application\",\"notificationId\":2}]"));
+        }).ws("/notifications/v3/drained", (inbound, outbound) -> outbound
+            .sendString(Flux.just("[{\"namespaceName\":\"application\",\"notificationId\":1}]"))
+            .then(outbound.sendClose(1012, "{\"retryAfterInMilli\":1000,\"jitterInMilli\":3000}"))))
+        .bindNow();
+    this.httpClient = new ApolloWebSocketHttpClient(null, new ReactorNettyWebSocketClient(),
+        new MockConfigUtil(), new Gson());
+  }
+
+  @After
+  public void tearDown() {
+    this.server.disposeNow();
+  }
+
+  @Test
+  public void testDoGetEventStream() throws Exception {
+    // the notification stream is mapped to the websocket endpoint
+    HttpEventStream<List<ApolloConfigNotification>> stream = this.httpClient
+        .doGetEventStream(this.assembleRequest("/notifications/v3/stream"), NOTIFICATIONS_TYPE);
+
+    try {
+      Assert.assertEquals(1, stream.nextEvent().get(0).getNotificationId());
+      // the heartbeat is skipped
+      Assert.assertEquals(2, stream.nextEvent().get(0).getNotificationId());
+      // closed by the server
+      Assert.assertNull(stream.nextEvent());
+      Assert.assertNull(stream.getRetryHint());
+    } finally {
+      stream.close();
+    }
+
+    // signed again for the websocket url
+    Assert.assertTrue(this.receivedAuthorization.get().startsWith("Apollo someAppId:"));
+  }
+
+  @Test
+  public void testDoGetEventStreamWithRetryHint() throws Exception {
+    HttpEventStream<List<ApolloConfigNotification>> stream = this.httpClient
+        .doGetEventStream(this.assembleRequest("/notifications/v3/drained"), NOTIFICATIONS_TYPE);
+
+    try {
+      Assert.assertEquals(1, stream.nextEvent().get(0).getNotificationId());
+      // closed by the server with 1012 and the retry hint as the reason
+      Assert.assertNull(stream.nextEvent());
+      RetryHint retryHint = stream.getRetryHint();
+      Assert.assertEquals(1000, retryHint.getRetryAfterInMilli());
+      Assert.assertEquals(3000, retryHint.getJitterInMilli());
+    } finally {
+      stream.close();
+    }
+  }
+
+  @Test
+  public void testDoGetEventStreamNotSupported() {
+    try {
+      this.httpClient.doGetEventStream(this.assembleRequest("/notifications/v4/stream"),
+          NOTIFICATIONS_TYPE);
+      Assert.fail("the handshake should be rejected");
+    } catch (ApolloConfigStatusCodeException ex) {
+      Assert.assertEquals(404, ex.getStatusCode());
+    }
+  }
+
+  private HttpRequest assembleRequest(String path) {
+    HttpRequest request = new HttpRequest(String.format(
+        "http://localhost:%d%s?appId=someAppId&cluster=default&notifications=%%5B%%5D",
+        this.server.port(), path));
+    request.setReadTimeout(5000);
+    return request;
+  }
+
+  private static class MockConfigUtil extends ConfigUtil {
+
+    @Override
+    public String getAppId() {
+      return "someAppId";
+    }
+
+    @Override
+    public String getAccessKeySecret() {
+      return "someSecret";
+    }
+  }
+}
@@ -22,6 +22,7 @@ import com.ctrip.framework.apollo.core.utils.DeferredLoggerFactory;
 import com.ctrip.framework.apollo.core.utils.DeprecatedPropertyNotifyUtil;
 import com.ctrip.framework.foundation.Foundation;
 import java.lang.reflect.Type;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
@@ -47,6 +48,7 @@ import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.escape.Escaper;
+import com.google.common.net.HttpHeaders;
 import com.google.common.net.UrlEscapers;
 import com.google.gson.reflect.TypeToken;
 
@@ -55,6 +57,8 @@ public class ConfigServiceLocator {
   private HttpClient m_httpClient;
   private ConfigUtil m_configUtil;
   private AtomicReference<List<ServiceDTO>> m_configServices;
+  //the entity tag of the config services located from the meta service, so that an unchanged list is answered with 304
+  private String m_configServicesETag;
   private Type m_responseType;
   private ScheduledExecutorService m_executorService;
   private static final Joiner.MapJoiner MAP_JOINER = Joiner.on("&").withKeyValueSeparator("=");
@@ -194,6 +198,9 @@ public class ConfigServiceLocator {
     String url = assembleMetaServiceUrl();
 
     HttpRequest request = new HttpRequest(url);
+    if (m_configServicesETag != null && !m_configServices.get().isEmpty()) {
+      request.setHeaders(Collections.singletonMap(HttpHeaders.IF_NONE_MATCH, m_configServicesETag));
+    }
     int maxRetries = 2;
     Throwable exception = null;
 
@@ -203,12 +210,17 @@ public class ConfigServiceLocator {
       try {
         HttpResponse<List<ServiceDTO>> response = m_httpClient.doGet(request, m_responseType);
         transaction.setStatus(Transaction.SUCCESS);
+        if (response.getStatusCode() == 304) {
+          logger.debug("Meta service responds with 304 HTTP status code.");
+          return;
+        }
         List<ServiceDTO> services = response.getBody();
         if (services == null || services.isEmpty()) {
           logConfigService("Empty response!");
           continue;
         }
         setConfigServices(services);
+        m_configServicesETag = response.getHeader(HttpHeaders.ETAG);
         return;
       } catch (Throwable ex) {
         Tracer.logEvent("ApolloConfigException", ExceptionUtil.getDetailMessage(ex));
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.internals;
+
+import com.ctrip.framework.apollo.build.ApolloInjector;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.core.signature.Signature;
+import com.ctrip.framework.apollo.core.utils.DeferredLoggerFactory;
+import com.ctrip.framework.apollo.core.utils.StringUtils;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.ctrip.framework.apollo.tracer.spi.Transaction;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.ctrip.framework.apollo.util.ExceptionUtil;
+import com.ctrip.framework.apollo.util.http.HttpClient;
+import com.ctrip.framework.apollo.util.http.HttpRequest;
+import com.ctrip.framework.apollo.util.http.HttpResponse;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.escape.Escaper;
+import com.google.common.net.UrlEscapers;
+import com.google.gson.reflect.TypeToken;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+
+/**
+ * Loads the configs of multiple namespaces in one request, so that the repositories created afterwards, e.g. during
+ * the bootstrap, don't need to load them one by one.
+ *
+ * <p>The prefetched config is taken by the {@link RemoteConfigRepository} of the namespace for its first load only.
+ * Nothing is prefetched on failure, and the namespaces are loaded by the repositories as usual.</p>
+ */
+public class RemoteConfigBatchLoader {
+  private static final Logger logger = DeferredLoggerFactory.getLogger(RemoteConfigBatchLoader.class);
+  private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
+  private static final Joiner NAMESPACE_JOINER = Joiner.on(",");
+  private static final Joiner.MapJoiner MAP_JOINER = Joiner.on("&").withKeyValueSeparator("=");
+  private static final Escaper queryParamEscaper = UrlEscapers.urlFormParameterEscaper();
+  //a failed batch load delays the startup, so only a few config services are tried
+  private static final int MAX_ATTEMPTS = 2;
+
+  private final ConfigServiceLocator m_serviceLocator;
+  private final HttpClient m_httpClient;
+  private final ConfigUtil m_configUtil;
+  private final Type m_responseType;
+  private final Map<String, ApolloConfig> m_prefetchedConfigs;
+  private final Set<String> m_requestedNamespaces;
+
+  public RemoteConfigBatchLoader() {
+    m_configUtil = ApolloInjector.getInstance(ConfigUtil.class);
+    m_httpClient = ApolloInjector.getInstance(HttpClient.class);
+    m_serviceLocator = ApolloInjector.getInstance(ConfigServiceLocator.class);
+    m_responseType = new TypeToken<List<ApolloConfig>>() {
+    }.getType();
+    m_prefetchedConfigs = Maps.newConcurrentMap();
+    m_requestedNamespaces = Sets.newConcurrentHashSet();
+  }
+
+  /**
+   * Prefetch the configs of the namespaces, the namespaces requested before are skipped
+   */
+  public void prefetch(Collection<String> namespaces) {
+    if (m_configUtil.isInLocalMode()) {
+      return;
+    }
+
+    List<String> namespacesToLoad = Lists.newArrayList();
+    for (String namespace : namespaces) {
+      if (m_requestedNamespaces.add(namespace)) {
+        namespacesToLoad.add(namespace);
+      }
+    }
+    //a single namespace is loaded by its repository just as fast
+    if (namespacesToLoad.size() < 2) {
+      return;
+    }
+
+    String appId = m_configUtil.getAppId();
+    String cluster = m_configUtil.getCluster();
+    String dataCenter = m_configUtil.getDataCenter();
+    String secret = m_configUtil.getAccessKeySecret();
+    Tracer.logEvent("Apollo.Client.ConfigMeta", STRING_JOINER.join(appId, cluster, NAMESPACE_JOINER.join(namespacesToLoad)));
+
+    List<ServiceDTO> configServices = Lists.newArrayList(m_serviceLocator.getConfigServices());
+    Collections.shuffle(configServices);
+
+    for (ServiceDTO configService : configServices.subList(0, Math.min(MAX_ATTEMPTS, configServices.size()))) {
+      String url = assembleQueryConfigsUrl(configService.getHomepageUrl(), appId, cluster, namespacesToLoad,
+          dataCenter);
+
+      logger.debug("Loading configs from {}", url);
+
+      HttpRequest request = new HttpRequest(url);
+      if (!StringUtils.isBlank(secret)) {
+        Map<String, String> headers = Signature.buildHttpHeaders(url, appId, secret);
+        request.setHeaders(headers);
+      }
+
+      Transaction transaction = Tracer.newTransaction("Apollo.ConfigService", "queryConfigs");
+      transaction.addData("Url", url);
+      try {
+        HttpResponse<List<ApolloConfig>> response = m_httpClient.doGet(request, m_responseType);
+        transaction.addData("StatusCode", response.getStatusCode());
+        transaction.setStatus(Transaction.SUCCESS);
+
+        if (response.getBody() != null) {
+          for (ApolloConfig config : response.getBody()) {
+            m_prefetchedConfigs.put(config.getNamespaceName(), config);
+          }
+        }
+        logger.debug("Prefetched configs of {} namespaces from {}", m_prefetchedConfigs.size(), url);
+        return;
+      } catch (ApolloConfigStatusCodeException ex) {
+        //the config service responded, e.g. not supported by an old version, so the others are not tried
+        logger.info("Load configs in batch failed, will load them one by one, url: {}, reason: {}", url,
+            ExceptionUtil.getDetailMessage(ex));
+        transaction.setStatus(ex);
+        return;
+      } catch (Throwable ex) {
+        logger.warn("Load configs in batch failed, url: {}, reason: {}", url, ExceptionUtil.getDetailMessage(ex));
+        transaction.setStatus(ex);
+      } finally {
+        transaction.complete();
+      }
+    }
+  }
+
+  /**
+   * Take the prefetched config of the namespace, which is removed so that it's never taken again
+   *
+   * @return the prefetched config, or null if not prefetched
+   */
+  public ApolloConfig take(String namespace) {
+    return m_prefetchedConfigs.remove(namespace);
+  }
+
+  String assembleQueryConfigsUrl(String uri, String appId, String cluster, List<String> namespaces,
+      String dataCenter) {
+    Map<String, String> queryParams = Maps.newLinkedHashMap();
+    queryParams.put("appId", queryParamEscaper.escape(appId));
+    queryParams.put("cluster", queryParamEscaper.escape(cluster));
+    queryParams.put("namespaces", queryParamEscaper.escape(NAMESPACE_JOINER.join(namespaces)));
+
+    if (!Strings.isNullOrEmpty(dataCenter)) {
+      queryParams.put("dataCenter", queryParamEscaper.escape(dataCenter));
+    }
+
+    String localIp = m_configUtil.getLocalIp();
+    if (!Strings.isNullOrEmpty(localIp)) {
+      queryParams.put("ip", queryParamEscaper.escape(localIp));
+    }
+
+    if (!uri.endsWith("/")) {
+      uri += "/";
+    }
+    return uri + "configs/batch?" + MAP_JOINER.join(queryParams);
+  }
+}
@@ -23,18 +23,23 @@ import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
 import com.ctrip.framework.apollo.core.enums.ConfigFileFormat;
 import com.ctrip.framework.apollo.core.schedule.ExponentialSchedulePolicy;
-import com.ctrip.framework.apollo.core.schedule.SchedulePolicy;
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
 import com.ctrip.framework.apollo.core.signature.Signature;
 import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.core.utils.NotificationsCodec;
 import com.ctrip.framework.apollo.core.utils.StringUtils;
 import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.ctrip.framework.apollo.tracer.spi.Transaction;
 import com.ctrip.framework.apollo.util.ConfigUtil;
 import com.ctrip.framework.apollo.util.ExceptionUtil;
+import com.ctrip.framework.apollo.util.http.EventStreamHttpClient;
+import com.ctrip.framework.apollo.util.http.HttpEventStream;
 import com.ctrip.framework.apollo.util.http.HttpRequest;
 import com.ctrip.framework.apollo.util.http.HttpResponse;
 import com.ctrip.framework.apollo.util.http.HttpClient;
+import com.ctrip.framework.apollo.util.http.PostHttpClient;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.HashMultimap;
@@ -42,15 +47,18 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
+import com.google.common.collect.Sets;
 import com.google.common.escape.Escaper;
 import com.google.common.net.UrlEscapers;
 import com.google.common.reflect.TypeToken;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.gson.Gson;
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -70,9 +78,13 @@ public class RemoteConfigLongPollService {
   private static final long INIT_NOTIFICATION_ID = ConfigConsts.NOTIFICATION_ID_PLACEHOLDER;
   //90 seconds, should be longer than server side's long polling timeout, which is now 60 seconds
   private static final int LONG_POLLING_READ_TIMEOUT = 90 * 1000;
+  //90 seconds, should be longer than server side's notification stream heartbeat interval, which is now 30 seconds
+  private static final int NOTIFICATION_STREAM_READ_TIMEOUT = 90 * 1000;
+  //10 minutes, try the notification stream again after falling back to long polling
+  private static final long NOTIFICATION_STREAM_RETRY_INTERVAL = 10 * 60 * 1000;
   private final ExecutorService m_longPollingService;
   private final AtomicBoolean m_longPollingStopped;
-  private SchedulePolicy m_longPollFailSchedulePolicyInSecond;
+  private ExponentialSchedulePolicy m_longPollFailSchedulePolicyInMilli;
   private RateLimiter m_longPollRateLimiter;
   private final AtomicBoolean m_longPollStarted;
   private final Multimap<String, RemoteConfigRepository> m_longPollNamespaces;
@@ -83,12 +95,16 @@ public class RemoteConfigLongPollService {
   private ConfigUtil m_configUtil;
   private HttpClient m_httpClient;
   private ConfigServiceLocator m_serviceLocator;
+  private volatile HttpEventStream<List<ApolloConfigNotification>> m_notificationStream;
+  private volatile long m_notificationStreamDisabledUntil;
+  //the config services which advertised that the notifications could be posted in the compact encoding
+  private final Set<String> m_notificationsPostSupportedServices;
 
   /**
    * Constructor.
    */
   public RemoteConfigLongPollService() {
-    m_longPollFailSchedulePolicyInSecond = new ExponentialSchedulePolicy(1, 120); //in second
+    m_longPollFailSchedulePolicyInMilli = new ExponentialSchedulePolicy(1000, 120 * 1000); //in millisecond
     m_longPollingStopped = new AtomicBoolean(false);
     m_longPollingService = Executors.newSingleThreadExecutor(
         ApolloThreadFactory.create("RemoteConfigLongPollService", true));
@@ -97,6 +113,7 @@ public class RemoteConfigLongPollService {
         Multimaps.synchronizedSetMultimap(HashMultimap.<String, RemoteConfigRepository>create());
     m_notifications = Maps.newConcurrentMap();
     m_remoteNotificationMessages = Maps.newConcurrentMap();
+    m_notificationsPostSupportedServices = Sets.newConcurrentHashSet();
     m_responseType = new TypeToken<List<ApolloConfigNotification>>() {
     }.getType();
     m_configUtil = ApolloInjector.getInstance(ConfigUtil.class);
@@ -107,10 +124,14 @@ public class RemoteConfigLongPollService {
 
   public boolean submit(String namespace, RemoteConfigRepository remoteConfigRepository) {
     boolean added = m_longPollNamespaces.put(namespace, remoteConfigRepository);
-    m_notifications.putIfAbsent(namespace, INIT_NOTIFICATION_ID);
+    boolean newNamespace = m_notifications.putIfAbsent(namespace, INIT_NOTIFICATION_ID) == null;
     if (!m_longPollStarted.get()) {
       startLongPolling();
     }
+    if (newNamespace) {
+      //the opened stream doesn't watch the new namespace, so close it and subscribe again
+      closeNotificationStream();
+    }
     return added;
   }
 
@@ -150,11 +171,14 @@ public class RemoteConfigLongPollService {
 
   void stopLongPollingRefresh() {
     this.m_longPollingStopped.compareAndSet(false, true);
+    closeNotificationStream();
   }
 
   private void doLongPollingRefresh(String appId, String cluster, String dataCenter, String secret) {
     final Random random = new Random();
     ServiceDTO lastServiceDto = null;
+    //the config service which directed the client to poll elsewhere, e.g. when it is shutting down
+    String drainedHomepageUrl = null;
     while (!m_longPollingStopped.get() && !Thread.currentThread().isInterrupted()) {
       if (!m_longPollRateLimiter.tryAcquire(5, TimeUnit.SECONDS)) {
         //wait at most 5 seconds
@@ -167,34 +191,85 @@ public class RemoteConfigLongPollService {
       String url = null;
       try {
         if (lastServiceDto == null) {
-          List<ServiceDTO> configServices = getConfigServices();
-          lastServiceDto = configServices.get(random.nextInt(configServices.size()));
+          lastServiceDto = selectConfigService(random, drainedHomepageUrl);
         }
 
-        url =
-            assembleLongPollRefreshUrl(lastServiceDto.getHomepageUrl(), appId, cluster, dataCenter,
-                m_notifications);
-
-        logger.debug("Long polling from {}", url);
+        if (isNotificationStreamAvailable()) {
+          url = assembleNotificationStreamUrl(lastServiceDto.getHomepageUrl(), appId, cluster, dataCenter,
+              m_notifications);
+          transaction.addData("Url", url);
+          try {
+            String homepageUrl = lastServiceDto.getHomepageUrl();
+            RetryHint retryHint = doNotificationStreamRefresh(url, appId, secret, lastServiceDto);
+            //the stream is completed by server side periodically, subscribe to another one to balance the load
+            lastServiceDto = null;
+            transaction.setStatus(Transaction.SUCCESS);
+            if (retryHint != null) {
+              //the stream is drained, subscribe to another config service after a random delay in the jitter window
+              drainedHomepageUrl = homepageUrl;
+              retryAsDirected(retryHint, transaction, url);
+            } else {
+              drainedHomepageUrl = null;
+            }
+            continue;
+          } catch (ApolloConfigStatusCodeException ex) {
+            if (ex.getStatusCode() != 404) {
+              throw ex;
+            }
+            //the config service doesn't support the notification stream yet
+            m_notificationStreamDisabledUntil = System.currentTimeMillis() + NOTIFICATION_STREAM_RETRY_INTERVAL;
+            logger.info("Notification stream is not supported by {}, fall back to long polling",
+                lastServiceDto.getHomepageUrl());
+          }
+        }
 
-        HttpRequest request = new HttpRequest(url);
-        request.setReadTimeout(LONG_POLLING_READ_TIMEOUT);
-        if (!StringUtils.isBlank(secret)) {
-          Map<String, String> headers = Signature.buildHttpHeaders(url, appId, secret);
-          request.setHeaders(headers);
+        String homepageUrl = lastServiceDto.getHomepageUrl();
+        HttpResponse<List<ApolloConfigNotification>> response = null;
+        if (isNotificationsPostAvailable(homepageUrl)) {
+          //the notifications are posted in the body, so that the url is kept short
+          url = assembleLongPollRefreshUrl(homepageUrl, appId, cluster, dataCenter, null);
+          transaction.addData("Url", url);
+          try {
+            response = doLongPollingRequest(url, appId, secret, NotificationsCodec.encode(m_notifications));
+          } catch (ApolloConfigStatusCodeException ex) {
+            if (!isNotificationsPostRejected(ex.getStatusCode())) {
+              throw ex;
+            }
+            m_notificationsPostSupportedServices.remove(homepageUrl);
+            logger.info("Posting notifications is not supported by {}, fall back to get", homepageUrl);
+          }
         }
 
-        transaction.addData("Url", url);
+        if (response == null) {
+          url = assembleLongPollRefreshUrl(homepageUrl, appId, cluster, dataCenter, m_notifications);
+          transaction.addData("Url", url);
+          response = doLongPollingRequest(url, appId, secret, null);
+        }
 
-        final HttpResponse<List<ApolloConfigNotification>> response =
-            m_httpClient.doGet(request, m_responseType);
+        if (NotificationsCodec.CONTENT_TYPE
+            .equals(response.getHeader(NotificationsCodec.ACCEPT_NOTIFICATIONS_HEADER))) {
+          m_notificationsPostSupportedServices.add(homepageUrl);
+        }
 
         logger.debug("Long polling response: {}, url: {}", response.getStatusCode(), url);
         if (response.getStatusCode() == 200 && response.getBody() != null) {
-          updateNotifications(response.getBody());
+          List<ApolloConfigNotification> newNotifications = updateNotifications(response.getBody());
           updateRemoteNotifications(response.getBody());
           transaction.addData("Result", response.getBody().toString());
-          notify(lastServiceDto, response.getBody());
+          notify(lastServiceDto, newNotifications);
+        }
+
+        transaction.addData("StatusCode", response.getStatusCode());
+        transaction.setStatus(Transaction.SUCCESS);
+
+        RetryHint retryHint = RetryHint.fromHeaders(response.getHeader(RetryHint.RETRY_AFTER_HEADER),
+            response.getHeader(RetryHint.RETRY_JITTER_HEADER));
+        if (retryHint != null) {
+          //the notifications are up to date, poll another config service after a random delay in the jitter window
+          lastServiceDto = null;
+          drainedHomepageUrl = homepageUrl;
+          retryAsDirected(retryHint, transaction, url);
+          continue;
         }
 
         //try to load balance
@@ -202,28 +277,134 @@ public class RemoteConfigLongPollService {
           lastServiceDto = null;
         }
 
-        m_longPollFailSchedulePolicyInSecond.success();
-        transaction.addData("StatusCode", response.getStatusCode());
-        transaction.setStatus(Transaction.SUCCESS);
+        drainedHomepageUrl = null;
+        m_longPollFailSchedulePolicyInMilli.success();
       } catch (Throwable ex) {
         lastServiceDto = null;
         Tracer.logEvent("ApolloConfigException", ExceptionUtil.getDetailMessage(ex));
         transaction.setStatus(ex);
-        long sleepTimeInSecond = m_longPollFailSchedulePolicyInSecond.fail();
+        long sleepTimeInMilli = m_longPollFailSchedulePolicyInMilli.fail();
         logger.warn(
-            "Long polling failed, will retry in {} seconds. appId: {}, cluster: {}, namespaces: {}, long polling url: {}, reason: {}",
-            sleepTimeInSecond, appId, cluster, assembleNamespaces(), url, ExceptionUtil.getDetailMessage(ex));
-        try {
-          TimeUnit.SECONDS.sleep(sleepTimeInSecond);
-        } catch (InterruptedException ie) {
-          //ignore
-        }
+            "Long polling failed, will retry in {} ms. appId: {}, cluster: {}, namespaces: {}, long polling url: {}, reason: {}",
+            sleepTimeInMilli, appId, cluster, assembleNamespaces(), url, ExceptionUtil.getDetailMessage(ex));
+        sleepQuietly(sleepTimeInMilli);
       } finally {
         transaction.complete();
       }
     }
   }
 
+  /**
+   * Pick a config service randomly, but not the excluded one if there are others
+   */
+  private ServiceDTO selectConfigService(Random random, String excludedHomepageUrl) {
+    List<ServiceDTO> configServices = getConfigServices();
+    int index = random.nextInt(configServices.size());
+    if (excludedHomepageUrl != null && configServices.size() > 1
+        && excludedHomepageUrl.equals(configServices.get(index).getHomepageUrl())) {
+      index = (index + 1) % configServices.size();
+    }
+    return configServices.get(index);
+  }
+
+  /**
+   * Wait the delay directed by the retry hint, which is bounded by the fail schedule policy
+   */
+  private void retryAsDirected(RetryHint retryHint, Transaction transaction, String url) {
+    long sleepTimeInMilli = m_longPollFailSchedulePolicyInMilli.fail(retryHint.nextDelayInMilli());
+    transaction.addData("RetryAfter", sleepTimeInMilli);
+    logger.debug("Long polling is directed to retry in {} ms, long polling url: {}", sleepTimeInMilli, url);
+    sleepQuietly(sleepTimeInMilli);
+  }
+
+  private void sleepQuietly(long sleepTimeInMilli) {
+    try {
+      TimeUnit.MILLISECONDS.sleep(sleepTimeInMilli);
+    } catch (InterruptedException ie) {
+      //ignore
+    }
+  }
+
+  /**
+   * @param notificationsContent the notifications in the compact encoding to post, or null to get with the
+   *                             notifications in the url
+   */
+  private HttpResponse<List<ApolloConfigNotification>> doLongPollingRequest(String url, String appId,
+      String secret, byte[] notificationsContent) {
+    logger.debug("Long polling from {}", url);
+
+    HttpRequest request = new HttpRequest(url);
+    request.setReadTimeout(LONG_POLLING_READ_TIMEOUT);
+    if (!StringUtils.isBlank(secret)) {
+      Map<String, String> headers = Signature.buildHttpHeaders(url, appId, secret);
+      request.setHeaders(headers);
+    }
+
+    if (notificationsContent == null) {
+      return m_httpClient.doGet(request, m_responseType);
+    }
+    return ((PostHttpClient) m_httpClient)
+        .doPost(request, NotificationsCodec.CONTENT_TYPE, notificationsContent, m_responseType);
+  }
+
+  private boolean isNotificationsPostAvailable(String homepageUrl) {
+    return m_httpClient instanceof PostHttpClient
+        && m_notificationsPostSupportedServices.contains(homepageUrl);
+  }
+
+  /**
+   * The config services of old versions, or the proxies in front of them, reject the post with these status codes
+   */
+  private boolean isNotificationsPostRejected(int statusCode) {
+    return statusCode == 404 || statusCode == 405 || statusCode == 415;
+  }
+
+  private boolean isNotificationStreamAvailable() {
+    return m_configUtil.isNotificationStreamEnabled() && m_httpClient instanceof EventStreamHttpClient
+        && System.currentTimeMillis() >= m_notificationStreamDisabledUntil;
+  }
+
+  /**
+   * @return the retry hint if the stream is drained by the config service, or null if it is completed normally
+   */
+  private RetryHint doNotificationStreamRefresh(String url, String appId, String secret, ServiceDTO serviceDto)
+      throws IOException {
+    logger.debug("Subscribing notification stream from {}", url);
+
+    HttpRequest request = new HttpRequest(url);
+    request.setReadTimeout(NOTIFICATION_STREAM_READ_TIMEOUT);
+    if (!StringUtils.isBlank(secret)) {
+      Map<String, String> headers = Signature.buildHttpHeaders(url, appId, secret);
+      request.setHeaders(headers);
+    }
+
+    HttpEventStream<List<ApolloConfigNotification>> stream =
+        ((EventStreamHttpClient) m_httpClient).doGetEventStream(request, m_responseType);
+    m_notificationStream = stream;
+    m_longPollFailSchedulePolicyInMilli.success();
+
+    try {
+      List<ApolloConfigNotification> notifications;
+      while (!m_longPollingStopped.get() && (notifications = stream.nextEvent()) != null) {
+        logger.debug("Notification stream event: {}, url: {}", notifications, url);
+        List<ApolloConfigNotification> newNotifications = updateNotifications(notifications);
+        updateRemoteNotifications(notifications);
+        notify(serviceDto, newNotifications);
+      }
+      return stream.getRetryHint();
+    } finally {
+      m_notificationStream = null;
+      stream.close();
+    }
+  }
+
+  private void closeNotificationStream() {
+    HttpEventStream<List<ApolloConfigNotification>> stream = m_notificationStream;
+    if (stream != null) {
+      stream.close();
+    }
+  }
+
   private void notify(ServiceDTO lastServiceDto, List<ApolloConfigNotification> notifications) {
     if (notifications == null || notifications.isEmpty()) {
       return;
@@ -248,22 +429,38 @@ public class RemoteConfigLongPollService {
     }
   }
 
-  private void updateNotifications(List<ApolloConfigNotification> deltaNotifications) {
+  /**
+   * @return the notifications newer than the known ones, the others are already loaded and don't need to be notified
+   */
+  private List<ApolloConfigNotification> updateNotifications(List<ApolloConfigNotification> deltaNotifications) {
+    List<ApolloConfigNotification> newNotifications = Lists.newArrayListWithCapacity(deltaNotifications.size());
     for (ApolloConfigNotification notification : deltaNotifications) {
       if (Strings.isNullOrEmpty(notification.getNamespaceName())) {
         continue;
       }
       String namespaceName = notification.getNamespaceName();
-      if (m_notifications.containsKey(namespaceName)) {
-        m_notifications.put(namespaceName, notification.getNotificationId());
-      }
+      boolean updated = updateNotification(namespaceName, notification.getNotificationId());
       //since .properties are filtered out by default, so we need to check if there is notification with .properties suffix
       String namespaceNameWithPropertiesSuffix =
           String.format("%s.%s", namespaceName, ConfigFileFormat.Properties.getValue());
-      if (m_notifications.containsKey(namespaceNameWithPropertiesSuffix)) {
-        m_notifications.put(namespaceNameWithPropertiesSuffix, notification.getNotificationId());
+      updated |= updateNotification(namespaceNameWithPropertiesSuffix, notification.getNotificationId());
+      if (updated) {
+        newNotifications.add(notification);
       }
     }
+    return newNotifications;
+  }
+
+  /**
+   * @return true if the notification id is newer than the known one
+   */
+  private boolean updateNotification(String namespaceName, long notificationId) {
+    Long knownNotificationId = m_notifications.get(namespaceName);
+    if (knownNotificationId == null) {
+      return false;
+    }
+    m_notifications.put(namespaceName, notificationId);
+    return notificationId > knownNotificationId;
   }
 
   private void updateRemoteNotifications(List<ApolloConfigNotification> deltaNotifications) {
@@ -293,11 +490,24 @@ public class RemoteConfigLongPollService {
 
   String assembleLongPollRefreshUrl(String uri, String appId, String cluster, String dataCenter,
                                     Map<String, Long> notificationsMap) {
+    return assembleNotificationsUrl(uri, "notifications/v2", appId, cluster, dataCenter, notificationsMap);
+  }
+
+  String assembleNotificationStreamUrl(String uri, String appId, String cluster, String dataCenter,
+                                       Map<String, Long> notificationsMap) {
+    return assembleNotificationsUrl(uri, "notifications/v3/stream", appId, cluster, dataCenter, notificationsMap);
+  }
+
+  private String assembleNotificationsUrl(String uri, String path, String appId, String cluster,
+                                          String dataCenter, Map<String, Long> notificationsMap) {
     Map<String, String> queryParams = Maps.newHashMap();
     queryParams.put("appId", queryParamEscaper.escape(appId));
     queryParams.put("cluster", queryParamEscaper.escape(cluster));
-    queryParams
-        .put("notifications", queryParamEscaper.escape(assembleNotifications(notificationsMap)));
+    //the notifications are not in the url if they are posted in the body
+    if (notificationsMap != null) {
+      queryParams
+          .put("notifications", queryParamEscaper.escape(assembleNotifications(notificationsMap)));
+    }
 
     if (!Strings.isNullOrEmpty(dataCenter)) {
       queryParams.put("dataCenter", queryParamEscaper.escape(dataCenter));
@@ -312,7 +522,7 @@ public class RemoteConfigLongPollService {
       uri += "/";
     }
 
-    return uri + "notifications/v2?" + params;
+    return uri + path + "?" + params;
   }
 
   String assembleNotifications(Map<String, Long> notificationsMap) {
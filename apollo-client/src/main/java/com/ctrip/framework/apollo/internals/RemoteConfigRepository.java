@@ -21,7 +21,10 @@ import com.ctrip.framework.apollo.build.ApolloInjector;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.dto.ConfigurationChange;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.core.enums.ConfigSyncType;
+import com.ctrip.framework.apollo.core.enums.ConfigurationChangeType;
 import com.ctrip.framework.apollo.core.schedule.ExponentialSchedulePolicy;
 import com.ctrip.framework.apollo.core.schedule.SchedulePolicy;
 import com.ctrip.framework.apollo.core.signature.Signature;
@@ -71,6 +74,7 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
   private final HttpClient m_httpClient;
   private final ConfigUtil m_configUtil;
   private final RemoteConfigLongPollService remoteConfigLongPollService;
+  private final RemoteConfigBatchLoader m_batchLoader;
   private volatile AtomicReference<ApolloConfig> m_configCache;
   private final String m_namespace;
   private final static ScheduledExecutorService m_executorService;
@@ -98,6 +102,7 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
     m_httpClient = ApolloInjector.getInstance(HttpClient.class);
     m_serviceLocator = ApolloInjector.getInstance(ConfigServiceLocator.class);
     remoteConfigLongPollService = ApolloInjector.getInstance(RemoteConfigLongPollService.class);
+    m_batchLoader = ApolloInjector.getInstance(RemoteConfigBatchLoader.class);
     m_longPollServiceDto = new AtomicReference<>();
     m_remoteMessages = new AtomicReference<>();
     m_loadConfigRateLimiter = RateLimiter.create(m_configUtil.getLoadConfigQPS());
@@ -179,6 +184,15 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
   }
 
   private ApolloConfig loadApolloConfig() {
+    if (m_configCache.get() == null) {
+      //the first load might be prefetched along with the other namespaces
+      ApolloConfig prefetched = m_batchLoader.take(m_namespace);
+      if (prefetched != null) {
+        m_configNeedForceRefresh.set(false);
+        logger.debug("Loaded prefetched config for {}: {}", m_namespace, prefetched);
+        return prefetched;
+      }
+    }
     if (!m_loadConfigRateLimiter.tryAcquire(5, TimeUnit.SECONDS)) {
       //wait at most 5 seconds
       try {
@@ -219,8 +233,9 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
           }
         }
 
+        ApolloConfig previousConfig = m_configCache.get();
         url = assembleQueryConfigUrl(configService.getHomepageUrl(), appId, cluster, m_namespace,
-                dataCenter, m_remoteMessages.get(), m_configCache.get());
+                dataCenter, m_remoteMessages.get(), previousConfig);
 
         logger.debug("Loading config from {}", url);
 
@@ -248,6 +263,10 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
 
           ApolloConfig result = response.getBody();
 
+          if (result != null && result.getConfigSyncType() == ConfigSyncType.DELTA) {
+            result = applyConfigurationChanges(previousConfig, result);
+          }
+
           logger.debug("Loaded config for {}: {}", m_namespace, result);
 
           return result;
@@ -288,6 +307,32 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
     throw new ApolloConfigException(message, exception);
   }
 
+  /**
+   * Apply the changes of a delta response to the previous configurations, so that the result is a full config
+   */
+  private ApolloConfig applyConfigurationChanges(ApolloConfig previousConfig, ApolloConfig delta) {
+    if (previousConfig == null || previousConfig.getConfigurations() == null) {
+      throw new ApolloConfigException(String.format(
+          "Delta config received without previous config for namespace %s", m_namespace));
+    }
+
+    Map<String, String> configurations = Maps.newLinkedHashMap(previousConfig.getConfigurations());
+    if (delta.getConfigurationChanges() != null) {
+      for (ConfigurationChange change : delta.getConfigurationChanges()) {
+        if (change.getChangeType() == ConfigurationChangeType.DELETED) {
+          configurations.remove(change.getKey());
+        } else {
+          configurations.put(change.getKey(), change.getNewValue());
+        }
+      }
+    }
+
+    delta.setConfigurations(configurations);
+    delta.setConfigSyncType(ConfigSyncType.FULL);
+    delta.setConfigurationChanges(null);
+    return delta;
+  }
+
   String assembleQueryConfigUrl(String uri, String appId, String cluster, String namespace,
                                 String dataCenter, ApolloNotificationMessages remoteMessages, ApolloConfig previousConfig) {
 
@@ -299,6 +344,9 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
 
     if (previousConfig != null) {
       queryParams.put("releaseKey", queryParamEscaper.escape(previousConfig.getReleaseKey()));
+      if (m_configUtil.isConfigDeltaEnabled()) {
+        queryParams.put("delta", "true");
+      }
     }
 
     if (!Strings.isNullOrEmpty(dataCenter)) {
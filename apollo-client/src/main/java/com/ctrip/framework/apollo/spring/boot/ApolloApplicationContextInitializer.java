@@ -21,6 +21,7 @@ import com.ctrip.framework.apollo.ConfigService;
 import com.ctrip.framework.apollo.build.ApolloInjector;
 import com.ctrip.framework.apollo.core.ApolloClientSystemConsts;
 import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.internals.RemoteConfigBatchLoader;
 import com.ctrip.framework.apollo.core.utils.DeferredLogger;
 import com.ctrip.framework.apollo.spring.config.CachedCompositePropertySource;
 import com.ctrip.framework.apollo.spring.config.ConfigPropertySourceFactory;
@@ -89,7 +90,10 @@ public class ApolloApplicationContextInitializer implements
       ApolloClientSystemConsts.APOLLO_META,
       ApolloClientSystemConsts.APOLLO_CONFIG_SERVICE,
       ApolloClientSystemConsts.APOLLO_PROPERTY_ORDER_ENABLE,
-      ApolloClientSystemConsts.APOLLO_PROPERTY_NAMES_CACHE_ENABLE};
+      ApolloClientSystemConsts.APOLLO_PROPERTY_NAMES_CACHE_ENABLE,
+      ApolloClientSystemConsts.APOLLO_NOTIFICATION_STREAM_ENABLE,
+      ApolloClientSystemConsts.APOLLO_CONFIG_DELTA_ENABLE,
+      ApolloClientSystemConsts.APOLLO_CONFIG_BATCH_ENABLE};
 
   private final ConfigPropertySourceFactory configPropertySourceFactory = SpringInjector
       .getInstance(ConfigPropertySourceFactory.class);
@@ -134,6 +138,10 @@ public class ApolloApplicationContextInitializer implements
     } else {
       composite = new CompositePropertySource(PropertySourcesConstants.APOLLO_BOOTSTRAP_PROPERTY_SOURCE_NAME);
     }
+    if (configUtil.isConfigBatchEnabled()) {
+      //load the configs of all the namespaces in one request instead of one by one
+      ApolloInjector.getInstance(RemoteConfigBatchLoader.class).prefetch(namespaceList);
+    }
     for (String namespace : namespaceList) {
       Config config = ConfigService.getConfig(namespace);
 
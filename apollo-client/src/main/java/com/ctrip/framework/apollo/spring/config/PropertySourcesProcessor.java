@@ -17,6 +17,7 @@
 package com.ctrip.framework.apollo.spring.config;
 
 import com.ctrip.framework.apollo.build.ApolloInjector;
+import com.ctrip.framework.apollo.internals.RemoteConfigBatchLoader;
 import com.ctrip.framework.apollo.spring.property.AutoUpdateConfigChangeListener;
 import com.ctrip.framework.apollo.spring.util.SpringInjector;
 import com.ctrip.framework.apollo.util.ConfigUtil;
@@ -92,6 +93,11 @@ public class PropertySourcesProcessor implements BeanFactoryPostProcessor, Envir
     ImmutableSortedSet<Integer> orders = ImmutableSortedSet.copyOf(NAMESPACE_NAMES.keySet());
     Iterator<Integer> iterator = orders.iterator();
 
+    if (configUtil.isConfigBatchEnabled()) {
+      //load the configs of all the namespaces in one request instead of one by one
+      ApolloInjector.getInstance(RemoteConfigBatchLoader.class).prefetch(NAMESPACE_NAMES.values());
+    }
+
     while (iterator.hasNext()) {
       int order = iterator.next();
       for (String namespace : NAMESPACE_NAMES.get(order)) {
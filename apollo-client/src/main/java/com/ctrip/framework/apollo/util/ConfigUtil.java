@@ -57,6 +57,9 @@ public class ConfigUtil {
   private final RateLimiter warnLogRateLimiter;
   private boolean propertiesOrdered = false;
   private boolean propertyNamesCacheEnabled = false;
+  private boolean notificationStreamEnabled = false;
+  private boolean configDeltaEnabled = false;
+  private boolean configBatchEnabled = false;
 
   public ConfigUtil() {
     warnLogRateLimiter = RateLimiter.create(0.017); // 1 warning log output per minute
@@ -70,6 +73,9 @@ public class ConfigUtil {
     initAutoUpdateInjectedSpringProperties();
     initPropertiesOrdered();
     initPropertyNamesCacheEnabled();
+    initNotificationStreamEnabled();
+    initConfigDeltaEnabled();
+    initConfigBatchEnabled();
   }
 
   /**
@@ -420,4 +426,76 @@ public class ConfigUtil {
       }
     }
   }
+
+  public boolean isNotificationStreamEnabled() {
+    return notificationStreamEnabled;
+  }
+
+  private void initNotificationStreamEnabled() {
+    String propertyName = ApolloClientSystemConsts.APOLLO_NOTIFICATION_STREAM_ENABLE;
+    String propertyEnvName = ApolloClientSystemConsts.APOLLO_NOTIFICATION_STREAM_ENABLE_ENVIRONMENT_VARIABLES;
+    String enableNotificationStream = System.getProperty(propertyName);
+    if (Strings.isNullOrEmpty(enableNotificationStream)) {
+      enableNotificationStream = System.getenv(propertyEnvName);
+    }
+    if (Strings.isNullOrEmpty(enableNotificationStream)) {
+      enableNotificationStream = Foundation.app().getProperty(propertyName, "false");
+    }
+    if (!Strings.isNullOrEmpty(enableNotificationStream)) {
+      try {
+        notificationStreamEnabled = Boolean.parseBoolean(enableNotificationStream);
+      } catch (Throwable ex) {
+        logger.warn("Config for {} is invalid: {}, set default value: false",
+            propertyName, enableNotificationStream);
+      }
+    }
+  }
+
+  public boolean isConfigDeltaEnabled() {
+    return configDeltaEnabled;
+  }
+
+  private void initConfigDeltaEnabled() {
+    String propertyName = ApolloClientSystemConsts.APOLLO_CONFIG_DELTA_ENABLE;
+    String propertyEnvName = ApolloClientSystemConsts.APOLLO_CONFIG_DELTA_ENABLE_ENVIRONMENT_VARIABLES;
+    String enableConfigDelta = System.getProperty(propertyName);
+    if (Strings.isNullOrEmpty(enableConfigDelta)) {
+      enableConfigDelta = System.getenv(propertyEnvName);
+    }
+    if (Strings.isNullOrEmpty(enableConfigDelta)) {
+      enableConfigDelta = Foundation.app().getProperty(propertyName, "false");
+    }
+    if (!Strings.isNullOrEmpty(enableConfigDelta)) {
+      try {
+        configDeltaEnabled = Boolean.parseBoolean(enableConfigDelta);
+      } catch (Throwable ex) {
+        logger.warn("Config for {} is invalid: {}, set default value: false",
+            propertyName, enableConfigDelta);
+      }
+    }
+  }
+
+  public boolean isConfigBatchEnabled() {
+    return configBatchEnabled;
+  }
+
+  private void initConfigBatchEnabled() {
+    String propertyName = ApolloClientSystemConsts.APOLLO_CONFIG_BATCH_ENABLE;
+    String propertyEnvName = ApolloClientSystemConsts.APOLLO_CONFIG_BATCH_ENABLE_ENVIRONMENT_VARIABLES;
+    String enableConfigBatch = System.getProperty(propertyName);
+    if (Strings.isNullOrEmpty(enableConfigBatch)) {
+      enableConfigBatch = System.getenv(propertyEnvName);
+    }
+    if (Strings.isNullOrEmpty(enableConfigBatch)) {
+      enableConfigBatch = Foundation.app().getProperty(propertyName, "false");
+    }
+    if (!Strings.isNullOrEmpty(enableConfigBatch)) {
+      try {
+        configBatchEnabled = Boolean.parseBoolean(enableConfigBatch);
+      } catch (Throwable ex) {
+        logger.warn("Config for {} is invalid: {}, set default value: false",
+            propertyName, enableConfigBatch);
+      }
+    }
+  }
 }
@@ -17,25 +17,33 @@
 package com.ctrip.framework.apollo.util.http;
 
 import com.ctrip.framework.apollo.build.ApolloInjector;
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
 import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
 import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
 import com.ctrip.framework.apollo.util.ConfigUtil;
 import com.google.common.base.Function;
 import com.google.common.io.CharStreams;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
  */
-public class DefaultHttpClient implements HttpClient {
+public class DefaultHttpClient implements HttpClient, EventStreamHttpClient, PostHttpClient {
+  private static final String GZIP_ENCODING = "gzip";
   private ConfigUtil m_configUtil;
   private static final Gson GSON = new Gson();
 
@@ -63,7 +71,7 @@ public class DefaultHttpClient implements HttpClient {
       }
     };
 
-    return doGetWithSerializeFunction(httpRequest, convertResponse);
+    return doRequestWithSerializeFunction(httpRequest, "GET", null, null, convertResponse);
   }
 
   /**
@@ -83,46 +91,51 @@ public class DefaultHttpClient implements HttpClient {
       }
     };
 
-    return doGetWithSerializeFunction(httpRequest, convertResponse);
+    return doRequestWithSerializeFunction(httpRequest, "GET", null, null, convertResponse);
   }
 
-  private <T> HttpResponse<T> doGetWithSerializeFunction(HttpRequest httpRequest,
-                                                         Function<String, T> serializeFunction) {
+  /**
+   * Do post operation for the http request.
+   *
+   * @param httpRequest  the request
+   * @param contentType  the content type of the body
+   * @param body         the request body
+   * @param responseType the response type
+   * @return the response
+   * @throws ApolloConfigException if any error happened or response code is neither 200 nor 304
+   */
+  @Override
+  public <T> HttpResponse<T> doPost(HttpRequest httpRequest, String contentType, byte[] body,
+      final Type responseType) {
+    Function<String, T> convertResponse = new Function<String, T>() {
+      @Override
+      public T apply(String input) {
+        return GSON.fromJson(input, responseType);
+      }
+    };
+
+    return doRequestWithSerializeFunction(httpRequest, "POST", contentType, body, convertResponse);
+  }
+
+  private <T> HttpResponse<T> doRequestWithSerializeFunction(HttpRequest httpRequest, String method,
+      String contentType, byte[] body, Function<String, T> serializeFunction) {
     InputStreamReader isr = null;
     InputStreamReader esr = null;
     int statusCode;
     try {
-      HttpURLConnection conn = (HttpURLConnection) new URL(httpRequest.getUrl()).openConnection();
+      HttpURLConnection conn = openConnection(httpRequest, method, null, GZIP_ENCODING, contentType);
 
-      conn.setRequestMethod("GET");
-
-      Map<String, String> headers = httpRequest.getHeaders();
-      if (headers != null && headers.size() > 0) {
-        for (Map.Entry<String, String> entry : headers.entrySet()) {
-          conn.setRequestProperty(entry.getKey(), entry.getValue());
+      if (body != null) {
+        try (OutputStream out = conn.getOutputStream()) {
+          out.write(body);
         }
       }
 
-      int connectTimeout = httpRequest.getConnectTimeout();
-      if (connectTimeout < 0) {
-        connectTimeout = m_configUtil.getConnectTimeout();
-      }
-
-      int readTimeout = httpRequest.getReadTimeout();
-      if (readTimeout < 0) {
-        readTimeout = m_configUtil.getReadTimeout();
-      }
-
-      conn.setConnectTimeout(connectTimeout);
-      conn.setReadTimeout(readTimeout);
-
-      conn.connect();
-
       statusCode = conn.getResponseCode();
       String response;
 
       try {
-        isr = new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8);
+        isr = new InputStreamReader(getInputStream(conn), StandardCharsets.UTF_8);
         response = CharStreams.toString(isr);
       } catch (IOException ex) {
         /**
@@ -150,16 +163,17 @@ public class DefaultHttpClient implements HttpClient {
       }
 
       if (statusCode == 200) {
-        return new HttpResponse<>(statusCode, serializeFunction.apply(response));
+        return new HttpResponse<>(statusCode, serializeFunction.apply(response), getHeaders(conn));
       }
 
       if (statusCode == 304) {
-        return new HttpResponse<>(statusCode, null);
+        return new HttpResponse<>(statusCode, null, getHeaders(conn));
       }
     } catch (ApolloConfigStatusCodeException ex) {
       throw ex;
     } catch (Throwable ex) {
-      throw new ApolloConfigException("Could not complete get operation", ex);
+      throw new ApolloConfigException(
+          String.format("Could not complete %s operation", method.toLowerCase()), ex);
     } finally {
       if (isr != null) {
         try {
@@ -179,7 +193,228 @@ public class DefaultHttpClient implements HttpClient {
     }
 
     throw new ApolloConfigStatusCodeException(statusCode,
-        String.format("Get operation failed for %s", httpRequest.getUrl()));
+        String.format("%s%s operation failed for %s", method.charAt(0),
+            method.substring(1).toLowerCase(), httpRequest.getUrl()));
+  }
+
+  /**
+   * Open an event stream for the http request.
+   *
+   * @param httpRequest   the request
+   * @param eventDataType the type of the data of each event
+   * @return the opened stream
+   * @throws ApolloConfigException if any error happened or response code is not 200
+   */
+  @Override
+  public <T> HttpEventStream<T> doGetEventStream(HttpRequest httpRequest, final Type eventDataType) {
+    HttpURLConnection conn = null;
+    int statusCode;
+    try {
+      conn = openConnection(httpRequest, "GET", "text/event-stream", null, null);
+
+      statusCode = conn.getResponseCode();
+
+      if (statusCode == 200) {
+        Function<String, T> convertEventData = new Function<String, T>() {
+          @Override
+          public T apply(String input) {
+            return GSON.fromJson(input, eventDataType);
+          }
+        };
+        return new DefaultHttpEventStream<>(conn, convertEventData);
+      }
+
+      // clean up the connection by reading the response body so that the connection could be reused
+      InputStream errorStream = conn.getErrorStream();
+      if (errorStream != null) {
+        try (InputStreamReader esr = new InputStreamReader(errorStream, StandardCharsets.UTF_8)) {
+          CharStreams.toString(esr);
+        } catch (IOException ioe) {
+          //ignore
+        }
+      }
+    } catch (Throwable ex) {
+      if (conn != null) {
+        conn.disconnect();
+      }
+      throw new ApolloConfigException("Could not open event stream", ex);
+    }
+
+    throw new ApolloConfigStatusCodeException(statusCode,
+        String.format("Open event stream failed for %s", httpRequest.getUrl()));
   }
 
+  /**
+   * The response body is decompressed while it's read, if the server sent it gzip-compressed
+   */
+  private InputStream getInputStream(HttpURLConnection conn) throws IOException {
+    InputStream inputStream = conn.getInputStream();
+    if (GZIP_ENCODING.equalsIgnoreCase(conn.getContentEncoding())) {
+      return new GZIPInputStream(inputStream);
+    }
+    return inputStream;
+  }
+
+  /**
+   * @return the response headers with lower case names, only the first value of each header is kept
+   */
+  private Map<String, String> getHeaders(HttpURLConnection conn) {
+    Map<String, String> headers = new HashMap<>();
+    for (Map.Entry<String, List<String>> entry : conn.getHeaderFields().entrySet()) {
+      // the status line is mapped to the null key
+      if (entry.getKey() != null && !entry.getValue().isEmpty()) {
+        headers.put(entry.getKey().toLowerCase(), entry.getValue().get(0));
+      }
+    }
+    return headers;
+  }
+
+  private HttpURLConnection openConnection(HttpRequest httpRequest, String method, String accept,
+      String acceptEncoding, String contentType) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) new URL(httpRequest.getUrl()).openConnection();
+
+    conn.setRequestMethod(method);
+
+    if (contentType != null) {
+      conn.setRequestProperty("Content-Type", contentType);
+      conn.setDoOutput(true);
+    }
+
+    if (accept != null) {
+      conn.setRequestProperty("Accept", accept);
+    }
+
+    if (acceptEncoding != null) {
+      conn.setRequestProperty("Accept-Encoding", acceptEncoding);
+    }
+
+    Map<String, String> headers = httpRequest.getHeaders();
+    if (headers != null && headers.size() > 0) {
+      for (Map.Entry<String, String> entry : headers.entrySet()) {
+        conn.setRequestProperty(entry.getKey(), entry.getValue());
+      }
+    }
+
+    int connectTimeout = httpRequest.getConnectTimeout();
+    if (connectTimeout < 0) {
+      connectTimeout = m_configUtil.getConnectTimeout();
+    }
+
+    int readTimeout = httpRequest.getReadTimeout();
+    if (readTimeout < 0) {
+      readTimeout = m_configUtil.getReadTimeout();
+    }
+
+    conn.setConnectTimeout(connectTimeout);
+    conn.setReadTimeout(readTimeout);
+
+    conn.connect();
+
+    return conn;
+  }
+
+  private static class DefaultHttpEventStream<T> implements HttpEventStream<T> {
+    private static final String EVENT_FIELD = "event:";
+    private static final String DATA_FIELD = "data:";
+    private static final String RETRY_FIELD = "retry:";
+    //the event sent by the server before it closes the stream when it is shutting down
+    private static final String RETRY_EVENT = "retry";
+    private final HttpURLConnection m_connection;
+    private final BufferedReader m_reader;
+    private final Function<String, T> m_convertEventData;
+    private volatile boolean m_closed;
+    private volatile RetryHint m_retryHint;
+
+    DefaultHttpEventStream(HttpURLConnection connection, Function<String, T> convertEventData)
+        throws IOException {
+      m_connection = connection;
+      m_reader = new BufferedReader(
+          new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+      m_convertEventData = convertEventData;
+    }
+
+    @Override
+    public T nextEvent() throws IOException {
+      String eventName = null;
+      String reconnectTime = null;
+      StringBuilder data = null;
+      try {
+        String line;
+        while ((line = m_reader.readLine()) != null) {
+          if (line.isEmpty()) {
+            // an empty line dispatches the event, events without data, e.g. comments, are skipped
+            if (data != null) {
+              if (RETRY_EVENT.equals(eventName)) {
+                m_retryHint = decodeRetryHint(data.toString(), reconnectTime);
+                // the server closes the stream right after the retry event
+                return null;
+              }
+              return m_convertEventData.apply(data.toString());
+            }
+            eventName = null;
+            reconnectTime = null;
+            continue;
+          }
+          if (line.startsWith(EVENT_FIELD)) {
+            eventName = fieldValue(line, EVENT_FIELD);
+          } else if (line.startsWith(RETRY_FIELD)) {
+            reconnectTime = fieldValue(line, RETRY_FIELD);
+          } else if (line.startsWith(DATA_FIELD)) {
+            String value = fieldValue(line, DATA_FIELD);
+            if (data == null) {
+              data = new StringBuilder(value);
+            } else {
+              data.append('\n').append(value);
+            }
+          }
+        }
+      } catch (IOException ex) {
+        if (m_closed) {
+          return null;
+        }
+        throw ex;
+      }
+      return null;
+    }
+
+    @Override
+    public RetryHint getRetryHint() {
+      return m_retryHint;
+    }
+
+    private String fieldValue(String line, String field) {
+      String value = line.substring(field.length());
+      if (value.startsWith(" ")) {
+        value = value.substring(1);
+      }
+      return value;
+    }
+
+    /**
+     * The data of the retry event is the json object of the retry hint, and the reconnection time is used if the data
+     * is malformed
+     */
+    private RetryHint decodeRetryHint(String data, String reconnectTime) {
+      try {
+        RetryHint retryHint = GSON.fromJson(data, RetryHint.class);
+        if (retryHint != null) {
+          return retryHint;
+        }
+      } catch (JsonParseException ex) {
+        //ignore
+      }
+      return RetryHint.fromHeaders(reconnectTime, null);
+    }
+
+    @Override
+    public void close() {
+      m_closed = true;
+      m_connection.disconnect();
+      try {
+        m_reader.close();
+      } catch (IOException ex) {
+        //ignore
+      }
+    }
+  }
 }
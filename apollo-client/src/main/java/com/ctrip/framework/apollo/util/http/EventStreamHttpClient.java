@@ -0,0 +1,39 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.util.http;
+
+import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
+import java.lang.reflect.Type;
+
+/**
+ * An optional capability of {@link HttpClient} implementations to read server-sent events, or the same events over
+ * another push channel, e.g. websocket. The notification stream is not used if the {@link HttpClient} in use doesn't
+ * implement it.
+ */
+public interface EventStreamHttpClient {
+
+  /**
+   * Open an event stream for the http request.
+   *
+   * @param httpRequest   the request
+   * @param eventDataType the type of the data of each event
+   * @return the opened stream
+   * @throws ApolloConfigException if any error happened or response code is not 200
+   */
+  <T> HttpEventStream<T> doGetEventStream(HttpRequest httpRequest, final Type eventDataType)
+      throws ApolloConfigException;
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.util.http;
+
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A stream of events opened by {@link EventStreamHttpClient}.
+ */
+public interface HttpEventStream<T> extends Closeable {
+
+  /**
+   * Read the data of the next event, blocking until it arrives. Comments, e.g. heartbeats, are skipped.
+   *
+   * @return the data of the event, or null if the stream is closed by either side
+   * @throws IOException if the connection is broken
+   */
+  T nextEvent() throws IOException;
+
+  /**
+   * The server sends a retry hint before it closes the stream when it is shutting down, so that the client waits the
+   * directed delay and subscribes to another server.
+   *
+   * @return the retry hint sent by the server, or null if the stream is not closed with one
+   */
+  RetryHint getRetryHint();
+
+  /**
+   * Close the stream, which could be called from another thread to stop a blocking {@link #nextEvent()}.
+   */
+  @Override
+  void close();
+}
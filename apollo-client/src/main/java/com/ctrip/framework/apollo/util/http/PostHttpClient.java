@@ -0,0 +1,40 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.util.http;
+
+import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
+import java.lang.reflect.Type;
+
+/**
+ * An optional capability of {@link HttpClient} implementations to post a request body. The notifications are polled
+ * with get requests if the {@link HttpClient} in use doesn't implement it.
+ */
+public interface PostHttpClient {
+
+  /**
+   * Do post operation for the http request.
+   *
+   * @param httpRequest  the request
+   * @param contentType  the content type of the body
+   * @param body         the request body
+   * @param responseType the response type
+   * @return the response
+   * @throws ApolloConfigException if any error happened or response code is neither 200 nor 304
+   */
+  <T> HttpResponse<T> doPost(HttpRequest httpRequest, String contentType, byte[] body,
+      final Type responseType) throws ApolloConfigException;
+}
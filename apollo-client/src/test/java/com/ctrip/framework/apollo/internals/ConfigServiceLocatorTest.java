@@ -17,12 +17,32 @@
 package com.ctrip.framework.apollo.internals;
 
 import static org.junit.Assert.assertEquals;
-
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ctrip.framework.apollo.build.MockInjector;
 import com.ctrip.framework.apollo.core.ApolloClientSystemConsts;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.ctrip.framework.apollo.util.http.HttpClient;
+import com.ctrip.framework.apollo.util.http.HttpRequest;
+import com.ctrip.framework.apollo.util.http.HttpResponse;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.net.HttpHeaders;
+import java.lang.reflect.Type;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 public class ConfigServiceLocatorTest {
 
@@ -30,6 +50,7 @@ public class ConfigServiceLocatorTest {
   public void tearDown() throws Exception {
     System.clearProperty(ApolloClientSystemConsts.APOLLO_CONFIG_SERVICE);
     System.clearProperty(ApolloClientSystemConsts.DEPRECATED_APOLLO_CONFIG_SERVICE);
+    MockInjector.reset();
   }
 
   @Test
@@ -66,4 +87,34 @@ public class ConfigServiceLocatorTest {
     assertEquals(someConfigServiceUrl.trim(), result.get(0).getHomepageUrl());
     assertEquals(anotherConfigServiceUrl.trim(), result.get(1).getHomepageUrl());
   }
+
+  @Test
+  public void testGetConfigServicesWithConditionalRequest() throws Exception {
+    String someETag = "\"someETag\"";
+    ServiceDTO someService = new ServiceDTO();
+    someService.setHomepageUrl("http://someConfigService/");
+    List<ServiceDTO> someServices = Lists.newArrayList(someService);
+
+    ConfigUtil configUtil = mock(ConfigUtil.class);
+    when(configUtil.getMetaServerDomainName()).thenReturn("http://someMetaServer");
+    when(configUtil.getAppId()).thenReturn("someAppId");
+    when(configUtil.getRefreshInterval()).thenReturn(10);
+    when(configUtil.getRefreshIntervalTimeUnit()).thenReturn(TimeUnit.MILLISECONDS);
+    HttpClient httpClient = mock(HttpClient.class);
+    doReturn(new HttpResponse<>(200, someServices, ImmutableMap.of("etag", someETag)))
+        .doReturn(new HttpResponse<>(304, null))
+        .when(httpClient).doGet(any(HttpRequest.class), any(Type.class));
+    MockInjector.setInstance(ConfigUtil.class, configUtil);
+    MockInjector.setInstance(HttpClient.class, httpClient);
+
+    ConfigServiceLocator configServiceLocator = new ConfigServiceLocator();
+
+    ArgumentCaptor<HttpRequest> requestCaptor = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(httpClient, timeout(1000).atLeast(2)).doGet(requestCaptor.capture(), any(Type.class));
+
+    // the services located are kept when the meta service responds with 304
+    assertSame(someServices, configServiceLocator.getConfigServices());
+    assertNull(requestCaptor.getAllValues().get(0).getHeaders());
+    assertEquals(someETag, requestCaptor.getAllValues().get(1).getHeaders().get(HttpHeaders.IF_NONE_MATCH));
+  }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.internals;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ctrip.framework.apollo.build.MockInjector;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.ctrip.framework.apollo.util.http.HttpClient;
+import com.ctrip.framework.apollo.util.http.HttpRequest;
+import com.ctrip.framework.apollo.util.http.HttpResponse;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import java.lang.reflect.Type;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RemoteConfigBatchLoaderTest {
+  private RemoteConfigBatchLoader remoteConfigBatchLoader;
+  @Mock
+  private HttpClient httpClient;
+  @Mock
+  private ConfigServiceLocator configServiceLocator;
+  @Mock
+  private HttpResponse<List<ApolloConfig>> someResponse;
+  private Type responseType;
+
+  private String someServerUrl;
+  private String anotherServerUrl;
+  private String someNamespace;
+  private String anotherNamespace;
+  private static String someAppId;
+  private static String someCluster;
+
+  @Before
+  public void setUp() throws Exception {
+    someServerUrl = "http://someServer";
+    anotherServerUrl = "http://anotherServer";
+    someNamespace = "someNamespace";
+    anotherNamespace = "anotherNamespace";
+    someAppId = "someAppId";
+    someCluster = "someCluster";
+
+    ServiceDTO someService = mock(ServiceDTO.class);
+    when(someService.getHomepageUrl()).thenReturn(someServerUrl);
+    ServiceDTO anotherService = mock(ServiceDTO.class);
+    when(anotherService.getHomepageUrl()).thenReturn(anotherServerUrl);
+    when(configServiceLocator.getConfigServices()).thenReturn(Lists.newArrayList(someService, anotherService));
+
+    MockInjector.setInstance(HttpClient.class, httpClient);
+    MockInjector.setInstance(ConfigServiceLocator.class, configServiceLocator);
+    MockInjector.setInstance(ConfigUtil.class, new MockConfigUtil());
+
+    remoteConfigBatchLoader = new RemoteConfigBatchLoader();
+    responseType = (Type) ReflectionTestUtils.getField(remoteConfigBatchLoader, "m_responseType");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    MockInjector.reset();
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    ApolloConfig someConfig = assembleApolloConfig(someNamespace, "someValue");
+    ApolloConfig anotherConfig = assembleApolloConfig(anotherNamespace, "anotherValue");
+
+    when(someResponse.getStatusCode()).thenReturn(HttpServletResponse.SC_OK);
+    when(someResponse.getBody()).thenReturn(Lists.newArrayList(someConfig, anotherConfig));
+    doReturn(someResponse).when(httpClient).doGet(any(HttpRequest.class), eq(responseType));
+
+    remoteConfigBatchLoader.prefetch(Lists.newArrayList(someNamespace, anotherNamespace));
+    //the namespaces requested before are not loaded again
+    remoteConfigBatchLoader.prefetch(Lists.newArrayList(someNamespace, anotherNamespace));
+
+    ArgumentCaptor<HttpRequest> requestCaptor = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(httpClient, times(1)).doGet(requestCaptor.capture(), eq(responseType));
+    String url = requestCaptor.getValue().getUrl();
+    assertTrue(url.contains("/configs/batch?"));
+    assertTrue(url.contains("namespaces=" + someNamespace + "%2C" + anotherNamespace));
+
+    assertEquals(someConfig, remoteConfigBatchLoader.take(someNamespace));
+    assertEquals(anotherConfig, remoteConfigBatchLoader.take(anotherNamespace));
+    //only taken once
+    assertNull(remoteConfigBatchLoader.take(someNamespace));
+  }
+
+  @Test
+  public void testPrefetchWithSingleNamespace() throws Exception {
+    remoteConfigBatchLoader.prefetch(Lists.newArrayList(someNamespace));
+
+    verify(httpClient, never()).doGet(any(HttpRequest.class), eq(responseType));
+    assertNull(remoteConfigBatchLoader.take(someNamespace));
+  }
+
+  @Test
+  public void testPrefetchNotSupported() throws Exception {
+    when(httpClient.doGet(any(HttpRequest.class), eq(responseType)))
+        .thenThrow(new ApolloConfigStatusCodeException(HttpServletResponse.SC_NOT_FOUND, "some error"));
+
+    remoteConfigBatchLoader.prefetch(Lists.newArrayList(someNamespace, anotherNamespace));
+
+    //the other config service is not tried as the status code is returned
+    verify(httpClient, times(1)).doGet(any(HttpRequest.class), eq(responseType));
+    assertNull(remoteConfigBatchLoader.take(someNamespace));
+  }
+
+  @Test
+  public void testPrefetchWithConnectionError() throws Exception {
+    when(httpClient.doGet(any(HttpRequest.class), eq(responseType)))
+        .thenThrow(new ApolloConfigException("some error"));
+
+    remoteConfigBatchLoader.prefetch(Lists.newArrayList(someNamespace, anotherNamespace));
+
+    verify(httpClient, times(2)).doGet(any(HttpRequest.class), eq(responseType));
+    assertNull(remoteConfigBatchLoader.take(someNamespace));
+  }
+
+  @Test
+  public void testAssembleQueryConfigsUrl() throws Exception {
+    String someCluster = "someCluster+ &.-_someSign";
+    String someDataCenter = "someDC";
+
+    String url = remoteConfigBatchLoader.assembleQueryConfigsUrl(someServerUrl, someAppId, someCluster,
+        Lists.newArrayList(someNamespace, anotherNamespace), someDataCenter);
+
+    assertTrue(url.startsWith(someServerUrl + "/configs/batch?"));
+    assertTrue(url.contains("appId=" + someAppId));
+    assertTrue(url.contains("cluster=someCluster%2B+%26.-_someSign"));
+    assertTrue(url.contains("namespaces=" + someNamespace + "%2C" + anotherNamespace));
+    assertTrue(url.contains("dataCenter=" + someDataCenter));
+  }
+
+  private ApolloConfig assembleApolloConfig(String namespace, String value) {
+    ApolloConfig apolloConfig = new ApolloConfig(someAppId, someCluster, namespace, "someReleaseKey");
+    apolloConfig.setConfigurations(ImmutableMap.of("someKey", value));
+    return apolloConfig;
+  }
+
+  public static class MockConfigUtil extends ConfigUtil {
+    @Override
+    public String getAppId() {
+      return someAppId;
+    }
+
+    @Override
+    public String getCluster() {
+      return someCluster;
+    }
+
+    @Override
+    public String getDataCenter() {
+      return null;
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.ctrip.framework.apollo.internals;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
@@ -27,16 +28,23 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 import com.ctrip.framework.apollo.build.MockInjector;
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
 import com.ctrip.framework.apollo.core.signature.Signature;
+import com.ctrip.framework.apollo.core.utils.NotificationsCodec;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
 import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.ctrip.framework.apollo.util.http.EventStreamHttpClient;
+import com.ctrip.framework.apollo.util.http.HttpEventStream;
 import com.ctrip.framework.apollo.util.http.HttpRequest;
 import com.ctrip.framework.apollo.util.http.HttpResponse;
 import com.ctrip.framework.apollo.util.http.HttpClient;
+import com.ctrip.framework.apollo.util.http.PostHttpClient;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.net.HttpHeaders;
@@ -76,9 +84,11 @@ public class RemoteConfigLongPollServiceTest {
   private static String someAppId;
   private static String someCluster;
   private static String someSecret;
+  private static boolean notificationStreamEnabled;
 
   @Before
   public void setUp() throws Exception {
+    notificationStreamEnabled = false;
     MockInjector.setInstance(HttpClient.class, httpClient);
 
     someServerUrl = "http://someServer";
@@ -422,6 +432,7 @@ public class RemoteConfigLongPollServiceTest {
     ApolloConfigNotification someNotification = mock(ApolloConfigNotification.class);
     when(someNotification.getNamespaceName()).thenReturn(someNamespace);
     when(someNotification.getMessages()).thenReturn(notificationMessages);
+    when(someNotification.getNotificationId()).thenReturn(someNotificationId);
 
     when(pollResponse.getStatusCode()).thenReturn(HttpServletResponse.SC_OK);
     when(pollResponse.getBody()).thenReturn(Lists.newArrayList(someNotification));
@@ -475,6 +486,7 @@ public class RemoteConfigLongPollServiceTest {
     String anotherKey = "anotherKey";
     long anotherNotificationId = 2;
     notificationMessages.put(anotherKey, anotherNotificationId);
+    when(someNotification.getNotificationId()).thenReturn(anotherNotificationId);
 
     //send notifications
     when(pollResponse.getStatusCode()).thenReturn(HttpServletResponse.SC_OK);
@@ -492,6 +504,364 @@ public class RemoteConfigLongPollServiceTest {
     assertEquals(anotherNotificationId, captured.get(anotherKey).longValue());
   }
 
+  @Test
+  public void testSubmitLongPollNamespaceWithSameNotificationNotNotifiedAgain() throws Exception {
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+    final String someNamespace = "someNamespace";
+
+    ApolloConfigNotification someNotification = mock(ApolloConfigNotification.class);
+    when(someNotification.getNamespaceName()).thenReturn(someNamespace);
+    when(someNotification.getNotificationId()).thenReturn(1L);
+
+    when(pollResponse.getStatusCode()).thenReturn(HttpServletResponse.SC_OK);
+    when(pollResponse.getBody()).thenReturn(Lists.newArrayList(someNotification));
+
+    final AtomicInteger polls = new AtomicInteger();
+    final SettableFuture<Boolean> polledAgain = SettableFuture.create();
+    doAnswer(new Answer<HttpResponse<List<ApolloConfigNotification>>>() {
+      @Override
+      public HttpResponse<List<ApolloConfigNotification>> answer(InvocationOnMock invocation)
+          throws Throwable {
+        TimeUnit.MILLISECONDS.sleep(50);
+        if (polls.incrementAndGet() > 3) {
+          polledAgain.set(true);
+        }
+        return pollResponse;
+      }
+    }).when(httpClient).doGet(any(HttpRequest.class), eq(responseType));
+
+    remoteConfigLongPollService.submit(someNamespace, someRepository);
+
+    polledAgain.get(5000, TimeUnit.MILLISECONDS);
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    // the notification id is already known after the first response, so the config is not loaded again
+    verify(someRepository, times(1)).onLongPollNotified(any(ServiceDTO.class), any(ApolloNotificationMessages.class));
+  }
+
+  @Test
+  public void testSubmitLongPollNamespaceWithRetryHint() throws Exception {
+    final String anotherServerUrl = "http://anotherServer";
+    ServiceDTO someServiceDTO = mock(ServiceDTO.class);
+    when(someServiceDTO.getHomepageUrl()).thenReturn(someServerUrl);
+    ServiceDTO anotherServiceDTO = mock(ServiceDTO.class);
+    when(anotherServiceDTO.getHomepageUrl()).thenReturn(anotherServerUrl);
+    when(configServiceLocator.getConfigServices())
+        .thenReturn(Lists.newArrayList(someServiceDTO, anotherServiceDTO));
+
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+    final String someNamespace = "someNamespace";
+
+    final HttpResponse<List<ApolloConfigNotification>> drainedResponse = mock(HttpResponse.class);
+    when(drainedResponse.getStatusCode()).thenReturn(HttpServletResponse.SC_NOT_MODIFIED);
+    when(drainedResponse.getHeader(RetryHint.RETRY_AFTER_HEADER)).thenReturn("0");
+    when(drainedResponse.getHeader(RetryHint.RETRY_JITTER_HEADER)).thenReturn("0");
+    when(pollResponse.getStatusCode()).thenReturn(HttpServletResponse.SC_NOT_MODIFIED);
+
+    final List<String> polledUrls = Lists.newCopyOnWriteArrayList();
+    final SettableFuture<Boolean> polledAgain = SettableFuture.create();
+    doAnswer(new Answer<HttpResponse<List<ApolloConfigNotification>>>() {
+      @Override
+      public HttpResponse<List<ApolloConfigNotification>> answer(InvocationOnMock invocation)
+          throws Throwable {
+        HttpRequest request = invocation.getArgumentAt(0, HttpRequest.class);
+        polledUrls.add(request.getUrl());
+        if (polledUrls.size() == 1) {
+          return drainedResponse;
+        }
+        polledAgain.set(true);
+        TimeUnit.MILLISECONDS.sleep(50);
+        return pollResponse;
+      }
+    }).when(httpClient).doGet(any(HttpRequest.class), eq(responseType));
+
+    long start = System.currentTimeMillis();
+    remoteConfigLongPollService.submit(someNamespace, someRepository);
+
+    polledAgain.get(5000, TimeUnit.MILLISECONDS);
+    long elapsed = System.currentTimeMillis() - start;
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    // the directed delay is bounded by the lower bound of the schedule policy, which is 1 second
+    assertTrue(elapsed >= 1000);
+    // the config service which directed the client to retry is not polled again
+    String drainedServerUrl = polledUrls.get(0).startsWith(someServerUrl) ? someServerUrl : anotherServerUrl;
+    assertFalse(polledUrls.get(1).startsWith(drainedServerUrl));
+    verify(someRepository, never()).onLongPollNotified(any(ServiceDTO.class), any(ApolloNotificationMessages.class));
+  }
+
+  @Test
+  public void testSubmitNotificationStreamNamespace() throws Exception {
+    notificationStreamEnabled = true;
+    HttpClient streamingHttpClient = mock(HttpClient.class, withSettings().extraInterfaces(EventStreamHttpClient.class));
+    MockInjector.setInstance(HttpClient.class, streamingHttpClient);
+    remoteConfigLongPollService = new RemoteConfigLongPollService();
+
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+    final String someNamespace = "someNamespace";
+    String someKey = "someKey";
+    long someNotificationId = 1;
+    long anotherNotificationId = 2;
+
+    final HttpEventStream<List<ApolloConfigNotification>> someStream = mock(HttpEventStream.class);
+    when(someStream.nextEvent()).thenReturn(
+        Lists.newArrayList(assembleNotification(someNamespace, someKey, someNotificationId)),
+        Lists.newArrayList(assembleNotification(someNamespace, someKey, anotherNotificationId)), null);
+
+    final HttpEventStream<List<ApolloConfigNotification>> idleStream = mock(HttpEventStream.class);
+    final SettableFuture<String> resubscribed = SettableFuture.create();
+    when(idleStream.nextEvent()).thenAnswer(new Answer<List<ApolloConfigNotification>>() {
+      @Override
+      public List<ApolloConfigNotification> answer(InvocationOnMock invocation) throws Throwable {
+        TimeUnit.MILLISECONDS.sleep(50);
+        return null;
+      }
+    });
+
+    final AtomicInteger streams = new AtomicInteger();
+    doAnswer(new Answer<HttpEventStream<List<ApolloConfigNotification>>>() {
+      @Override
+      public HttpEventStream<List<ApolloConfigNotification>> answer(InvocationOnMock invocation)
+          throws Throwable {
+        HttpRequest request = invocation.getArgumentAt(0, HttpRequest.class);
+        assertTrue(request.getUrl().contains(someServerUrl + "/notifications/v3/stream?"));
+        assertTrue(request.getUrl().contains("appId=" + someAppId));
+        assertTrue(request.getUrl().contains(someNamespace));
+
+        if (streams.getAndIncrement() == 0) {
+          return someStream;
+        }
+        // the stream is subscribed again with the latest notification id after being completed
+        resubscribed.set(request.getUrl());
+        return idleStream;
+      }
+    }).when((EventStreamHttpClient) streamingHttpClient).doGetEventStream(any(HttpRequest.class), eq(responseType));
+
+    remoteConfigLongPollService.submit(someNamespace, someRepository);
+
+    String resubscribedUrl = resubscribed.get(5000, TimeUnit.MILLISECONDS);
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    assertTrue(resubscribedUrl.contains("%22notificationId%22%3A" + anotherNotificationId));
+    verify(someRepository, times(2)).onLongPollNotified(any(ServiceDTO.class), any(ApolloNotificationMessages.class));
+    verify(someStream, times(1)).close();
+    verify(streamingHttpClient, never()).doGet(any(HttpRequest.class), eq(responseType));
+  }
+
+  @Test
+  public void testSubmitNotificationStreamNamespaceWithRetryHint() throws Exception {
+    notificationStreamEnabled = true;
+    HttpClient streamingHttpClient = mock(HttpClient.class, withSettings().extraInterfaces(EventStreamHttpClient.class));
+    MockInjector.setInstance(HttpClient.class, streamingHttpClient);
+    remoteConfigLongPollService = new RemoteConfigLongPollService();
+
+    final String anotherServerUrl = "http://anotherServer";
+    ServiceDTO someServiceDTO = mock(ServiceDTO.class);
+    when(someServiceDTO.getHomepageUrl()).thenReturn(someServerUrl);
+    ServiceDTO anotherServiceDTO = mock(ServiceDTO.class);
+    when(anotherServiceDTO.getHomepageUrl()).thenReturn(anotherServerUrl);
+    when(configServiceLocator.getConfigServices())
+        .thenReturn(Lists.newArrayList(someServiceDTO, anotherServiceDTO));
+
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+    final String someNamespace = "someNamespace";
+
+    // the config service drains the stream with a retry hint
+    final HttpEventStream<List<ApolloConfigNotification>> drainedStream = mock(HttpEventStream.class);
+    when(drainedStream.nextEvent()).thenReturn(null);
+    when(drainedStream.getRetryHint()).thenReturn(new RetryHint(0, 0));
+
+    final HttpEventStream<List<ApolloConfigNotification>> idleStream = mock(HttpEventStream.class);
+    when(idleStream.nextEvent()).thenAnswer(new Answer<List<ApolloConfigNotification>>() {
+      @Override
+      public List<ApolloConfigNotification> answer(InvocationOnMock invocation) throws Throwable {
+        TimeUnit.MILLISECONDS.sleep(50);
+        return null;
+      }
+    });
+
+    final List<String> subscribedUrls = Lists.newCopyOnWriteArrayList();
+    final SettableFuture<Boolean> resubscribed = SettableFuture.create();
+    doAnswer(new Answer<HttpEventStream<List<ApolloConfigNotification>>>() {
+      @Override
+      public HttpEventStream<List<ApolloConfigNotification>> answer(InvocationOnMock invocation)
+          throws Throwable {
+        HttpRequest request = invocation.getArgumentAt(0, HttpRequest.class);
+        subscribedUrls.add(request.getUrl());
+        if (subscribedUrls.size() == 1) {
+          return drainedStream;
+        }
+        resubscribed.set(true);
+        return idleStream;
+      }
+    }).when((EventStreamHttpClient) streamingHttpClient).doGetEventStream(any(HttpRequest.class), eq(responseType));
+
+    long start = System.currentTimeMillis();
+    remoteConfigLongPollService.submit(someNamespace, someRepository);
+
+    resubscribed.get(5000, TimeUnit.MILLISECONDS);
+    long elapsed = System.currentTimeMillis() - start;
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    // the directed delay is bounded by the lower bound of the schedule policy, which is 1 second
+    assertTrue(elapsed >= 1000);
+    // the config service which drained the stream is not subscribed again
+    String drainedServerUrl = subscribedUrls.get(0).startsWith(someServerUrl) ? someServerUrl : anotherServerUrl;
+    assertFalse(subscribedUrls.get(1).startsWith(drainedServerUrl));
+    verify(drainedStream, times(1)).close();
+    verify(someRepository, never()).onLongPollNotified(any(ServiceDTO.class), any(ApolloNotificationMessages.class));
+  }
+
+  @Test
+  public void testSubmitNotificationStreamNamespaceFallbackToLongPolling() throws Exception {
+    notificationStreamEnabled = true;
+    HttpClient streamingHttpClient = mock(HttpClient.class, withSettings().extraInterfaces(EventStreamHttpClient.class));
+    MockInjector.setInstance(HttpClient.class, streamingHttpClient);
+    remoteConfigLongPollService = new RemoteConfigLongPollService();
+
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+    final String someNamespace = "someNamespace";
+
+    when(((EventStreamHttpClient) streamingHttpClient).doGetEventStream(any(HttpRequest.class), eq(responseType)))
+        .thenThrow(new ApolloConfigStatusCodeException(HttpServletResponse.SC_NOT_FOUND, "some error"));
+    when(pollResponse.getStatusCode()).thenReturn(HttpServletResponse.SC_NOT_MODIFIED);
+
+    final AtomicInteger polls = new AtomicInteger();
+    final SettableFuture<Boolean> longPollFinished = SettableFuture.create();
+    doAnswer(new Answer<HttpResponse<List<ApolloConfigNotification>>>() {
+      @Override
+      public HttpResponse<List<ApolloConfigNotification>> answer(InvocationOnMock invocation)
+          throws Throwable {
+        TimeUnit.MILLISECONDS.sleep(50);
+        HttpRequest request = invocation.getArgumentAt(0, HttpRequest.class);
+        assertTrue(request.getUrl().contains(someServerUrl + "/notifications/v2?"));
+
+        if (polls.incrementAndGet() == 2) {
+          longPollFinished.set(true);
+        }
+        return pollResponse;
+      }
+    }).when(streamingHttpClient).doGet(any(HttpRequest.class), eq(responseType));
+
+    remoteConfigLongPollService.submit(someNamespace, someRepository);
+
+    longPollFinished.get(5000, TimeUnit.MILLISECONDS);
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    // the stream is not tried again on each poll after the 404 response
+    verify((EventStreamHttpClient) streamingHttpClient, times(1))
+        .doGetEventStream(any(HttpRequest.class), eq(responseType));
+  }
+
+  @Test
+  public void testSubmitLongPollNamespaceWithPostAfterAdvertised() throws Exception {
+    HttpClient postHttpClient = mock(HttpClient.class, withSettings().extraInterfaces(PostHttpClient.class));
+    MockInjector.setInstance(HttpClient.class, postHttpClient);
+    remoteConfigLongPollService = new RemoteConfigLongPollService();
+
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+    final String someNamespace = "someNamespace";
+
+    when(pollResponse.getStatusCode()).thenReturn(HttpServletResponse.SC_NOT_MODIFIED);
+    when(pollResponse.getHeader(NotificationsCodec.ACCEPT_NOTIFICATIONS_HEADER))
+        .thenReturn(NotificationsCodec.CONTENT_TYPE);
+    doAnswer(new Answer<HttpResponse<List<ApolloConfigNotification>>>() {
+      @Override
+      public HttpResponse<List<ApolloConfigNotification>> answer(InvocationOnMock invocation)
+          throws Throwable {
+        TimeUnit.MILLISECONDS.sleep(50);
+        return pollResponse;
+      }
+    }).when(postHttpClient).doGet(any(HttpRequest.class), eq(responseType));
+
+    final SettableFuture<HttpRequest> posted = SettableFuture.create();
+    final SettableFuture<byte[]> postedContent = SettableFuture.create();
+    doAnswer(new Answer<HttpResponse<List<ApolloConfigNotification>>>() {
+      @Override
+      public HttpResponse<List<ApolloConfigNotification>> answer(InvocationOnMock invocation)
+          throws Throwable {
+        TimeUnit.MILLISECONDS.sleep(50);
+        posted.set(invocation.getArgumentAt(0, HttpRequest.class));
+        postedContent.set(invocation.getArgumentAt(2, byte[].class));
+        return pollResponse;
+      }
+    }).when((PostHttpClient) postHttpClient).doPost(any(HttpRequest.class),
+        eq(NotificationsCodec.CONTENT_TYPE), any(byte[].class), eq(responseType));
+
+    remoteConfigLongPollService.submit(someNamespace, someRepository);
+
+    HttpRequest request = posted.get(5000, TimeUnit.MILLISECONDS);
+    byte[] content = postedContent.get(5000, TimeUnit.MILLISECONDS);
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    // the notifications are in the body instead of the url
+    assertTrue(request.getUrl().contains(someServerUrl + "/notifications/v2?"));
+    assertFalse(request.getUrl().contains("notifications="));
+    List<ApolloConfigNotification> notifications = NotificationsCodec.decode(content);
+    assertEquals(1, notifications.size());
+    assertEquals(someNamespace, notifications.get(0).getNamespaceName());
+    // only the first poll is sent with get before the support is advertised
+    verify(postHttpClient, times(1)).doGet(any(HttpRequest.class), eq(responseType));
+  }
+
+  @Test
+  public void testSubmitLongPollNamespaceWithPostFallbackToGet() throws Exception {
+    HttpClient postHttpClient = mock(HttpClient.class, withSettings().extraInterfaces(PostHttpClient.class));
+    MockInjector.setInstance(HttpClient.class, postHttpClient);
+    remoteConfigLongPollService = new RemoteConfigLongPollService();
+
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+    final String someNamespace = "someNamespace";
+
+    // the first response advertises the support, e.g. from a config service behind a proxy that rejects the post
+    when(pollResponse.getStatusCode()).thenReturn(HttpServletResponse.SC_NOT_MODIFIED);
+    when(pollResponse.getHeader(NotificationsCodec.ACCEPT_NOTIFICATIONS_HEADER))
+        .thenReturn(NotificationsCodec.CONTENT_TYPE, null);
+
+    final AtomicInteger polls = new AtomicInteger();
+    final SettableFuture<Boolean> longPollFinished = SettableFuture.create();
+    doAnswer(new Answer<HttpResponse<List<ApolloConfigNotification>>>() {
+      @Override
+      public HttpResponse<List<ApolloConfigNotification>> answer(InvocationOnMock invocation)
+          throws Throwable {
+        TimeUnit.MILLISECONDS.sleep(50);
+        HttpRequest request = invocation.getArgumentAt(0, HttpRequest.class);
+        assertTrue(request.getUrl().contains("notifications="));
+
+        if (polls.incrementAndGet() == 3) {
+          longPollFinished.set(true);
+        }
+        return pollResponse;
+      }
+    }).when(postHttpClient).doGet(any(HttpRequest.class), eq(responseType));
+    when(((PostHttpClient) postHttpClient).doPost(any(HttpRequest.class), eq(NotificationsCodec.CONTENT_TYPE),
+        any(byte[].class), eq(responseType)))
+        .thenThrow(new ApolloConfigStatusCodeException(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "some error"));
+
+    remoteConfigLongPollService.submit(someNamespace, someRepository);
+
+    longPollFinished.get(5000, TimeUnit.MILLISECONDS);
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    // the post is not tried again until the support is advertised again
+    verify((PostHttpClient) postHttpClient, times(1)).doPost(any(HttpRequest.class),
+        eq(NotificationsCodec.CONTENT_TYPE), any(byte[].class), eq(responseType));
+    verify(someRepository, never()).onLongPollNotified(any(ServiceDTO.class), any(ApolloNotificationMessages.class));
+  }
+
+  private ApolloConfigNotification assembleNotification(String namespace, String key, long notificationId) {
+    ApolloConfigNotification notification = new ApolloConfigNotification(namespace, notificationId);
+    notification.addMessage(key, notificationId);
+    return notification;
+  }
+
   @Test
   public void testAssembleLongPollRefreshUrl() throws Exception {
     String someUri = someServerUrl;
@@ -574,6 +944,11 @@ public class RemoteConfigLongPollServiceTest {
     public long getLongPollingInitialDelayInMills() {
       return 0;
     }
+
+    @Override
+    public boolean isNotificationStreamEnabled() {
+      return notificationStreamEnabled;
+    }
   }
 
 }
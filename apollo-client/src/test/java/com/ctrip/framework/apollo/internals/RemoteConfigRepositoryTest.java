@@ -18,6 +18,7 @@ package com.ctrip.framework.apollo.internals;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.eq;
@@ -25,6 +26,7 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -34,7 +36,10 @@ import com.ctrip.framework.apollo.build.MockInjector;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.dto.ConfigurationChange;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.core.enums.ConfigSyncType;
+import com.ctrip.framework.apollo.core.enums.ConfigurationChangeType;
 import com.ctrip.framework.apollo.core.signature.Signature;
 import com.ctrip.framework.apollo.enums.ConfigSourceType;
 import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
@@ -91,6 +96,7 @@ public class RemoteConfigRepositoryTest {
   private static String someAppId;
   private static String someCluster;
   private static String someSecret;
+  private static boolean configDeltaEnabled;
 
   @Before
   public void setUp() throws Exception {
@@ -126,6 +132,7 @@ public class RemoteConfigRepositoryTest {
 
     someAppId = "someAppId";
     someCluster = "someCluster";
+    configDeltaEnabled = false;
   }
 
   @After
@@ -153,6 +160,25 @@ public class RemoteConfigRepositoryTest {
     remoteConfigLongPollService.stopLongPollingRefresh();
   }
 
+  @Test
+  public void testLoadPrefetchedConfig() throws Exception {
+    Map<String, String> configurations = ImmutableMap.of("someKey", "someValue");
+    ApolloConfig someApolloConfig = assembleApolloConfig(configurations);
+
+    RemoteConfigBatchLoader batchLoader = mock(RemoteConfigBatchLoader.class);
+    when(batchLoader.take(someNamespace)).thenReturn(someApolloConfig);
+    MockInjector.setInstance(RemoteConfigBatchLoader.class, batchLoader);
+
+    RemoteConfigRepository remoteConfigRepository = new RemoteConfigRepository(someNamespace);
+
+    Properties config = remoteConfigRepository.getConfig();
+
+    assertEquals(configurations, config);
+    verify(batchLoader, times(1)).take(someNamespace);
+    verify(httpClient, never()).doGet(any(HttpRequest.class), eq(ApolloConfig.class));
+    remoteConfigLongPollService.stopLongPollingRefresh();
+  }
+
   @Test
   public void testLoadConfigWithOrderedProperties() throws Exception {
     String someKey = "someKey";
@@ -327,6 +353,45 @@ public class RemoteConfigRepositoryTest {
     assertTrue(request.getUrl().contains("messages=%7B%22details%22%3A%7B%22someKey%22%3A1%7D%7D"));
   }
 
+  @Test
+  public void testLoadConfigWithDelta() throws Exception {
+    configDeltaEnabled = true;
+    Map<String, String> configurations = ImmutableMap.of("someKey", "someValue", "anotherKey", "anotherValue");
+    ApolloConfig someApolloConfig = assembleApolloConfig(configurations);
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(someResponse.getBody()).thenReturn(someApolloConfig);
+
+    RepositoryChangeListener someListener = mock(RepositoryChangeListener.class);
+    RemoteConfigRepository remoteConfigRepository = new RemoteConfigRepository(someNamespace);
+    remoteConfigRepository.addChangeListener(someListener);
+    final ArgumentCaptor<Properties> captor = ArgumentCaptor.forClass(Properties.class);
+
+    ApolloConfig deltaApolloConfig = new ApolloConfig("appId", "cluster", someNamespace, "2");
+    deltaApolloConfig.setConfigSyncType(ConfigSyncType.DELTA);
+    deltaApolloConfig.setConfigurationChanges(Lists.newArrayList(
+        new ConfigurationChange("someKey", "someNewValue", ConfigurationChangeType.MODIFIED),
+        new ConfigurationChange("anotherKey", null, ConfigurationChangeType.DELETED),
+        new ConfigurationChange("newKey", "newValue", ConfigurationChangeType.ADDED)));
+
+    when(someResponse.getBody()).thenReturn(deltaApolloConfig);
+
+    remoteConfigRepository.sync();
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    verify(someListener, times(1)).onRepositoryChange(eq(someNamespace), captor.capture());
+    assertEquals(ImmutableMap.of("someKey", "someNewValue", "newKey", "newValue"), captor.getValue());
+
+    final ArgumentCaptor<HttpRequest> httpRequestArgumentCaptor = ArgumentCaptor
+        .forClass(HttpRequest.class);
+    verify(httpClient, times(2)).doGet(httpRequestArgumentCaptor.capture(), eq(ApolloConfig.class));
+
+    // only asks for the delta when there is a previous config
+    assertFalse(httpRequestArgumentCaptor.getAllValues().get(0).getUrl().contains("delta=true"));
+    assertTrue(httpRequestArgumentCaptor.getAllValues().get(1).getUrl().contains("delta=true"));
+  }
+
   @Test
   public void testAssembleQueryConfigUrl() throws Exception {
     Gson gson = new Gson();
@@ -421,6 +486,11 @@ public class RemoteConfigRepositoryTest {
     public long getLongPollingInitialDelayInMills() {
       return 0;
     }
+
+    @Override
+    public boolean isConfigDeltaEnabled() {
+      return configDeltaEnabled;
+    }
   }
 
   public static class MockHttpClient implements HttpClient {
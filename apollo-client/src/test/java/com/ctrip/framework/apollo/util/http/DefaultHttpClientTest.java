@@ -0,0 +1,247 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.util.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.ctrip.framework.apollo.build.MockInjector;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.google.common.io.ByteStreams;
+import com.google.common.reflect.TypeToken;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DefaultHttpClientTest {
+  private static final Type NOTIFICATIONS_TYPE = new TypeToken<List<ApolloConfigNotification>>() {
+  }.getType();
+
+  private DefaultHttpClient defaultHttpClient;
+  private Server server;
+  private volatile int statusCode;
+  private volatile String body;
+  private volatile String contentType;
+  private volatile String acceptEncoding;
+  private volatile String requestMethod;
+  private volatile String requestContentType;
+  private volatile byte[] requestBody;
+
+  @Before
+  public void setUp() throws Exception {
+    MockInjector.setInstance(ConfigUtil.class, new ConfigUtil());
+    defaultHttpClient = new DefaultHttpClient();
+
+    server = new Server(0);
+    server.setHandler(new AbstractHandler() {
+      @Override
+      public void handle(String target, Request baseRequest, HttpServletRequest request,
+          HttpServletResponse response) throws IOException {
+        acceptEncoding = request.getHeader("Accept-Encoding");
+        requestMethod = request.getMethod();
+        requestContentType = request.getContentType();
+        requestBody = ByteStreams.toByteArray(request.getInputStream());
+        response.setStatus(statusCode);
+        response.setHeader("Some-Header", "someValue");
+        response.setContentType(contentType);
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+          response.setHeader("Content-Encoding", "gzip");
+          try (GZIPOutputStream gzip = new GZIPOutputStream(response.getOutputStream())) {
+            gzip.write(body.getBytes(StandardCharsets.UTF_8));
+          }
+        } else {
+          response.getWriter().print(body);
+        }
+        baseRequest.setHandled(true);
+      }
+    });
+    server.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop();
+    MockInjector.reset();
+  }
+
+  @Test
+  public void testDoGetWithGzip() throws Exception {
+    statusCode = HttpServletResponse.SC_OK;
+    contentType = "application/json;charset=UTF-8";
+    body = "{\"appId\":\"someAppId\",\"configurations\":{\"someKey\":\"someValue\"},\"releaseKey\":\"1\"}";
+
+    HttpResponse<ApolloConfig> response =
+        defaultHttpClient.doGet(new HttpRequest(serverUrl()), ApolloConfig.class);
+
+    assertEquals("gzip", acceptEncoding);
+    assertEquals(HttpServletResponse.SC_OK, response.getStatusCode());
+    assertEquals("someAppId", response.getBody().getAppId());
+    assertEquals("someValue", response.getBody().getConfigurations().get("someKey"));
+  }
+
+  @Test
+  public void testDoPost() throws Exception {
+    statusCode = HttpServletResponse.SC_OK;
+    contentType = "application/json;charset=UTF-8";
+    body = "[{\"namespaceName\":\"application\",\"notificationId\":1}]";
+    byte[] someBody = new byte[]{1, 2, 3};
+
+    HttpResponse<List<ApolloConfigNotification>> response = defaultHttpClient
+        .doPost(new HttpRequest(serverUrl()), "application/octet-stream", someBody, NOTIFICATIONS_TYPE);
+
+    assertEquals("POST", requestMethod);
+    assertEquals("application/octet-stream", requestContentType);
+    assertArrayEquals(someBody, requestBody);
+    assertEquals(HttpServletResponse.SC_OK, response.getStatusCode());
+    assertEquals(1, response.getBody().get(0).getNotificationId());
+    // the header names are case insensitive
+    assertEquals("someValue", response.getHeader("some-header"));
+  }
+
+  @Test
+  public void testDoPostWithErrorStatusCode() throws Exception {
+    statusCode = HttpServletResponse.SC_METHOD_NOT_ALLOWED;
+    contentType = "text/plain;charset=UTF-8";
+    body = "method not allowed";
+
+    try {
+      defaultHttpClient.doPost(new HttpRequest(serverUrl()), "application/octet-stream", new byte[]{1},
+          NOTIFICATIONS_TYPE);
+      fail();
+    } catch (ApolloConfigStatusCodeException ex) {
+      assertEquals(HttpServletResponse.SC_METHOD_NOT_ALLOWED, ex.getStatusCode());
+    }
+  }
+
+  @Test
+  public void testDoGetEventStream() throws Exception {
+    statusCode = HttpServletResponse.SC_OK;
+    contentType = "text/event-stream;charset=UTF-8";
+    body = ":heartbeat\n\n"
+        + "event:notifications\n"
+        + "data:[{\"namespaceName\":\"application\",\"notificationId\":1}]\n\n"
+        + ":heartbeat\n\n"
+        + "event:notifications\n"
+        + "data: [{\"namespaceName\":\"application\",\n"
+        + "data:\"notificationId\":2}]\n\n";
+
+    HttpEventStream<List<ApolloConfigNotification>> stream =
+        defaultHttpClient.doGetEventStream(new HttpRequest(serverUrl()), NOTIFICATIONS_TYPE);
+
+    try {
+      List<ApolloConfigNotification> notifications = stream.nextEvent();
+      assertEquals(1, notifications.size());
+      assertEquals("application", notifications.get(0).getNamespaceName());
+      assertEquals(1, notifications.get(0).getNotificationId());
+
+      // multiple data lines are joined with line feeds
+      notifications = stream.nextEvent();
+      assertEquals(2, notifications.get(0).getNotificationId());
+
+      assertNull(stream.nextEvent());
+    } finally {
+      stream.close();
+    }
+
+    // the events are flushed one by one, so they are not compressed
+    assertNull(acceptEncoding);
+  }
+
+  @Test
+  public void testDoGetEventStreamWithRetryEvent() throws Exception {
+    statusCode = HttpServletResponse.SC_OK;
+    contentType = "text/event-stream;charset=UTF-8";
+    body = "event:notifications\n"
+        + "data:[{\"namespaceName\":\"application\",\"notificationId\":1}]\n\n"
+        + "event:retry\n"
+        + "retry:1500\n"
+        + "data:{\"retryAfterInMilli\":1000,\"jitterInMilli\":3000}\n\n";
+
+    HttpEventStream<List<ApolloConfigNotification>> stream =
+        defaultHttpClient.doGetEventStream(new HttpRequest(serverUrl()), NOTIFICATIONS_TYPE);
+
+    try {
+      assertEquals(1, stream.nextEvent().get(0).getNotificationId());
+      assertNull(stream.getRetryHint());
+
+      // the retry event is not passed to the converter of the notifications
+      assertNull(stream.nextEvent());
+      RetryHint retryHint = stream.getRetryHint();
+      assertEquals(1000, retryHint.getRetryAfterInMilli());
+      assertEquals(3000, retryHint.getJitterInMilli());
+    } finally {
+      stream.close();
+    }
+  }
+
+  @Test
+  public void testDoGetEventStreamWithMalformedRetryEvent() throws Exception {
+    statusCode = HttpServletResponse.SC_OK;
+    contentType = "text/event-stream;charset=UTF-8";
+    body = "event:retry\n"
+        + "retry:1500\n"
+        + "data:soon\n\n";
+
+    HttpEventStream<List<ApolloConfigNotification>> stream =
+        defaultHttpClient.doGetEventStream(new HttpRequest(serverUrl()), NOTIFICATIONS_TYPE);
+
+    try {
+      assertNull(stream.nextEvent());
+      // the reconnection time is used instead
+      assertEquals(1500, stream.getRetryHint().getRetryAfterInMilli());
+      assertEquals(0, stream.getRetryHint().getJitterInMilli());
+    } finally {
+      stream.close();
+    }
+  }
+
+  @Test
+  public void testDoGetEventStreamWithErrorStatusCode() throws Exception {
+    statusCode = HttpServletResponse.SC_NOT_FOUND;
+    contentType = "text/plain;charset=UTF-8";
+    body = "not found";
+
+    try {
+      defaultHttpClient.doGetEventStream(new HttpRequest(serverUrl()), NOTIFICATIONS_TYPE);
+      fail();
+    } catch (ApolloConfigStatusCodeException ex) {
+      assertEquals(HttpServletResponse.SC_NOT_FOUND, ex.getStatusCode());
+    }
+  }
+
+  private String serverUrl() {
+    return "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort()
+        + "/notifications/v3/stream";
+  }
+}
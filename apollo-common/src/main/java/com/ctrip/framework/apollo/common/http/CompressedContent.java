@@ -0,0 +1,165 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.common.http;
+
+import com.google.common.base.Splitter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A response body which is gzip-compressed once when it's put into the cache.
+ *
+ * <p>The compressed bytes are held next to the uncompressed ones, so neither the clients accepting gzip nor the others
+ * cost any encoding per request, and the cache weighs both. Small or incompressible bodies are only held as they
+ * are.</p>
+ *
+ * <p>The content built from releases carries the merged release key, which tags the response with an ETag.</p>
+ */
+public class CompressedContent {
+  private static final int MIN_COMPRESSION_SIZE = 1024;
+  private static final String GZIP = "gzip";
+  private static final Splitter ACCEPT_ENCODING_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+  private static final Splitter PARAMETER_SPLITTER = Splitter.on(';').trimResults();
+
+  private final byte[] content;
+  private final byte[] gzippedContent;
+  private final String releaseKey;
+
+  private CompressedContent(byte[] content, byte[] gzippedContent, String releaseKey) {
+    this.content = content;
+    this.gzippedContent = gzippedContent;
+    this.releaseKey = releaseKey;
+  }
+
+  public static CompressedContent compress(byte[] content) {
+    return compress(content, null);
+  }
+
+  /**
+   * @param releaseKey the merged release key of the content, or null if the response should not be tagged
+   */
+  public static CompressedContent compress(byte[] content, String releaseKey) {
+    if (content.length < MIN_COMPRESSION_SIZE) {
+      return new CompressedContent(content, null, releaseKey);
+    }
+    byte[] compressed = gzip(content);
+    if (compressed.length >= content.length) {
+      return new CompressedContent(content, null, releaseKey);
+    }
+    return new CompressedContent(content, compressed, releaseKey);
+  }
+
+  public static CompressedContent uncompressed(byte[] content) {
+    return uncompressed(content, null);
+  }
+
+  public static CompressedContent uncompressed(byte[] content, String releaseKey) {
+    return new CompressedContent(content, null, releaseKey);
+  }
+
+  /**
+   * @return the size of the bytes held, both uncompressed and compressed
+   */
+  public int size() {
+    return content.length + (gzippedContent == null ? 0 : gzippedContent.length);
+  }
+
+  public boolean isGzipped() {
+    return gzippedContent != null;
+  }
+
+  public String getReleaseKey() {
+    return releaseKey;
+  }
+
+  /**
+   * @param acceptGzip whether the client accepts gzip content encoding
+   * @return the gzip-compressed bytes if the client accepts them, otherwise the uncompressed bytes
+   */
+  public byte[] getContent(boolean acceptGzip) {
+    return acceptGzip && gzippedContent != null ? gzippedContent : content;
+  }
+
+  /**
+   * Build the response, with Content-Encoding set when the gzip-compressed bytes are sent, and ETag set when the
+   * release key is known
+   */
+  public ResponseEntity<byte[]> toResponse(HttpHeaders headers, String acceptEncoding) {
+    boolean acceptGzip = acceptsGzip(acceptEncoding);
+    HttpHeaders responseHeaders = new HttpHeaders();
+    responseHeaders.putAll(headers);
+    responseHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    boolean gzipEncoded = gzippedContent != null && acceptGzip;
+    if (gzipEncoded) {
+      responseHeaders.add(HttpHeaders.CONTENT_ENCODING, GZIP);
+    }
+    if (releaseKey != null) {
+      responseHeaders.add(HttpHeaders.ETAG, ETagUtil.etag(releaseKey, gzipEncoded));
+    }
+    return new ResponseEntity<>(getContent(acceptGzip), responseHeaders, HttpStatus.OK);
+  }
+
+  /**
+   * Check whether gzip is acceptable according to the Accept-Encoding header, e.g. {@code gzip, deflate;q=0.5}
+   */
+  public static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+      return false;
+    }
+    for (String encoding : ACCEPT_ENCODING_SPLITTER.split(acceptEncoding)) {
+      String coding = encoding;
+      boolean acceptable = true;
+      int parameterIndex = encoding.indexOf(';');
+      if (parameterIndex >= 0) {
+        coding = encoding.substring(0, parameterIndex).trim();
+        for (String parameter : PARAMETER_SPLITTER.split(encoding.substring(parameterIndex + 1))) {
+          if (parameter.startsWith("q=")) {
+            acceptable = isPositiveQuality(parameter.substring(2));
+          }
+        }
+      }
+      if (GZIP.equalsIgnoreCase(coding) || "*".equals(coding)) {
+        return acceptable;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isPositiveQuality(String quality) {
+    try {
+      return Double.parseDouble(quality) > 0;
+    } catch (NumberFormatException ex) {
+      return false;
+    }
+  }
+
+  private static byte[] gzip(byte[] content) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 4);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(content);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+    return out.toByteArray();
+  }
+}
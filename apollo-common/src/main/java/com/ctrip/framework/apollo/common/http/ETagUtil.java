@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.common.http;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Strong entity tags of the config responses, which are derived from the merged release key.
+ *
+ * <p>Gray releases have their own release keys, so a client hitting a gray release gets a different tag from the
+ * others. The gzip-encoded representation is tagged with a {@code -gzip} suffix, and both representations match the
+ * same release key in If-None-Match.</p>
+ */
+public final class ETagUtil {
+  private static final String GZIP_SUFFIX = "-gzip";
+  private static final String WEAK_PREFIX = "W/";
+  private static final String ANY = "*";
+  private static final Splitter IF_NONE_MATCH_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+  private ETagUtil() {
+  }
+
+  public static String etag(String releaseKey, boolean gzipped) {
+    return "\"" + releaseKey + (gzipped ? GZIP_SUFFIX : "") + "\"";
+  }
+
+  /**
+   * Check whether any of the entity tags in the If-None-Match header is of the release key, e.g. {@code "a+b",
+   * "c-gzip"}
+   */
+  public static boolean matches(String ifNoneMatch, String releaseKey) {
+    if (Strings.isNullOrEmpty(ifNoneMatch) || Strings.isNullOrEmpty(releaseKey)) {
+      return false;
+    }
+    for (String etag : IF_NONE_MATCH_SPLITTER.split(ifNoneMatch)) {
+      if (ANY.equals(etag)) {
+        return true;
+      }
+      //If-None-Match uses the weak comparison
+      if (etag.startsWith(WEAK_PREFIX)) {
+        etag = etag.substring(WEAK_PREFIX.length());
+      }
+      if (etag.length() < 2 || etag.charAt(0) != '"' || etag.charAt(etag.length() - 1) != '"') {
+        continue;
+      }
+      String opaqueTag = etag.substring(1, etag.length() - 1);
+      if (opaqueTag.endsWith(GZIP_SUFFIX)) {
+        opaqueTag = opaqueTag.substring(0, opaqueTag.length() - GZIP_SUFFIX.length());
+      }
+      if (releaseKey.equals(opaqueTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Build the 304 response, tagged as the identity representation
+   */
+  public static ResponseEntity<byte[]> notModified(String releaseKey) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.add(HttpHeaders.ETAG, etag(releaseKey, false));
+    headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+  }
+}
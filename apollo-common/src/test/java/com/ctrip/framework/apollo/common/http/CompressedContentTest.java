@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.common.http;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class CompressedContentTest {
+
+  @Test
+  public void testCompress() throws Exception {
+    byte[] someContent = Strings.repeat("someKey=someValue\n", 1000).getBytes(StandardCharsets.UTF_8);
+
+    CompressedContent compressedContent = CompressedContent.compress(someContent);
+
+    assertTrue(compressedContent.isGzipped());
+    assertTrue(compressedContent.getContent(true).length < someContent.length);
+    assertArrayEquals(someContent, gunzip(compressedContent.getContent(true)));
+    //the uncompressed bytes are held as well, instead of being inflated per request
+    assertSame(someContent, compressedContent.getContent(false));
+    assertEquals(someContent.length + compressedContent.getContent(true).length, compressedContent.size());
+  }
+
+  @Test
+  public void testCompressSmallContent() throws Exception {
+    byte[] someContent = "someKey=someValue".getBytes(StandardCharsets.UTF_8);
+
+    CompressedContent compressedContent = CompressedContent.compress(someContent);
+
+    assertFalse(compressedContent.isGzipped());
+    assertSame(someContent, compressedContent.getContent(true));
+    assertSame(someContent, compressedContent.getContent(false));
+  }
+
+  @Test
+  public void testToResponse() throws Exception {
+    byte[] someContent = Strings.repeat("someKey=someValue\n", 1000).getBytes(StandardCharsets.UTF_8);
+    HttpHeaders someHeaders = new HttpHeaders();
+    someHeaders.add(HttpHeaders.CONTENT_TYPE, "text/plain;charset=UTF-8");
+
+    CompressedContent compressedContent = CompressedContent.compress(someContent);
+
+    ResponseEntity<byte[]> gzipResponse = compressedContent.toResponse(someHeaders, "gzip, deflate");
+    ResponseEntity<byte[]> identityResponse = compressedContent.toResponse(someHeaders, null);
+
+    assertEquals("gzip", gzipResponse.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertEquals("text/plain;charset=UTF-8", gzipResponse.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE));
+    assertArrayEquals(someContent, gunzip(gzipResponse.getBody()));
+    assertNull(identityResponse.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertArrayEquals(someContent, identityResponse.getBody());
+    assertNull(someHeaders.getFirst(HttpHeaders.CONTENT_ENCODING));
+  }
+
+  @Test
+  public void testAcceptsGzip() throws Exception {
+    assertTrue(CompressedContent.acceptsGzip("gzip"));
+    assertTrue(CompressedContent.acceptsGzip("deflate, GZIP"));
+    assertTrue(CompressedContent.acceptsGzip("br;q=1.0, gzip;q=0.8"));
+    assertTrue(CompressedContent.acceptsGzip("*"));
+    assertFalse(CompressedContent.acceptsGzip(null));
+    assertFalse(CompressedContent.acceptsGzip(""));
+    assertFalse(CompressedContent.acceptsGzip("deflate, br"));
+    assertFalse(CompressedContent.acceptsGzip("gzip;q=0"));
+    assertFalse(CompressedContent.acceptsGzip("x-gzip"));
+  }
+
+  private byte[] gunzip(byte[] content) throws Exception {
+    try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(content))) {
+      return ByteStreams.toByteArray(gzip);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.common.http;
+
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ETagUtilTest {
+
+  @Test
+  public void testEtag() throws Exception {
+    assertEquals("\"someReleaseKey+anotherReleaseKey\"", ETagUtil.etag("someReleaseKey+anotherReleaseKey", false));
+    assertEquals("\"someReleaseKey-gzip\"", ETagUtil.etag("someReleaseKey", true));
+  }
+
+  @Test
+  public void testMatches() throws Exception {
+    String someReleaseKey = "20210101000000-someReleaseKey";
+
+    assertTrue(ETagUtil.matches("\"20210101000000-someReleaseKey\"", someReleaseKey));
+    assertTrue(ETagUtil.matches("\"20210101000000-someReleaseKey-gzip\"", someReleaseKey));
+    assertTrue(ETagUtil.matches("W/\"20210101000000-someReleaseKey\"", someReleaseKey));
+    assertTrue(ETagUtil.matches("\"anotherReleaseKey\", \"20210101000000-someReleaseKey\"", someReleaseKey));
+    assertTrue(ETagUtil.matches("*", someReleaseKey));
+
+    assertFalse(ETagUtil.matches(null, someReleaseKey));
+    assertFalse(ETagUtil.matches("\"20210101000000-someReleaseKey\"", null));
+    assertFalse(ETagUtil.matches("20210101000000-someReleaseKey", someReleaseKey));
+    assertFalse(ETagUtil.matches("\"20210101000000\"", someReleaseKey));
+    assertFalse(ETagUtil.matches("\"anotherReleaseKey\"", someReleaseKey));
+  }
+
+  @Test
+  public void testNotModified() throws Exception {
+    ResponseEntity<byte[]> response = ETagUtil.notModified("someReleaseKey");
+
+    assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+    assertEquals("\"someReleaseKey\"", response.getHeaders().getETag());
+    assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeaders().getFirst(HttpHeaders.VARY));
+    assertNull(response.getBody());
+  }
+}
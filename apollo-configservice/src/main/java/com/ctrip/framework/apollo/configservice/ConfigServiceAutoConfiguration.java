@@ -18,20 +18,30 @@ package com.ctrip.framework.apollo.configservice;
 
 import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.grayReleaseRule.GrayReleaseRulesHolder;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageListenerMode;
 import com.ctrip.framework.apollo.biz.message.ReleaseMessageScanner;
 import com.ctrip.framework.apollo.configservice.controller.ConfigFileController;
 import com.ctrip.framework.apollo.configservice.controller.NotificationController;
 import com.ctrip.framework.apollo.configservice.controller.NotificationControllerV2;
+import com.ctrip.framework.apollo.configservice.controller.NotificationWebSocketHandler;
 import com.ctrip.framework.apollo.configservice.filter.ClientAuthenticationFilter;
+import com.ctrip.framework.apollo.configservice.filter.ReleaseMessageCacheReadinessFilter;
+import com.ctrip.framework.apollo.configservice.service.ConfigResponseServiceWithCache;
+import com.ctrip.framework.apollo.configservice.service.NotificationStreamService;
+import com.ctrip.framework.apollo.configservice.service.ReleaseMessageScanLeaseService;
 import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
 import com.ctrip.framework.apollo.configservice.service.config.ConfigService;
 import com.ctrip.framework.apollo.configservice.service.config.ConfigServiceWithCache;
 import com.ctrip.framework.apollo.configservice.service.config.DefaultConfigService;
 import com.ctrip.framework.apollo.configservice.util.AccessKeyUtil;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.crypto.password.NoOpPasswordEncoder;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
@@ -71,47 +81,101 @@ public class ConfigServiceAutoConfiguration {
     filterRegistrationBean.addUrlPatterns("/configs/*");
     filterRegistrationBean.addUrlPatterns("/configfiles/*");
     filterRegistrationBean.addUrlPatterns("/notifications/v2/*");
+    filterRegistrationBean.addUrlPatterns("/notifications/v3/*");
 
     return filterRegistrationBean;
   }
 
+  @Bean
+  public FilterRegistrationBean releaseMessageCacheReadinessFilter(
+      ReleaseMessageServiceWithCache releaseMessageServiceWithCache) {
+    FilterRegistrationBean filterRegistrationBean = new FilterRegistrationBean();
+
+    filterRegistrationBean.setFilter(new ReleaseMessageCacheReadinessFilter(releaseMessageServiceWithCache));
+    filterRegistrationBean.addUrlPatterns("/configs/*");
+    filterRegistrationBean.addUrlPatterns("/configfiles/*");
+    filterRegistrationBean.addUrlPatterns("/notifications");
+    filterRegistrationBean.addUrlPatterns("/notifications/*");
+
+    return filterRegistrationBean;
+  }
+
+  @Configuration
+  @EnableWebSocket
+  static class WebSocketConfiguration implements WebSocketConfigurer {
+    private final NotificationWebSocketHandler notificationWebSocketHandler;
+
+    public WebSocketConfiguration(final NotificationWebSocketHandler notificationWebSocketHandler) {
+      this.notificationWebSocketHandler = notificationWebSocketHandler;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+      registry.addHandler(notificationWebSocketHandler, NotificationWebSocketHandler.PATH)
+          .addInterceptors(notificationWebSocketHandler);
+    }
+  }
+
   @Configuration
   static class MessageScannerConfiguration {
     private final NotificationController notificationController;
+    private final ConfigResponseServiceWithCache configResponseServiceWithCache;
     private final ConfigFileController configFileController;
     private final NotificationControllerV2 notificationControllerV2;
+    private final NotificationStreamService notificationStreamService;
     private final GrayReleaseRulesHolder grayReleaseRulesHolder;
     private final ReleaseMessageServiceWithCache releaseMessageServiceWithCache;
     private final ConfigService configService;
+    private final ReleaseMessageScanLeaseService releaseMessageScanLeaseService;
+    private final BizConfig bizConfig;
+    private final MeterRegistry meterRegistry;
 
     public MessageScannerConfiguration(
         final NotificationController notificationController,
+        final ConfigResponseServiceWithCache configResponseServiceWithCache,
         final ConfigFileController configFileController,
         final NotificationControllerV2 notificationControllerV2,
+        final NotificationStreamService notificationStreamService,
         final GrayReleaseRulesHolder grayReleaseRulesHolder,
         final ReleaseMessageServiceWithCache releaseMessageServiceWithCache,
-        final ConfigService configService) {
+        final ConfigService configService,
+        final ReleaseMessageScanLeaseService releaseMessageScanLeaseService,
+        final BizConfig bizConfig,
+        final MeterRegistry meterRegistry) {
       this.notificationController = notificationController;
+      this.configResponseServiceWithCache = configResponseServiceWithCache;
       this.configFileController = configFileController;
       this.notificationControllerV2 = notificationControllerV2;
+      this.notificationStreamService = notificationStreamService;
       this.grayReleaseRulesHolder = grayReleaseRulesHolder;
       this.releaseMessageServiceWithCache = releaseMessageServiceWithCache;
       this.configService = configService;
+      this.releaseMessageScanLeaseService = releaseMessageScanLeaseService;
+      this.bizConfig = bizConfig;
+      this.meterRegistry = meterRegistry;
     }
 
     @Bean
     public ReleaseMessageScanner releaseMessageScanner() {
       ReleaseMessageScanner releaseMessageScanner = new ReleaseMessageScanner();
-      //0. handle release message cache
+      //0. handle release message cache, every message is needed to detect the gaps
       releaseMessageScanner.addMessageListener(releaseMessageServiceWithCache);
       //1. handle gray release rule
-      releaseMessageScanner.addMessageListener(grayReleaseRulesHolder);
+      releaseMessageScanner.addMessageListener(grayReleaseRulesHolder, ReleaseMessageListenerMode.COALESCING);
       //2. handle server cache
-      releaseMessageScanner.addMessageListener(configService);
-      releaseMessageScanner.addMessageListener(configFileController);
-      //3. notify clients
-      releaseMessageScanner.addMessageListener(notificationControllerV2);
-      releaseMessageScanner.addMessageListener(notificationController);
+      releaseMessageScanner.addMessageListener(configService, ReleaseMessageListenerMode.COALESCING);
+      releaseMessageScanner.addMessageListener(configResponseServiceWithCache, ReleaseMessageListenerMode.COALESCING);
+      releaseMessageScanner.addMessageListener(configFileController, ReleaseMessageListenerMode.COALESCING);
+      //3. notify clients, on their own threads so that notifying many clients won't delay the scanning, while the
+      //caches above are always refreshed before the clients are notified
+      releaseMessageScanner.addMessageListener(notificationControllerV2, ReleaseMessageListenerMode.ASYNC);
+      releaseMessageScanner.addMessageListener(notificationStreamService, ReleaseMessageListenerMode.ASYNC);
+      releaseMessageScanner.addMessageListener(notificationController, ReleaseMessageListenerMode.ASYNC);
+      releaseMessageScanner.registerMetrics(meterRegistry);
+      if (bizConfig.isReleaseMessageScanLeaseEnabled()) {
+        //only the lease holder scans the database, the others receive the messages pushed by it
+        releaseMessageScanLeaseService.start(releaseMessageScanner);
+      }
       return releaseMessageScanner;
     }
   }
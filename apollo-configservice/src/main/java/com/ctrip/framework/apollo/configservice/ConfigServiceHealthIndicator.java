@@ -17,6 +17,7 @@
 package com.ctrip.framework.apollo.configservice;
 
 import com.ctrip.framework.apollo.biz.service.AppService;
+import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.data.domain.PageRequest;
@@ -26,14 +27,24 @@ import org.springframework.stereotype.Component;
 public class ConfigServiceHealthIndicator implements HealthIndicator {
 
   private final AppService appService;
+  private final ReleaseMessageServiceWithCache releaseMessageServiceWithCache;
 
-  public ConfigServiceHealthIndicator(final AppService appService) {
+  public ConfigServiceHealthIndicator(
+      final AppService appService,
+      final ReleaseMessageServiceWithCache releaseMessageServiceWithCache) {
     this.appService = appService;
+    this.releaseMessageServiceWithCache = releaseMessageServiceWithCache;
   }
 
   @Override
   public Health health() {
     check();
+    //not ready to serve until the release messages are loaded
+    if (!releaseMessageServiceWithCache.isInitialLoadCompleted()) {
+      return Health.outOfService()
+          .withDetail("releaseMessageLoadProgress", releaseMessageServiceWithCache.getInitialLoadProgress())
+          .build();
+    }
     return Health.up().build();
   }
 
@@ -17,21 +17,32 @@
 package com.ctrip.framework.apollo.configservice.controller;
 
 import com.ctrip.framework.apollo.biz.entity.Release;
+import com.ctrip.framework.apollo.biz.grayReleaseRule.GrayReleaseRulesHolder;
 import com.ctrip.framework.apollo.common.entity.AppNamespace;
+import com.ctrip.framework.apollo.common.exception.BadRequestException;
+import com.ctrip.framework.apollo.common.http.CompressedContent;
+import com.ctrip.framework.apollo.common.http.ETagUtil;
 import com.ctrip.framework.apollo.configservice.service.AppNamespaceServiceWithCache;
+import com.ctrip.framework.apollo.configservice.service.ConfigResponseServiceWithCache;
+import com.ctrip.framework.apollo.configservice.service.ConfigResponseServiceWithCache.IndexedRelease;
+import com.ctrip.framework.apollo.configservice.service.ConfigResponseServiceWithCache.IndexedReleaseKey;
 import com.ctrip.framework.apollo.configservice.service.config.ConfigService;
+import com.ctrip.framework.apollo.configservice.util.ClusterFallbackPlan;
 import com.ctrip.framework.apollo.configservice.util.InstanceConfigAuditUtil;
 import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.ResolvedReleases;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -41,11 +52,9 @@ import org.springframework.web.bind.annotation.RestController;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.lang.reflect.Type;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
@@ -53,50 +62,251 @@ import java.util.stream.Collectors;
 @RestController
 @RequestMapping("/configs")
 public class ConfigController {
+  private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
+  private static final String NO_RELEASE_KEY = "-1";
+  private static final int MAX_BATCH_NAMESPACES = 200;
   private static final Splitter X_FORWARDED_FOR_SPLITTER = Splitter.on(",").omitEmptyStrings()
       .trimResults();
   private final ConfigService configService;
   private final AppNamespaceServiceWithCache appNamespaceService;
   private final NamespaceUtil namespaceUtil;
   private final InstanceConfigAuditUtil instanceConfigAuditUtil;
+  private final GrayReleaseRulesHolder grayReleaseRulesHolder;
+  private final ConfigResponseServiceWithCache configResponseService;
   private final Gson gson;
 
-  private static final Type configurationTypeReference = new TypeToken<Map<String, String>>() {
-      }.getType();
+  private final HttpHeaders jsonResponseHeaders;
 
   public ConfigController(
       final ConfigService configService,
       final AppNamespaceServiceWithCache appNamespaceService,
       final NamespaceUtil namespaceUtil,
       final InstanceConfigAuditUtil instanceConfigAuditUtil,
+      final GrayReleaseRulesHolder grayReleaseRulesHolder,
+      final ConfigResponseServiceWithCache configResponseService,
       final Gson gson) {
     this.configService = configService;
     this.appNamespaceService = appNamespaceService;
     this.namespaceUtil = namespaceUtil;
     this.instanceConfigAuditUtil = instanceConfigAuditUtil;
+    this.grayReleaseRulesHolder = grayReleaseRulesHolder;
+    this.configResponseService = configResponseService;
     this.gson = gson;
+    jsonResponseHeaders = new HttpHeaders();
+    jsonResponseHeaders.add("Content-Type", "application/json;charset=UTF-8");
   }
 
   @GetMapping(value = "/{appId}/{clusterName}/{namespace:.+}")
-  public ApolloConfig queryConfig(@PathVariable String appId, @PathVariable String clusterName,
-                                  @PathVariable String namespace,
-                                  @RequestParam(value = "dataCenter", required = false) String dataCenter,
-                                  @RequestParam(value = "releaseKey", defaultValue = "-1") String clientSideReleaseKey,
-                                  @RequestParam(value = "ip", required = false) String clientIp,
-                                  @RequestParam(value = "messages", required = false) String messagesAsString,
+  public ResponseEntity<byte[]> queryEncodedConfig(@PathVariable String appId, @PathVariable String clusterName,
+                                                   @PathVariable String namespace,
+                                                   @RequestParam(value = "dataCenter", required = false) String dataCenter,
+                                                   @RequestParam(value = "releaseKey", defaultValue = NO_RELEASE_KEY) String clientSideReleaseKey,
+                                                   @RequestParam(value = "ip", required = false) String clientIp,
+                                                   @RequestParam(value = "messages", required = false) String messagesAsString,
+                                                   @RequestParam(value = "delta", defaultValue = "false") boolean delta,
+                                                   HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+    if (Strings.isNullOrEmpty(clientIp)) {
+      clientIp = tryToGetClientIp(request);
+    }
+    ApolloNotificationMessages clientMessages = transformMessages(messagesAsString);
+    //the clients notified ahead of this instance need the releases of their notifications, so they are not indexed,
+    //while the others get the same releases without their notification messages
+    boolean indexed = !configResponseService.isNotifiedAhead(clientMessages);
+    long releaseMessagesHandledBefore = configResponseService.getReleaseMessagesHandled();
+
+    if (indexed && (!Strings.isNullOrEmpty(ifNoneMatch) || !NO_RELEASE_KEY.equals(clientSideReleaseKey))) {
+      IndexedReleaseKey indexedReleaseKey = configResponseService.findIndexedReleaseKey(appId, clusterName, namespace,
+          dataCenter, clientIp);
+      if (indexedReleaseKey != null) {
+        if (ETagUtil.matches(ifNoneMatch, indexedReleaseKey.getReleaseKey())) {
+          auditIndexedReleases(appId, clusterName, dataCenter, clientIp, indexedReleaseKey.getReleases());
+          Tracer.logEvent("Apollo.Config.NotModified.ETag", assembleKey(appId,
+              indexedReleaseKey.getAppClusterNameLoaded(), namespace, dataCenter));
+          return ETagUtil.notModified(indexedReleaseKey.getReleaseKey());
+        }
+        if (indexedReleaseKey.getReleaseKey().equals(clientSideReleaseKey)) {
+          // Client side configuration is the same with server side, return 304
+          auditIndexedReleases(appId, clusterName, dataCenter, clientIp, indexedReleaseKey.getReleases());
+          response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+          Tracer.logEvent("Apollo.Config.NotModified", assembleKey(appId,
+              indexedReleaseKey.getAppClusterNameLoaded(), namespace, dataCenter));
+          return null;
+        }
+      }
+    }
+
+    ResolvedReleases resolvedReleases = resolveReleases(appId, clusterName, namespace, dataCenter,
+        clientSideReleaseKey, clientIp, indexed ? null : clientMessages, response);
+
+    if (resolvedReleases == null) {
+      return null;
+    }
+
+    String mergedReleaseKey = resolvedReleases.getMergedReleaseKey();
+    if (indexed) {
+      configResponseService.indexReleaseKey(appId, clusterName, dataCenter, resolvedReleases,
+          releaseMessagesHandledBefore);
+    }
+    if (ETagUtil.matches(ifNoneMatch, mergedReleaseKey)) {
+      Tracer.logEvent("Apollo.Config.NotModified.ETag", assembleKey(appId,
+          resolvedReleases.getAppClusterNameLoaded(), resolvedReleases.getOriginalNamespace(), dataCenter));
+      return ETagUtil.notModified(mergedReleaseKey);
+    }
+
+    CompressedContent content = null;
+    if (delta && !NO_RELEASE_KEY.equals(clientSideReleaseKey)) {
+      content = configResponseService.findEncodedConfigDelta(appId, resolvedReleases, clientSideReleaseKey);
+    }
+    if (content == null) {
+      content = configResponseService.findEncodedConfig(appId, resolvedReleases);
+    }
+
+    Tracer.logEvent("Apollo.Config.Found", assembleKey(appId, resolvedReleases.getAppClusterNameLoaded(),
+        resolvedReleases.getOriginalNamespace(), dataCenter));
+    return content.toResponse(jsonResponseHeaders, request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+  }
+
+  /**
+   * Query the configs of multiple namespaces in one request, e.g. for the initial load of a client.
+   *
+   * <p>The response is a json array of the configs found, in the order of the namespaces requested, while the
+   * namespaces not found are left out.</p>
+   */
+  @GetMapping(value = "/batch")
+  public ResponseEntity<byte[]> queryEncodedConfigs(@RequestParam(value = "appId") String appId,
+                                                    @RequestParam(value = "cluster") String clusterName,
+                                                    @RequestParam(value = "namespaces") List<String> namespaces,
+                                                    @RequestParam(value = "dataCenter", required = false) String dataCenter,
+                                                    @RequestParam(value = "ip", required = false) String clientIp,
+                                                    HttpServletRequest request) {
+    Set<String> distinctNamespaces = Sets.newLinkedHashSet(namespaces);
+    if (distinctNamespaces.size() > MAX_BATCH_NAMESPACES) {
+      throw new BadRequestException(String.format("Too many namespaces, the max count is %d", MAX_BATCH_NAMESPACES));
+    }
+    if (Strings.isNullOrEmpty(clientIp)) {
+      clientIp = tryToGetClientIp(request);
+    }
+
+    List<ResolvedReleases> resolvedReleasesList = Lists.newArrayListWithCapacity(distinctNamespaces.size());
+    for (String namespace : distinctNamespaces) {
+      ResolvedReleases resolvedReleases = resolveReleases(appId, clusterName, namespace, dataCenter, clientIp, null);
+      if (resolvedReleases == null) {
+        Tracer.logEvent("Apollo.Config.NotFound", assembleKey(appId, clusterName, namespace, dataCenter));
+        continue;
+      }
+      resolvedReleasesList.add(resolvedReleases);
+      Tracer.logEvent("Apollo.Config.Found", assembleKey(appId, resolvedReleases.getAppClusterNameLoaded(),
+          resolvedReleases.getOriginalNamespace(), dataCenter));
+    }
+
+    Tracer.logEvent("Apollo.Config.Batch",
+        String.format("%d/%d", resolvedReleasesList.size(), distinctNamespaces.size()));
+    CompressedContent content = configResponseService.findEncodedConfigs(appId, resolvedReleasesList);
+    return content.toResponse(jsonResponseHeaders, request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+  }
+
+  public ApolloConfig queryConfig(String appId, String clusterName, String namespace, String dataCenter,
+                                  String clientSideReleaseKey, String clientIp, String messagesAsString,
                                   HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (Strings.isNullOrEmpty(clientIp)) {
+      clientIp = tryToGetClientIp(request);
+    }
+    ResolvedReleases resolvedReleases = resolveReleases(appId, clusterName, namespace, dataCenter,
+        clientSideReleaseKey, clientIp, transformMessages(messagesAsString), response);
+
+    if (resolvedReleases == null) {
+      return null;
+    }
+
+    ApolloConfig apolloConfig = configResponseService.assembleApolloConfig(appId, resolvedReleases);
+
+    Tracer.logEvent("Apollo.Config.Found", assembleKey(appId, resolvedReleases.getAppClusterNameLoaded(),
+        resolvedReleases.getOriginalNamespace(), dataCenter));
+    return apolloConfig;
+  }
+
+  /**
+   * Find the ids of the gray releases the client would load, without loading any release. The clients resolving the
+   * same ids load the same configs, so they could share the rendered configs.
+   *
+   * @param namespace the normalized namespace name
+   * @return the gray release ids in the order they are searched, or empty if the client loads no gray release
+   */
+  public String findGrayReleaseIds(String appId, String clusterName, String namespace, String dataCenter,
+                                   String clientIp) {
+    List<Long> grayReleaseIds = Lists.newArrayList();
+    if (!ConfigConsts.NO_APPID_PLACEHOLDER.equalsIgnoreCase(appId)) {
+      addGrayReleaseIds(grayReleaseIds, appId, clientIp, appId, clusterName, namespace, dataCenter);
+    }
+    if (!namespaceBelongsToAppId(appId, namespace)) {
+      AppNamespace appNamespace = appNamespaceService.findPublicNamespaceByName(namespace);
+      if (appNamespace != null && !Objects.equals(appId, appNamespace.getAppId())) {
+        addGrayReleaseIds(grayReleaseIds, appId, clientIp, appNamespace.getAppId(), clusterName, namespace,
+            dataCenter);
+      }
+    }
+    return STRING_JOINER.join(grayReleaseIds);
+  }
+
+  private void addGrayReleaseIds(List<Long> grayReleaseIds, String clientAppId, String clientIp, String configAppId,
+                                 String clusterName, String namespace, String dataCenter) {
+    for (String cluster : ClusterFallbackPlan.of(configAppId, clusterName, namespace, dataCenter).getClusterNames()) {
+      Long grayReleaseId = grayReleaseRulesHolder.findReleaseIdFromGrayReleaseRule(clientAppId, clientIp,
+          configAppId, cluster, namespace);
+      if (grayReleaseId != null) {
+        grayReleaseIds.add(grayReleaseId);
+      }
+    }
+  }
+
+  /**
+   * Resolve the releases for the client, the 404 and 304 responses are sent here
+   *
+   * @return the releases, or null if the response is already sent
+   */
+  private ResolvedReleases resolveReleases(String appId, String clusterName, String namespace, String dataCenter,
+                                           String clientSideReleaseKey, String clientIp,
+                                           ApolloNotificationMessages clientMessages,
+                                           HttpServletResponse response) throws IOException {
+    ResolvedReleases resolvedReleases = resolveReleases(appId, clusterName, namespace, dataCenter, clientIp,
+        clientMessages);
+
+    if (resolvedReleases == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND,
+          String.format(
+              "Could not load configurations with appId: %s, clusterName: %s, namespace: %s",
+              appId, clusterName, namespace));
+      Tracer.logEvent("Apollo.Config.NotFound",
+          assembleKey(appId, clusterName, namespace, dataCenter));
+      return null;
+    }
+
+    if (mergedReleaseKeyEquals(resolvedReleases.getReleases(), clientSideReleaseKey)) {
+      // Client side configuration is the same with server side, return 304
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      Tracer.logEvent("Apollo.Config.NotModified",
+          assembleKey(appId, resolvedReleases.getAppClusterNameLoaded(), namespace, dataCenter));
+      return null;
+    }
+
+    return resolvedReleases;
+  }
+
+  /**
+   * Resolve the releases of the namespace for the client, with the cluster fallback, the public namespace and the gray
+   * release rules applied
+   *
+   * @return the releases, or null if not found
+   */
+  private ResolvedReleases resolveReleases(String appId, String clusterName, String namespace, String dataCenter,
+                                           String clientIp, ApolloNotificationMessages clientMessages) {
     String originalNamespace = namespace;
     //strip out .properties suffix
     namespace = namespaceUtil.filterNamespaceName(namespace);
     //fix the character case issue, such as FX.apollo <-> fx.apollo
     namespace = namespaceUtil.normalizeNamespace(appId, namespace);
 
-    if (Strings.isNullOrEmpty(clientIp)) {
-      clientIp = tryToGetClientIp(request);
-    }
-
-    ApolloNotificationMessages clientMessages = transformMessages(messagesAsString);
-
     List<Release> releases = Lists.newLinkedList();
 
     String appClusterNameLoaded = clusterName;
@@ -121,35 +331,34 @@ public class ConfigController {
     }
 
     if (releases.isEmpty()) {
-      response.sendError(HttpServletResponse.SC_NOT_FOUND,
-          String.format(
-              "Could not load configurations with appId: %s, clusterName: %s, namespace: %s",
-              appId, clusterName, originalNamespace));
-      Tracer.logEvent("Apollo.Config.NotFound",
-          assembleKey(appId, clusterName, originalNamespace, dataCenter));
       return null;
     }
 
     auditReleases(appId, clusterName, dataCenter, clientIp, releases);
 
-    String mergedReleaseKey = releases.stream().map(Release::getReleaseKey)
-            .collect(Collectors.joining(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR));
+    return new ResolvedReleases(originalNamespace, namespace, clientIp, appClusterNameLoaded, releases);
+  }
 
-    if (mergedReleaseKey.equals(clientSideReleaseKey)) {
-      // Client side configuration is the same with server side, return 304
-      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-      Tracer.logEvent("Apollo.Config.NotModified",
-          assembleKey(appId, appClusterNameLoaded, originalNamespace, dataCenter));
-      return null;
+  /**
+   * Check whether the release keys joined by {@link ConfigConsts#CLUSTER_NAMESPACE_SEPARATOR} equal to the client
+   * side release key, without joining them.
+   */
+  static boolean mergedReleaseKeyEquals(List<Release> releases, String clientSideReleaseKey) {
+    int offset = 0;
+    for (Release release : releases) {
+      if (offset > 0) {
+        if (!clientSideReleaseKey.startsWith(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR, offset)) {
+          return false;
+        }
+        offset += ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR.length();
+      }
+      String releaseKey = release.getReleaseKey();
+      if (releaseKey == null || !clientSideReleaseKey.startsWith(releaseKey, offset)) {
+        return false;
+      }
+      offset += releaseKey.length();
     }
-
-    ApolloConfig apolloConfig = new ApolloConfig(appId, appClusterNameLoaded, originalNamespace,
-        mergedReleaseKey);
-    apolloConfig.setConfigurations(mergeReleaseConfigurations(releases));
-
-    Tracer.logEvent("Apollo.Config.Found", assembleKey(appId, appClusterNameLoaded,
-        originalNamespace, dataCenter));
-    return apolloConfig;
+    return offset == clientSideReleaseKey.length();
   }
 
   private boolean namespaceBelongsToAppId(String appId, String namespaceName) {
@@ -188,18 +397,6 @@ public class ConfigController {
         clientMessages);
   }
 
-  /**
-   * Merge configurations of releases.
-   * Release in lower index override those in higher index
-   */
-  Map<String, String> mergeReleaseConfigurations(List<Release> releases) {
-    Map<String, String> result = Maps.newLinkedHashMap();
-    for (Release release : Lists.reverse(releases)) {
-      result.putAll(gson.fromJson(release.getConfigurations(), configurationTypeReference));
-    }
-    return result;
-  }
-
   private String assembleKey(String appId, String cluster, String namespace, String dataCenter) {
     List<String> keyParts = Lists.newArrayList(appId, cluster, namespace);
     if (!Strings.isNullOrEmpty(dataCenter)) {
@@ -221,6 +418,17 @@ public class ConfigController {
     }
   }
 
+  private void auditIndexedReleases(String appId, String cluster, String dataCenter, String clientIp,
+                                    List<IndexedRelease> releases) {
+    if (Strings.isNullOrEmpty(clientIp)) {
+      return;
+    }
+    for (IndexedRelease release : releases) {
+      instanceConfigAuditUtil.audit(appId, cluster, dataCenter, clientIp, release.getAppId(),
+          release.getClusterName(), release.getNamespaceName(), release.getReleaseKey());
+    }
+  }
+
   private String tryToGetClientIp(HttpServletRequest request) {
     String forwardedFor = request.getHeader("X-FORWARDED-FOR");
     if (!Strings.isNullOrEmpty(forwardedFor)) {
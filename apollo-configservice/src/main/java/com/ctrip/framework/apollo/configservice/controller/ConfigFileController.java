@@ -20,8 +20,11 @@ import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.grayReleaseRule.GrayReleaseRulesHolder;
 import com.ctrip.framework.apollo.biz.message.ReleaseMessageListener;
 import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.common.http.CompressedContent;
+import com.ctrip.framework.apollo.common.http.ETagUtil;
 import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
 import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.WatchKeyRegistry;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
 import com.ctrip.framework.apollo.core.utils.PropertiesUtil;
@@ -31,12 +34,12 @@ import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.Weigher;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 import com.google.gson.Gson;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
@@ -51,10 +54,13 @@ import org.springframework.web.bind.annotation.RestController;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -69,14 +75,13 @@ public class ConfigFileController implements ReleaseMessageListener {
       .trimResults();
   private static final long MAX_CACHE_SIZE = 50 * 1024 * 1024; // 50MB
   private static final long EXPIRE_AFTER_WRITE = 30;
+  private static final String GRAY_CACHE_KEY_SEPARATOR = "+gray+";
   private final HttpHeaders propertiesResponseHeaders;
   private final HttpHeaders jsonResponseHeaders;
-  private final ResponseEntity<String> NOT_FOUND_RESPONSE;
-  private Cache<String, String> localCache;
-  private final Multimap<String, String>
-      watchedKeys2CacheKey = Multimaps.synchronizedSetMultimap(HashMultimap.create());
-  private final Multimap<String, String>
-      cacheKey2WatchedKeys = Multimaps.synchronizedSetMultimap(HashMultimap.create());
+  private final ResponseEntity<byte[]> NOT_FOUND_RESPONSE;
+  private Cache<String, CompressedContent> localCache;
+  private final WatchKeyRegistry<String> watchedKeys2CacheKey = new WatchKeyRegistry<>();
+  private final ConcurrentMap<String, Set<String>> cacheKey2WatchedKeys = new ConcurrentHashMap<>();
   private static final Gson GSON = new Gson();
 
   private final ConfigController configController;
@@ -88,26 +93,31 @@ public class ConfigFileController implements ReleaseMessageListener {
       final ConfigController configController,
       final NamespaceUtil namespaceUtil,
       final WatchKeysUtil watchKeysUtil,
-      final GrayReleaseRulesHolder grayReleaseRulesHolder) {
+      final GrayReleaseRulesHolder grayReleaseRulesHolder,
+      final MeterRegistry meterRegistry) {
     localCache = CacheBuilder.newBuilder()
         .expireAfterWrite(EXPIRE_AFTER_WRITE, TimeUnit.MINUTES)
-        .weigher((Weigher<String, String>) (key, value) -> value == null ? 0 : value.length())
+        .weigher((Weigher<String, CompressedContent>) (key, value) -> value == null ? 0 : value.size())
         .maximumWeight(MAX_CACHE_SIZE)
         .removalListener(notification -> {
+          //a replaced entry is watched by the same keys as the new one, which are still needed
+          if (notification.getCause() == RemovalCause.REPLACED) {
+            return;
+          }
           String cacheKey = notification.getKey();
           logger.debug("removing cache key: {}", cacheKey);
-          if (!cacheKey2WatchedKeys.containsKey(cacheKey)) {
+          Set<String> watchedKeys = cacheKey2WatchedKeys.remove(cacheKey);
+          if (watchedKeys == null) {
             return;
           }
-          //create a new list to avoid ConcurrentModificationException
-          List<String> watchedKeys = new ArrayList<>(cacheKey2WatchedKeys.get(cacheKey));
           for (String watchedKey : watchedKeys) {
-            watchedKeys2CacheKey.remove(watchedKey, cacheKey);
+            watchedKeys2CacheKey.unregister(watchedKey, cacheKey);
           }
-          cacheKey2WatchedKeys.removeAll(cacheKey);
           logger.debug("removed cache key: {}", cacheKey);
         })
+        .recordStats()
         .build();
+    GuavaCacheMetrics.monitor(meterRegistry, localCache, "apollo.config-file.cache");
     propertiesResponseHeaders = new HttpHeaders();
     propertiesResponseHeaders.add("Content-Type", "text/plain;charset=UTF-8");
     jsonResponseHeaders = new HttpHeaders();
@@ -120,7 +130,7 @@ public class ConfigFileController implements ReleaseMessageListener {
   }
 
   @GetMapping(value = "/{appId}/{clusterName}/{namespace:.+}")
-  public ResponseEntity<String> queryConfigAsProperties(@PathVariable String appId,
+  public ResponseEntity<byte[]> queryConfigAsProperties(@PathVariable String appId,
                                                         @PathVariable String clusterName,
                                                         @PathVariable String namespace,
                                                         @RequestParam(value = "dataCenter", required = false) String dataCenter,
@@ -129,19 +139,15 @@ public class ConfigFileController implements ReleaseMessageListener {
                                                         HttpServletResponse response)
       throws IOException {
 
-    String result =
+    CompressedContent result =
         queryConfig(ConfigFileOutputFormat.PROPERTIES, appId, clusterName, namespace, dataCenter,
             clientIp, request, response);
 
-    if (result == null) {
-      return NOT_FOUND_RESPONSE;
-    }
-
-    return new ResponseEntity<>(result, propertiesResponseHeaders, HttpStatus.OK);
+    return toResponse(result, propertiesResponseHeaders, request);
   }
 
   @GetMapping(value = "/json/{appId}/{clusterName}/{namespace:.+}")
-  public ResponseEntity<String> queryConfigAsJson(@PathVariable String appId,
+  public ResponseEntity<byte[]> queryConfigAsJson(@PathVariable String appId,
                                                   @PathVariable String clusterName,
                                                   @PathVariable String namespace,
                                                   @RequestParam(value = "dataCenter", required = false) String dataCenter,
@@ -149,18 +155,32 @@ public class ConfigFileController implements ReleaseMessageListener {
                                                   HttpServletRequest request,
                                                   HttpServletResponse response) throws IOException {
 
-    String result =
+    CompressedContent result =
         queryConfig(ConfigFileOutputFormat.JSON, appId, clusterName, namespace, dataCenter,
             clientIp, request, response);
 
+    return toResponse(result, jsonResponseHeaders, request);
+  }
+
+  /**
+   * The cached content is checked against If-None-Match before any release is loaded, so a cache hit of an unchanged
+   * config is answered with 304 at once
+   */
+  private ResponseEntity<byte[]> toResponse(CompressedContent result, HttpHeaders headers,
+                                            HttpServletRequest request) {
     if (result == null) {
       return NOT_FOUND_RESPONSE;
     }
 
-    return new ResponseEntity<>(result, jsonResponseHeaders, HttpStatus.OK);
+    if (ETagUtil.matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), result.getReleaseKey())) {
+      Tracer.logEvent("ConfigFile.NotModified", request.getRequestURI());
+      return ETagUtil.notModified(result.getReleaseKey());
+    }
+
+    return result.toResponse(headers, request.getHeader(HttpHeaders.ACCEPT_ENCODING));
   }
 
-  String queryConfig(ConfigFileOutputFormat outputFormat, String appId, String clusterName,
+  CompressedContent queryConfig(ConfigFileOutputFormat outputFormat, String appId, String clusterName,
                      String namespace, String dataCenter, String clientIp,
                      HttpServletRequest request,
                      HttpServletResponse response) throws IOException {
@@ -173,62 +193,77 @@ public class ConfigFileController implements ReleaseMessageListener {
       clientIp = tryToGetClientIp(request);
     }
 
-    //1. check whether this client has gray release rules
-    boolean hasGrayReleaseRule = grayReleaseRulesHolder.hasGrayReleaseRule(appId, clientIp,
-        namespace);
-
     String cacheKey = assembleCacheKey(outputFormat, appId, clusterName, namespace, dataCenter);
 
-    //2. try to load gray release and return
-    if (hasGrayReleaseRule) {
+    //1. check whether this client has gray release rules, if so, the configs are cached per gray release, so that the
+    //clients loading the same gray releases share the same configs
+    String grayReleaseIds = findGrayReleaseIds(appId, clusterName, namespace, dataCenter, clientIp);
+    if (!grayReleaseIds.isEmpty()) {
       Tracer.logEvent("ConfigFile.Cache.GrayRelease", cacheKey);
-      return loadConfig(outputFormat, appId, clusterName, namespace, dataCenter, clientIp,
-          request, response);
+      cacheKey = cacheKey + GRAY_CACHE_KEY_SEPARATOR + grayReleaseIds;
     }
 
-    //3. if not gray release, check weather cache exists, if exists, return
-    String result = localCache.getIfPresent(cacheKey);
-
-    //4. if not exists, load from ConfigController
-    if (Strings.isNullOrEmpty(result)) {
-      Tracer.logEvent("ConfigFile.Cache.Miss", cacheKey);
-      result = loadConfig(outputFormat, appId, clusterName, namespace, dataCenter, clientIp,
-          request, response);
-
-      if (result == null) {
-        return null;
-      }
-      //5. Double check if this client needs to load gray release, if yes, load from db again
-      //This step is mainly to avoid cache pollution
-      if (grayReleaseRulesHolder.hasGrayReleaseRule(appId, clientIp, namespace)) {
-        Tracer.logEvent("ConfigFile.Cache.GrayReleaseConflict", cacheKey);
-        return loadConfig(outputFormat, appId, clusterName, namespace, dataCenter, clientIp,
-            request, response);
-      }
-
-      localCache.put(cacheKey, result);
-      logger.debug("adding cache for key: {}", cacheKey);
-
-      Set<String> watchedKeys =
-          watchKeysUtil.assembleAllWatchKeys(appId, clusterName, namespace, dataCenter);
-
-      for (String watchedKey : watchedKeys) {
-        watchedKeys2CacheKey.put(watchedKey, cacheKey);
-      }
-
-      cacheKey2WatchedKeys.putAll(cacheKey, watchedKeys);
-      logger.debug("added cache for key: {}", cacheKey);
-    } else {
+    //2. check whether cache exists, if exists, return
+    CompressedContent result = localCache.getIfPresent(cacheKey);
+
+    if (result != null) {
       Tracer.logEvent("ConfigFile.Cache.Hit", cacheKey);
+      return result;
     }
 
+    //3. if not exists, load from ConfigController
+    Tracer.logEvent("ConfigFile.Cache.Miss", cacheKey);
+    //compressed once here, so that the cache holds the compressed bytes
+    result = loadConfig(outputFormat, appId, clusterName, namespace, dataCenter, clientIp,
+        request, response, true);
+
+    if (result == null) {
+      return null;
+    }
+
+    //4. Double check whether the gray release rules of this client have changed, if yes, load from db again
+    //This step is mainly to avoid cache pollution
+    if (!Objects.equals(grayReleaseIds, findGrayReleaseIds(appId, clusterName, namespace, dataCenter, clientIp))) {
+      Tracer.logEvent("ConfigFile.Cache.GrayReleaseConflict", cacheKey);
+      return loadConfig(outputFormat, appId, clusterName, namespace, dataCenter, clientIp,
+          request, response, false);
+    }
+
+    //the watched keys are indexed before the put, so that a release message in between invalidates the entry
+    Set<String> watchedKeys =
+        watchKeysUtil.assembleAllWatchKeys(appId, clusterName, namespace, dataCenter);
+
+    for (String watchedKey : watchedKeys) {
+      watchedKeys2CacheKey.register(watchedKey, cacheKey);
+    }
+    cacheKey2WatchedKeys.put(cacheKey, watchedKeys);
+
+    localCache.put(cacheKey, result);
+    logger.debug("added cache for key: {}", cacheKey);
+
     return result;
   }
 
-  private String loadConfig(ConfigFileOutputFormat outputFormat, String appId, String clusterName,
-                            String namespace, String dataCenter, String clientIp,
-                            HttpServletRequest request,
-                            HttpServletResponse response) throws IOException {
+  /**
+   * @return the ids of the gray releases this client loads, or empty if none
+   */
+  private String findGrayReleaseIds(String appId, String clusterName, String namespace, String dataCenter,
+                                    String clientIp) {
+    //most clients have no gray release rules at all, which is checked without resolving the clusters
+    if (!grayReleaseRulesHolder.hasGrayReleaseRule(appId, clientIp, namespace)) {
+      return "";
+    }
+    return configController.findGrayReleaseIds(appId, clusterName, namespace, dataCenter, clientIp);
+  }
+
+  /**
+   * @param compress whether to compress the content, the config which is not cached is not compressed as it's only
+   *                 sent once
+   */
+  private CompressedContent loadConfig(ConfigFileOutputFormat outputFormat, String appId, String clusterName,
+                                       String namespace, String dataCenter, String clientIp,
+                                       HttpServletRequest request,
+                                       HttpServletResponse response, boolean compress) throws IOException {
     ApolloConfig apolloConfig = configController.queryConfig(appId, clusterName, namespace,
         dataCenter, "-1", clientIp, null, request, response);
 
@@ -249,7 +284,9 @@ public class ConfigFileController implements ReleaseMessageListener {
         break;
     }
 
-    return result;
+    byte[] content = result.getBytes(StandardCharsets.UTF_8);
+    return compress ? CompressedContent.compress(content, apolloConfig.getReleaseKey())
+        : CompressedContent.uncompressed(content, apolloConfig.getReleaseKey());
   }
 
   String assembleCacheKey(ConfigFileOutputFormat outputFormat, String appId, String clusterName,
@@ -272,14 +309,7 @@ public class ConfigFileController implements ReleaseMessageListener {
       return;
     }
 
-    if (!watchedKeys2CacheKey.containsKey(content)) {
-      return;
-    }
-
-    //create a new list to avoid ConcurrentModificationException
-    List<String> cacheKeys = new ArrayList<>(watchedKeys2CacheKey.get(content));
-
-    for (String cacheKey : cacheKeys) {
+    for (String cacheKey : watchedKeys2CacheKey.get(content)) {
       logger.debug("invalidate cache key: {}", cacheKey);
       localCache.invalidate(cacheKey);
     }
@@ -23,45 +23,38 @@ import com.ctrip.framework.apollo.biz.message.Topics;
 import com.ctrip.framework.apollo.biz.utils.EntityManagerUtil;
 import com.ctrip.framework.apollo.common.exception.BadRequestException;
 import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
-import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
+import com.ctrip.framework.apollo.configservice.util.ClientNotificationsUtil;
+import com.ctrip.framework.apollo.configservice.util.LongPollingDrainUtil;
+import com.ctrip.framework.apollo.configservice.util.NotificationFanOutUtil;
 import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
 import com.ctrip.framework.apollo.configservice.wrapper.DeferredResultWrapper;
-import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.configservice.wrapper.WatchKeyRegistry;
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
-import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.core.utils.NotificationsCodec;
 import com.ctrip.framework.apollo.tracer.Tracer;
-import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
-import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
-import com.google.common.collect.TreeMultimap;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.CollectionUtils;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.context.request.async.DeferredResult;
 
-import java.lang.reflect.Type;
-import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
@@ -70,68 +63,87 @@ import java.util.function.Function;
 @RequestMapping("/notifications/v2")
 public class NotificationControllerV2 implements ReleaseMessageListener {
   private static final Logger logger = LoggerFactory.getLogger(NotificationControllerV2.class);
-  private final Multimap<String, DeferredResultWrapper> deferredResults =
-      Multimaps.synchronizedSetMultimap(TreeMultimap.create(String.CASE_INSENSITIVE_ORDER, Ordering.natural()));
-  private static final Splitter STRING_SPLITTER =
-      Splitter.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR).omitEmptyStrings();
-  private static final Type notificationsTypeReference =
-      new TypeToken<List<ApolloConfigNotification>>() {
-      }.getType();
-
-  private final ExecutorService largeNotificationBatchExecutorService;
+  private static final String METRICS_CHANNEL = "long-polling";
+  private final WatchKeyRegistry<DeferredResultWrapper> deferredResults = new WatchKeyRegistry<>();
 
   private final WatchKeysUtil watchKeysUtil;
+  private final NotificationFanOutUtil notificationFanOutUtil;
+  private final ClientNotificationsUtil clientNotificationsUtil;
   private final ReleaseMessageServiceWithCache releaseMessageService;
   private final EntityManagerUtil entityManagerUtil;
-  private final NamespaceUtil namespaceUtil;
-  private final Gson gson;
+  private final LongPollingDrainUtil longPollingDrainUtil;
   private final BizConfig bizConfig;
 
   @Autowired
   public NotificationControllerV2(
       final WatchKeysUtil watchKeysUtil,
+      final NotificationFanOutUtil notificationFanOutUtil,
+      final ClientNotificationsUtil clientNotificationsUtil,
       final ReleaseMessageServiceWithCache releaseMessageService,
       final EntityManagerUtil entityManagerUtil,
-      final NamespaceUtil namespaceUtil,
-      final Gson gson,
-      final BizConfig bizConfig) {
-    largeNotificationBatchExecutorService = Executors.newSingleThreadExecutor(ApolloThreadFactory.create
-        ("NotificationControllerV2", true));
+      final LongPollingDrainUtil longPollingDrainUtil,
+      final BizConfig bizConfig,
+      final MeterRegistry meterRegistry) {
     this.watchKeysUtil = watchKeysUtil;
+    this.notificationFanOutUtil = notificationFanOutUtil;
+    this.clientNotificationsUtil = clientNotificationsUtil;
     this.releaseMessageService = releaseMessageService;
     this.entityManagerUtil = entityManagerUtil;
-    this.namespaceUtil = namespaceUtil;
-    this.gson = gson;
+    this.longPollingDrainUtil = longPollingDrainUtil;
     this.bizConfig = bizConfig;
+    deferredResults.registerMetrics(meterRegistry, METRICS_CHANNEL);
+    Gauge.builder("apollo.notification.clients", longPollingDrainUtil, LongPollingDrainUtil::pendingCount)
+        .description("Clients waiting for the notifications")
+        .tag("channel", METRICS_CHANNEL)
+        .register(meterRegistry);
   }
 
   @GetMapping
-  public DeferredResult<ResponseEntity<List<ApolloConfigNotification>>> pollNotification(
+  public DeferredResult<ResponseEntity<?>> pollNotification(
       @RequestParam(value = "appId") String appId,
       @RequestParam(value = "cluster") String cluster,
       @RequestParam(value = "notifications") String notificationsAsString,
       @RequestParam(value = "dataCenter", required = false) String dataCenter,
       @RequestParam(value = "ip", required = false) String clientIp) {
-    List<ApolloConfigNotification> notifications = null;
+    Map<String, ApolloConfigNotification> filteredNotifications =
+        clientNotificationsUtil.resolveNotifications(appId, notificationsAsString);
+
+    return doPollNotification(appId, cluster, filteredNotifications, dataCenter);
+  }
 
+  /**
+   * The same as {@link #pollNotification(String, String, String, String, String)}, but with the notifications posted
+   * in the compact encoding of {@link NotificationsCodec}, which keeps the url short and is parsed without json
+   * deserialization.
+   */
+  @PostMapping(consumes = NotificationsCodec.CONTENT_TYPE)
+  public DeferredResult<ResponseEntity<?>> pollNotificationWithBody(
+      @RequestParam(value = "appId") String appId,
+      @RequestParam(value = "cluster") String cluster,
+      @RequestParam(value = "dataCenter", required = false) String dataCenter,
+      @RequestParam(value = "ip", required = false) String clientIp,
+      @RequestBody byte[] notificationsContent) {
+    List<ApolloConfigNotification> notifications;
     try {
-      notifications =
-          gson.fromJson(notificationsAsString, notificationsTypeReference);
-    } catch (Throwable ex) {
-      Tracer.logError(ex);
+      notifications = NotificationsCodec.decode(notificationsContent);
+    } catch (IllegalArgumentException ex) {
+      throw new BadRequestException(ex.getMessage());
     }
 
-    if (CollectionUtils.isEmpty(notifications)) {
-      throw new BadRequestException("Invalid format of notifications: " + notificationsAsString);
-    }
-    
-    Map<String, ApolloConfigNotification> filteredNotifications = filterNotifications(appId, notifications);
+    Map<String, ApolloConfigNotification> filteredNotifications =
+        clientNotificationsUtil.resolveNotifications(appId, notifications);
 
-    if (CollectionUtils.isEmpty(filteredNotifications)) {
-      throw new BadRequestException("Invalid format of notifications: " + notificationsAsString);
-    }
-    
+    return doPollNotification(appId, cluster, filteredNotifications, dataCenter);
+  }
+
+  private DeferredResult<ResponseEntity<?>> doPollNotification(String appId, String cluster,
+      Map<String, ApolloConfigNotification> filteredNotifications, String dataCenter) {
     DeferredResultWrapper deferredResultWrapper = new DeferredResultWrapper(bizConfig.longPollingTimeoutInMilli());
+    //the config service is shutting down, so the client is directed to poll another one later
+    if (!longPollingDrainUtil.track(deferredResultWrapper)) {
+      return deferredResultWrapper.getResult();
+    }
+
     Set<String> namespaces = Sets.newHashSetWithExpectedSize(filteredNotifications.size());
     Map<String, Long> clientSideNotifications = Maps.newHashMapWithExpectedSize(filteredNotifications.size());
     
@@ -161,14 +173,15 @@ public class NotificationControllerV2 implements ReleaseMessageListener {
     deferredResultWrapper.onCompletion(() -> {
       //unregister all keys
       for (String key : watchedKeys) {
-        deferredResults.remove(key, deferredResultWrapper);
+        deferredResults.unregister(key, deferredResultWrapper);
       }
+      longPollingDrainUtil.untrack(deferredResultWrapper);
       logWatchedKeys(watchedKeys, "Apollo.LongPoll.CompletedKeys");
     });
 
     //register all keys
     for (String key : watchedKeys) {
-      this.deferredResults.put(key, deferredResultWrapper);
+      this.deferredResults.register(key, deferredResultWrapper);
     }
 
     logWatchedKeys(watchedKeys, "Apollo.LongPoll.RegisteredKeys");
@@ -190,7 +203,7 @@ public class NotificationControllerV2 implements ReleaseMessageListener {
     entityManagerUtil.closeEntityManager();
 
     List<ApolloConfigNotification> newNotifications =
-        getApolloConfigNotifications(namespaces, clientSideNotifications, watchedKeysMap,
+        clientNotificationsUtil.findNewNotifications(namespaces, clientSideNotifications, watchedKeysMap,
             latestReleaseMessages);
 
     if (!CollectionUtils.isEmpty(newNotifications)) {
@@ -200,65 +213,6 @@ public class NotificationControllerV2 implements ReleaseMessageListener {
     return deferredResultWrapper.getResult();
   }
 
-  private Map<String, ApolloConfigNotification> filterNotifications(String appId,
-                                                                    List<ApolloConfigNotification> notifications) {
-    Map<String, ApolloConfigNotification> filteredNotifications = Maps.newHashMap();
-    for (ApolloConfigNotification notification : notifications) {
-      if (Strings.isNullOrEmpty(notification.getNamespaceName())) {
-        continue;
-      }
-      //strip out .properties suffix
-      String originalNamespace = namespaceUtil.filterNamespaceName(notification.getNamespaceName());
-      notification.setNamespaceName(originalNamespace);
-      //fix the character case issue, such as FX.apollo <-> fx.apollo
-      String normalizedNamespace = namespaceUtil.normalizeNamespace(appId, originalNamespace);
-
-      // in case client side namespace name has character case issue and has difference notification ids
-      // such as FX.apollo = 1 but fx.apollo = 2, we should let FX.apollo have the chance to update its notification id
-      // which means we should record FX.apollo = 1 here and ignore fx.apollo = 2
-      if (filteredNotifications.containsKey(normalizedNamespace) &&
-          filteredNotifications.get(normalizedNamespace).getNotificationId() < notification.getNotificationId()) {
-        continue;
-      }
-
-      filteredNotifications.put(normalizedNamespace, notification);
-    }
-    return filteredNotifications;
-  }
-
-  private List<ApolloConfigNotification> getApolloConfigNotifications(Set<String> namespaces,
-                                                                      Map<String, Long> clientSideNotifications,
-                                                                      Multimap<String, String> watchedKeysMap,
-                                                                      List<ReleaseMessage> latestReleaseMessages) {
-    List<ApolloConfigNotification> newNotifications = Lists.newArrayList();
-    if (!CollectionUtils.isEmpty(latestReleaseMessages)) {
-      Map<String, Long> latestNotifications = Maps.newHashMap();
-      for (ReleaseMessage releaseMessage : latestReleaseMessages) {
-        latestNotifications.put(releaseMessage.getMessage(), releaseMessage.getId());
-      }
-
-      for (String namespace : namespaces) {
-        long clientSideId = clientSideNotifications.get(namespace);
-        long latestId = ConfigConsts.NOTIFICATION_ID_PLACEHOLDER;
-        Collection<String> namespaceWatchedKeys = watchedKeysMap.get(namespace);
-        for (String namespaceWatchedKey : namespaceWatchedKeys) {
-          long namespaceNotificationId =
-              latestNotifications.getOrDefault(namespaceWatchedKey, ConfigConsts.NOTIFICATION_ID_PLACEHOLDER);
-          if (namespaceNotificationId > latestId) {
-            latestId = namespaceNotificationId;
-          }
-        }
-        if (latestId > clientSideId) {
-          ApolloConfigNotification notification = new ApolloConfigNotification(namespace, latestId);
-          namespaceWatchedKeys.stream().filter(latestNotifications::containsKey).forEach(namespaceWatchedKey ->
-              notification.addMessage(namespaceWatchedKey, latestNotifications.get(namespaceWatchedKey)));
-          newNotifications.add(notification);
-        }
-      }
-    }
-    return newNotifications;
-  }
-
   @Override
   public void handleMessage(ReleaseMessage message, String channel) {
     logger.info("message received - channel: {}, message: {}", channel, message);
@@ -269,10 +223,9 @@ public class NotificationControllerV2 implements ReleaseMessageListener {
       return;
     }
 
-    String changedNamespace = retrieveNamespaceFromReleaseMessage.apply(content);
+    ApolloConfigNotification configNotification = clientNotificationsUtil.assembleNotification(message);
 
-    if (Strings.isNullOrEmpty(changedNamespace)) {
-      logger.error("message format invalid - {}", content);
+    if (configNotification == null) {
       return;
     }
 
@@ -280,54 +233,12 @@ public class NotificationControllerV2 implements ReleaseMessageListener {
       return;
     }
 
-    //create a new list to avoid ConcurrentModificationException
-    List<DeferredResultWrapper> results = Lists.newArrayList(deferredResults.get(content));
-
-    ApolloConfigNotification configNotification = new ApolloConfigNotification(changedNamespace, message.getId());
-    configNotification.addMessage(content, message.getId());
-
-    //do async notification if too many clients
-    if (results.size() > bizConfig.releaseMessageNotificationBatch()) {
-      largeNotificationBatchExecutorService.submit(() -> {
-        logger.debug("Async notify {} clients for key {} with batch {}", results.size(), content,
-            bizConfig.releaseMessageNotificationBatch());
-        for (int i = 0; i < results.size(); i++) {
-          if (i > 0 && i % bizConfig.releaseMessageNotificationBatch() == 0) {
-            try {
-              TimeUnit.MILLISECONDS.sleep(bizConfig.releaseMessageNotificationBatchIntervalInMilli());
-            } catch (InterruptedException e) {
-              //ignore
-            }
-          }
-          logger.debug("Async notify {}", results.get(i));
-          results.get(i).setResult(configNotification);
-        }
-      });
-      return;
-    }
-
-    logger.debug("Notify {} clients for key {}", results.size(), content);
+    //the registry returns a snapshot, so it is safe against concurrent registration
+    List<DeferredResultWrapper> results = deferredResults.get(content);
 
-    for (DeferredResultWrapper result : results) {
-      result.setResult(configNotification);
-    }
-    logger.debug("Notification completed");
+    notificationFanOutUtil.fanOut(content, configNotification, results);
   }
 
-  private static final Function<String, String> retrieveNamespaceFromReleaseMessage =
-      releaseMessage -> {
-        if (Strings.isNullOrEmpty(releaseMessage)) {
-          return null;
-        }
-        List<String> keys = STRING_SPLITTER.splitToList(releaseMessage);
-        //message should be appId+cluster+namespace
-        if (keys.size() != 3) {
-          logger.error("message format invalid - {}", releaseMessage);
-          return null;
-        }
-        return keys.get(2);
-      };
-
   private void logWatchedKeys(Set<String> watchedKeys, String eventName) {
     for (String watchedKey : watchedKeys) {
       Tracer.logEvent(eventName, watchedKey);
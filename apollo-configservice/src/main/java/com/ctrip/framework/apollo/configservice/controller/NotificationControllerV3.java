@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.controller;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.configservice.service.NotificationStreamService;
+import com.ctrip.framework.apollo.configservice.util.ClientNotificationsUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.SseEmitterWrapper;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+
+/**
+ * Streams the notifications with server-sent events, so that a client subscribes once and receives all the
+ * notifications on the same connection instead of polling again after each notification.
+ *
+ * <p>The stream is completed after {@link BizConfig#notificationStreamTimeoutInMilli()}, then the client subscribes
+ * again with its latest notification ids.</p>
+ *
+ * @see NotificationWebSocketHandler for the same stream over websocket
+ */
+@RestController
+@RequestMapping("/notifications/v3")
+public class NotificationControllerV3 {
+  private static final Logger logger = LoggerFactory.getLogger(NotificationControllerV3.class);
+
+  private final ClientNotificationsUtil clientNotificationsUtil;
+  private final NotificationStreamService notificationStreamService;
+  private final BizConfig bizConfig;
+
+  public NotificationControllerV3(
+      final ClientNotificationsUtil clientNotificationsUtil,
+      final NotificationStreamService notificationStreamService,
+      final BizConfig bizConfig) {
+    this.clientNotificationsUtil = clientNotificationsUtil;
+    this.notificationStreamService = notificationStreamService;
+    this.bizConfig = bizConfig;
+  }
+
+  @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter streamNotifications(
+      @RequestParam(value = "appId") String appId,
+      @RequestParam(value = "cluster") String cluster,
+      @RequestParam(value = "notifications") String notificationsAsString,
+      @RequestParam(value = "dataCenter", required = false) String dataCenter,
+      @RequestParam(value = "ip", required = false) String clientIp) {
+    Map<String, ApolloConfigNotification> filteredNotifications =
+        clientNotificationsUtil.resolveNotifications(appId, notificationsAsString);
+
+    SseEmitterWrapper emitterWrapper = new SseEmitterWrapper(bizConfig.notificationStreamTimeoutInMilli());
+
+    emitterWrapper.onError(ex -> logger.debug("Notification stream of {} failed", appId, ex));
+    emitterWrapper.onCompletion(() -> notificationStreamService.unsubscribe(emitterWrapper));
+
+    notificationStreamService.subscribe(emitterWrapper, appId, cluster, filteredNotifications, dataCenter);
+
+    return emitterWrapper.getEmitter();
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.controller;
+
+import com.ctrip.framework.apollo.common.exception.BadRequestException;
+import com.ctrip.framework.apollo.configservice.service.NotificationStreamService;
+import com.ctrip.framework.apollo.configservice.util.ClientNotificationsUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.WebSocketSessionWrapper;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+
+/**
+ * Streams the notifications over websocket, it takes the same query parameters as {@link NotificationControllerV3}.
+ *
+ * <p>The parameters are validated during the handshake, so that an invalid subscription is rejected with 400 instead
+ * of an upgraded connection being closed at once.</p>
+ */
+@Component
+public class NotificationWebSocketHandler extends TextWebSocketHandler implements HandshakeInterceptor {
+  private static final Logger logger = LoggerFactory.getLogger(NotificationWebSocketHandler.class);
+  public static final String PATH = "/notifications/v3/websocket";
+  private static final String APP_ID = "appId";
+  private static final String CLUSTER = "cluster";
+  private static final String NOTIFICATIONS = "notifications";
+  private static final String DATA_CENTER = "dataCenter";
+  private static final String STREAM = "notificationStream";
+
+  private final ClientNotificationsUtil clientNotificationsUtil;
+  private final NotificationStreamService notificationStreamService;
+
+  public NotificationWebSocketHandler(
+      final ClientNotificationsUtil clientNotificationsUtil,
+      final NotificationStreamService notificationStreamService) {
+    this.clientNotificationsUtil = clientNotificationsUtil;
+    this.notificationStreamService = notificationStreamService;
+  }
+
+  @Override
+  public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                 WebSocketHandler wsHandler, Map<String, Object> attributes) {
+    HttpServletRequest servletRequest = ((ServletServerHttpRequest) request).getServletRequest();
+    String appId = servletRequest.getParameter(APP_ID);
+    String cluster = servletRequest.getParameter(CLUSTER);
+    String notificationsAsString = servletRequest.getParameter(NOTIFICATIONS);
+
+    if (Strings.isNullOrEmpty(appId) || Strings.isNullOrEmpty(cluster)) {
+      response.setStatusCode(HttpStatus.BAD_REQUEST);
+      return false;
+    }
+
+    try {
+      attributes.put(NOTIFICATIONS, clientNotificationsUtil.resolveNotifications(appId, notificationsAsString));
+    } catch (BadRequestException ex) {
+      logger.debug("Invalid notification websocket subscription of {}: {}", appId, ex.getMessage());
+      response.setStatusCode(HttpStatus.BAD_REQUEST);
+      return false;
+    }
+
+    attributes.put(APP_ID, appId);
+    attributes.put(CLUSTER, cluster);
+    String dataCenter = servletRequest.getParameter(DATA_CENTER);
+    // the attributes are copied into a concurrent map, which doesn't accept null values
+    if (dataCenter != null) {
+      attributes.put(DATA_CENTER, dataCenter);
+    }
+    return true;
+  }
+
+  @Override
+  public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                             WebSocketHandler wsHandler, Exception exception) {
+    //nothing to do
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void afterConnectionEstablished(WebSocketSession session) {
+    Map<String, Object> attributes = session.getAttributes();
+    WebSocketSessionWrapper sessionWrapper = new WebSocketSessionWrapper(session);
+    attributes.put(STREAM, sessionWrapper);
+
+    notificationStreamService.subscribe(sessionWrapper, (String) attributes.get(APP_ID),
+        (String) attributes.get(CLUSTER), (Map<String, ApolloConfigNotification>) attributes.get(NOTIFICATIONS),
+        (String) attributes.get(DATA_CENTER));
+  }
+
+  @Override
+  public void handleTransportError(WebSocketSession session, Throwable exception) {
+    logger.debug("Notification websocket of {} failed", session.getAttributes().get(APP_ID), exception);
+  }
+
+  @Override
+  public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+    WebSocketSessionWrapper sessionWrapper = (WebSocketSessionWrapper) session.getAttributes().get(STREAM);
+    if (sessionWrapper != null) {
+      notificationStreamService.unsubscribe(sessionWrapper);
+    }
+    Tracer.logEvent("Apollo.NotificationStream.WebSocketClosed", String.valueOf(status.getCode()));
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.controller;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.message.BroadcastMessageSender;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageScanner;
+import com.ctrip.framework.apollo.configservice.service.ReleaseMessageScanLeaseService;
+import com.ctrip.framework.apollo.configservice.wrapper.ReleaseMessageBatch;
+import com.google.common.base.Strings;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Receive the release messages broadcast by the admin services.
+ *
+ * <p>The message is only taken as a hint to scan the database immediately, so the release messages are still read
+ * from the database. The broadcast is only accepted with the token shared by the admin services via ConfigDB, and
+ * rejected if no token is configured.</p>
+ *
+ * <p>Also receive the release messages pushed by the config service instance holding the scan lease, which are only
+ * accepted with the token of the current lease.</p>
+ */
+@RestController
+@RequestMapping(BroadcastMessageSender.RELEASE_MESSAGE_PATH)
+public class ReleaseMessageController {
+  private final ReleaseMessageScanner releaseMessageScanner;
+  private final ReleaseMessageScanLeaseService releaseMessageScanLeaseService;
+  private final BizConfig bizConfig;
+
+  public ReleaseMessageController(
+      final ReleaseMessageScanner releaseMessageScanner,
+      final ReleaseMessageScanLeaseService releaseMessageScanLeaseService,
+      final BizConfig bizConfig) {
+    this.releaseMessageScanner = releaseMessageScanner;
+    this.releaseMessageScanLeaseService = releaseMessageScanLeaseService;
+    this.bizConfig = bizConfig;
+  }
+
+  @PostMapping
+  public ResponseEntity<Void> onReleaseMessage(@RequestParam("id") long id,
+      @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String token) {
+    if (!isBroadcastToken(token)) {
+      return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+    }
+    releaseMessageScanner.triggerScan(id);
+    return new ResponseEntity<>(HttpStatus.OK);
+  }
+
+  @PostMapping(ReleaseMessageScanLeaseService.BATCH_PATH)
+  public ResponseEntity<Void> onReleaseMessageBatch(@RequestBody ReleaseMessageBatch batch) {
+    if (!releaseMessageScanLeaseService.receiveBatch(batch)) {
+      return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+    }
+    return new ResponseEntity<>(HttpStatus.OK);
+  }
+
+  private boolean isBroadcastToken(String token) {
+    String broadcastToken = bizConfig.releaseMessageBroadcastToken();
+    if (Strings.isNullOrEmpty(broadcastToken) || Strings.isNullOrEmpty(token)) {
+      return false;
+    }
+    return MessageDigest.isEqual(broadcastToken.getBytes(StandardCharsets.UTF_8),
+        token.getBytes(StandardCharsets.UTF_8));
+  }
+}
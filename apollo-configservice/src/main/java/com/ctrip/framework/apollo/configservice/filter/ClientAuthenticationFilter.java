@@ -20,10 +20,14 @@ import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.configservice.util.AccessKeyUtil;
 import com.ctrip.framework.apollo.core.signature.Signature;
 import com.ctrip.framework.apollo.core.utils.StringUtils;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.net.HttpHeaders;
 import java.io.IOException;
 import java.util.List;
-import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -42,13 +46,24 @@ import org.springframework.util.CollectionUtils;
 public class ClientAuthenticationFilter implements Filter {
 
   private static final Logger logger = LoggerFactory.getLogger(ClientAuthenticationFilter.class);
+  private static final Joiner VERIFIED_KEY_JOINER = Joiner.on('\n');
+  private static final long MAX_VERIFIED_CACHE_SIZE = 100000;
 
   private final BizConfig bizConfig;
   private final AccessKeyUtil accessKeyUtil;
+  /**
+   * timestamp + path with query + authorization of the requests verified recently, null if disabled
+   */
+  private final Cache<String, Boolean> verifiedSignatures;
 
   public ClientAuthenticationFilter(BizConfig bizConfig, AccessKeyUtil accessKeyUtil) {
     this.bizConfig = bizConfig;
     this.accessKeyUtil = accessKeyUtil;
+    int verifiedCacheTtl = bizConfig.accessKeyAuthCacheTtlInMilli();
+    this.verifiedSignatures = verifiedCacheTtl <= 0 ? null : CacheBuilder.newBuilder()
+        .expireAfterWrite(verifiedCacheTtl, TimeUnit.MILLISECONDS)
+        .maximumSize(MAX_VERIFIED_CACHE_SIZE)
+        .build();
   }
 
   @Override
@@ -116,18 +131,30 @@ public class ClientAuthenticationFilter implements Filter {
 
     String signature = null;
     if (authorization != null) {
-      String[] split = authorization.split(":");
-      if (split.length > 1) {
-        signature = split[1];
+      int index = authorization.lastIndexOf(':');
+      if (index >= 0) {
+        signature = authorization.substring(index + 1);
       }
     }
+    if (signature == null) {
+      return false;
+    }
 
-    for (String secret : availableSecrets) {
-      String availableSignature = accessKeyUtil.buildSignature(path, query, timestamp, secret);
-      if (Objects.equals(signature, availableSignature)) {
+    // the timestamp is checked before, so a remembered request still has to be signed within the tolerance
+    String verifiedKey = null;
+    if (verifiedSignatures != null) {
+      verifiedKey = VERIFIED_KEY_JOINER.join(timestamp, path, Strings.nullToEmpty(query), authorization);
+      if (verifiedSignatures.getIfPresent(verifiedKey) != null) {
         return true;
       }
     }
-    return false;
+
+    if (!accessKeyUtil.verifySignature(path, query, timestamp, signature, availableSecrets)) {
+      return false;
+    }
+    if (verifiedKey != null) {
+      verifiedSignatures.put(verifiedKey, Boolean.TRUE);
+    }
+    return true;
   }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.filter;
+
+import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Rejects the client requests with 503 until the release messages are loaded, as the notification ids answered
+ * before that could be stale. The clients retry them with their own backoff.
+ */
+public class ReleaseMessageCacheReadinessFilter implements Filter {
+
+  private final ReleaseMessageServiceWithCache releaseMessageServiceWithCache;
+
+  public ReleaseMessageCacheReadinessFilter(ReleaseMessageServiceWithCache releaseMessageServiceWithCache) {
+    this.releaseMessageServiceWithCache = releaseMessageServiceWithCache;
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) {
+    //nothing
+  }
+
+  @Override
+  public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+      throws IOException, ServletException {
+    if (!releaseMessageServiceWithCache.isInitialLoadCompleted()) {
+      ((HttpServletResponse) resp).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "ReleaseMessagesLoading");
+      return;
+    }
+
+    chain.doFilter(req, resp);
+  }
+
+  @Override
+  public void destroy() {
+    //nothing
+  }
+}
@@ -19,6 +19,7 @@ package com.ctrip.framework.apollo.configservice.service;
 import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.entity.AccessKey;
 import com.ctrip.framework.apollo.biz.repository.AccessKeyRepository;
+import com.ctrip.framework.apollo.biz.utils.IncrementalChangeLoader;
 import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.ctrip.framework.apollo.tracer.spi.Transaction;
@@ -30,7 +31,6 @@ import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
 import java.util.Collections;
-import java.util.Date;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
@@ -61,7 +61,7 @@ public class AccessKeyServiceWithCache implements InitializingBean {
   private int rebuildInterval;
   private TimeUnit rebuildIntervalTimeUnit;
   private ScheduledExecutorService scheduledExecutorService;
-  private Date lastTimeScanned;
+  private IncrementalChangeLoader<AccessKey> changeLoader;
 
   private ListMultimap<String, AccessKey> accessKeyCache;
   private ConcurrentMap<Long, AccessKey> accessKeyIdCache;
@@ -77,7 +77,6 @@ public class AccessKeyServiceWithCache implements InitializingBean {
   private void initialize() {
     scheduledExecutorService = new ScheduledThreadPoolExecutor(1,
         ApolloThreadFactory.create("AccessKeyServiceWithCache", true));
-    lastTimeScanned = new Date(0L);
 
     ListMultimap<String, AccessKey> multimap = ListMultimapBuilder.treeKeys(String.CASE_INSENSITIVE_ORDER)
         .arrayListValues().build();
@@ -100,6 +99,8 @@ public class AccessKeyServiceWithCache implements InitializingBean {
   @Override
   public void afterPropertiesSet() throws Exception {
     populateDataBaseInterval();
+    changeLoader = new IncrementalChangeLoader<>(accessKeyRepository::findChangesIncludingDeleted,
+        bizConfig.cacheIncrementalLoadOverlapInMilli());
     scanNewAndUpdatedAccessKeys(); //block the startup process until load finished
 
     scheduledExecutorService.scheduleWithFixedDelay(this::scanNewAndUpdatedAccessKeys,
@@ -138,28 +139,9 @@ public class AccessKeyServiceWithCache implements InitializingBean {
   }
 
   private void loadNewAndUpdatedAccessKeys() {
-    boolean hasMore = true;
-    while (hasMore && !Thread.currentThread().isInterrupted()) {
-      //current batch is 500
-      List<AccessKey> accessKeys = accessKeyRepository
-          .findFirst500ByDataChangeLastModifiedTimeGreaterThanOrderByDataChangeLastModifiedTimeAsc(lastTimeScanned);
-      if (CollectionUtils.isEmpty(accessKeys)) {
-        break;
-      }
-
-      int scanned = accessKeys.size();
-      mergeAccessKeys(accessKeys);
-      logger.info("Loaded {} new/updated Accesskey from startTime {}", scanned, lastTimeScanned);
-
-      hasMore = scanned == 500;
-      lastTimeScanned = accessKeys.get(scanned - 1).getDataChangeLastModifiedTime();
-
-      // In order to avoid missing some records at the last time, we need to scan records at this time individually
-      if (hasMore) {
-        List<AccessKey> lastModifiedTimeAccessKeys = accessKeyRepository.findByDataChangeLastModifiedTime(lastTimeScanned);
-        mergeAccessKeys(lastModifiedTimeAccessKeys);
-        logger.info("Loaded {} new/updated Accesskey at lastModifiedTime {}", scanned, lastTimeScanned);
-      }
+    int scanned = changeLoader.load(this::mergeAccessKeys);
+    if (scanned > 0) {
+      logger.info("Loaded {} new/updated/deleted Accesskey", scanned);
     }
   }
 
@@ -167,13 +149,26 @@ public class AccessKeyServiceWithCache implements InitializingBean {
     for (AccessKey accessKey : accessKeys) {
       AccessKey thatInCache = accessKeyIdCache.get(accessKey.getId());
 
+      //outdated one
+      if (thatInCache != null && thatInCache.getDataChangeLastModifiedTime()
+          .after(accessKey.getDataChangeLastModifiedTime())) {
+        continue;
+      }
+
+      if (accessKey.isDeleted()) {
+        handleDeletedAccessKeys(Collections.singleton(accessKey.getId()));
+        continue;
+      }
+
+      //put the new one before removing the old one, so that the key is always available
       accessKeyIdCache.put(accessKey.getId(), accessKey);
       accessKeyCache.put(accessKey.getAppId(), accessKey);
 
-      if (thatInCache != null && accessKey.getDataChangeLastModifiedTime()
-          .after(thatInCache.getDataChangeLastModifiedTime())) {
-        accessKeyCache.remove(accessKey.getAppId(), thatInCache);
-        logger.info("Found Accesskey changes, old: {}, new: {}", thatInCache, accessKey);
+      if (thatInCache != null) {
+        accessKeyCache.remove(thatInCache.getAppId(), thatInCache);
+        if (accessKey.getDataChangeLastModifiedTime().after(thatInCache.getDataChangeLastModifiedTime())) {
+          logger.info("Found Accesskey changes, old: {}, new: {}", thatInCache, accessKey);
+        }
       }
     }
   }
@@ -18,6 +18,7 @@ package com.ctrip.framework.apollo.configservice.service;
 
 import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.repository.AppNamespaceRepository;
+import com.ctrip.framework.apollo.biz.utils.IncrementalChangeLoader;
 import com.ctrip.framework.apollo.common.entity.AppNamespace;
 import com.ctrip.framework.apollo.configservice.wrapper.CaseInsensitiveMapWrapper;
 import com.ctrip.framework.apollo.core.ConfigConsts;
@@ -37,31 +38,36 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
+import java.io.IOException;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
  */
 @Service
-public class AppNamespaceServiceWithCache implements InitializingBean {
+public class AppNamespaceServiceWithCache implements InitializingBean, CacheSnapshotParticipant {
   private static final Logger logger = LoggerFactory.getLogger(AppNamespaceServiceWithCache.class);
   private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
       .skipNulls();
+  private static final String SNAPSHOT_NAME = "AppNamespace";
   private final AppNamespaceRepository appNamespaceRepository;
   private final BizConfig bizConfig;
+  private final CacheSnapshotService cacheSnapshotService;
 
   private int scanInterval;
   private TimeUnit scanIntervalTimeUnit;
   private int rebuildInterval;
   private TimeUnit rebuildIntervalTimeUnit;
   private ScheduledExecutorService scheduledExecutorService;
-  private long maxIdScanned;
+  private IncrementalChangeLoader<AppNamespace> changeLoader;
 
   //store namespaceName -> AppNamespace
   private CaseInsensitiveMapWrapper<AppNamespace> publicAppNamespaceCache;
@@ -72,23 +78,35 @@ public class AppNamespaceServiceWithCache implements InitializingBean {
   //store id -> AppNamespace
   private Map<Long, AppNamespace> appNamespaceIdCache;
 
+  //bumped whenever the cached app namespaces change, so that the results derived from them could be invalidated
+  private final AtomicLong version = new AtomicLong();
+
   public AppNamespaceServiceWithCache(
       final AppNamespaceRepository appNamespaceRepository,
-      final BizConfig bizConfig) {
+      final BizConfig bizConfig,
+      final CacheSnapshotService cacheSnapshotService) {
     this.appNamespaceRepository = appNamespaceRepository;
     this.bizConfig = bizConfig;
+    this.cacheSnapshotService = cacheSnapshotService;
     initialize();
   }
 
   private void initialize() {
-    maxIdScanned = 0;
     publicAppNamespaceCache = new CaseInsensitiveMapWrapper<>(Maps.newConcurrentMap());
     appNamespaceCache = new CaseInsensitiveMapWrapper<>(Maps.newConcurrentMap());
     appNamespaceIdCache = Maps.newConcurrentMap();
+    version.incrementAndGet();
     scheduledExecutorService = Executors.newScheduledThreadPool(1, ApolloThreadFactory
         .create("AppNamespaceServiceWithCache", true));
   }
 
+  /**
+   * @return the version of the cached app namespaces, which changes whenever any of them is added, updated or deleted
+   */
+  public long getVersion() {
+    return version.get();
+  }
+
   public AppNamespace findByAppIdAndNamespace(String appId, String namespaceName) {
     Preconditions.checkArgument(!StringUtils.isContainEmpty(appId, namespaceName), "appId and namespaceName must not be empty");
     return appNamespaceCache.get(STRING_JOINER.join(appId, namespaceName));
@@ -132,7 +150,12 @@ public class AppNamespaceServiceWithCache implements InitializingBean {
   @Override
   public void afterPropertiesSet() throws Exception {
     populateDataBaseInterval();
-    scanNewAppNamespaces(); //block the startup process until load finished
+    changeLoader = new IncrementalChangeLoader<>(appNamespaceRepository::findChangesIncludingDeleted,
+        bizConfig.cacheIncrementalLoadOverlapInMilli());
+    restoreSnapshot();
+    scanChangedAppNamespaces(); //block the startup process until load finished
+    cacheSnapshotService.register(this);
+    //the changes are loaded incrementally, so rebuilding is only a consistency check
     scheduledExecutorService.scheduleAtFixedRate(() -> {
       Transaction transaction = Tracer.newTransaction("Apollo.AppNamespaceServiceWithCache",
           "rebuildCache");
@@ -146,40 +169,45 @@ public class AppNamespaceServiceWithCache implements InitializingBean {
         transaction.complete();
       }
     }, rebuildInterval, rebuildInterval, rebuildIntervalTimeUnit);
-    scheduledExecutorService.scheduleWithFixedDelay(this::scanNewAppNamespaces, scanInterval,
+    scheduledExecutorService.scheduleWithFixedDelay(this::scanChangedAppNamespaces, scanInterval,
         scanInterval, scanIntervalTimeUnit);
   }
 
-  private void scanNewAppNamespaces() {
+  private void scanChangedAppNamespaces() {
     Transaction transaction = Tracer.newTransaction("Apollo.AppNamespaceServiceWithCache",
-        "scanNewAppNamespaces");
+        "scanChangedAppNamespaces");
     try {
-      this.loadNewAppNamespaces();
+      int scanned = changeLoader.load(this::mergeChangedAppNamespaces);
+      if (scanned > 0) {
+        logger.info("Loaded {} new/updated/deleted app namespaces", scanned);
+      }
       transaction.setStatus(Transaction.SUCCESS);
     } catch (Throwable ex) {
       transaction.setStatus(ex);
-      logger.error("Load new app namespaces failed", ex);
+      logger.error("Load changed app namespaces failed", ex);
     } finally {
       transaction.complete();
     }
   }
 
-  //for those new app namespaces
-  private void loadNewAppNamespaces() {
-    boolean hasMore = true;
-    while (hasMore && !Thread.currentThread().isInterrupted()) {
-      //current batch is 500
-      List<AppNamespace> appNamespaces = appNamespaceRepository
-          .findFirst500ByIdGreaterThanOrderByIdAsc(maxIdScanned);
-      if (CollectionUtils.isEmpty(appNamespaces)) {
-        break;
+  //for those new, updated or deleted app namespaces
+  private void mergeChangedAppNamespaces(List<AppNamespace> appNamespaces) {
+    Set<Long> deletedIds = Sets.newHashSet();
+    List<AppNamespace> newAppNamespaces = Lists.newArrayList();
+    List<AppNamespace> updatedAppNamespaces = Lists.newArrayList();
+    for (AppNamespace appNamespace : appNamespaces) {
+      if (appNamespace.isDeleted()) {
+        deletedIds.add(appNamespace.getId());
+      } else if (appNamespaceIdCache.containsKey(appNamespace.getId())) {
+        updatedAppNamespaces.add(appNamespace);
+      } else {
+        newAppNamespaces.add(appNamespace);
       }
-      mergeAppNamespaces(appNamespaces);
-      int scanned = appNamespaces.size();
-      maxIdScanned = appNamespaces.get(scanned - 1).getId();
-      hasMore = scanned == 500;
-      logger.info("Loaded {} new app namespaces with startId {}", scanned, maxIdScanned);
     }
+    //deleted first, in case the app namespace is deleted and then created again
+    handleDeletedAppNamespaces(deletedIds);
+    mergeAppNamespaces(newAppNamespaces);
+    handleUpdatedAppNamespaces(updatedAppNamespaces);
   }
 
   private void mergeAppNamespaces(List<AppNamespace> appNamespaces) {
@@ -190,6 +218,9 @@ public class AppNamespaceServiceWithCache implements InitializingBean {
         publicAppNamespaceCache.put(appNamespace.getName(), appNamespace);
       }
     }
+    if (!appNamespaces.isEmpty()) {
+      version.incrementAndGet();
+    }
   }
 
   //for those updated or deleted app namespaces
@@ -243,6 +274,7 @@ public class AppNamespaceServiceWithCache implements InitializingBean {
           //just in case isPublic changes
           publicAppNamespaceCache.remove(thatInCache.getName());
         }
+        version.incrementAndGet();
         logger.info("Found AppNamespace changes, old: {}, new: {}", thatInCache, appNamespace);
       }
     }
@@ -259,7 +291,11 @@ public class AppNamespaceServiceWithCache implements InitializingBean {
       if (deleted == null) {
         continue;
       }
-      appNamespaceCache.remove(assembleAppNamespaceKey(deleted));
+      String key = assembleAppNamespaceKey(deleted);
+      // in case the app namespace is created again
+      if (appNamespaceCache.get(key) == deleted) {
+        appNamespaceCache.remove(key);
+      }
       if (deleted.isPublic()) {
         AppNamespace publicAppNamespace = publicAppNamespaceCache.get(deleted.getName());
         // in case there is some dirty data, e.g. public namespace deleted in some app and now created in another app
@@ -267,10 +303,62 @@ public class AppNamespaceServiceWithCache implements InitializingBean {
           publicAppNamespaceCache.remove(deleted.getName());
         }
       }
+      version.incrementAndGet();
       logger.info("Found AppNamespace deleted, {}", deleted);
     }
   }
 
+  @Override
+  public String getSnapshotName() {
+    return SNAPSHOT_NAME;
+  }
+
+  @Override
+  public void writeSnapshot(CacheSnapshotWriter writer) throws IOException {
+    //the app namespaces changed after the high-water mark would be merged again after restored, which is harmless
+    writer.writeLong(changeLoader.getHighWaterMark());
+    List<AppNamespace> appNamespaces = Lists.newArrayList(appNamespaceIdCache.values());
+    writer.writeInt(appNamespaces.size());
+    for (AppNamespace appNamespace : appNamespaces) {
+      writer.writeLong(appNamespace.getId());
+      writer.writeString(appNamespace.getAppId());
+      writer.writeString(appNamespace.getName());
+      writer.writeString(appNamespace.getFormat());
+      writer.writeBoolean(appNamespace.isPublic());
+      writer.writeString(appNamespace.getComment());
+      Date lastModifiedTime = appNamespace.getDataChangeLastModifiedTime();
+      writer.writeLong(lastModifiedTime == null ? 0 : lastModifiedTime.getTime());
+    }
+  }
+
+  private void restoreSnapshot() {
+    CacheSnapshotReader reader = cacheSnapshotService.restore(SNAPSHOT_NAME);
+    if (reader == null) {
+      return;
+    }
+    try {
+      long highWaterMark = reader.readLong();
+      int count = reader.readInt();
+      List<AppNamespace> appNamespaces = Lists.newArrayListWithCapacity(count);
+      for (int i = 0; i < count; i++) {
+        AppNamespace appNamespace = new AppNamespace();
+        appNamespace.setId(reader.readLong());
+        appNamespace.setAppId(reader.readString());
+        appNamespace.setName(reader.readString());
+        appNamespace.setFormat(reader.readString());
+        appNamespace.setPublic(reader.readBoolean());
+        appNamespace.setComment(reader.readString());
+        appNamespace.setDataChangeLastModifiedTime(new Date(reader.readLong()));
+        appNamespaces.add(appNamespace);
+      }
+      mergeAppNamespaces(appNamespaces);
+      changeLoader.setHighWaterMark(highWaterMark);
+      logger.info("Restored {} app namespaces from snapshot with high-water mark {}", count, new Date(highWaterMark));
+    } catch (Throwable ex) {
+      logger.warn("Restore app namespaces from snapshot failed, will load from database", ex);
+    }
+  }
+
   private String assembleAppNamespaceKey(AppNamespace appNamespace) {
     return STRING_JOINER.join(appNamespace.getAppId(), appNamespace.getName());
   }
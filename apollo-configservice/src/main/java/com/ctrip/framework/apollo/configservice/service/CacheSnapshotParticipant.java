@@ -0,0 +1,37 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.service;
+
+import java.io.IOException;
+
+/**
+ * A cache which could be saved to the cache snapshot, and restored from it when the config service starts.
+ *
+ * @see CacheSnapshotService
+ */
+public interface CacheSnapshotParticipant {
+
+  /**
+   * @return the unique name of the section in the snapshot
+   */
+  String getSnapshotName();
+
+  /**
+   * Write the cached data, which would be read by the same participant in the same order when restoring
+   */
+  void writeSnapshot(CacheSnapshotWriter writer) throws IOException;
+}
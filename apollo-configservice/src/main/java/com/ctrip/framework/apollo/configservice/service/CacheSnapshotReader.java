@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read the primitives of a cache snapshot section, which is usually backed by the memory mapped snapshot file
+ */
+public class CacheSnapshotReader {
+  private final ByteBuffer buffer;
+
+  public CacheSnapshotReader(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  public int readInt() {
+    return buffer.getInt();
+  }
+
+  public long readLong() {
+    return buffer.getLong();
+  }
+
+  public boolean readBoolean() {
+    return buffer.get() != 0;
+  }
+
+  public String readString() {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    return StandardCharsets.UTF_8.decode(slice(length)).toString();
+  }
+
+  /**
+   * @return a view of the next length bytes, which are skipped in this reader
+   */
+  ByteBuffer slice(int length) {
+    ByteBuffer slice = buffer.slice();
+    slice.limit(length);
+    buffer.position(buffer.position() + length);
+    return slice;
+  }
+}
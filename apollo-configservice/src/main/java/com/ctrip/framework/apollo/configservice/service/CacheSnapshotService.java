@@ -0,0 +1,245 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.service;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.repository.ReleaseMessageRepository;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.ctrip.framework.apollo.tracer.spi.Transaction;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+/**
+ * Save the caches of the config service to a local file periodically and when the config service shuts down, so that
+ * the caches could be restored from the file when the config service starts, and only the data newer than the
+ * snapshot needs to be loaded from the database.
+ *
+ * <p>The snapshot is made up of the sections written by the {@link CacheSnapshotParticipant}s, each with a CRC32
+ * checksum. It's memory mapped when restoring, and it's only used if it's taken from the same database, which is
+ * checked by the latest release message when the snapshot was taken.</p>
+ */
+@Service
+public class CacheSnapshotService implements DisposableBean {
+  private static final Logger logger = LoggerFactory.getLogger(CacheSnapshotService.class);
+  private static final int MAGIC = 0x41504353; //APCS
+  private static final int FORMAT_VERSION = 1;
+  private static final int SHUTDOWN_TIMEOUT_IN_SECONDS = 10;
+
+  private final BizConfig bizConfig;
+  private final ReleaseMessageRepository releaseMessageRepository;
+  private final List<CacheSnapshotParticipant> participants = Lists.newCopyOnWriteArrayList();
+  private final ScheduledExecutorService executorService;
+  private final AtomicBoolean started = new AtomicBoolean(false);
+  private Map<String, ByteBuffer> sections;
+
+  public CacheSnapshotService(
+      final BizConfig bizConfig,
+      final ReleaseMessageRepository releaseMessageRepository) {
+    this.bizConfig = bizConfig;
+    this.releaseMessageRepository = releaseMessageRepository;
+    this.executorService = Executors.newScheduledThreadPool(1,
+        ApolloThreadFactory.create("CacheSnapshotService", true));
+  }
+
+  /**
+   * Register the participant to be saved in the snapshot
+   */
+  public void register(CacheSnapshotParticipant participant) {
+    participants.add(participant);
+    if (bizConfig.isConfigServiceCacheSnapshotEnabled() && started.compareAndSet(false, true)) {
+      int interval = bizConfig.configServiceCacheSnapshotIntervalInSeconds();
+      executorService.scheduleWithFixedDelay(this::saveSnapshot, interval, interval, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * @return the reader of the section saved by the participant with the name, or null if there is no valid snapshot
+   */
+  public synchronized CacheSnapshotReader restore(String name) {
+    if (!bizConfig.isConfigServiceCacheSnapshotEnabled()) {
+      return null;
+    }
+    if (sections == null) {
+      sections = loadSnapshot();
+    }
+    ByteBuffer section = sections.get(name);
+    return section == null ? null : new CacheSnapshotReader(section.duplicate());
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    if (started.get()) {
+      executorService.shutdown();
+      //a periodic save might be running, which writes the same temp file
+      if (!executorService.awaitTermination(SHUTDOWN_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)) {
+        logger.warn("The running cache snapshot is not saved in {} seconds, skip saving it again on shutdown",
+            SHUTDOWN_TIMEOUT_IN_SECONDS);
+        return;
+      }
+      //the snapshot is most useful when it's taken right before restarting
+      saveSnapshot();
+    }
+  }
+
+  void saveSnapshot() {
+    Transaction transaction = Tracer.newTransaction("Apollo.CacheSnapshot", "save");
+    Path path = Paths.get(bizConfig.configServiceCacheSnapshotPath());
+    Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try {
+      if (path.getParent() != null) {
+        Files.createDirectories(path.getParent());
+      }
+      writeSnapshot(tempPath);
+      Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      transaction.setStatus(Transaction.SUCCESS);
+    } catch (Throwable ex) {
+      transaction.setStatus(ex);
+      logger.error("Save cache snapshot to {} failed", path, ex);
+    } finally {
+      transaction.complete();
+    }
+  }
+
+  private void writeSnapshot(Path path) throws IOException {
+    ReleaseMessage latestReleaseMessage = releaseMessageRepository.findTopByOrderByIdDesc();
+    CRC32 checksum = new CRC32();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      CacheSnapshotWriter writer = new CacheSnapshotWriter(new DataOutputStream(
+          new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)), checksum)));
+      writer.writeInt(MAGIC);
+      writer.writeInt(FORMAT_VERSION);
+      writer.writeLong(System.currentTimeMillis());
+      writer.writeLong(latestReleaseMessage == null ? 0 : latestReleaseMessage.getId());
+      writer.writeString(latestReleaseMessage == null ? null : latestReleaseMessage.getMessage());
+      writer.writeInt(participants.size());
+      for (CacheSnapshotParticipant participant : participants) {
+        writer.writeString(participant.getSnapshotName());
+        writer.flush();
+        //the length and checksum are filled after the section is written
+        long sectionHeaderPosition = channel.position();
+        writer.writeInt(0);
+        writer.writeLong(0);
+        writer.flush();
+        checksum.reset();
+        participant.writeSnapshot(writer);
+        writer.flush();
+        long length = channel.position() - sectionHeaderPosition - 12;
+        ByteBuffer sectionHeader = ByteBuffer.allocate(12);
+        sectionHeader.putInt((int) length).putLong(checksum.getValue()).flip();
+        channel.write(sectionHeader, sectionHeaderPosition);
+      }
+      channel.force(false);
+    }
+  }
+
+  private Map<String, ByteBuffer> loadSnapshot() {
+    Path path = Paths.get(bizConfig.configServiceCacheSnapshotPath());
+    if (!Files.isRegularFile(path)) {
+      return Collections.emptyMap();
+    }
+    Transaction transaction = Tracer.newTransaction("Apollo.CacheSnapshot", "load");
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      //the mapping stays valid after the channel is closed
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      CacheSnapshotReader reader = new CacheSnapshotReader(buffer);
+      if (reader.readInt() != MAGIC || reader.readInt() != FORMAT_VERSION) {
+        logger.warn("Ignore cache snapshot {} with unknown format", path);
+        transaction.setStatus(Transaction.SUCCESS);
+        return Collections.emptyMap();
+      }
+      long createdAt = reader.readLong();
+      long latestReleaseMessageId = reader.readLong();
+      String latestReleaseMessage = reader.readString();
+      if (!isTakenFromCurrentDatabase(latestReleaseMessageId, latestReleaseMessage)) {
+        logger.warn("Ignore cache snapshot {} which is not taken from the current database", path);
+        transaction.setStatus(Transaction.SUCCESS);
+        return Collections.emptyMap();
+      }
+
+      int sectionCount = reader.readInt();
+      Map<String, ByteBuffer> loaded = Maps.newHashMapWithExpectedSize(sectionCount);
+      for (int i = 0; i < sectionCount; i++) {
+        String name = reader.readString();
+        int length = reader.readInt();
+        long expectedChecksum = reader.readLong();
+        ByteBuffer section = reader.slice(length);
+        CRC32 checksum = new CRC32();
+        checksum.update(section.duplicate());
+        if (checksum.getValue() != expectedChecksum) {
+          logger.warn("Ignore corrupted section {} of cache snapshot {}", name, path);
+          continue;
+        }
+        loaded.put(name, section);
+      }
+      logger.info("Loaded cache snapshot {} taken at {} with sections {}", path, createdAt, loaded.keySet());
+      transaction.setStatus(Transaction.SUCCESS);
+      return loaded;
+    } catch (Throwable ex) {
+      transaction.setStatus(ex);
+      logger.warn("Load cache snapshot {} failed", path, ex);
+      return Collections.emptyMap();
+    } finally {
+      transaction.complete();
+    }
+  }
+
+  /**
+   * The latest release message when the snapshot was taken should still be there, unless it's replaced by a newer
+   * message of the same content
+   */
+  private boolean isTakenFromCurrentDatabase(long releaseMessageId, String releaseMessage) {
+    if (releaseMessageId == 0) {
+      return releaseMessageRepository.findTopByOrderByIdDesc() == null;
+    }
+    ReleaseMessage current = releaseMessageRepository.findById(releaseMessageId).orElse(null);
+    if (current != null) {
+      return Objects.equals(current.getMessage(), releaseMessage);
+    }
+    ReleaseMessage latest = releaseMessageRepository
+        .findTopByMessageInOrderByIdDesc(Collections.singletonList(releaseMessage));
+    return latest != null && latest.getId() > releaseMessageId;
+  }
+}
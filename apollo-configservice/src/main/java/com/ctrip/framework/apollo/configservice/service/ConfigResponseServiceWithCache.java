@@ -0,0 +1,593 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.service;
+
+import com.ctrip.framework.apollo.biz.entity.Cluster;
+import com.ctrip.framework.apollo.biz.entity.Release;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.grayReleaseRule.GrayReleaseRulesHolder;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageListener;
+import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.biz.service.ClusterService;
+import com.ctrip.framework.apollo.biz.service.ReleaseMessageService;
+import com.ctrip.framework.apollo.biz.utils.ReleaseMessageKeyGenerator;
+import com.ctrip.framework.apollo.common.http.CompressedContent;
+import com.ctrip.framework.apollo.configservice.service.config.ConfigService;
+import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
+import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.ResolvedReleases;
+import com.ctrip.framework.apollo.configservice.wrapper.WatchKeyRegistry;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.dto.ConfigurationChange;
+import com.ctrip.framework.apollo.core.enums.ConfigSyncType;
+import com.ctrip.framework.apollo.core.enums.ConfigurationChangeType;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the encoded config responses and indexes the release keys resolved for the clients, both invalidated by the
+ * release messages.
+ */
+@Service
+public class ConfigResponseServiceWithCache implements ReleaseMessageListener, InitializingBean {
+  private static final Logger logger = LoggerFactory.getLogger(ConfigResponseServiceWithCache.class);
+  private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
+  private static final long MAX_CACHE_SIZE = 50 * 1024 * 1024; // 50MB
+  private static final long EXPIRE_AFTER_WRITE = 30;
+  private static final long MAX_RELEASE_KEY_INDEX_SIZE = 100000;
+  private static final long MAX_HANDLED_NOTIFICATION_IDS_SIZE = 100000;
+  private static final long MAX_BRANCH_RELATIONS_SIZE = 10000;
+  private static final Splitter RELEASE_KEY_SPLITTER = Splitter.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
+  private static final String DELTA_CACHE_KEY_SEPARATOR = "<-";
+  private static final String BATCH_CACHE_KEY_PREFIX = "batch:";
+  private static final Joiner BATCH_CACHE_KEY_JOINER = Joiner.on(',');
+  private static final Type configurationTypeReference = new TypeToken<Map<String, String>>() {
+      }.getType();
+
+  private final ConfigService configService;
+  private final ClusterService clusterService;
+  private final ReleaseMessageService releaseMessageService;
+  private final GrayReleaseRulesHolder grayReleaseRulesHolder;
+  private final NamespaceUtil namespaceUtil;
+  private final WatchKeysUtil watchKeysUtil;
+  private final Gson gson;
+
+  private final Cache<String, EncodedConfig> configResponseCache;
+  private final WatchKeyRegistry<String> releaseMessageKey2CacheKeys = new WatchKeyRegistry<>();
+  /**
+   * appId+cluster+namespace+dataCenter -> the merged release key last resolved for the clients without gray release
+   * rules, used to answer If-None-Match before resolving the releases
+   */
+  private final Cache<String, IndexedReleaseKey> releaseKeyIndex;
+  //IndexedReleaseKey keeps Object#equals, so the entries are registered by identity and removing a replaced entry
+  //doesn't unregister the new one
+  private final WatchKeyRegistry<IndexedReleaseKey> watchKey2IndexedReleaseKeys = new WatchKeyRegistry<>();
+  private final AtomicLong releaseMessagesHandled = new AtomicLong();
+  //release message => the latest notification id handled, to tell whether a client is notified ahead of this instance
+  private final Cache<String, Long> handledNotificationIds;
+  /**
+   * appId+branchName+parentClusterName -> whether the cluster is a gray branch of the other one, which is checked when
+   * a delta is computed across them. A stale answer is harmless: the releases are immutable, so a delta across them
+   * is still correct, and a missed branch only falls back to the full config.
+   */
+  private final Cache<String, Boolean> branchRelations;
+  /**
+   * The latest notification id before this instance started to handle the release messages, the clients notified up
+   * to it are not ahead of the index, which is built after that
+   */
+  private volatile long startupNotificationId;
+
+  public ConfigResponseServiceWithCache(
+      final ConfigService configService,
+      final ClusterService clusterService,
+      final ReleaseMessageService releaseMessageService,
+      final GrayReleaseRulesHolder grayReleaseRulesHolder,
+      final NamespaceUtil namespaceUtil,
+      final WatchKeysUtil watchKeysUtil,
+      final Gson gson) {
+    this.configService = configService;
+    this.clusterService = clusterService;
+    this.releaseMessageService = releaseMessageService;
+    this.grayReleaseRulesHolder = grayReleaseRulesHolder;
+    this.namespaceUtil = namespaceUtil;
+    this.watchKeysUtil = watchKeysUtil;
+    this.gson = gson;
+    configResponseCache = CacheBuilder.newBuilder()
+        .expireAfterWrite(EXPIRE_AFTER_WRITE, TimeUnit.MINUTES)
+        .weigher((Weigher<String, EncodedConfig>) (key, value) -> value.content.size())
+        .maximumWeight(MAX_CACHE_SIZE)
+        .removalListener((RemovalListener<String, EncodedConfig>) notification -> {
+          String cacheKey = notification.getKey();
+          logger.debug("removing cache key: {}", cacheKey);
+          for (String releaseMessageKey : notification.getValue().releaseMessageKeys) {
+            releaseMessageKey2CacheKeys.unregister(releaseMessageKey, cacheKey);
+          }
+        })
+        .build();
+    releaseKeyIndex = CacheBuilder.newBuilder()
+        .expireAfterWrite(EXPIRE_AFTER_WRITE, TimeUnit.MINUTES)
+        .maximumSize(MAX_RELEASE_KEY_INDEX_SIZE)
+        .removalListener((RemovalListener<String, IndexedReleaseKey>) notification -> {
+          for (String watchKey : notification.getValue().watchKeys) {
+            watchKey2IndexedReleaseKeys.unregister(watchKey, notification.getValue());
+          }
+        })
+        .build();
+    branchRelations = CacheBuilder.newBuilder()
+        .expireAfterWrite(EXPIRE_AFTER_WRITE, TimeUnit.MINUTES)
+        .maximumSize(MAX_BRANCH_RELATIONS_SIZE)
+        .build();
+    //an evicted release message is treated as not handled, so its clients are answered without the index
+    handledNotificationIds = CacheBuilder.newBuilder()
+        .maximumSize(MAX_HANDLED_NOTIFICATION_IDS_SIZE)
+        .build();
+  }
+
+  @Override
+  public void afterPropertiesSet() {
+    //this service is added to the release message scanner before it starts, so the release messages after this id
+    //are all handled by this instance
+    startupNotificationId = releaseMessageService.findLatestReleaseMessageId();
+  }
+
+  /**
+   * @return the count of the release messages handled, which is taken before resolving the releases to index
+   */
+  public long getReleaseMessagesHandled() {
+    return releaseMessagesHandled.get();
+  }
+
+  /**
+   * Check whether the client has been notified of any release message which is not handled by this instance yet
+   */
+  public boolean isNotifiedAhead(ApolloNotificationMessages clientMessages) {
+    if (clientMessages == null || clientMessages.isEmpty()) {
+      return false;
+    }
+    for (Map.Entry<String, Long> entry : clientMessages.getDetails().entrySet()) {
+      Long handledNotificationId = handledNotificationIds.getIfPresent(entry.getKey());
+      //the release messages not handled since startup were sent before the index is built
+      long knownNotificationId = handledNotificationId == null ? startupNotificationId : handledNotificationId;
+      if (knownNotificationId < entry.getValue()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param namespace the namespace name the client requested
+   * @return the merged release key last resolved for the client, or null if unknown or the client has gray release
+   * rules
+   */
+  public IndexedReleaseKey findIndexedReleaseKey(String appId, String clusterName, String namespace,
+                                                 String dataCenter, String clientIp) {
+    namespace = namespaceUtil.normalizeNamespace(appId, namespaceUtil.filterNamespaceName(namespace));
+    if (grayReleaseRulesHolder.hasGrayReleaseRule(appId, clientIp, namespace)) {
+      return null;
+    }
+    return releaseKeyIndex.getIfPresent(assembleIndexKey(appId, clusterName, namespace, dataCenter));
+  }
+
+  /**
+   * @param releaseMessagesHandledBefore the count of the release messages handled before the releases are resolved
+   */
+  public void indexReleaseKey(String appId, String clusterName, String dataCenter, ResolvedReleases resolvedReleases,
+                              long releaseMessagesHandledBefore) {
+    if (grayReleaseRulesHolder.hasGrayReleaseRule(appId, resolvedReleases.getClientIp(),
+        resolvedReleases.getNamespace())) {
+      return;
+    }
+    String indexKey = assembleIndexKey(appId, clusterName, resolvedReleases.getNamespace(), dataCenter);
+    IndexedReleaseKey existing = releaseKeyIndex.getIfPresent(indexKey);
+    if (existing != null && existing.releaseKey.equals(resolvedReleases.getMergedReleaseKey())) {
+      return;
+    }
+    //the releases might be resolved before a release message is handled, so they are only indexed if no release
+    //message has been handled since
+    if (releaseMessagesHandled.get() != releaseMessagesHandledBefore) {
+      return;
+    }
+    Set<String> watchKeys = watchKeysUtil.assembleAllWatchKeys(appId, clusterName, resolvedReleases.getNamespace(),
+        dataCenter);
+    List<IndexedRelease> releases = Lists.newArrayListWithCapacity(resolvedReleases.getReleases().size());
+    for (Release release : resolvedReleases.getReleases()) {
+      releases.add(new IndexedRelease(release));
+    }
+    IndexedReleaseKey indexedReleaseKey = new IndexedReleaseKey(indexKey, resolvedReleases.getMergedReleaseKey(),
+        resolvedReleases.getAppClusterNameLoaded(), releases, watchKeys);
+    for (String watchKey : watchKeys) {
+      watchKey2IndexedReleaseKeys.register(watchKey, indexedReleaseKey);
+    }
+    releaseKeyIndex.put(indexKey, indexedReleaseKey);
+    //check again, as a release message handled in between might have invalidated the index before the put
+    if (releaseMessagesHandled.get() != releaseMessagesHandledBefore) {
+      releaseKeyIndex.invalidate(indexKey);
+    }
+  }
+
+  private String assembleIndexKey(String appId, String clusterName, String namespace, String dataCenter) {
+    return STRING_JOINER.join(appId, clusterName, namespace, Strings.nullToEmpty(dataCenter));
+  }
+
+  /**
+   * @return the encoded config, which is shared by the clients resolving the same releases
+   */
+  public CompressedContent findEncodedConfig(String appId, ResolvedReleases resolvedReleases) {
+    return findEncodedConfig(appId, assembleCacheKey(appId, resolvedReleases), resolvedReleases).content;
+  }
+
+  private EncodedConfig findEncodedConfig(String appId, String cacheKey, ResolvedReleases resolvedReleases) {
+    return getEncodedConfig(cacheKey, () -> encodeConfig(appId, cacheKey, resolvedReleases));
+  }
+
+  /**
+   * Find the configs of multiple namespaces as a json array, in the order given
+   */
+  public CompressedContent findEncodedConfigs(String appId, List<ResolvedReleases> resolvedReleasesList) {
+    List<String> cacheKeys = Lists.newArrayListWithCapacity(resolvedReleasesList.size());
+    List<EncodedConfig> encodedConfigs = Lists.newArrayListWithCapacity(resolvedReleasesList.size());
+    for (ResolvedReleases resolvedReleases : resolvedReleasesList) {
+      //the configs are encoded once per namespace and shared with the single namespace queries
+      String cacheKey = assembleCacheKey(appId, resolvedReleases);
+      cacheKeys.add(cacheKey);
+      encodedConfigs.add(findEncodedConfig(appId, cacheKey, resolvedReleases));
+    }
+
+    //the instances of an app mostly load the same configs on startup, so the whole response is encoded once as well
+    String batchCacheKey = BATCH_CACHE_KEY_PREFIX + BATCH_CACHE_KEY_JOINER.join(cacheKeys);
+    return getEncodedConfig(batchCacheKey, () -> encodeConfigs(batchCacheKey, encodedConfigs)).content;
+  }
+
+  /**
+   * Join the encoded configs into a json array, from the uncompressed bytes cached
+   */
+  private EncodedConfig encodeConfigs(String batchCacheKey, List<EncodedConfig> encodedConfigs) {
+    Tracer.logEvent("Apollo.Config.Batch.Cache.Miss", batchCacheKey);
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    Set<String> releaseMessageKeys = Sets.newLinkedHashSet();
+    content.write('[');
+    for (int i = 0; i < encodedConfigs.size(); i++) {
+      if (i > 0) {
+        content.write(',');
+      }
+      byte[] encodedConfig = encodedConfigs.get(i).content.getContent(false);
+      content.write(encodedConfig, 0, encodedConfig.length);
+      releaseMessageKeys.addAll(encodedConfigs.get(i).releaseMessageKeys);
+    }
+    content.write(']');
+
+    for (String releaseMessageKey : releaseMessageKeys) {
+      releaseMessageKey2CacheKeys.register(releaseMessageKey, batchCacheKey);
+    }
+    return new EncodedConfig(CompressedContent.compress(content.toByteArray()),
+        Lists.newArrayList(releaseMessageKeys));
+  }
+
+  /**
+   * Find the changes from the client side release key to the current releases
+   *
+   * @return the encoded changes, or null if the client side releases are unknown
+   */
+  public CompressedContent findEncodedConfigDelta(String appId, ResolvedReleases resolvedReleases,
+                                                  String clientSideReleaseKey) {
+    String deltaCacheKey = assembleCacheKey(appId, resolvedReleases) + DELTA_CACHE_KEY_SEPARATOR
+        + clientSideReleaseKey;
+    EncodedConfig encodedConfig = configResponseCache.getIfPresent(deltaCacheKey);
+    if (encodedConfig != null) {
+      return encodedConfig.content;
+    }
+
+    List<Release> clientSideReleases = findClientSideReleases(resolvedReleases.getReleases(), clientSideReleaseKey);
+    if (clientSideReleases == null) {
+      Tracer.logEvent("Apollo.Config.Delta.BaseNotFound", deltaCacheKey);
+      return null;
+    }
+
+    return getEncodedConfig(deltaCacheKey,
+        () -> encodeConfigDelta(appId, deltaCacheKey, resolvedReleases, clientSideReleases)).content;
+  }
+
+  private String assembleCacheKey(String appId, ResolvedReleases resolvedReleases) {
+    return STRING_JOINER.join(appId, resolvedReleases.getAppClusterNameLoaded(),
+        resolvedReleases.getOriginalNamespace(), resolvedReleases.getMergedReleaseKey());
+  }
+
+  private EncodedConfig getEncodedConfig(String cacheKey, Callable<EncodedConfig> loader) {
+    try {
+      // concurrent requests for the same key wait for the same load instead of encoding the config again
+      return configResponseCache.get(cacheKey, loader);
+    } catch (ExecutionException | UncheckedExecutionException ex) {
+      Throwables.throwIfUnchecked(ex.getCause());
+      throw new IllegalStateException(ex.getCause());
+    }
+  }
+
+  /**
+   * Find the releases of the client side release key, which must be of the same app, cluster (or its gray branch) and
+   * namespace as the current releases
+   *
+   * @return the releases in the same order as the current releases, or null if any of them is not found
+   */
+  private List<Release> findClientSideReleases(List<Release> releases, String clientSideReleaseKey) {
+    List<String> clientSideReleaseKeys = RELEASE_KEY_SPLITTER.splitToList(clientSideReleaseKey);
+    if (clientSideReleaseKeys.size() != releases.size()) {
+      return null;
+    }
+
+    //the releases not changed since the client side release key are at hand, only the others are looked up
+    Map<String, Release> releasesByKey = Maps.newHashMapWithExpectedSize(releases.size());
+    Set<String> releaseKeysToFind = Sets.newHashSet();
+    for (int i = 0; i < releases.size(); i++) {
+      if (Objects.equals(releases.get(i).getReleaseKey(), clientSideReleaseKeys.get(i))) {
+        releasesByKey.put(clientSideReleaseKeys.get(i), releases.get(i));
+      } else {
+        releaseKeysToFind.add(clientSideReleaseKeys.get(i));
+      }
+    }
+    if (!releaseKeysToFind.isEmpty()) {
+      releasesByKey.putAll(configService.findReleasesByReleaseKeys(releaseKeysToFind));
+    }
+
+    List<Release> clientSideReleases = Lists.newArrayListWithCapacity(releases.size());
+    for (int i = 0; i < releases.size(); i++) {
+      Release release = releases.get(i);
+      Release clientSideRelease = releasesByKey.get(clientSideReleaseKeys.get(i));
+      //the release keys are given by the client, so only the releases of the same app, cluster and namespace are used
+      if (clientSideRelease == null || !Objects.equals(release.getAppId(), clientSideRelease.getAppId())
+          || !Objects.equals(release.getNamespaceName(), clientSideRelease.getNamespaceName())
+          || !isSameClusterOrBranch(release.getAppId(), release.getClusterName(), clientSideRelease.getClusterName())) {
+        return null;
+      }
+      clientSideReleases.add(clientSideRelease);
+    }
+    return clientSideReleases;
+  }
+
+  /**
+   * The client switches between the releases of a cluster and its gray branch when the gray release rules change
+   */
+  private boolean isSameClusterOrBranch(String appId, String clusterName, String anotherClusterName) {
+    if (Objects.equals(clusterName, anotherClusterName)) {
+      return true;
+    }
+    return isBranchOf(appId, anotherClusterName, clusterName) || isBranchOf(appId, clusterName, anotherClusterName);
+  }
+
+  private boolean isBranchOf(String appId, String branchName, String parentClusterName) {
+    String branchRelationKey = STRING_JOINER.join(appId, branchName, parentClusterName);
+    Boolean isBranch = branchRelations.getIfPresent(branchRelationKey);
+    if (isBranch == null) {
+      isBranch = findBranchOf(appId, branchName, parentClusterName);
+      branchRelations.put(branchRelationKey, isBranch);
+    }
+    return isBranch;
+  }
+
+  private boolean findBranchOf(String appId, String branchName, String parentClusterName) {
+    Cluster branch = clusterService.findOne(appId, branchName);
+    if (branch == null || branch.getParentClusterId() == 0) {
+      return false;
+    }
+    Cluster parent = clusterService.findOne(branch.getParentClusterId());
+    return parent != null && Objects.equals(appId, parent.getAppId())
+        && Objects.equals(parentClusterName, parent.getName());
+  }
+
+  private EncodedConfig encodeConfigDelta(String appId, String deltaCacheKey, ResolvedReleases resolvedReleases,
+                                          List<Release> clientSideReleases) {
+    Tracer.logEvent("Apollo.Config.Delta.Cache.Miss", deltaCacheKey);
+    ApolloConfig apolloConfig = new ApolloConfig(appId, resolvedReleases.getAppClusterNameLoaded(),
+        resolvedReleases.getOriginalNamespace(), resolvedReleases.getMergedReleaseKey());
+    apolloConfig.setConfigSyncType(ConfigSyncType.DELTA);
+    apolloConfig.setConfigurationChanges(calcConfigurationChanges(mergeReleaseConfigurations(clientSideReleases),
+        mergeReleaseConfigurations(resolvedReleases.getReleases())));
+
+    return encode(apolloConfig, deltaCacheKey, resolvedReleases);
+  }
+
+  /**
+   * Calculate the changes from the client side configurations to the current ones
+   */
+  static List<ConfigurationChange> calcConfigurationChanges(Map<String, String> clientSideConfigurations,
+                                                            Map<String, String> configurations) {
+    List<ConfigurationChange> changes = Lists.newArrayList();
+    for (Map.Entry<String, String> entry : configurations.entrySet()) {
+      String key = entry.getKey();
+      String value = entry.getValue();
+      if (!clientSideConfigurations.containsKey(key)) {
+        changes.add(new ConfigurationChange(key, value, ConfigurationChangeType.ADDED));
+      } else if (!Objects.equals(clientSideConfigurations.get(key), value)) {
+        changes.add(new ConfigurationChange(key, value, ConfigurationChangeType.MODIFIED));
+      }
+    }
+    for (String key : clientSideConfigurations.keySet()) {
+      if (!configurations.containsKey(key)) {
+        changes.add(new ConfigurationChange(key, null, ConfigurationChangeType.DELETED));
+      }
+    }
+    return changes;
+  }
+
+  private EncodedConfig encodeConfig(String appId, String cacheKey, ResolvedReleases resolvedReleases) {
+    Tracer.logEvent("Apollo.Config.Cache.Miss", cacheKey);
+    return encode(assembleApolloConfig(appId, resolvedReleases), cacheKey, resolvedReleases);
+  }
+
+  private EncodedConfig encode(ApolloConfig apolloConfig, String cacheKey, ResolvedReleases resolvedReleases) {
+    //only the full config is tagged, as the delta depends on the client side release key
+    String releaseKey = apolloConfig.getConfigSyncType() == ConfigSyncType.DELTA ? null : apolloConfig.getReleaseKey();
+    CompressedContent content = CompressedContent.compress(gson.toJson(apolloConfig).getBytes(StandardCharsets.UTF_8),
+        releaseKey);
+
+    List<String> releaseMessageKeys = Lists.newArrayListWithCapacity(resolvedReleases.getReleases().size());
+    for (Release release : resolvedReleases.getReleases()) {
+      String releaseMessageKey = ReleaseMessageKeyGenerator.generate(release.getAppId(), release.getClusterName(),
+          release.getNamespaceName());
+      releaseMessageKeys.add(releaseMessageKey);
+      releaseMessageKey2CacheKeys.register(releaseMessageKey, cacheKey);
+    }
+
+    return new EncodedConfig(content, releaseMessageKeys);
+  }
+
+  public ApolloConfig assembleApolloConfig(String appId, ResolvedReleases resolvedReleases) {
+    ApolloConfig apolloConfig = new ApolloConfig(appId, resolvedReleases.getAppClusterNameLoaded(),
+        resolvedReleases.getOriginalNamespace(), resolvedReleases.getMergedReleaseKey());
+    apolloConfig.setConfigurations(mergeReleaseConfigurations(resolvedReleases.getReleases()));
+    return apolloConfig;
+  }
+
+  /**
+   * Merge configurations of releases.
+   * Release in lower index override those in higher index
+   */
+  Map<String, String> mergeReleaseConfigurations(List<Release> releases) {
+    Map<String, String> result = Maps.newLinkedHashMap();
+    for (Release release : Lists.reverse(releases)) {
+      result.putAll(gson.fromJson(release.getConfigurations(), configurationTypeReference));
+    }
+    return result;
+  }
+
+  @Override
+  public void handleMessage(ReleaseMessage message, String channel) {
+    logger.info("message received - channel: {}, message: {}", channel, message);
+
+    String content = message.getMessage();
+    if (!Topics.APOLLO_RELEASE_TOPIC.equals(channel) || Strings.isNullOrEmpty(content)) {
+      return;
+    }
+
+    for (String cacheKey : releaseMessageKey2CacheKeys.get(content)) {
+      logger.debug("invalidate cache key: {}", cacheKey);
+      configResponseCache.invalidate(cacheKey);
+    }
+
+    //counted before invalidating, so that the releases resolved before could not be indexed after
+    releaseMessagesHandled.incrementAndGet();
+    for (IndexedReleaseKey indexedReleaseKey : watchKey2IndexedReleaseKeys.get(content)) {
+      releaseKeyIndex.invalidate(indexedReleaseKey.indexKey);
+    }
+    //recorded after invalidating, so that the clients notified of the message could not be answered from the index
+    //entries resolved before
+    handledNotificationIds.asMap().merge(content, message.getId(), Math::max);
+  }
+
+  private static class EncodedConfig {
+    private final CompressedContent content;
+    private final List<String> releaseMessageKeys;
+
+    private EncodedConfig(CompressedContent content, List<String> releaseMessageKeys) {
+      this.content = content;
+      this.releaseMessageKeys = releaseMessageKeys;
+    }
+  }
+
+  public static class IndexedReleaseKey {
+    private final String indexKey;
+    private final String releaseKey;
+    private final String appClusterNameLoaded;
+    private final List<IndexedRelease> releases;
+    private final Set<String> watchKeys;
+
+    private IndexedReleaseKey(String indexKey, String releaseKey, String appClusterNameLoaded,
+                              List<IndexedRelease> releases, Set<String> watchKeys) {
+      this.indexKey = indexKey;
+      this.releaseKey = releaseKey;
+      this.appClusterNameLoaded = appClusterNameLoaded;
+      this.releases = releases;
+      this.watchKeys = watchKeys;
+    }
+
+    public String getReleaseKey() {
+      return releaseKey;
+    }
+
+    public String getAppClusterNameLoaded() {
+      return appClusterNameLoaded;
+    }
+
+    public List<IndexedRelease> getReleases() {
+      return releases;
+    }
+  }
+
+  /**
+   * The coordinates of a release to audit the clients answered from the index, without holding the configurations
+   */
+  public static class IndexedRelease {
+    private final String appId;
+    private final String clusterName;
+    private final String namespaceName;
+    private final String releaseKey;
+
+    private IndexedRelease(Release release) {
+      this.appId = release.getAppId();
+      this.clusterName = release.getClusterName();
+      this.namespaceName = release.getNamespaceName();
+      this.releaseKey = release.getReleaseKey();
+    }
+
+    public String getAppId() {
+      return appId;
+    }
+
+    public String getClusterName() {
+      return clusterName;
+    }
+
+    public String getNamespaceName() {
+      return namespaceName;
+    }
+
+    public String getReleaseKey() {
+      return releaseKey;
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.service;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageListener;
+import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.biz.utils.EntityManagerUtil;
+import com.ctrip.framework.apollo.configservice.util.ClientNotificationsUtil;
+import com.ctrip.framework.apollo.configservice.util.LongPollingDrainUtil;
+import com.ctrip.framework.apollo.configservice.util.NotificationFanOutUtil;
+import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.NotificationStream;
+import com.ctrip.framework.apollo.configservice.wrapper.WatchKeyRegistry;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+import org.springframework.util.CollectionUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the notification streams of the clients, i.e. server-sent events streams and websocket sessions, and pushes
+ * the notifications of the released keys to them.
+ *
+ * <p>Streams are closed after {@link BizConfig#notificationStreamTimeoutInMilli()}, then the clients subscribe again
+ * with their latest notification ids, which balances the connections among the config services. When the config
+ * service is shutting down, the streams are closed in waves by {@link LongPollingDrainUtil}.</p>
+ */
+@Service
+public class NotificationStreamService implements ReleaseMessageListener, DisposableBean {
+  private static final Logger logger = LoggerFactory.getLogger(NotificationStreamService.class);
+  private static final long HEARTBEAT_INTERVAL_IN_SECONDS = 30;
+  private static final String METRICS_CHANNEL = "stream";
+  private final WatchKeyRegistry<NotificationStream> streams = new WatchKeyRegistry<>();
+  private final ConcurrentMap<NotificationStream, Subscription> subscriptions = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService heartbeatExecutorService;
+
+  private final WatchKeysUtil watchKeysUtil;
+  private final NotificationFanOutUtil notificationFanOutUtil;
+  private final ClientNotificationsUtil clientNotificationsUtil;
+  private final ReleaseMessageServiceWithCache releaseMessageService;
+  private final EntityManagerUtil entityManagerUtil;
+  private final LongPollingDrainUtil longPollingDrainUtil;
+  private final BizConfig bizConfig;
+
+  public NotificationStreamService(
+      final WatchKeysUtil watchKeysUtil,
+      final NotificationFanOutUtil notificationFanOutUtil,
+      final ClientNotificationsUtil clientNotificationsUtil,
+      final ReleaseMessageServiceWithCache releaseMessageService,
+      final EntityManagerUtil entityManagerUtil,
+      final LongPollingDrainUtil longPollingDrainUtil,
+      final BizConfig bizConfig,
+      final MeterRegistry meterRegistry) {
+    this.watchKeysUtil = watchKeysUtil;
+    this.notificationFanOutUtil = notificationFanOutUtil;
+    this.clientNotificationsUtil = clientNotificationsUtil;
+    this.releaseMessageService = releaseMessageService;
+    this.entityManagerUtil = entityManagerUtil;
+    this.longPollingDrainUtil = longPollingDrainUtil;
+    this.bizConfig = bizConfig;
+    heartbeatExecutorService = Executors.newSingleThreadScheduledExecutor(
+        ApolloThreadFactory.create("NotificationStreamService", true));
+    heartbeatExecutorService.scheduleWithFixedDelay(this::sendHeartbeats, HEARTBEAT_INTERVAL_IN_SECONDS,
+        HEARTBEAT_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+    streams.registerMetrics(meterRegistry, METRICS_CHANNEL);
+    Gauge.builder("apollo.notification.clients", subscriptions, Map::size)
+        .description("Clients waiting for the notifications")
+        .tag("channel", METRICS_CHANNEL)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Register the stream for the keys watched by the client, then send the notifications it missed
+   *
+   * @param filteredNotifications the client side notifications resolved by {@link ClientNotificationsUtil}
+   */
+  public void subscribe(NotificationStream stream, String appId, String cluster,
+                        Map<String, ApolloConfigNotification> filteredNotifications, String dataCenter) {
+    if (!longPollingDrainUtil.track(stream)) {
+      return;
+    }
+
+    Set<String> namespaces = Sets.newHashSetWithExpectedSize(filteredNotifications.size());
+    Map<String, Long> clientSideNotifications = Maps.newHashMapWithExpectedSize(filteredNotifications.size());
+
+    for (Map.Entry<String, ApolloConfigNotification> notificationEntry : filteredNotifications.entrySet()) {
+      String normalizedNamespace = notificationEntry.getKey();
+      ApolloConfigNotification notification = notificationEntry.getValue();
+      namespaces.add(normalizedNamespace);
+      clientSideNotifications.put(normalizedNamespace, notification.getNotificationId());
+      if (!Objects.equals(notification.getNamespaceName(), normalizedNamespace)) {
+        stream.recordNamespaceNameNormalizedResult(notification.getNamespaceName(), normalizedNamespace);
+      }
+    }
+
+    Multimap<String, String> watchedKeysMap =
+        watchKeysUtil.assembleAllWatchKeys(appId, cluster, namespaces, dataCenter);
+
+    Set<String> watchedKeys = Sets.newHashSet(watchedKeysMap.values());
+
+    // register before the check, so that no release between the check and the registration is missed
+    subscriptions.put(stream,
+        new Subscription(watchedKeys, System.currentTimeMillis() + bizConfig.notificationStreamTimeoutInMilli()));
+    for (String key : watchedKeys) {
+      streams.register(key, stream);
+    }
+
+    logWatchedKeys(watchedKeys, "Apollo.NotificationStream.RegisteredKeys");
+    logger.debug("Streaming {} to appId: {}, cluster: {}, namespace: {}, datacenter: {}",
+        watchedKeys, appId, cluster, namespaces, dataCenter);
+
+    List<ReleaseMessage> latestReleaseMessages =
+        releaseMessageService.findLatestReleaseMessagesGroupByMessages(watchedKeys);
+
+    // the stream is held for a long time, so the entity manager must not be held until the request is finished
+    entityManagerUtil.closeEntityManager();
+
+    List<ApolloConfigNotification> newNotifications =
+        clientNotificationsUtil.findNewNotifications(namespaces, clientSideNotifications, watchedKeysMap,
+            latestReleaseMessages);
+
+    if (!CollectionUtils.isEmpty(newNotifications)) {
+      stream.send(newNotifications);
+    }
+  }
+
+  /**
+   * Should be called once the stream is closed, no matter by which side
+   */
+  public void unsubscribe(NotificationStream stream) {
+    longPollingDrainUtil.untrack(stream);
+    Subscription subscription = subscriptions.remove(stream);
+    if (subscription == null) {
+      return;
+    }
+    for (String key : subscription.watchedKeys) {
+      streams.unregister(key, stream);
+    }
+    logWatchedKeys(subscription.watchedKeys, "Apollo.NotificationStream.CompletedKeys");
+  }
+
+  @Override
+  public void handleMessage(ReleaseMessage message, String channel) {
+    logger.info("message received - channel: {}, message: {}", channel, message);
+
+    String content = message.getMessage();
+    Tracer.logEvent("Apollo.NotificationStream.Messages", content);
+    if (!Topics.APOLLO_RELEASE_TOPIC.equals(channel) || Strings.isNullOrEmpty(content)) {
+      return;
+    }
+
+    if (!streams.containsKey(content)) {
+      return;
+    }
+
+    ApolloConfigNotification configNotification = clientNotificationsUtil.assembleNotification(message);
+
+    if (configNotification == null) {
+      return;
+    }
+
+    notificationFanOutUtil.fanOut(content, configNotification, streams.get(content));
+  }
+
+  /**
+   * Runs in the heartbeat thread, the sends may block on slow clients, so they are handed off to the fan-out threads
+   */
+  private void sendHeartbeats() {
+    try {
+      long now = System.currentTimeMillis();
+      List<NotificationStream> expiredStreams = Lists.newArrayList();
+      List<NotificationStream> activeStreams = Lists.newArrayListWithCapacity(subscriptions.size());
+      for (Map.Entry<NotificationStream, Subscription> entry : subscriptions.entrySet()) {
+        if (now >= entry.getValue().expireTime) {
+          logWatchedKeys(entry.getValue().watchedKeys, "Apollo.NotificationStream.TimeOutKeys");
+          expiredStreams.add(entry.getKey());
+          continue;
+        }
+        activeStreams.add(entry.getKey());
+      }
+      notificationFanOutUtil.execute(expiredStreams, NotificationStream::close);
+      notificationFanOutUtil.execute(activeStreams, NotificationStream::sendHeartbeat);
+    } catch (Throwable ex) {
+      logger.error("Send heartbeats failed", ex);
+    }
+  }
+
+  private void logWatchedKeys(Set<String> watchedKeys, String eventName) {
+    for (String watchedKey : watchedKeys) {
+      Tracer.logEvent(eventName, watchedKey);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    heartbeatExecutorService.shutdownNow();
+    for (NotificationStream stream : subscriptions.keySet()) {
+      stream.close();
+    }
+  }
+
+  private static class Subscription {
+    private final Set<String> watchedKeys;
+    private final long expireTime;
+
+    private Subscription(Set<String> watchedKeys, long expireTime) {
+      this.watchedKeys = watchedKeys;
+      this.expireTime = expireTime;
+    }
+  }
+}
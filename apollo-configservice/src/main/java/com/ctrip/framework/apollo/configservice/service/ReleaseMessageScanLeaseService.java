@@ -0,0 +1,283 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.service;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.Lease;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.message.BroadcastMessageSender;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageScanCoordinator;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageScanner;
+import com.ctrip.framework.apollo.biz.repository.LeaseRepository;
+import com.ctrip.framework.apollo.configservice.wrapper.ReleaseMessageBatch;
+import com.ctrip.framework.apollo.core.ServiceNameConsts;
+import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.metaservice.service.DiscoveryService;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.ctrip.framework.apollo.tracer.spi.Transaction;
+import com.ctrip.framework.foundation.Foundation;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Let only one config service instance scan the release messages and push the scanned messages to the other
+ * instances, so that the database load of scanning doesn't grow with the number of config service instances.
+ *
+ * <p>The scanning instance is elected via a lease row in the database. The lease holder renews the lease by
+ * increasing its version and pushes a heartbeat to the other instances at the same time. The other instances only
+ * read the lease when the heartbeats stop, and take over the lease if its version is not increased for a whole lease
+ * timeout, measured with their own clocks, so the clock skew between the instances doesn't matter.</p>
+ *
+ * <p>The instances scan the database themselves whenever the heartbeats of the lease holder stop, so a lost push
+ * could only delay the messages, and the pushed messages are only accepted with the token of the current lease.</p>
+ */
+@Service
+public class ReleaseMessageScanLeaseService implements ReleaseMessageScanCoordinator {
+  private static final Logger logger = LoggerFactory.getLogger(ReleaseMessageScanLeaseService.class);
+  public static final String LEASE_NAME = "ReleaseMessageScanner";
+  public static final String BATCH_PATH = "/batch";
+  private static final int PUSH_THREADS = 4;
+  private static final long TOKEN_REFRESH_INTERVAL_IN_MILLI = TimeUnit.SECONDS.toMillis(1);
+
+  private final LeaseRepository leaseRepository;
+  private final DiscoveryService discoveryService;
+  private final BizConfig bizConfig;
+  private final String owner;
+  private final ScheduledExecutorService leaseExecutorService;
+  private final ExecutorService pushExecutorService;
+
+  private volatile ReleaseMessageScanner releaseMessageScanner;
+  private volatile RestTemplate restTemplate;
+  private volatile long leaseTimeout;
+  private volatile boolean leader;
+  private volatile String leaderToken;
+  private volatile long leaderRenewedAt;
+  private volatile String knownToken;
+  private volatile long tokenRefreshedAt;
+  private volatile long lastHeartbeatAt;
+  //only accessed on the lease thread
+  private long observedVersion = -1;
+  private long observedAt;
+
+  public ReleaseMessageScanLeaseService(
+      final LeaseRepository leaseRepository,
+      final DiscoveryService discoveryService,
+      final BizConfig bizConfig) {
+    this.leaseRepository = leaseRepository;
+    this.discoveryService = discoveryService;
+    this.bizConfig = bizConfig;
+    this.owner = Foundation.net().getHostAddress() + "-" + UUID.randomUUID().toString();
+    this.leaseExecutorService = Executors.newScheduledThreadPool(1,
+        ApolloThreadFactory.create("ReleaseMessageScanLeaseService", true));
+    this.pushExecutorService = Executors.newFixedThreadPool(PUSH_THREADS,
+        ApolloThreadFactory.create("ReleaseMessageScanLeaseService-push", true));
+  }
+
+  /**
+   * Start competing for the scan lease, the scanner is coordinated by this service afterwards
+   */
+  public void start(ReleaseMessageScanner releaseMessageScanner) {
+    this.releaseMessageScanner = releaseMessageScanner;
+    leaseTimeout = bizConfig.releaseMessageScanLeaseTimeoutInMilli();
+    long renewInterval = leaseTimeout / 3;
+
+    SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+    requestFactory.setConnectTimeout((int) renewInterval);
+    requestFactory.setReadTimeout((int) renewInterval);
+    restTemplate = new RestTemplate(requestFactory);
+
+    releaseMessageScanner.setScanCoordinator(this);
+    leaseExecutorService.scheduleWithFixedDelay(() -> {
+      Transaction transaction = Tracer.newTransaction("Apollo.ReleaseMessageScanLease", "maintainLease");
+      try {
+        maintainLease();
+        transaction.setStatus(Transaction.SUCCESS);
+      } catch (Throwable ex) {
+        transaction.setStatus(ex);
+        logger.error("Maintain release message scan lease failed", ex);
+      } finally {
+        transaction.complete();
+      }
+    }, renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public boolean shouldScan() {
+    return leader || System.currentTimeMillis() - lastHeartbeatAt >= leaseTimeout;
+  }
+
+  @Override
+  public void onMessagesScanned(long previousMaxIdScanned, List<ReleaseMessage> messages) {
+    if (leader) {
+      push(new ReleaseMessageBatch(owner, leaderToken, previousMaxIdScanned, messages));
+    }
+  }
+
+  /**
+   * Receive the messages pushed by the lease holder
+   *
+   * @return false if the batch is not pushed by the current lease holder
+   */
+  public boolean receiveBatch(ReleaseMessageBatch batch) {
+    ReleaseMessageScanner scanner = releaseMessageScanner;
+    if (scanner == null) {
+      return false;
+    }
+    if (owner.equals(batch.getOwner())) {
+      //pushed to itself
+      return true;
+    }
+    if (!isCurrentToken(batch.getToken())) {
+      return false;
+    }
+    if (leader) {
+      //the lease is taken over by another instance
+      stepDown();
+    }
+    lastHeartbeatAt = System.currentTimeMillis();
+    scanner.receiveMessages(batch.getPreviousMaxIdScanned(), batch.getMessages());
+    return true;
+  }
+
+  public boolean isLeader() {
+    return leader;
+  }
+
+  void maintainLease() {
+    long now = System.currentTimeMillis();
+    if (leader) {
+      if (now - leaderRenewedAt >= leaseTimeout || leaseRepository.renew(LEASE_NAME, owner) == 0) {
+        stepDown();
+      } else {
+        leaderRenewedAt = now;
+        ReleaseMessageScanner scanner = releaseMessageScanner;
+        push(new ReleaseMessageBatch(owner, leaderToken, scanner.getMaxIdScanned(), Collections.emptyList()));
+        return;
+      }
+    }
+
+    //the lease holder is alive, no need to read the lease
+    if (now - lastHeartbeatAt < leaseTimeout) {
+      return;
+    }
+
+    Lease lease = leaseRepository.findByName(LEASE_NAME);
+    if (lease == null) {
+      String token = newToken();
+      try {
+        leaseRepository.save(new Lease(LEASE_NAME, owner, token));
+        takeLead(token, now);
+      } catch (DataIntegrityViolationException ex) {
+        //created by another instance
+        logger.debug("Create release message scan lease failed", ex);
+      }
+      return;
+    }
+
+    knownToken = lease.getToken();
+    if (lease.getVersion() != observedVersion) {
+      observedVersion = lease.getVersion();
+      observedAt = now;
+      return;
+    }
+    if (now - observedAt < leaseTimeout) {
+      return;
+    }
+
+    String token = newToken();
+    if (leaseRepository.takeOver(LEASE_NAME, owner, token, observedVersion) == 1) {
+      takeLead(token, now);
+    }
+  }
+
+  private void takeLead(String token, long now) {
+    leaderToken = token;
+    knownToken = token;
+    leaderRenewedAt = now;
+    leader = true;
+    Tracer.logEvent("Apollo.ReleaseMessageScanLease.TakeLead", owner);
+    logger.info("Take the release message scan lease, owner: {}", owner);
+  }
+
+  private void stepDown() {
+    leader = false;
+    leaderToken = null;
+    observedVersion = -1;
+    Tracer.logEvent("Apollo.ReleaseMessageScanLease.StepDown", owner);
+    logger.info("Step down from the release message scan lease, owner: {}", owner);
+  }
+
+  /**
+   * The lease token is cached and only refreshed from database at most once a second, so that the forged pushes
+   * won't hammer the database
+   */
+  private boolean isCurrentToken(String token) {
+    if (token == null) {
+      return false;
+    }
+    if (token.equals(knownToken)) {
+      return true;
+    }
+    long now = System.currentTimeMillis();
+    if (now - tokenRefreshedAt < TOKEN_REFRESH_INTERVAL_IN_MILLI) {
+      return false;
+    }
+    tokenRefreshedAt = now;
+    Lease lease = leaseRepository.findByName(LEASE_NAME);
+    knownToken = lease == null ? null : lease.getToken();
+    return token.equals(knownToken);
+  }
+
+  private void push(ReleaseMessageBatch batch) {
+    List<ServiceDTO> configServices = discoveryService.getServiceInstances(ServiceNameConsts.APOLLO_CONFIGSERVICE);
+    if (configServices == null) {
+      return;
+    }
+    for (ServiceDTO configService : configServices) {
+      pushExecutorService.submit(() -> push(configService, batch));
+    }
+  }
+
+  private void push(ServiceDTO configService, ReleaseMessageBatch batch) {
+    String url = configService.getHomepageUrl();
+    url = (url.endsWith("/") ? url.substring(0, url.length() - 1) : url)
+        + BroadcastMessageSender.RELEASE_MESSAGE_PATH + BATCH_PATH;
+    try {
+      restTemplate.postForLocation(url, batch);
+    } catch (Throwable ex) {
+      //the instance would scan the database itself if the heartbeats stop
+      logger.debug("Pushing release messages to {} failed", configService.getHomepageUrl(), ex);
+      Tracer.logEvent("Apollo.ReleaseMessageScanLease.PushFailed", configService.getHomepageUrl());
+    }
+  }
+
+  private static String newToken() {
+    return UUID.randomUUID().toString().replace("-", "");
+  }
+}
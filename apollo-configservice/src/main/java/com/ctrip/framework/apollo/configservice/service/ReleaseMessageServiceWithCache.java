@@ -30,27 +30,36 @@ import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
  */
 @Service
-public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, InitializingBean {
+public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, InitializingBean,
+    CacheSnapshotParticipant {
   private static final Logger logger = LoggerFactory.getLogger(ReleaseMessageServiceWithCache
       .class);
+  private static final String SNAPSHOT_NAME = "ReleaseMessage";
   private final ReleaseMessageRepository releaseMessageRepository;
   private final BizConfig bizConfig;
+  private final CacheSnapshotService cacheSnapshotService;
 
   private int scanInterval;
   private TimeUnit scanIntervalTimeUnit;
@@ -62,17 +71,24 @@ public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, I
   private AtomicBoolean doScan;
   private ExecutorService executorService;
 
+  private final AtomicLong initialLoadCovered = new AtomicLong();
+  private volatile long initialLoadTotal;
+  private volatile boolean initialLoadCompleted;
+
   public ReleaseMessageServiceWithCache(
       final ReleaseMessageRepository releaseMessageRepository,
-      final BizConfig bizConfig) {
+      final BizConfig bizConfig,
+      final CacheSnapshotService cacheSnapshotService) {
     this.releaseMessageRepository = releaseMessageRepository;
     this.bizConfig = bizConfig;
+    this.cacheSnapshotService = cacheSnapshotService;
     initialize();
   }
 
   private void initialize() {
     releaseMessageCache = Maps.newConcurrentMap();
     doScan = new AtomicBoolean(true);
+    initialLoadCompleted = false;
     executorService = Executors.newSingleThreadExecutor(ApolloThreadFactory
         .create("ReleaseMessageServiceWithCache", true));
   }
@@ -111,6 +127,24 @@ public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, I
     return releaseMessages;
   }
 
+  /**
+   * @return whether the release messages in database are all loaded when starting up
+   */
+  public boolean isInitialLoadCompleted() {
+    return initialLoadCompleted;
+  }
+
+  /**
+   * @return the progress of the initial load, from 0 to 1, which is estimated by the ids loaded
+   */
+  public double getInitialLoadProgress() {
+    if (initialLoadCompleted) {
+      return 1;
+    }
+    long total = initialLoadTotal;
+    return total == 0 ? 0 : Math.min(1, (double) initialLoadCovered.get() / total);
+  }
+
   @Override
   public void handleMessage(ReleaseMessage message, String channel) {
     //Could stop once the ReleaseMessageScanner starts to work
@@ -122,6 +156,10 @@ public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, I
     if (!Topics.APOLLO_RELEASE_TOPIC.equals(channel) || Strings.isNullOrEmpty(content)) {
       return;
     }
+    //the message would be picked up by the catch-up scan after the initial load
+    if (!initialLoadCompleted) {
+      return;
+    }
 
     long gap = message.getId() - maxIdScanned;
     if (gap == 1) {
@@ -135,11 +173,13 @@ public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, I
   @Override
   public void afterPropertiesSet() throws Exception {
     populateDataBaseInterval();
-    //block the startup process until load finished
-    //this should happen before ReleaseMessageScanner due to autowire
-    loadReleaseMessages(0);
+    long startId = restoreSnapshot();
 
+    //load in background so that the startup is not blocked, the clients are rejected until load finished
     executorService.submit(() -> {
+      loadInitialReleaseMessagesUntilCompleted(startId);
+      cacheSnapshotService.register(this);
+
       while (doScan.get() && !Thread.currentThread().isInterrupted()) {
         Transaction transaction = Tracer.newTransaction("Apollo.ReleaseMessageServiceWithCache",
             "scanNewReleaseMessages");
@@ -169,6 +209,116 @@ public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, I
     }
   }
 
+  private void loadInitialReleaseMessagesUntilCompleted(long startId) {
+    while (!initialLoadCompleted && !Thread.currentThread().isInterrupted()) {
+      try {
+        loadInitialReleaseMessages(startId);
+      } catch (Throwable ex) {
+        logger.error("Load release messages failed, will retry", ex);
+        try {
+          scanIntervalTimeUnit.sleep(scanInterval);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * Load the release messages up to the latest one when starting up, the id range is partitioned and loaded in
+   * parallel if it's large
+   */
+  private void loadInitialReleaseMessages(long startId) throws Exception {
+    initialLoadCompleted = false;
+    initialLoadCovered.set(0);
+    ReleaseMessage latestReleaseMessage = releaseMessageRepository.findTopByOrderByIdDesc();
+    long endId = latestReleaseMessage == null ? startId : latestReleaseMessage.getId();
+
+    if (endId > startId) {
+      Transaction transaction = Tracer.newTransaction("Apollo.ReleaseMessageServiceWithCache",
+          "loadInitialReleaseMessages");
+      try {
+        loadReleaseMessagesInParallel(startId, endId);
+        transaction.setStatus(Transaction.SUCCESS);
+      } catch (Throwable ex) {
+        transaction.setStatus(ex);
+        throw ex;
+      } finally {
+        transaction.complete();
+      }
+      maxIdScanned = Math.max(maxIdScanned, endId);
+    }
+
+    //catch up with the release messages saved during the load
+    loadReleaseMessages(maxIdScanned);
+    initialLoadCompleted = true;
+    //and the ones skipped by handleMessage right before the flag is set
+    loadReleaseMessages(maxIdScanned);
+  }
+
+  private void loadReleaseMessagesInParallel(long startId, long endId) throws Exception {
+    int pageSize = bizConfig.releaseMessageCacheLoadPageSize();
+    long span = endId - startId;
+    int partitions = (int) Math.max(1, Math.min(bizConfig.releaseMessageCacheLoadParallelism(), span / pageSize));
+    long partitionSize = (span + partitions - 1) / partitions;
+    initialLoadTotal = span;
+    logger.info("Loading release messages in ({}, {}] with {} partitions", startId, endId, partitions);
+
+    if (partitions == 1) {
+      loadReleaseMessagesInRange(startId, endId, pageSize);
+      return;
+    }
+
+    ExecutorService loadExecutorService = Executors.newFixedThreadPool(partitions,
+        ApolloThreadFactory.create("ReleaseMessageServiceWithCache-Load", true));
+    try {
+      List<Future<?>> futures = Lists.newArrayListWithCapacity(partitions);
+      for (long rangeStartId = startId; rangeStartId < endId; rangeStartId += partitionSize) {
+        long rangeStart = rangeStartId;
+        long rangeEnd = Math.min(endId, rangeStartId + partitionSize);
+        futures.add(loadExecutorService.submit(() -> loadReleaseMessagesInRange(rangeStart, rangeEnd, pageSize)));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException ex) {
+          throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+        }
+      }
+    } finally {
+      loadExecutorService.shutdownNow();
+    }
+  }
+
+  /**
+   * Load the release messages with id in (startId, endId] page by page, only the latest one of each message is kept
+   */
+  private void loadReleaseMessagesInRange(long startId, long endId, int pageSize) {
+    Pageable page = PageRequest.of(0, pageSize);
+    long cursor = startId;
+    while (cursor < endId && !Thread.currentThread().isInterrupted()) {
+      List<ReleaseMessage> releaseMessages = releaseMessageRepository
+          .findByIdGreaterThanAndIdLessThanEqualOrderByIdAsc(cursor, endId, page);
+      if (CollectionUtils.isEmpty(releaseMessages)) {
+        break;
+      }
+      for (ReleaseMessage releaseMessage : releaseMessages) {
+        releaseMessageCache.merge(releaseMessage.getMessage(), releaseMessage,
+            (old, current) -> current.getId() > old.getId() ? current : old);
+      }
+      long lastId = releaseMessages.get(releaseMessages.size() - 1).getId();
+      initialLoadCovered.addAndGet(lastId - cursor);
+      cursor = lastId;
+      logger.info("Loaded {} release messages in ({}, {}], progress: {}%", releaseMessages.size(), startId,
+          endId, (int) (getInitialLoadProgress() * 100));
+      if (releaseMessages.size() < pageSize) {
+        break;
+      }
+    }
+    //the rest of the range is empty
+    initialLoadCovered.addAndGet(Math.max(0, endId - cursor));
+  }
+
   private void loadReleaseMessages(long startId) {
     boolean hasMore = true;
     while (hasMore && !Thread.currentThread().isInterrupted()) {
@@ -186,6 +336,50 @@ public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, I
     }
   }
 
+  @Override
+  public String getSnapshotName() {
+    return SNAPSHOT_NAME;
+  }
+
+  @Override
+  public void writeSnapshot(CacheSnapshotWriter writer) throws IOException {
+    //the messages newer than maxIdScanned would be merged again after restored, which is harmless
+    writer.writeLong(maxIdScanned);
+    List<ReleaseMessage> releaseMessages = Lists.newArrayList(releaseMessageCache.values());
+    writer.writeInt(releaseMessages.size());
+    for (ReleaseMessage releaseMessage : releaseMessages) {
+      writer.writeLong(releaseMessage.getId());
+      writer.writeString(releaseMessage.getMessage());
+    }
+  }
+
+  /**
+   * @return the max id restored from the snapshot, or 0 if no snapshot is restored
+   */
+  private long restoreSnapshot() {
+    CacheSnapshotReader reader = cacheSnapshotService.restore(SNAPSHOT_NAME);
+    if (reader == null) {
+      return 0;
+    }
+    try {
+      long snapshotMaxIdScanned = reader.readLong();
+      int count = reader.readInt();
+      for (int i = 0; i < count; i++) {
+        ReleaseMessage releaseMessage = new ReleaseMessage();
+        releaseMessage.setId(reader.readLong());
+        releaseMessage.setMessage(reader.readString());
+        releaseMessageCache.put(releaseMessage.getMessage(), releaseMessage);
+      }
+      maxIdScanned = snapshotMaxIdScanned;
+      logger.info("Restored {} release messages from snapshot with maxIdScanned {}", count, snapshotMaxIdScanned);
+      return snapshotMaxIdScanned;
+    } catch (Throwable ex) {
+      logger.warn("Restore release messages from snapshot failed, will load from database", ex);
+      releaseMessageCache.clear();
+      return 0;
+    }
+  }
+
   private void populateDataBaseInterval() {
     scanInterval = bizConfig.releaseMessageCacheScanInterval();
     scanIntervalTimeUnit = bizConfig.releaseMessageCacheScanIntervalTimeUnit();
@@ -196,5 +390,8 @@ public class ReleaseMessageServiceWithCache implements ReleaseMessageListener, I
     executorService.shutdownNow();
     initialize();
     afterPropertiesSet();
+    while (!initialLoadCompleted) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
   }
 }
@@ -18,11 +18,10 @@ package com.ctrip.framework.apollo.configservice.service.config;
 
 import com.ctrip.framework.apollo.biz.entity.Release;
 import com.ctrip.framework.apollo.biz.grayReleaseRule.GrayReleaseRulesHolder;
-import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.configservice.util.ClusterFallbackPlan;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 
-import com.google.common.base.Strings;
-
+import java.util.List;
 import java.util.Objects;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -36,28 +35,21 @@ public abstract class AbstractConfigService implements ConfigService {
   @Override
   public Release loadConfig(String clientAppId, String clientIp, String configAppId, String configClusterName,
       String configNamespace, String dataCenter, ApolloNotificationMessages clientMessages) {
-    // load from specified cluster first
-    if (!Objects.equals(ConfigConsts.CLUSTER_NAME_DEFAULT, configClusterName)) {
-      Release clusterRelease = findRelease(clientAppId, clientIp, configAppId, configClusterName, configNamespace,
-          clientMessages);
-
-      if (Objects.nonNull(clusterRelease)) {
-        return clusterRelease;
-      }
-    }
+    // load from specified cluster first, then via data center and fallback to default release
+    ClusterFallbackPlan fallbackPlan = ClusterFallbackPlan.of(configAppId, configClusterName, configNamespace,
+        dataCenter);
+    List<String> clusterNames = fallbackPlan.getClusterNames();
+    List<String> releaseMessageKeys = fallbackPlan.getReleaseMessageKeys();
 
-    // try to load via data center
-    if (!Strings.isNullOrEmpty(dataCenter) && !Objects.equals(dataCenter, configClusterName)) {
-      Release dataCenterRelease = findRelease(clientAppId, clientIp, configAppId, dataCenter, configNamespace,
-          clientMessages);
-      if (Objects.nonNull(dataCenterRelease)) {
-        return dataCenterRelease;
+    for (int i = 0; i < clusterNames.size(); i++) {
+      Release release = findRelease(clientAppId, clientIp, configAppId, clusterNames.get(i), configNamespace,
+          releaseMessageKeys.get(i), clientMessages);
+      if (Objects.nonNull(release)) {
+        return release;
       }
     }
 
-    // fallback to default release
-    return findRelease(clientAppId, clientIp, configAppId, ConfigConsts.CLUSTER_NAME_DEFAULT, configNamespace,
-        clientMessages);
+    return null;
   }
 
   /**
@@ -68,11 +60,12 @@ public abstract class AbstractConfigService implements ConfigService {
    * @param configAppId the requested config's app id
    * @param configClusterName the requested config's cluster name
    * @param configNamespace the requested config's namespace name
+   * @param releaseMessageKey the release message key of the requested config
    * @param clientMessages the messages received in client side
    * @return the release
    */
   private Release findRelease(String clientAppId, String clientIp, String configAppId, String configClusterName,
-      String configNamespace, ApolloNotificationMessages clientMessages) {
+      String configNamespace, String releaseMessageKey, ApolloNotificationMessages clientMessages) {
     Long grayReleaseId = grayReleaseRulesHolder.findReleaseIdFromGrayReleaseRule(clientAppId, clientIp, configAppId,
         configClusterName, configNamespace);
 
@@ -83,7 +76,8 @@ public abstract class AbstractConfigService implements ConfigService {
     }
 
     if (release == null) {
-      release = findLatestActiveRelease(configAppId, configClusterName, configNamespace, clientMessages);
+      release = findLatestActiveRelease(configAppId, configClusterName, configNamespace, releaseMessageKey,
+          clientMessages);
     }
 
     return release;
@@ -94,6 +88,14 @@ public abstract class AbstractConfigService implements ConfigService {
    */
   protected abstract Release findActiveOne(long id, ApolloNotificationMessages clientMessages);
 
+  /**
+   * Find active release by app id, cluster name and namespace name, with the release message key precomputed
+   */
+  protected Release findLatestActiveRelease(String configAppId, String configClusterName, String configNamespaceName,
+      String releaseMessageKey, ApolloNotificationMessages clientMessages) {
+    return findLatestActiveRelease(configAppId, configClusterName, configNamespaceName, clientMessages);
+  }
+
   /**
    * Find active release by app id, cluster name and namespace name
    */
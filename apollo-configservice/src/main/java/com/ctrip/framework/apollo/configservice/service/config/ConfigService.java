@@ -20,6 +20,9 @@ import com.ctrip.framework.apollo.biz.entity.Release;
 import com.ctrip.framework.apollo.biz.message.ReleaseMessageListener;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 
+import java.util.Map;
+import java.util.Set;
+
 /**
  * @author Jason Song(song_s@ctrip.com)
  */
@@ -39,4 +42,12 @@ public interface ConfigService extends ReleaseMessageListener {
    */
   Release loadConfig(String clientAppId, String clientIp, String configAppId, String
       configClusterName, String configNamespace, String dataCenter, ApolloNotificationMessages clientMessages);
+
+  /**
+   * Find the releases by release keys, abandoned releases included
+   *
+   * @param releaseKeys the release keys
+   * @return the releases keyed by release key, the release keys not found are absent
+   */
+  Map<String, Release> findReleasesByReleaseKeys(Set<String> releaseKeys);
 }
@@ -20,27 +20,53 @@ import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
 
+import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.entity.Release;
 import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.message.Topics;
 import com.ctrip.framework.apollo.biz.service.ReleaseMessageService;
 import com.ctrip.framework.apollo.biz.service.ReleaseService;
 import com.ctrip.framework.apollo.biz.utils.ReleaseMessageKeyGenerator;
+import com.ctrip.framework.apollo.configservice.service.CacheSnapshotParticipant;
+import com.ctrip.framework.apollo.configservice.service.CacheSnapshotReader;
+import com.ctrip.framework.apollo.configservice.service.CacheSnapshotService;
+import com.ctrip.framework.apollo.configservice.service.CacheSnapshotWriter;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.ctrip.framework.apollo.tracer.spi.Transaction;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import java.util.Optional;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
@@ -48,16 +74,31 @@ import javax.annotation.PostConstruct;
 /**
  * config service with guava cache
  *
+ * <p>The caches are bounded by the size of the cached releases. When a release message is received, the cached entry
+ * is reloaded asynchronously and the old entry is still served meanwhile, except to the readers which need the new
+ * release, i.e. the clients notified with a newer notification id, and the readers without any client messages, which
+ * can't tell whether they are notified. Those readers wait for the reload in flight, so the release is loaded only
+ * once however many clients are notified.</p>
+ *
  * @author Jason Song(song_s@ctrip.com)
  */
-public class ConfigServiceWithCache extends AbstractConfigService {
+public class ConfigServiceWithCache extends AbstractConfigService implements CacheSnapshotParticipant,
+    SmartInitializingSingleton {
   private static final Logger logger = LoggerFactory.getLogger(ConfigServiceWithCache.class);
   private static final long DEFAULT_EXPIRED_AFTER_ACCESS_IN_MINUTES = 60;//1 hour
+  //the approximate memory footprint of an entry besides the strings of the release
+  private static final int ENTRY_OVERHEAD_IN_BYTES = 256;
+  private static final String METRICS_CACHE_NAME = "apollo.config-service.cache";
+  private static final String SNAPSHOT_NAME = "ConfigCache";
+  private static final int SNAPSHOT_CHECK_BATCH_SIZE = 500;
   private static final String TRACER_EVENT_CACHE_INVALIDATE = "ConfigCache.Invalidate";
+  private static final String TRACER_EVENT_CACHE_REFRESH = "ConfigCache.Refresh";
   private static final String TRACER_EVENT_CACHE_LOAD = "ConfigCache.LoadFromDB";
   private static final String TRACER_EVENT_CACHE_LOAD_ID = "ConfigCache.LoadFromDBById";
   private static final String TRACER_EVENT_CACHE_GET = "ConfigCache.Get";
   private static final String TRACER_EVENT_CACHE_GET_ID = "ConfigCache.GetById";
+  private static final String TRACER_EVENT_CACHE_LOAD_KEY = "ConfigCache.LoadFromDBByKey";
+  private static final String TRACER_EVENT_CACHE_GET_KEY = "ConfigCache.GetByKey";
   private static final Splitter STRING_SPLITTER =
       Splitter.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR).omitEmptyStrings();
 
@@ -67,10 +108,30 @@ public class ConfigServiceWithCache extends AbstractConfigService {
   @Autowired
   private ReleaseMessageService releaseMessageService;
 
+  @Autowired
+  private BizConfig bizConfig;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private CacheSnapshotService cacheSnapshotService;
+
   private LoadingCache<String, ConfigCacheEntry> configCache;
 
   private LoadingCache<Long, Optional<Release>> configIdCache;
 
+  //only the releases found are cached, as the release keys are given by the clients
+  private LoadingCache<String, Release> configKeyCache;
+
+  //cache key => the latest notification id received, removed once the cache entry is reloaded
+  private final ConcurrentMap<String, Long> pendingNotificationIds = Maps.newConcurrentMap();
+
+  //cache key => the reload in flight, which the readers needing the new release wait for
+  private final ConcurrentMap<String, ListenableFuture<ConfigCacheEntry>> reloadsInFlight = Maps.newConcurrentMap();
+
+  private ExecutorService refreshExecutorService;
+
   private ConfigCacheEntry nullConfigCacheEntry;
 
   public ConfigServiceWithCache() {
@@ -79,8 +140,20 @@ public class ConfigServiceWithCache extends AbstractConfigService {
 
   @PostConstruct
   void initialize() {
+    refreshExecutorService = Executors.newFixedThreadPool(bizConfig.configServiceCacheRefreshThreads(),
+        ApolloThreadFactory.create("ConfigServiceWithCache", true));
+    long maxWeight = bizConfig.configServiceCacheMaxSizeInMB() * 1024L * 1024L;
     configCache = CacheBuilder.newBuilder()
         .expireAfterAccess(DEFAULT_EXPIRED_AFTER_ACCESS_IN_MINUTES, TimeUnit.MINUTES)
+        .maximumWeight(maxWeight)
+        .weigher((Weigher<String, ConfigCacheEntry>) (key, value) -> weigh(key, value.getRelease()))
+        .removalListener(notification -> {
+          //the pending notification id is useless once the entry is gone, a new entry would be loaded anyway
+          if (notification.getCause() != RemovalCause.REPLACED) {
+            pendingNotificationIds.remove(notification.getKey());
+          }
+        })
+        .recordStats()
         .build(new CacheLoader<String, ConfigCacheEntry>() {
           @Override
           public ConfigCacheEntry load(String key) throws Exception {
@@ -103,6 +176,9 @@ public class ConfigServiceWithCache extends AbstractConfigService {
               long notificationId = latestReleaseMessage == null ? ConfigConsts.NOTIFICATION_ID_PLACEHOLDER : latestReleaseMessage
                   .getId();
 
+              pendingNotificationIds.computeIfPresent(key,
+                  (k, pendingNotificationId) -> pendingNotificationId <= notificationId ? null : pendingNotificationId);
+
               if (notificationId == ConfigConsts.NOTIFICATION_ID_PLACEHOLDER && latestRelease == null) {
                 return nullConfigCacheEntry;
               }
@@ -115,9 +191,27 @@ public class ConfigServiceWithCache extends AbstractConfigService {
               transaction.complete();
             }
           }
+
+          @Override
+          public ListenableFuture<ConfigCacheEntry> reload(String key, ConfigCacheEntry oldValue) {
+            //the old entry is served until the new one is loaded
+            ListenableFutureTask<ConfigCacheEntry> task = ListenableFutureTask.create(() -> {
+              ConfigCacheEntry entry = load(key);
+              //another message is received while loading, and it's not loaded yet
+              return isRefreshing(key, entry) ? load(key) : entry;
+            });
+            reloadsInFlight.put(key, task);
+            task.addListener(() -> reloadsInFlight.remove(key, task), MoreExecutors.directExecutor());
+            refreshExecutorService.execute(task);
+            return task;
+          }
         });
+    //the releases cached by id and by release key are mostly gray releases and history releases, so they get less room
     configIdCache = CacheBuilder.newBuilder()
         .expireAfterAccess(DEFAULT_EXPIRED_AFTER_ACCESS_IN_MINUTES, TimeUnit.MINUTES)
+        .maximumWeight(maxWeight / 4)
+        .weigher((Weigher<Long, Optional<Release>>) (key, value) -> weigh(null, value.orElse(null)))
+        .recordStats()
         .build(new CacheLoader<Long, Optional<Release>>() {
           @Override
           public Optional<Release> load(Long key) throws Exception {
@@ -136,6 +230,45 @@ public class ConfigServiceWithCache extends AbstractConfigService {
             }
           }
         });
+    // the configurations of a release never change, so it's safe to cache them by release key
+    configKeyCache = CacheBuilder.newBuilder()
+        .expireAfterAccess(DEFAULT_EXPIRED_AFTER_ACCESS_IN_MINUTES, TimeUnit.MINUTES)
+        .maximumWeight(maxWeight / 4)
+        .weigher((Weigher<String, Release>) ConfigServiceWithCache::weigh)
+        .recordStats()
+        .build(new CacheLoader<String, Release>() {
+          @Override
+          public Release load(String key) throws Exception {
+            Transaction transaction = Tracer.newTransaction(TRACER_EVENT_CACHE_LOAD_KEY, key);
+            try {
+              List<Release> releases = releaseService.findByReleaseKeys(Collections.singleton(key));
+
+              transaction.setStatus(Transaction.SUCCESS);
+
+              //not cached if not found
+              return releases.isEmpty() ? null : releases.get(0);
+            } catch (Throwable ex) {
+              transaction.setStatus(ex);
+              throw ex;
+            } finally {
+              transaction.complete();
+            }
+          }
+        });
+
+    GuavaCacheMetrics.monitor(meterRegistry, configCache, METRICS_CACHE_NAME, "type", "latest");
+    GuavaCacheMetrics.monitor(meterRegistry, configIdCache, METRICS_CACHE_NAME, "type", "id");
+    GuavaCacheMetrics.monitor(meterRegistry, configKeyCache, METRICS_CACHE_NAME, "type", "releaseKey");
+  }
+
+  /**
+   * The snapshot is restored after the release message scanner is started, so that the releases published afterwards
+   * are received by {@link #handleMessage} as the refreshes of the restored entries
+   */
+  @Override
+  public void afterSingletonsInstantiated() {
+    restoreSnapshot();
+    cacheSnapshotService.register(this);
   }
 
   @Override
@@ -147,23 +280,175 @@ public class ConfigServiceWithCache extends AbstractConfigService {
   @Override
   protected Release findLatestActiveRelease(String appId, String clusterName, String namespaceName,
                                             ApolloNotificationMessages clientMessages) {
-    String key = ReleaseMessageKeyGenerator.generate(appId, clusterName, namespaceName);
+    return findLatestActiveRelease(appId, clusterName, namespaceName,
+        ReleaseMessageKeyGenerator.generate(appId, clusterName, namespaceName), clientMessages);
+  }
 
+  @Override
+  protected Release findLatestActiveRelease(String appId, String clusterName, String namespaceName, String key,
+                                            ApolloNotificationMessages clientMessages) {
     Tracer.logEvent(TRACER_EVENT_CACHE_GET, key);
 
     ConfigCacheEntry cacheEntry = configCache.getUnchecked(key);
 
     //cache is out-dated
     if (clientMessages != null && clientMessages.has(key) &&
-        clientMessages.get(key) > cacheEntry.getNotificationId()) {
-      //invalidate the cache and try to load from db again
-      invalidate(key);
-      cacheEntry = configCache.getUnchecked(key);
+        clientMessages.get(key) > cacheEntry.getNotificationId()
+        || clientMessages == null && isRefreshing(key, cacheEntry)) {
+      cacheEntry = awaitReload(key);
     }
 
     return cacheEntry.getRelease();
   }
 
+  /**
+   * Wait for the reload in flight, or start one if the message is not received yet, e.g. the client is notified by
+   * another instance
+   */
+  private ConfigCacheEntry awaitReload(String key) {
+    ListenableFuture<ConfigCacheEntry> reload = reloadsInFlight.get(key);
+    if (reload == null) {
+      //a refresh in flight is not started again
+      configCache.refresh(key);
+      Tracer.logEvent(TRACER_EVENT_CACHE_REFRESH, key);
+      reload = reloadsInFlight.get(key);
+    }
+    //the reload has just completed and the new entry is cached
+    if (reload == null) {
+      return configCache.getUnchecked(key);
+    }
+    return Futures.getUnchecked(reload);
+  }
+
+  @Override
+  public Map<String, Release> findReleasesByReleaseKeys(Set<String> releaseKeys) {
+    Map<String, Release> releases = Maps.newHashMapWithExpectedSize(releaseKeys.size());
+    for (String releaseKey : releaseKeys) {
+      Tracer.logEvent(TRACER_EVENT_CACHE_GET_KEY, releaseKey);
+      try {
+        releases.put(releaseKey, configKeyCache.getUnchecked(releaseKey));
+      } catch (CacheLoader.InvalidCacheLoadException ex) {
+        //the release is not found
+      }
+    }
+    return releases;
+  }
+
+  /**
+   * @return the hit, miss and load statistics of the caches, keyed by the cache type
+   */
+  public Map<String, CacheStats> getCacheStats() {
+    return ImmutableMap.of("latest", configCache.stats(), "id", configIdCache.stats(), "releaseKey",
+        configKeyCache.stats());
+  }
+
+  @Override
+  public String getSnapshotName() {
+    return SNAPSHOT_NAME;
+  }
+
+  @Override
+  public void writeSnapshot(CacheSnapshotWriter writer) throws IOException {
+    //only the entries with releases are worth saving, the others are cheap to load
+    List<Map.Entry<String, ConfigCacheEntry>> entries = Lists.newArrayList();
+    for (Map.Entry<String, ConfigCacheEntry> entry : configCache.asMap().entrySet()) {
+      if (entry.getValue().getRelease() != null) {
+        entries.add(entry);
+      }
+    }
+    writer.writeInt(entries.size());
+    for (Map.Entry<String, ConfigCacheEntry> entry : entries) {
+      Release release = entry.getValue().getRelease();
+      writer.writeString(entry.getKey());
+      writer.writeLong(entry.getValue().getNotificationId());
+      writer.writeLong(release.getId());
+      writer.writeString(release.getReleaseKey());
+      writer.writeString(release.getName());
+      writer.writeString(release.getAppId());
+      writer.writeString(release.getClusterName());
+      writer.writeString(release.getNamespaceName());
+      writer.writeString(release.getConfigurations());
+      writer.writeString(release.getComment());
+      writer.writeBoolean(release.isAbandoned());
+    }
+  }
+
+  /**
+   * Restore the entries whose notification id is still the latest one in database, the others would be loaded when
+   * needed. The entries are put before checked, so that a release message scanned meanwhile refreshes the entry
+   * instead of being missed.
+   */
+  private void restoreSnapshot() {
+    CacheSnapshotReader reader = cacheSnapshotService.restore(SNAPSHOT_NAME);
+    if (reader == null) {
+      return;
+    }
+    try {
+      int count = reader.readInt();
+      Map<String, ConfigCacheEntry> restoredEntries = Maps.newLinkedHashMap();
+      for (int i = 0; i < count; i++) {
+        String key = reader.readString();
+        long notificationId = reader.readLong();
+        Release release = new Release();
+        release.setId(reader.readLong());
+        release.setReleaseKey(reader.readString());
+        release.setName(reader.readString());
+        release.setAppId(reader.readString());
+        release.setClusterName(reader.readString());
+        release.setNamespaceName(reader.readString());
+        release.setConfigurations(reader.readString());
+        release.setComment(reader.readString());
+        release.setAbandoned(reader.readBoolean());
+
+        ConfigCacheEntry entry = new ConfigCacheEntry(notificationId, release);
+        restoredEntries.put(key, entry);
+        configCache.put(key, entry);
+      }
+
+      //the releases published while this instance was down are only found in database
+      int restored = count;
+      for (List<String> keys : Iterables.partition(restoredEntries.keySet(), SNAPSHOT_CHECK_BATCH_SIZE)) {
+        Map<String, Long> latestNotificationIds = Maps.newHashMap();
+        for (ReleaseMessage releaseMessage : releaseMessageService.findLatestReleaseMessagesGroupByMessages(keys)) {
+          latestNotificationIds.put(releaseMessage.getMessage(), releaseMessage.getId());
+        }
+        for (String key : keys) {
+          ConfigCacheEntry entry = restoredEntries.get(key);
+          long latestNotificationId = latestNotificationIds.getOrDefault(key,
+              ConfigConsts.NOTIFICATION_ID_PLACEHOLDER);
+          //the entry might be refreshed already
+          if (latestNotificationId != entry.getNotificationId() && configCache.asMap().remove(key, entry)) {
+            restored--;
+          }
+        }
+      }
+      logger.info("Restored {} of {} config cache entries from snapshot", restored, count);
+    } catch (Throwable ex) {
+      configCache.invalidateAll();
+      logger.warn("Restore config cache from snapshot failed, will load from database when needed", ex);
+    }
+  }
+
+  private boolean isRefreshing(String key, ConfigCacheEntry cacheEntry) {
+    Long pendingNotificationId = pendingNotificationIds.get(key);
+    return pendingNotificationId != null && pendingNotificationId > cacheEntry.getNotificationId();
+  }
+
+  private static int weigh(String key, Release release) {
+    long weight = ENTRY_OVERHEAD_IN_BYTES + sizeOf(key);
+    if (release != null) {
+      weight += sizeOf(release.getConfigurations()) + sizeOf(release.getReleaseKey()) + sizeOf(release.getName())
+          + sizeOf(release.getComment()) + sizeOf(release.getAppId()) + sizeOf(release.getClusterName())
+          + sizeOf(release.getNamespaceName());
+    }
+    return (int) Math.min(weight, Integer.MAX_VALUE);
+  }
+
+  private static long sizeOf(String value) {
+    //2 bytes per char at most
+    return value == null ? 0 : value.length() * 2L;
+  }
+
   private void invalidate(String key) {
     configCache.invalidate(key);
     Tracer.logEvent(TRACER_EVENT_CACHE_INVALIDATE, key);
@@ -176,14 +461,16 @@ public class ConfigServiceWithCache extends AbstractConfigService {
       return;
     }
 
-    try {
-      invalidate(message.getMessage());
-
-      //warm up the cache
-      configCache.getUnchecked(message.getMessage());
-    } catch (Throwable ex) {
-      //ignore
+    String key = message.getMessage();
+    //not cached, it will be loaded when needed
+    if (!configCache.asMap().containsKey(key)) {
+      invalidate(key);
+      return;
     }
+
+    pendingNotificationIds.merge(key, message.getId(), Math::max);
+    configCache.refresh(key);
+    Tracer.logEvent(TRACER_EVENT_CACHE_REFRESH, key);
   }
 
   private static class ConfigCacheEntry {
@@ -23,6 +23,11 @@ import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
 /**
  * config service with no cache
  *
@@ -45,6 +50,12 @@ public class DefaultConfigService extends AbstractConfigService {
         configNamespace);
   }
 
+  @Override
+  public Map<String, Release> findReleasesByReleaseKeys(Set<String> releaseKeys) {
+    return releaseService.findByReleaseKeys(releaseKeys).stream()
+        .collect(Collectors.toMap(Release::getReleaseKey, Function.identity()));
+  }
+
   @Override
   public void handleMessage(ReleaseMessage message, String channel) {
     // since there is no cache, so do nothing
@@ -17,9 +17,14 @@
 package com.ctrip.framework.apollo.configservice.util;
 
 import com.ctrip.framework.apollo.configservice.service.AccessKeyServiceWithCache;
+import com.ctrip.framework.apollo.core.signature.HmacSha1Signer;
 import com.ctrip.framework.apollo.core.signature.Signature;
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.stereotype.Component;
@@ -31,12 +36,23 @@ import org.springframework.stereotype.Component;
 public class AccessKeyUtil {
 
   private static final String URL_SEPARATOR = "/";
+  private static final String URL_CONFIGS_BATCH = "/configs/batch";
   private static final String URL_CONFIGS_PREFIX = "/configs/";
   private static final String URL_CONFIGFILES_JSON_PREFIX = "/configfiles/json/";
   private static final String URL_CONFIGFILES_PREFIX = "/configfiles/";
   private static final String URL_NOTIFICATIONS_PREFIX = "/notifications/v2";
+  private static final String URL_NOTIFICATIONS_STREAM_PREFIX = "/notifications/v3";
+  private static final long MAX_SIGNER_CACHE_SIZE = 10000;
+  private static final long SIGNER_EXPIRE_AFTER_ACCESS = 1;
 
   private final AccessKeyServiceWithCache accessKeyServiceWithCache;
+  /**
+   * secret -> signer, which reuses the keyed mac of the secret
+   */
+  private final LoadingCache<String, HmacSha1Signer> signers = CacheBuilder.newBuilder()
+      .maximumSize(MAX_SIGNER_CACHE_SIZE)
+      .expireAfterAccess(SIGNER_EXPIRE_AFTER_ACCESS, TimeUnit.HOURS)
+      .build(CacheLoader.from(HmacSha1Signer::new));
 
   public AccessKeyUtil(AccessKeyServiceWithCache accessKeyServiceWithCache) {
     this.accessKeyServiceWithCache = accessKeyServiceWithCache;
@@ -50,13 +66,16 @@ public class AccessKeyUtil {
     String appId = null;
     String servletPath = request.getServletPath();
 
-    if (StringUtils.startsWith(servletPath, URL_CONFIGS_PREFIX)) {
+    if (StringUtils.equals(servletPath, URL_CONFIGS_BATCH)) {
+      appId = request.getParameter("appId");
+    } else if (StringUtils.startsWith(servletPath, URL_CONFIGS_PREFIX)) {
       appId = StringUtils.substringBetween(servletPath, URL_CONFIGS_PREFIX, URL_SEPARATOR);
     } else if (StringUtils.startsWith(servletPath, URL_CONFIGFILES_JSON_PREFIX)) {
       appId = StringUtils.substringBetween(servletPath, URL_CONFIGFILES_JSON_PREFIX, URL_SEPARATOR);
     } else if (StringUtils.startsWith(servletPath, URL_CONFIGFILES_PREFIX)) {
       appId = StringUtils.substringBetween(servletPath, URL_CONFIGFILES_PREFIX, URL_SEPARATOR);
-    } else if (StringUtils.startsWith(servletPath, URL_NOTIFICATIONS_PREFIX)) {
+    } else if (StringUtils.startsWith(servletPath, URL_NOTIFICATIONS_PREFIX)
+        || StringUtils.startsWith(servletPath, URL_NOTIFICATIONS_STREAM_PREFIX)) {
       appId = request.getParameter("appId");
     }
 
@@ -64,11 +83,37 @@ public class AccessKeyUtil {
   }
 
   public String buildSignature(String path, String query, String timestampString, String secret) {
+    return signers.getUnchecked(secret).signString(assembleStringToSign(path, query, timestampString));
+  }
+
+  /**
+   * Check the signature against each of the secrets, the string to sign is assembled and the signature is decoded
+   * only once
+   *
+   * @return true if the signature is signed by any of the secrets
+   */
+  public boolean verifySignature(String path, String query, String timestampString, String signature,
+      List<String> secrets) {
+    byte[] decodedSignature = Signature.decodeSignature(signature);
+    if (decodedSignature == null) {
+      return false;
+    }
+
+    String stringToSign = assembleStringToSign(path, query, timestampString);
+    for (String secret : secrets) {
+      if (signers.getUnchecked(secret).verify(stringToSign, decodedSignature)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private String assembleStringToSign(String path, String query, String timestampString) {
     String pathWithQuery = path;
     if (!Strings.isNullOrEmpty(query)) {
       pathWithQuery += "?" + query;
     }
 
-    return Signature.signature(timestampString, pathWithQuery, secret);
+    return Signature.stringToSign(timestampString, pathWithQuery);
   }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.common.exception.BadRequestException;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves the notifications sent by clients and compares them with the latest release messages, shared by the
+ * long polling and the streaming notification endpoints.
+ */
+@Component
+public class ClientNotificationsUtil {
+  private static final Logger logger = LoggerFactory.getLogger(ClientNotificationsUtil.class);
+  private static final Splitter STRING_SPLITTER =
+      Splitter.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR).omitEmptyStrings();
+  private static final Type notificationsTypeReference =
+      new TypeToken<List<ApolloConfigNotification>>() {
+      }.getType();
+
+  private final NamespaceUtil namespaceUtil;
+  private final Gson gson;
+
+  public ClientNotificationsUtil(final NamespaceUtil namespaceUtil, final Gson gson) {
+    this.namespaceUtil = namespaceUtil;
+    this.gson = gson;
+  }
+
+  /**
+   * Parse the client side notifications
+   *
+   * @return a map with normalized namespace name as the key and client side notification as the value
+   * @throws BadRequestException if there is no valid notification
+   */
+  public Map<String, ApolloConfigNotification> resolveNotifications(String appId, String notificationsAsString) {
+    List<ApolloConfigNotification> notifications = null;
+
+    try {
+      notifications =
+          gson.fromJson(notificationsAsString, notificationsTypeReference);
+    } catch (Throwable ex) {
+      Tracer.logError(ex);
+    }
+
+    return resolveNotifications(appId, notifications, notificationsAsString);
+  }
+
+  /**
+   * Resolve the client side notifications already decoded, e.g. from the compact encoding
+   *
+   * @return a map with normalized namespace name as the key and client side notification as the value
+   * @throws BadRequestException if there is no valid notification
+   */
+  public Map<String, ApolloConfigNotification> resolveNotifications(String appId,
+                                                                    List<ApolloConfigNotification> notifications) {
+    return resolveNotifications(appId, notifications, notifications);
+  }
+
+  private Map<String, ApolloConfigNotification> resolveNotifications(String appId,
+                                                                     List<ApolloConfigNotification> notifications,
+                                                                     Object originalNotifications) {
+    if (CollectionUtils.isEmpty(notifications)) {
+      throw new BadRequestException("Invalid format of notifications: " + originalNotifications);
+    }
+
+    Map<String, ApolloConfigNotification> filteredNotifications = filterNotifications(appId, notifications);
+
+    if (CollectionUtils.isEmpty(filteredNotifications)) {
+      throw new BadRequestException("Invalid format of notifications: " + originalNotifications);
+    }
+
+    return filteredNotifications;
+  }
+
+  private Map<String, ApolloConfigNotification> filterNotifications(String appId,
+                                                                    List<ApolloConfigNotification> notifications) {
+    Map<String, ApolloConfigNotification> filteredNotifications = Maps.newHashMap();
+    for (ApolloConfigNotification notification : notifications) {
+      if (Strings.isNullOrEmpty(notification.getNamespaceName())) {
+        continue;
+      }
+      //strip out .properties suffix
+      String originalNamespace = namespaceUtil.filterNamespaceName(notification.getNamespaceName());
+      notification.setNamespaceName(originalNamespace);
+      //fix the character case issue, such as FX.apollo <-> fx.apollo
+      String normalizedNamespace = namespaceUtil.normalizeNamespace(appId, originalNamespace);
+
+      // in case client side namespace name has character case issue and has difference notification ids
+      // such as FX.apollo = 1 but fx.apollo = 2, we should let FX.apollo have the chance to update its notification id
+      // which means we should record FX.apollo = 1 here and ignore fx.apollo = 2
+      if (filteredNotifications.containsKey(normalizedNamespace) &&
+          filteredNotifications.get(normalizedNamespace).getNotificationId() < notification.getNotificationId()) {
+        continue;
+      }
+
+      filteredNotifications.put(normalizedNamespace, notification);
+    }
+    return filteredNotifications;
+  }
+
+  /**
+   * Find the notifications of the namespaces whose latest release messages are newer than the client side ones
+   */
+  public List<ApolloConfigNotification> findNewNotifications(Set<String> namespaces,
+                                                             Map<String, Long> clientSideNotifications,
+                                                             Multimap<String, String> watchedKeysMap,
+                                                             List<ReleaseMessage> latestReleaseMessages) {
+    List<ApolloConfigNotification> newNotifications = Lists.newArrayList();
+    if (!CollectionUtils.isEmpty(latestReleaseMessages)) {
+      Map<String, Long> latestNotifications = Maps.newHashMap();
+      for (ReleaseMessage releaseMessage : latestReleaseMessages) {
+        latestNotifications.put(releaseMessage.getMessage(), releaseMessage.getId());
+      }
+
+      for (String namespace : namespaces) {
+        long clientSideId = clientSideNotifications.get(namespace);
+        long latestId = ConfigConsts.NOTIFICATION_ID_PLACEHOLDER;
+        Collection<String> namespaceWatchedKeys = watchedKeysMap.get(namespace);
+        for (String namespaceWatchedKey : namespaceWatchedKeys) {
+          long namespaceNotificationId =
+              latestNotifications.getOrDefault(namespaceWatchedKey, ConfigConsts.NOTIFICATION_ID_PLACEHOLDER);
+          if (namespaceNotificationId > latestId) {
+            latestId = namespaceNotificationId;
+          }
+        }
+        if (latestId > clientSideId) {
+          ApolloConfigNotification notification = new ApolloConfigNotification(namespace, latestId);
+          namespaceWatchedKeys.stream().filter(latestNotifications::containsKey).forEach(namespaceWatchedKey ->
+              notification.addMessage(namespaceWatchedKey, latestNotifications.get(namespaceWatchedKey)));
+          newNotifications.add(notification);
+        }
+      }
+    }
+    return newNotifications;
+  }
+
+  /**
+   * Build the notification of the release message
+   *
+   * @return the notification, or null if the message is not a valid release message
+   */
+  public ApolloConfigNotification assembleNotification(ReleaseMessage message) {
+    String content = message.getMessage();
+    if (Strings.isNullOrEmpty(content)) {
+      return null;
+    }
+
+    List<String> keys = STRING_SPLITTER.splitToList(content);
+    //message should be appId+cluster+namespace
+    if (keys.size() != 3) {
+      logger.error("message format invalid - {}", content);
+      return null;
+    }
+
+    ApolloConfigNotification notification = new ApolloConfigNotification(keys.get(2), message.getId());
+    notification.addMessage(content, message.getId());
+    return notification;
+  }
+}
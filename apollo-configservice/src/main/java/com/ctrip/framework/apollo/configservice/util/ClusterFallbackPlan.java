@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.ctrip.framework.apollo.biz.utils.ReleaseMessageKeyGenerator;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The clusters to load the config from in order, i.e. the specified cluster, the data center and the default cluster,
+ * together with the release message keys of them.
+ *
+ * <p>Plans are immutable and memoized, so the same combination always resolves to the same instance.</p>
+ */
+public final class ClusterFallbackPlan {
+  private static final long MAX_CACHE_SIZE = 100000;
+  private static final long EXPIRE_AFTER_ACCESS = 1;
+  private static final Cache<ResolutionKey, ClusterFallbackPlan> PLANS = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CACHE_SIZE)
+      .expireAfterAccess(EXPIRE_AFTER_ACCESS, TimeUnit.HOURS)
+      .build();
+
+  private final String appId;
+  private final String namespace;
+  private final List<String> clusterNames;
+  private final List<String> releaseMessageKeys;
+
+  private ClusterFallbackPlan(String appId, String namespace, List<String> clusterNames,
+      List<String> releaseMessageKeys) {
+    this.appId = appId;
+    this.namespace = namespace;
+    this.clusterNames = clusterNames;
+    this.releaseMessageKeys = releaseMessageKeys;
+  }
+
+  /**
+   * Get the plan for the given appId, cluster, namespace, dataCenter combination
+   */
+  public static ClusterFallbackPlan of(String appId, String clusterName, String namespace, String dataCenter) {
+    try {
+      return PLANS.get(new ResolutionKey(appId, clusterName, namespace, dataCenter), () -> create(appId, clusterName, namespace, dataCenter));
+    } catch (ExecutionException ex) {
+      //create never throws checked exceptions
+      throw new IllegalStateException(ex.getCause());
+    }
+  }
+
+  private static ClusterFallbackPlan create(String appId, String clusterName, String namespace,
+      String dataCenter) {
+    Set<String> clusterNames = Sets.newLinkedHashSet();
+
+    //load from specified cluster first
+    if (!Objects.equals(ConfigConsts.CLUSTER_NAME_DEFAULT, clusterName)) {
+      clusterNames.add(clusterName);
+    }
+
+    //try to load via data center
+    if (!Strings.isNullOrEmpty(dataCenter) && !Objects.equals(dataCenter, clusterName)) {
+      clusterNames.add(dataCenter);
+    }
+
+    //fallback to default cluster
+    clusterNames.add(ConfigConsts.CLUSTER_NAME_DEFAULT);
+
+    ImmutableList.Builder<String> releaseMessageKeys = ImmutableList.builder();
+    for (String cluster : clusterNames) {
+      releaseMessageKeys.add(ReleaseMessageKeyGenerator.generate(appId, cluster, namespace));
+    }
+
+    return new ClusterFallbackPlan(appId, namespace, ImmutableList.copyOf(clusterNames), releaseMessageKeys.build());
+  }
+
+  public String getAppId() {
+    return appId;
+  }
+
+  public String getNamespace() {
+    return namespace;
+  }
+
+  /**
+   * @return the cluster names in the order they should be tried
+   */
+  public List<String> getClusterNames() {
+    return clusterNames;
+  }
+
+  /**
+   * @return the release message keys, in the same order as {@link #getClusterNames()}
+   */
+  public List<String> getReleaseMessageKeys() {
+    return releaseMessageKeys;
+  }
+}
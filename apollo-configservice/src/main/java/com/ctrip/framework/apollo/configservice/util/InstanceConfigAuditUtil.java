@@ -21,119 +21,231 @@ import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Queues;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
+import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.entity.Instance;
 import com.ctrip.framework.apollo.biz.entity.InstanceConfig;
 import com.ctrip.framework.apollo.biz.service.InstanceService;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.tracer.Tracer;
-
+import com.ctrip.framework.apollo.tracer.spi.Transaction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
-import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
+import java.util.Set;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Records which release each client instance has loaded.
+ *
+ * <p>The audits are aggregated in memory, so that the audits of the same instance and config only keep the latest one,
+ * and are written behind by {@link BizConfig#instanceConfigAuditWorkers()} workers every
+ * {@link BizConfig#instanceConfigAuditFlushIntervalInMilli()}. Each worker owns a shard of the instances and writes
+ * its audits in batches, with multi-row statements which create the missing instances and create or update the
+ * instance configs. The pending audits are written once more on shutdown.</p>
+ *
  * @author Jason Song(song_s@ctrip.com)
  */
 @Service
-public class InstanceConfigAuditUtil implements InitializingBean {
+public class InstanceConfigAuditUtil implements InitializingBean, DisposableBean {
+  private static final Logger logger = LoggerFactory.getLogger(InstanceConfigAuditUtil.class);
   private static final int INSTANCE_CONFIG_AUDIT_MAX_SIZE = 10000;
   private static final int INSTANCE_CACHE_MAX_SIZE = 50000;
   private static final int INSTANCE_CONFIG_CACHE_MAX_SIZE = 50000;
+  private static final int FLUSH_BATCH_SIZE = 500;
+  private static final int SHUTDOWN_TIMEOUT_IN_SECONDS = 10;
   private static final long OFFER_TIME_LAST_MODIFIED_TIME_THRESHOLD_IN_MILLI = TimeUnit.MINUTES.toMillis(10);//10 minutes
   private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
-  private final ExecutorService auditExecutorService;
-  private final AtomicBoolean auditStopped;
-  private BlockingQueue<InstanceConfigAuditModel> audits = Queues.newLinkedBlockingQueue
-      (INSTANCE_CONFIG_AUDIT_MAX_SIZE);
+  private static final String METRICS_PREFIX = "apollo.instance-config-audit";
+  private final ScheduledExecutorService auditExecutorService;
+  //store appId+cluster+ip(+datacenter)+configAppId+configNamespace -> the latest audit, one map per worker
+  private final List<Map<String, InstanceConfigAuditModel>> audits;
+  private final AtomicInteger pendingAudits;
+  private final int flushIntervalInMilli;
   private Cache<String, Long> instanceCache;
+  //store appId+cluster+ip(+datacenter)+configAppId+configNamespace -> the release key audited
   private Cache<String, String> instanceConfigReleaseKeyCache;
+  private final Counter droppedAuditCounter;
+  private final Timer flushTimer;
 
   private final InstanceService instanceService;
 
-  public InstanceConfigAuditUtil(final InstanceService instanceService) {
+  public InstanceConfigAuditUtil(final InstanceService instanceService, final BizConfig bizConfig,
+      final MeterRegistry meterRegistry) {
     this.instanceService = instanceService;
-    auditExecutorService = Executors.newSingleThreadExecutor(
+    int workers = bizConfig.instanceConfigAuditWorkers();
+    flushIntervalInMilli = bizConfig.instanceConfigAuditFlushIntervalInMilli();
+    auditExecutorService = Executors.newScheduledThreadPool(workers,
         ApolloThreadFactory.create("InstanceConfigAuditUtil", true));
-    auditStopped = new AtomicBoolean(false);
+    audits = Lists.newArrayListWithCapacity(workers);
+    for (int i = 0; i < workers; i++) {
+      audits.add(Maps.newConcurrentMap());
+    }
+    pendingAudits = new AtomicInteger();
     instanceCache = CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.HOURS)
         .maximumSize(INSTANCE_CACHE_MAX_SIZE).build();
     instanceConfigReleaseKeyCache = CacheBuilder.newBuilder().expireAfterWrite(1, TimeUnit.DAYS)
         .maximumSize(INSTANCE_CONFIG_CACHE_MAX_SIZE).build();
+    droppedAuditCounter = Counter.builder(METRICS_PREFIX + ".dropped")
+        .description("Instance config audits dropped because too many audits are pending")
+        .register(meterRegistry);
+    flushTimer = Timer.builder(METRICS_PREFIX + ".flush")
+        .description("Time taken to write a batch of instance config audits")
+        .register(meterRegistry);
+    Gauge.builder(METRICS_PREFIX + ".pending", pendingAudits, AtomicInteger::get)
+        .description("Instance config audits waiting to be written")
+        .register(meterRegistry);
   }
 
   public boolean audit(String appId, String clusterName, String dataCenter, String
       ip, String configAppId, String configClusterName, String configNamespace, String releaseKey) {
-    return this.audits.offer(new InstanceConfigAuditModel(appId, clusterName, dataCenter, ip,
-        configAppId, configClusterName, configNamespace, releaseKey));
-  }
+    String instanceKey = assembleInstanceKey(appId, clusterName, ip, dataCenter);
+    String auditKey = assembleAuditKey(instanceKey, configAppId, configNamespace);
+
+    //if release key is the same, then skip audit
+    if (releaseKey != null && releaseKey.equals(instanceConfigReleaseKeyCache.getIfPresent(auditKey))) {
+      return true;
+    }
 
-  void doAudit(InstanceConfigAuditModel auditModel) {
-    String instanceCacheKey = assembleInstanceKey(auditModel.getAppId(), auditModel
-        .getClusterName(), auditModel.getIp(), auditModel.getDataCenter());
-    Long instanceId = instanceCache.getIfPresent(instanceCacheKey);
-    if (instanceId == null) {
-      instanceId = prepareInstanceId(auditModel);
-      instanceCache.put(instanceCacheKey, instanceId);
+    Map<String, InstanceConfigAuditModel> shard = audits.get(Math.floorMod(instanceKey.hashCode(), audits.size()));
+    if (pendingAudits.get() >= INSTANCE_CONFIG_AUDIT_MAX_SIZE && !shard.containsKey(auditKey)) {
+      droppedAuditCounter.increment();
+      return false;
     }
 
-    //load instance config release key from cache, and check if release key is the same
-    String instanceConfigCacheKey = assembleInstanceConfigKey(instanceId, auditModel
-        .getConfigAppId(), auditModel.getConfigNamespace());
-    String cacheReleaseKey = instanceConfigReleaseKeyCache.getIfPresent(instanceConfigCacheKey);
+    InstanceConfigAuditModel auditModel = new InstanceConfigAuditModel(appId, clusterName, dataCenter, ip,
+        configAppId, configClusterName, configNamespace, releaseKey);
+    if (shard.put(auditKey, auditModel) == null) {
+      pendingAudits.incrementAndGet();
+    }
+    return true;
+  }
 
-    //if release key is the same, then skip audit
-    if (cacheReleaseKey != null && Objects.equals(cacheReleaseKey, auditModel.getReleaseKey())) {
-      return;
+  void flush(Map<String, InstanceConfigAuditModel> shard) {
+    List<InstanceConfigAuditModel> batch = Lists.newArrayListWithCapacity(FLUSH_BATCH_SIZE);
+    for (String auditKey : shard.keySet()) {
+      //the audit offered after removed would be written in the next flush
+      InstanceConfigAuditModel auditModel = shard.remove(auditKey);
+      if (auditModel == null) {
+        continue;
+      }
+      pendingAudits.decrementAndGet();
+      batch.add(auditModel);
+      if (batch.size() >= FLUSH_BATCH_SIZE) {
+        flushBatch(batch);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      flushBatch(batch);
+    }
+  }
+
+  private void flushBatch(List<InstanceConfigAuditModel> batch) {
+    Transaction transaction = Tracer.newTransaction("Apollo.InstanceConfigAudit", "flush");
+    long start = System.nanoTime();
+    try {
+      doAudit(batch);
+      transaction.setStatus(Transaction.SUCCESS);
+    } catch (Throwable ex) {
+      transaction.setStatus(ex);
+      logger.error("Audit {} instance configs failed", batch.size(), ex);
+    } finally {
+      flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      transaction.complete();
     }
+  }
 
-    instanceConfigReleaseKeyCache.put(instanceConfigCacheKey, auditModel.getReleaseKey());
+  void doAudit(List<InstanceConfigAuditModel> auditModels) {
+    Map<String, Long> instanceIdsByInstanceKey = prepareInstanceIds(auditModels);
+
+    //store instanceId+configAppId+configNamespace -> audit
+    Map<String, InstanceConfigAuditModel> instanceConfigAudits = Maps.newLinkedHashMap();
+    Map<String, Long> instanceIds = Maps.newHashMap();
+    for (InstanceConfigAuditModel auditModel : auditModels) {
+      Long instanceId = instanceIdsByInstanceKey.get(assembleInstanceKey(auditModel.getAppId(), auditModel
+          .getClusterName(), auditModel.getIp(), auditModel.getDataCenter()));
+      if (instanceId == null) {
+        //neither created nor found, it would be audited again on the next request
+        continue;
+      }
+      String instanceConfigKey = assembleInstanceConfigKey(instanceId, auditModel.getConfigAppId(),
+          auditModel.getConfigNamespace());
+      instanceConfigAudits.put(instanceConfigKey, auditModel);
+      instanceIds.put(instanceConfigKey, instanceId);
+    }
 
-    //if release key is not the same or cannot find in cache, then do audit
-    InstanceConfig instanceConfig = instanceService.findInstanceConfig(instanceId, auditModel
-        .getConfigAppId(), auditModel.getConfigNamespace());
+    Map<String, InstanceConfig> existedInstanceConfigs = Maps.newHashMap();
+    for (InstanceConfig instanceConfig : instanceService.findInstanceConfigsByInstanceIds(
+        Sets.newHashSet(instanceIds.values()))) {
+      existedInstanceConfigs.put(assembleInstanceConfigKey(instanceConfig.getInstanceId(),
+          instanceConfig.getConfigAppId(), instanceConfig.getConfigNamespaceName()), instanceConfig);
+    }
 
-    if (instanceConfig != null) {
-      if (!Objects.equals(instanceConfig.getReleaseKey(), auditModel.getReleaseKey())) {
-        instanceConfig.setConfigClusterName(auditModel.getConfigClusterName());
-        instanceConfig.setReleaseKey(auditModel.getReleaseKey());
-        instanceConfig.setReleaseDeliveryTime(auditModel.getOfferTime());
-      } else if (offerTimeAndLastModifiedTimeCloseEnough(auditModel.getOfferTime(),
-          instanceConfig.getDataChangeLastModifiedTime())) {
-        //when releaseKey is the same, optimize to reduce writes if the record was updated not long ago
-        return;
+    List<InstanceConfig> newInstanceConfigs = Lists.newArrayList();
+    List<InstanceConfig> updatedInstanceConfigs = Lists.newArrayList();
+    for (Map.Entry<String, InstanceConfigAuditModel> entry : instanceConfigAudits.entrySet()) {
+      InstanceConfigAuditModel auditModel = entry.getValue();
+      InstanceConfig instanceConfig = existedInstanceConfigs.get(entry.getKey());
+
+      if (instanceConfig != null) {
+        if (!Objects.equals(instanceConfig.getReleaseKey(), auditModel.getReleaseKey())) {
+          instanceConfig.setConfigClusterName(auditModel.getConfigClusterName());
+          instanceConfig.setReleaseKey(auditModel.getReleaseKey());
+          instanceConfig.setReleaseDeliveryTime(auditModel.getOfferTime());
+        } else if (offerTimeAndLastModifiedTimeCloseEnough(auditModel.getOfferTime(),
+            instanceConfig.getDataChangeLastModifiedTime())) {
+          //when releaseKey is the same, optimize to reduce writes if the record was updated not long ago
+          continue;
+        }
+        //we need to update no matter the release key is the same or not, to ensure the
+        //last modified time is updated each day
+        instanceConfig.setDataChangeLastModifiedTime(auditModel.getOfferTime());
+        updatedInstanceConfigs.add(instanceConfig);
+        continue;
       }
-      //we need to update no matter the release key is the same or not, to ensure the
-      //last modified time is updated each day
+
+      instanceConfig = new InstanceConfig();
+      instanceConfig.setInstanceId(instanceIds.get(entry.getKey()));
+      instanceConfig.setConfigAppId(auditModel.getConfigAppId());
+      instanceConfig.setConfigClusterName(auditModel.getConfigClusterName());
+      instanceConfig.setConfigNamespaceName(auditModel.getConfigNamespace());
+      instanceConfig.setReleaseKey(auditModel.getReleaseKey());
+      instanceConfig.setReleaseDeliveryTime(auditModel.getOfferTime());
+      instanceConfig.setDataChangeCreatedTime(auditModel.getOfferTime());
       instanceConfig.setDataChangeLastModifiedTime(auditModel.getOfferTime());
-      instanceService.updateInstanceConfig(instanceConfig);
-      return;
+      newInstanceConfigs.add(instanceConfig);
     }
 
-    instanceConfig = new InstanceConfig();
-    instanceConfig.setInstanceId(instanceId);
-    instanceConfig.setConfigAppId(auditModel.getConfigAppId());
-    instanceConfig.setConfigClusterName(auditModel.getConfigClusterName());
-    instanceConfig.setConfigNamespaceName(auditModel.getConfigNamespace());
-    instanceConfig.setReleaseKey(auditModel.getReleaseKey());
-    instanceConfig.setReleaseDeliveryTime(auditModel.getOfferTime());
-    instanceConfig.setDataChangeCreatedTime(auditModel.getOfferTime());
+    List<InstanceConfig> instanceConfigs = Lists.newArrayList(updatedInstanceConfigs);
+    instanceConfigs.addAll(newInstanceConfigs);
+    if (!instanceConfigs.isEmpty()) {
+      //the ones created by other config services concurrently are updated instead
+      instanceService.batchSaveInstanceConfigs(instanceConfigs);
+    }
 
-    try {
-      instanceService.createInstanceConfig(instanceConfig);
-    } catch (DataIntegrityViolationException ex) {
-      //concurrent insertion, safe to ignore
+    for (InstanceConfigAuditModel auditModel : instanceConfigAudits.values()) {
+      instanceConfigReleaseKeyCache.put(assembleAuditKey(assembleInstanceKey(auditModel.getAppId(),
+          auditModel.getClusterName(), auditModel.getIp(), auditModel.getDataCenter()),
+          auditModel.getConfigAppId(), auditModel.getConfigNamespace()), auditModel.getReleaseKey());
     }
   }
 
@@ -142,40 +254,112 @@ public class InstanceConfigAuditUtil implements InitializingBean {
         OFFER_TIME_LAST_MODIFIED_TIME_THRESHOLD_IN_MILLI;
   }
 
-  private long prepareInstanceId(InstanceConfigAuditModel auditModel) {
-    Instance instance = instanceService.findInstance(auditModel.getAppId(), auditModel
-        .getClusterName(), auditModel.getDataCenter(), auditModel.getIp());
-    if (instance != null) {
-      return instance.getId();
+  /**
+   * Resolve the instance ids from the cache, then find the others and create the missing ones in batches
+   *
+   * @return instanceKey -> instanceId
+   */
+  private Map<String, Long> prepareInstanceIds(List<InstanceConfigAuditModel> auditModels) {
+    Map<String, Long> instanceIds = Maps.newHashMap();
+    Map<String, InstanceConfigAuditModel> missingInstances = Maps.newLinkedHashMap();
+    for (InstanceConfigAuditModel auditModel : auditModels) {
+      String instanceKey = assembleInstanceKey(auditModel.getAppId(), auditModel.getClusterName(),
+          auditModel.getIp(), auditModel.getDataCenter());
+      Long instanceId = instanceCache.getIfPresent(instanceKey);
+      if (instanceId != null) {
+        instanceIds.put(instanceKey, instanceId);
+      } else {
+        missingInstances.putIfAbsent(instanceKey, auditModel);
+      }
+    }
+    if (missingInstances.isEmpty()) {
+      return instanceIds;
     }
-    instance = new Instance();
-    instance.setAppId(auditModel.getAppId());
-    instance.setClusterName(auditModel.getClusterName());
-    instance.setDataCenter(auditModel.getDataCenter());
-    instance.setIp(auditModel.getIp());
 
+    findInstanceIds(missingInstances, instanceIds);
+    if (missingInstances.isEmpty()) {
+      return instanceIds;
+    }
 
-    try {
-      return instanceService.createInstance(instance).getId();
-    } catch (DataIntegrityViolationException ex) {
-      //return the one exists
-      return instanceService.findInstance(instance.getAppId(), instance.getClusterName(),
-          instance.getDataCenter(), instance.getIp()).getId();
+    List<Instance> newInstances = Lists.newArrayListWithCapacity(missingInstances.size());
+    for (InstanceConfigAuditModel auditModel : missingInstances.values()) {
+      Instance instance = new Instance();
+      instance.setAppId(auditModel.getAppId());
+      instance.setClusterName(auditModel.getClusterName());
+      instance.setDataCenter(auditModel.getDataCenter());
+      instance.setIp(auditModel.getIp());
+      newInstances.add(instance);
+    }
+    instanceService.batchCreateInstances(newInstances);
+    findInstanceIds(missingInstances, instanceIds);
+
+    //e.g. the existing instance differs in case only, which the database treats as the same one
+    for (Map.Entry<String, InstanceConfigAuditModel> entry : missingInstances.entrySet()) {
+      InstanceConfigAuditModel auditModel = entry.getValue();
+      Instance instance = instanceService.findInstance(auditModel.getAppId(), auditModel.getClusterName(),
+          auditModel.getDataCenter(), auditModel.getIp());
+      if (instance != null) {
+        instanceIds.put(entry.getKey(), instance.getId());
+        instanceCache.put(entry.getKey(), instance.getId());
+      }
+    }
+    return instanceIds;
+  }
+
+  /**
+   * Find the instances by app id, cluster and ip, which are the leading columns of the unique key, so only the
+   * instances of the same app and cluster are read. The found ones are removed from the missing instances.
+   */
+  private void findInstanceIds(Map<String, InstanceConfigAuditModel> missingInstances, Map<String, Long> instanceIds) {
+    Map<String, List<InstanceConfigAuditModel>> clusterInstances = Maps.newHashMap();
+    for (InstanceConfigAuditModel auditModel : missingInstances.values()) {
+      clusterInstances.computeIfAbsent(STRING_JOINER.join(auditModel.getAppId(), auditModel.getClusterName()),
+          key -> Lists.newArrayList()).add(auditModel);
+    }
+    for (List<InstanceConfigAuditModel> auditModels : clusterInstances.values()) {
+      Set<String> ips = Sets.newHashSet();
+      for (InstanceConfigAuditModel auditModel : auditModels) {
+        ips.add(auditModel.getIp());
+      }
+      InstanceConfigAuditModel someAuditModel = auditModels.get(0);
+      for (Instance instance : instanceService.findInstancesByIps(someAuditModel.getAppId(),
+          someAuditModel.getClusterName(), ips)) {
+        String instanceKey = assembleInstanceKey(instance.getAppId(), instance.getClusterName(), instance.getIp(),
+            instance.getDataCenter());
+        if (missingInstances.remove(instanceKey) != null) {
+          instanceIds.put(instanceKey, instance.getId());
+          instanceCache.put(instanceKey, instance.getId());
+        }
+      }
     }
   }
 
   @Override
   public void afterPropertiesSet() throws Exception {
-    auditExecutorService.submit(() -> {
-      while (!auditStopped.get() && !Thread.currentThread().isInterrupted()) {
+    for (Map<String, InstanceConfigAuditModel> shard : audits) {
+      auditExecutorService.scheduleWithFixedDelay(() -> {
         try {
-          InstanceConfigAuditModel model = audits.take();
-          doAudit(model);
+          flush(shard);
         } catch (Throwable ex) {
           Tracer.logError(ex);
         }
-      }
-    });
+      }, flushIntervalInMilli, flushIntervalInMilli, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Wait for the running flushes, then write the pending audits once, which would be lost otherwise
+   */
+  @Override
+  public void destroy() throws Exception {
+    auditExecutorService.shutdown();
+    if (!auditExecutorService.awaitTermination(SHUTDOWN_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)) {
+      logger.warn("Instance config audits are not written in {} seconds on shutdown", SHUTDOWN_TIMEOUT_IN_SECONDS);
+    }
+    for (Map<String, InstanceConfigAuditModel> shard : audits) {
+      flush(shard);
+    }
+    auditExecutorService.shutdownNow();
   }
 
   private String assembleInstanceKey(String appId, String cluster, String ip, String datacenter) {
@@ -186,6 +370,10 @@ public class InstanceConfigAuditUtil implements InitializingBean {
     return STRING_JOINER.join(keyParts);
   }
 
+  private String assembleAuditKey(String instanceKey, String configAppId, String configNamespace) {
+    return STRING_JOINER.join(instanceKey, configAppId, configNamespace);
+  }
+
   private String assembleInstanceConfigKey(long instanceId, String configAppId, String configNamespace) {
     return STRING_JOINER.join(instanceId, configAppId, configNamespace);
   }
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.configservice.wrapper.DeferredResultWrapper;
+import com.ctrip.framework.apollo.configservice.wrapper.NotificationStream;
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.ctrip.framework.apollo.tracer.spi.Transaction;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completes the pending long polling requests and closes the notification streams in staggered waves when the config
+ * service is shutting down, instead of dropping all the connections at once when the web server stops.
+ *
+ * <p>The requests and the streams are split into {@link BizConfig#longPollingDrainWaves()} waves spread over
+ * {@link BizConfig#longPollingDrainPeriodInMilli()}. Each request is completed with not modified and a
+ * {@link RetryHint}, and each stream is closed with the same hint, so the clients keep their notification ids and
+ * spread their reconnections over the jitter window. The requests and the streams arriving during the drain are
+ * drained right away.</p>
+ *
+ * <p>It is stopped in the default phase, before the web server is stopped, and alongside the graceful shutdown of
+ * the web server if enabled.</p>
+ */
+@Component
+public class LongPollingDrainUtil implements SmartLifecycle {
+  private static final Logger logger = LoggerFactory.getLogger(LongPollingDrainUtil.class);
+
+  private final Set<DeferredResultWrapper> pendingResults = ConcurrentHashMap.newKeySet();
+  private final Set<NotificationStream> pendingStreams = ConcurrentHashMap.newKeySet();
+  private volatile boolean running;
+  private volatile boolean draining;
+
+  private final BizConfig bizConfig;
+
+  public LongPollingDrainUtil(final BizConfig bizConfig) {
+    this.bizConfig = bizConfig;
+  }
+
+  /**
+   * Track the pending request until {@link #untrack(DeferredResultWrapper)} is called on its completion
+   *
+   * @return false if the config service is draining, and the request has been completed with the retry response
+   */
+  public boolean track(DeferredResultWrapper deferredResultWrapper) {
+    if (!draining) {
+      pendingResults.add(deferredResultWrapper);
+      // check again, as the drain might have taken its snapshot before the request was added
+      if (!draining) {
+        return true;
+      }
+      pendingResults.remove(deferredResultWrapper);
+    }
+    deferredResultWrapper.drain(retryResponse());
+    return false;
+  }
+
+  public void untrack(DeferredResultWrapper deferredResultWrapper) {
+    pendingResults.remove(deferredResultWrapper);
+  }
+
+  /**
+   * Track the notification stream until {@link #untrack(NotificationStream)} is called on its close
+   *
+   * @return false if the config service is draining, and the stream has been closed with the retry hint
+   */
+  public boolean track(NotificationStream stream) {
+    if (!draining) {
+      pendingStreams.add(stream);
+      // check again, as the drain might have taken its snapshot before the stream was added
+      if (!draining) {
+        return true;
+      }
+      pendingStreams.remove(stream);
+    }
+    stream.drain(retryHint());
+    return false;
+  }
+
+  public void untrack(NotificationStream stream) {
+    pendingStreams.remove(stream);
+  }
+
+  public boolean isDraining() {
+    return draining;
+  }
+
+  /**
+   * @return the number of the pending long polling requests
+   */
+  public int pendingCount() {
+    return pendingResults.size();
+  }
+
+  @Override
+  public void start() {
+    running = true;
+  }
+
+  @Override
+  public void stop() {
+    try {
+      drain();
+    } finally {
+      running = false;
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  void drain() {
+    draining = true;
+    ResponseEntity<?> retryResponse = retryResponse();
+    RetryHint retryHint = retryHint();
+    List<Runnable> drains = Lists.newArrayList();
+    for (DeferredResultWrapper result : pendingResults) {
+      drains.add(() -> result.drain(retryResponse));
+    }
+    int requests = drains.size();
+    for (NotificationStream stream : pendingStreams) {
+      drains.add(() -> stream.drain(retryHint));
+    }
+    if (drains.isEmpty()) {
+      return;
+    }
+
+    int waves = Math.min(bizConfig.longPollingDrainWaves(), drains.size());
+    int waveSize = (drains.size() + waves - 1) / waves;
+    // the first wave is completed right away and the last one at the end of the period
+    long waveIntervalInMilli = waves > 1 ? bizConfig.longPollingDrainPeriodInMilli() / (waves - 1) : 0;
+
+    Transaction transaction = Tracer.newTransaction("Apollo.LongPoll", "Drain");
+    transaction.addData("Requests", requests);
+    transaction.addData("Streams", drains.size() - requests);
+    transaction.addData("Waves", waves);
+    logger.info("Draining {} long polling requests and {} notification streams in {} waves", requests,
+        drains.size() - requests, waves);
+    try {
+      boolean interrupted = false;
+      for (int from = 0; from < drains.size(); from += waveSize) {
+        if (from > 0 && !interrupted) {
+          try {
+            TimeUnit.MILLISECONDS.sleep(waveIntervalInMilli);
+          } catch (InterruptedException ex) {
+            // complete the rest at once
+            interrupted = true;
+            Thread.currentThread().interrupt();
+          }
+        }
+        for (Runnable drain : drains.subList(from, Math.min(from + waveSize, drains.size()))) {
+          drain.run();
+        }
+      }
+      transaction.setStatus(Transaction.SUCCESS);
+    } catch (Throwable ex) {
+      transaction.setStatus(ex);
+      logger.error("Draining long polling requests failed", ex);
+    } finally {
+      transaction.complete();
+    }
+  }
+
+  private ResponseEntity<?> retryResponse() {
+    return DeferredResultWrapper.retryResponse(retryHint());
+  }
+
+  private RetryHint retryHint() {
+    return new RetryHint(bizConfig.longPollingRetryAfterInMilli(), bizConfig.longPollingRetryJitterInMilli());
+  }
+}
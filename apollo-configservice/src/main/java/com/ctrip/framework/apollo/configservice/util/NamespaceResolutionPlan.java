@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+
+/**
+ * How a namespace requested by an app is resolved: whether it belongs to the app, which app owns it if it's a public
+ * one, the cluster fallback order and the keys to watch.
+ */
+public final class NamespaceResolutionPlan {
+  private final boolean belongsToAppId;
+  private final ClusterFallbackPlan appFallbackPlan;
+  private final ClusterFallbackPlan publicFallbackPlan;
+  private final Set<String> watchKeys;
+  private final long version;
+
+  NamespaceResolutionPlan(boolean belongsToAppId, ClusterFallbackPlan appFallbackPlan,
+      ClusterFallbackPlan publicFallbackPlan, long version) {
+    this.belongsToAppId = belongsToAppId;
+    this.appFallbackPlan = appFallbackPlan;
+    this.publicFallbackPlan = publicFallbackPlan;
+    this.version = version;
+
+    ImmutableSet.Builder<String> watchKeys = ImmutableSet.builder();
+    if (appFallbackPlan != null) {
+      watchKeys.addAll(appFallbackPlan.getReleaseMessageKeys());
+    }
+    if (publicFallbackPlan != null) {
+      watchKeys.addAll(publicFallbackPlan.getReleaseMessageKeys());
+    }
+    this.watchKeys = watchKeys.build();
+  }
+
+  public boolean isBelongsToAppId() {
+    return belongsToAppId;
+  }
+
+  /**
+   * @return the fallback plan of the app's own config, or null if no appId is present
+   */
+  public ClusterFallbackPlan getAppFallbackPlan() {
+    return appFallbackPlan;
+  }
+
+  /**
+   * @return the fallback plan of the public config owned by another app, or null if there is none
+   */
+  public ClusterFallbackPlan getPublicFallbackPlan() {
+    return publicFallbackPlan;
+  }
+
+  public Set<String> getWatchKeys() {
+    return watchKeys;
+  }
+
+  /**
+   * @return the version of the app namespaces this plan is computed with
+   */
+  long getVersion() {
+    return version;
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.configservice.wrapper.EncodedNotification;
+import com.ctrip.framework.apollo.configservice.wrapper.NotificationReceiver;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.ctrip.framework.apollo.tracer.spi.Transaction;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Delivers the notification of a released key to all the clients watching it, i.e. long polling requests and
+ * notification streams.
+ *
+ * <p>The notification is encoded only once and shared by all the clients. Small fan-outs are completed in the
+ * caller thread, large ones are split into batches of {@link BizConfig#releaseMessageNotificationBatch()} clients
+ * and completed by {@link BizConfig#releaseMessageNotificationThreads()} threads. Each thread notifies one batch per
+ * {@link BizConfig#releaseMessageNotificationBatchIntervalInMilli()}, i.e. the threads share a token bucket refilled
+ * with one batch per thread per interval, so adding threads raises the rate.</p>
+ *
+ * <p>The batches are only handed off to the pool, so the caller, i.e. the release message listener thread, never
+ * waits for the pacing. The pending batches are views of the clients already collected by the caller, so they are
+ * queued without a bound instead of being completed by the caller.</p>
+ */
+@Component
+public class NotificationFanOutUtil implements DisposableBean {
+  private static final Logger logger = LoggerFactory.getLogger(NotificationFanOutUtil.class);
+  private static final String FAN_OUT_TIMER = "apollo.notification.fan-out";
+  private static final String FAN_OUT_RECEIVERS = "apollo.notification.fan-out.receivers";
+  private static final String FAN_OUT_PENDING_BATCHES = "apollo.notification.fan-out.pending-batches";
+
+  private final ThreadPoolExecutor notificationExecutorService;
+  private final TokenBucket tokenBucket;
+  private final Timer fanOutTimer;
+  private final DistributionSummary fanOutReceivers;
+
+  private final BizConfig bizConfig;
+
+  public NotificationFanOutUtil(final BizConfig bizConfig, final MeterRegistry meterRegistry) {
+    this.bizConfig = bizConfig;
+    int threads = bizConfig.releaseMessageNotificationThreads();
+    notificationExecutorService = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(), ApolloThreadFactory.create("NotificationFanOutUtil", true));
+    tokenBucket = new TokenBucket((long) bizConfig.releaseMessageNotificationBatch() * threads,
+        bizConfig.releaseMessageNotificationBatchIntervalInMilli(), TimeUnit.MILLISECONDS);
+    fanOutTimer = Timer.builder(FAN_OUT_TIMER)
+        .description("Time taken to complete all the long polling requests watching a released key")
+        .register(meterRegistry);
+    fanOutReceivers = DistributionSummary.builder(FAN_OUT_RECEIVERS)
+        .description("Clients watching a released key, the max shows how hot the hottest key is")
+        .register(meterRegistry);
+    Gauge.builder(FAN_OUT_PENDING_BATCHES, notificationExecutorService, executor -> executor.getQueue().size())
+        .description("Batches of clients waiting to be notified")
+        .register(meterRegistry);
+  }
+
+  public void fanOut(String watchKey, ApolloConfigNotification notification,
+                     List<? extends NotificationReceiver> results) {
+    long start = System.nanoTime();
+    EncodedNotification encodedNotification = new EncodedNotification(notification);
+    int batch = bizConfig.releaseMessageNotificationBatch();
+    fanOutReceivers.record(results.size());
+
+    if (results.size() <= batch) {
+      logger.debug("Notify {} clients for key {}", results.size(), watchKey);
+      for (NotificationReceiver result : results) {
+        result.onNotification(encodedNotification);
+      }
+      fanOutCompleted(watchKey, results.size(), start);
+      return;
+    }
+
+    // the batch settings are refreshable
+    tokenBucket.update((long) batch * notificationExecutorService.getCorePoolSize(),
+        bizConfig.releaseMessageNotificationBatchIntervalInMilli(), TimeUnit.MILLISECONDS);
+
+    logger.debug("Async notify {} clients for key {} with batch {}", results.size(), watchKey, batch);
+    int batches = (results.size() + batch - 1) / batch;
+    AtomicInteger remainingBatches = new AtomicInteger(batches);
+    for (int i = 0; i < batches; i++) {
+      List<? extends NotificationReceiver> batchResults = results.subList(i * batch, Math.min(results.size(), (i + 1) * batch));
+      notificationExecutorService.submit(() -> {
+        try {
+          tokenBucket.acquire(batchResults.size());
+          for (NotificationReceiver result : batchResults) {
+            result.onNotification(encodedNotification);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (Throwable ex) {
+          logger.error("Notify clients for key {} failed", watchKey, ex);
+          Tracer.logError(ex);
+        } finally {
+          if (remainingBatches.decrementAndGet() == 0) {
+            fanOutCompleted(watchKey, results.size(), start);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Run the action for all the receivers by the fan-out threads in batches without pacing, e.g. the heartbeats of the
+   * notification streams, so that a receiver blocking the action only delays the receivers of the same batch and the
+   * caller never waits
+   */
+  public <T extends NotificationReceiver> void execute(List<T> receivers, Consumer<? super T> action) {
+    int batch = bizConfig.releaseMessageNotificationBatch();
+    for (int i = 0; i < receivers.size(); i += batch) {
+      List<T> batchReceivers = receivers.subList(i, Math.min(receivers.size(), i + batch));
+      notificationExecutorService.submit(() -> {
+        for (T receiver : batchReceivers) {
+          try {
+            action.accept(receiver);
+          } catch (Throwable ex) {
+            logger.error("Execute action for notification receiver failed", ex);
+            Tracer.logError(ex);
+          }
+        }
+      });
+    }
+  }
+
+  private void fanOutCompleted(String watchKey, int clients, long start) {
+    long duration = System.nanoTime() - start;
+    fanOutTimer.record(duration, TimeUnit.NANOSECONDS);
+    Tracer.logEvent("Apollo.LongPoll.FanOut", watchKey, Transaction.SUCCESS,
+        String.format("clients=%d&duration=%dms", clients, TimeUnit.NANOSECONDS.toMillis(duration)));
+    logger.debug("Notification completed for key {}", watchKey);
+  }
+
+  @Override
+  public void destroy() {
+    notificationExecutorService.shutdownNow();
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.util;
+
+import java.util.Objects;
+
+/**
+ * The appId, cluster, namespace and data center combination a resolution plan is computed for
+ */
+final class ResolutionKey {
+  private final String appId;
+  private final String clusterName;
+  private final String namespace;
+  private final String dataCenter;
+  private final int hashCode;
+
+  ResolutionKey(String appId, String clusterName, String namespace, String dataCenter) {
+    this.appId = appId;
+    this.clusterName = clusterName;
+    this.namespace = namespace;
+    this.dataCenter = dataCenter;
+    this.hashCode = Objects.hash(appId, clusterName, namespace, dataCenter);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    ResolutionKey that = (ResolutionKey) o;
+    return hashCode == that.hashCode
+        && Objects.equals(appId, that.appId)
+        && Objects.equals(clusterName, that.clusterName)
+        && Objects.equals(namespace, that.namespace)
+        && Objects.equals(dataCenter, that.dataCenter);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+}
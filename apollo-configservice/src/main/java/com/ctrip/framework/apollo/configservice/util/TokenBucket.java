@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket holding at most {@code capacity} permits and refilled with {@code capacity} permits per
+ * {@code interval}, i.e. at most {@code capacity} permits could be acquired at once after being idle.
+ *
+ * <p>Acquiring more permits than available puts the bucket into debt, so that concurrent acquirers are queued
+ * one after another instead of all waking up at the same time.</p>
+ */
+class TokenBucket {
+  private long capacity;
+  private double permitsPerNano;
+  private double permits;
+  private long lastRefillNanos;
+
+  TokenBucket(long capacity, long interval, TimeUnit timeUnit) {
+    update(capacity, interval, timeUnit);
+    this.permits = capacity;
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  synchronized void update(long capacity, long interval, TimeUnit timeUnit) {
+    this.capacity = capacity;
+    this.permitsPerNano = (double) capacity / timeUnit.toNanos(interval);
+  }
+
+  /**
+   * Acquire the permits, blocking until they are available
+   */
+  void acquire(int permits) throws InterruptedException {
+    long waitNanos = reserve(permits);
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  synchronized long reserve(int requiredPermits) {
+    long now = System.nanoTime();
+    permits = Math.min(capacity, permits + (now - lastRefillNanos) * permitsPerNano);
+    lastRefillNanos = now;
+    permits -= requiredPermits;
+
+    if (permits >= 0) {
+      return 0;
+    }
+    return (long) (-permits / permitsPerNano);
+  }
+}
@@ -19,29 +19,38 @@ package com.ctrip.framework.apollo.configservice.util;
 import com.ctrip.framework.apollo.common.entity.AppNamespace;
 import com.ctrip.framework.apollo.configservice.service.AppNamespaceServiceWithCache;
 import com.ctrip.framework.apollo.core.ConfigConsts;
-import com.google.common.base.Joiner;
-import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import org.springframework.stereotype.Component;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
  */
 @Component
 public class WatchKeysUtil {
-  private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
+  private static final long MAX_PLAN_CACHE_SIZE = 100000;
+  private static final long PLAN_EXPIRE_AFTER_ACCESS = 1;
   private final AppNamespaceServiceWithCache appNamespaceService;
+  private final Cache<ResolutionKey, NamespaceResolutionPlan> resolutionPlans;
 
   public WatchKeysUtil(final AppNamespaceServiceWithCache appNamespaceService) {
     this.appNamespaceService = appNamespaceService;
+    this.resolutionPlans = CacheBuilder.newBuilder()
+        .maximumSize(MAX_PLAN_CACHE_SIZE)
+        .expireAfterAccess(PLAN_EXPIRE_AFTER_ACCESS, TimeUnit.HOURS)
+        .build();
   }
 
   /**
@@ -49,9 +58,7 @@ public class WatchKeysUtil {
    */
   public Set<String> assembleAllWatchKeys(String appId, String clusterName, String namespace,
                                           String dataCenter) {
-    Multimap<String, String> watchedKeysMap =
-        assembleAllWatchKeys(appId, clusterName, Sets.newHashSet(namespace), dataCenter);
-    return Sets.newHashSet(watchedKeysMap.get(namespace));
+    return getResolutionPlan(appId, clusterName, namespace, dataCenter).getWatchKeys();
   }
 
   /**
@@ -62,97 +69,128 @@ public class WatchKeysUtil {
   public Multimap<String, String> assembleAllWatchKeys(String appId, String clusterName,
                                                        Set<String> namespaces,
                                                        String dataCenter) {
-    Multimap<String, String> watchedKeysMap =
-        assembleWatchKeys(appId, clusterName, namespaces, dataCenter);
-
-    //Every app has an 'application' namespace
-    if (!(namespaces.size() == 1 && namespaces.contains(ConfigConsts.NAMESPACE_APPLICATION))) {
-      Set<String> namespacesBelongToAppId = namespacesBelongToAppId(appId, namespaces);
-      Set<String> publicNamespaces = Sets.difference(namespaces, namespacesBelongToAppId);
+    Map<String, NamespaceResolutionPlan> plans = getResolutionPlans(appId, clusterName, namespaces, dataCenter);
+    Multimap<String, String> watchedKeysMap = HashMultimap.create();
 
-      //Listen on more namespaces if it's a public namespace
-      if (!publicNamespaces.isEmpty()) {
-        watchedKeysMap
-            .putAll(findPublicConfigWatchKeys(appId, clusterName, publicNamespaces, dataCenter));
-      }
+    for (Map.Entry<String, NamespaceResolutionPlan> entry : plans.entrySet()) {
+      watchedKeysMap.putAll(entry.getKey(), entry.getValue().getWatchKeys());
     }
 
     return watchedKeysMap;
   }
 
-  private Multimap<String, String> findPublicConfigWatchKeys(String applicationId,
-                                                             String clusterName,
-                                                             Set<String> namespaces,
-                                                             String dataCenter) {
-    Multimap<String, String> watchedKeysMap = HashMultimap.create();
-    List<AppNamespace> appNamespaces = appNamespaceService.findPublicNamespacesByNames(namespaces);
+  /**
+   * Get the resolution plan for the given appId, cluster, namespace, dataCenter combination, the plans are memoized
+   * until the app namespaces change
+   */
+  public NamespaceResolutionPlan getResolutionPlan(String appId, String clusterName, String namespace,
+                                                   String dataCenter) {
+    return getResolutionPlans(appId, clusterName, Collections.singleton(namespace), dataCenter).get(namespace);
+  }
 
-    for (AppNamespace appNamespace : appNamespaces) {
-      //check whether the namespace's appId equals to current one
-      if (Objects.equals(applicationId, appNamespace.getAppId())) {
-        continue;
-      }
+  private Map<String, NamespaceResolutionPlan> getResolutionPlans(String appId, String clusterName,
+                                                                 Set<String> namespaces, String dataCenter) {
+    long version = appNamespaceService.getVersion();
+    Map<String, NamespaceResolutionPlan> plans = Maps.newHashMapWithExpectedSize(namespaces.size());
+    Set<String> namespacesToResolve = Sets.newHashSet();
 
-      String publicConfigAppId = appNamespace.getAppId();
+    for (String namespace : namespaces) {
+      NamespaceResolutionPlan plan = resolutionPlans
+          .getIfPresent(new ResolutionKey(appId, clusterName, namespace, dataCenter));
+      if (plan != null && plan.getVersion() == version) {
+        plans.put(namespace, plan);
+      } else {
+        namespacesToResolve.add(namespace);
+      }
+    }
 
-      watchedKeysMap.putAll(appNamespace.getName(),
-          assembleWatchKeys(publicConfigAppId, clusterName, appNamespace.getName(), dataCenter));
+    if (!namespacesToResolve.isEmpty()) {
+      Map<String, NamespaceResolutionPlan> resolved =
+          resolvePlans(appId, clusterName, namespacesToResolve, dataCenter, version);
+      for (Map.Entry<String, NamespaceResolutionPlan> entry : resolved.entrySet()) {
+        resolutionPlans.put(new ResolutionKey(appId, clusterName, entry.getKey(), dataCenter), entry.getValue());
+      }
+      plans.putAll(resolved);
     }
 
-    return watchedKeysMap;
+    return plans;
   }
 
-  private String assembleKey(String appId, String cluster, String namespace) {
-    return STRING_JOINER.join(appId, cluster, namespace);
-  }
+  private Map<String, NamespaceResolutionPlan> resolvePlans(String appId, String clusterName,
+                                                           Set<String> namespaces, String dataCenter,
+                                                           long version) {
+    boolean noAppId = ConfigConsts.NO_APPID_PLACEHOLDER.equalsIgnoreCase(appId);
+    Set<String> namespacesBelongToAppId = namespacesBelongToAppId(appId, namespaces);
+    Map<String, AppNamespace> publicNamespaces =
+        findPublicNamespaces(Sets.newHashSet(Sets.difference(namespaces, namespacesBelongToAppId)));
 
-  private Set<String> assembleWatchKeys(String appId, String clusterName, String namespace,
-                                        String dataCenter) {
-    if (ConfigConsts.NO_APPID_PLACEHOLDER.equalsIgnoreCase(appId)) {
-      return Collections.emptySet();
-    }
-    Set<String> watchedKeys = Sets.newHashSet();
+    Map<String, NamespaceResolutionPlan> plans = Maps.newHashMapWithExpectedSize(namespaces.size());
+    for (String namespace : namespaces) {
+      ClusterFallbackPlan appFallbackPlan =
+          noAppId ? null : ClusterFallbackPlan.of(appId, clusterName, namespace, dataCenter);
 
-    //watch specified cluster config change
-    if (!Objects.equals(ConfigConsts.CLUSTER_NAME_DEFAULT, clusterName)) {
-      watchedKeys.add(assembleKey(appId, clusterName, namespace));
-    }
+      //Listen on more namespaces if it's a public namespace
+      ClusterFallbackPlan publicFallbackPlan = null;
+      AppNamespace publicNamespace = publicNamespaces.get(namespace);
+      //check whether the namespace's appId equals to current one
+      if (publicNamespace != null && !Objects.equals(appId, publicNamespace.getAppId())) {
+        publicFallbackPlan = ClusterFallbackPlan
+            .of(publicNamespace.getAppId(), clusterName, publicNamespace.getName(), dataCenter);
+      }
 
-    //watch data center config change
-    if (!Strings.isNullOrEmpty(dataCenter) && !Objects.equals(dataCenter, clusterName)) {
-      watchedKeys.add(assembleKey(appId, dataCenter, namespace));
+      plans.put(namespace, new NamespaceResolutionPlan(namespacesBelongToAppId.contains(namespace), appFallbackPlan,
+          publicFallbackPlan, version));
     }
 
-    //watch default cluster config change
-    watchedKeys.add(assembleKey(appId, ConfigConsts.CLUSTER_NAME_DEFAULT, namespace));
-
-    return watchedKeys;
+    return plans;
   }
 
-  private Multimap<String, String> assembleWatchKeys(String appId, String clusterName,
-                                                     Set<String> namespaces,
-                                                     String dataCenter) {
-    Multimap<String, String> watchedKeysMap = HashMultimap.create();
-
-    for (String namespace : namespaces) {
-      watchedKeysMap
-          .putAll(namespace, assembleWatchKeys(appId, clusterName, namespace, dataCenter));
+  private Map<String, AppNamespace> findPublicNamespaces(Set<String> namespaces) {
+    if (namespaces.isEmpty()) {
+      return Collections.emptyMap();
     }
+    List<AppNamespace> appNamespaces = appNamespaceService.findPublicNamespacesByNames(namespaces);
 
-    return watchedKeysMap;
+    //the public namespaces are matched case insensitively
+    Map<String, AppNamespace> publicNamespaces = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    for (AppNamespace appNamespace : appNamespaces) {
+      publicNamespaces.put(appNamespace.getName(), appNamespace);
+    }
+    return publicNamespaces;
   }
 
   private Set<String> namespacesBelongToAppId(String appId, Set<String> namespaces) {
+    //Every app has an 'application' namespace
+    Set<String> namespacesBelongToAppId = Sets.newHashSet();
+    if (namespaces.contains(ConfigConsts.NAMESPACE_APPLICATION)) {
+      namespacesBelongToAppId.add(ConfigConsts.NAMESPACE_APPLICATION);
+    }
+
+    //if no appId is present, then no other namespace belongs to it
     if (ConfigConsts.NO_APPID_PLACEHOLDER.equalsIgnoreCase(appId)) {
-      return Collections.emptySet();
+      return namespacesBelongToAppId;
+    }
+
+    Set<String> namespacesToCheck = Sets.newHashSet(Sets.difference(namespaces, namespacesBelongToAppId));
+    if (namespacesToCheck.isEmpty()) {
+      return namespacesBelongToAppId;
     }
-    List<AppNamespace> appNamespaces =
-        appNamespaceService.findByAppIdAndNamespaces(appId, namespaces);
 
-    if (appNamespaces == null || appNamespaces.isEmpty()) {
-      return Collections.emptySet();
+    List<AppNamespace> appNamespaces = appNamespaceService.findByAppIdAndNamespaces(appId, namespacesToCheck);
+    if (appNamespaces == null) {
+      return namespacesBelongToAppId;
     }
 
-    return appNamespaces.stream().map(AppNamespace::getName).collect(Collectors.toSet());
+    //the app namespaces are matched case insensitively, while the requested names are kept
+    Set<String> ownNamespaceNames = Sets.newTreeSet(String.CASE_INSENSITIVE_ORDER);
+    for (AppNamespace appNamespace : appNamespaces) {
+      ownNamespaceNames.add(appNamespace.getName());
+    }
+    for (String namespace : namespacesToCheck) {
+      if (ownNamespaceNames.contains(namespace)) {
+        namespacesBelongToAppId.add(namespace);
+      }
+    }
+    return namespacesBelongToAppId;
   }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends the notifications as the same json array returned by the long polling endpoint, with the namespace names
+ * the client used.
+ */
+public abstract class AbstractNotificationStream implements NotificationStream {
+  private static final Gson GSON = new Gson();
+
+  private Map<String, String> normalizedNamespaceNameToOriginalNamespaceName;
+
+  @Override
+  public void recordNamespaceNameNormalizedResult(String originalNamespaceName, String normalizedNamespaceName) {
+    if (normalizedNamespaceNameToOriginalNamespaceName == null) {
+      normalizedNamespaceNameToOriginalNamespaceName = Maps.newHashMap();
+    }
+    normalizedNamespaceNameToOriginalNamespaceName.put(normalizedNamespaceName, originalNamespaceName);
+  }
+
+  /**
+   * Send the shared pre-encoded notification, only the namespace name is rewritten if necessary
+   */
+  @Override
+  public void onNotification(EncodedNotification notification) {
+    String namespaceName = notification.getNamespaceName();
+    if (normalizedNamespaceNameToOriginalNamespaceName != null
+        && normalizedNamespaceNameToOriginalNamespaceName.containsKey(namespaceName)) {
+      namespaceName = normalizedNamespaceNameToOriginalNamespaceName.get(namespaceName);
+    }
+
+    sendNotifications(notification.getResponse(namespaceName).getBody());
+  }
+
+  /**
+   * The namespace name is used as a key in client side, so we have to send the original one instead of the correct one
+   */
+  @Override
+  public void send(List<ApolloConfigNotification> notifications) {
+    if (normalizedNamespaceNameToOriginalNamespaceName != null) {
+      notifications.stream().filter(notification -> normalizedNamespaceNameToOriginalNamespaceName.containsKey
+          (notification.getNamespaceName())).forEach(notification -> notification.setNamespaceName(
+              normalizedNamespaceNameToOriginalNamespaceName.get(notification.getNamespaceName())));
+    }
+
+    sendNotifications(GSON.toJson(notifications).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @param notifications the utf-8 encoded json array of the notifications
+   */
+  protected abstract void sendNotifications(byte[] notifications);
+
+  /**
+   * @return the json object of the retry hint, e.g. {@code {"retryAfterInMilli":1000,"jitterInMilli":30000}}
+   */
+  protected static String encodeRetryHint(RetryHint retryHint) {
+    return GSON.toJson(retryHint);
+  }
+}
@@ -16,14 +16,15 @@
  */
 package com.ctrip.framework.apollo.configservice.wrapper;
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
+import com.ctrip.framework.apollo.core.utils.NotificationsCodec;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.lang.NonNull;
 import org.springframework.web.context.request.async.DeferredResult;
 
 import java.util.List;
@@ -32,12 +33,22 @@ import java.util.Map;
 /**
  * @author Jason Song(song_s@ctrip.com)
  */
-public class DeferredResultWrapper implements Comparable<DeferredResultWrapper> {
+public class DeferredResultWrapper implements NotificationReceiver {
+  /**
+   * Sent with all the long polling responses, to advertise that the notifications could be posted in the compact
+   * encoding
+   */
+  static final HttpHeaders LONG_POLLING_HEADERS = new HttpHeaders();
+
+  static {
+    LONG_POLLING_HEADERS.add(NotificationsCodec.ACCEPT_NOTIFICATIONS_HEADER, NotificationsCodec.CONTENT_TYPE);
+  }
+
   private static final ResponseEntity<List<ApolloConfigNotification>>
-      NOT_MODIFIED_RESPONSE_LIST = new ResponseEntity<>(HttpStatus.NOT_MODIFIED);
+      NOT_MODIFIED_RESPONSE_LIST = new ResponseEntity<>(LONG_POLLING_HEADERS, HttpStatus.NOT_MODIFIED);
 
   private Map<String, String> normalizedNamespaceNameToOriginalNamespaceName;
-  private DeferredResult<ResponseEntity<List<ApolloConfigNotification>>> result;
+  private DeferredResult<ResponseEntity<?>> result;
 
 
   public DeferredResultWrapper(long timeoutInMilli) {
@@ -61,8 +72,18 @@ public class DeferredResultWrapper implements Comparable<DeferredResultWrapper>
   }
 
 
-  public void setResult(ApolloConfigNotification notification) {
-    setResult(Lists.newArrayList(notification));
+  /**
+   * Complete with the shared pre-encoded notification, only the namespace name is rewritten if necessary
+   */
+  @Override
+  public void onNotification(EncodedNotification notification) {
+    String namespaceName = notification.getNamespaceName();
+    if (normalizedNamespaceNameToOriginalNamespaceName != null
+        && normalizedNamespaceNameToOriginalNamespaceName.containsKey(namespaceName)) {
+      namespaceName = normalizedNamespaceNameToOriginalNamespaceName.get(namespaceName);
+    }
+
+    result.setResult(notification.getResponse(namespaceName));
   }
 
   /**
@@ -75,15 +96,30 @@ public class DeferredResultWrapper implements Comparable<DeferredResultWrapper>
               normalizedNamespaceNameToOriginalNamespaceName.get(notification.getNamespaceName())));
     }
 
-    result.setResult(new ResponseEntity<>(notifications, HttpStatus.OK));
+    result.setResult(new ResponseEntity<>(notifications, LONG_POLLING_HEADERS, HttpStatus.OK));
   }
 
-  public DeferredResult<ResponseEntity<List<ApolloConfigNotification>>> getResult() {
-    return result;
+  /**
+   * Complete without notifications, the response is shared by all the drained requests
+   *
+   * @see #retryResponse(RetryHint)
+   */
+  public void drain(ResponseEntity<?> retryResponse) {
+    result.setResult(retryResponse);
   }
 
-  @Override
-  public int compareTo(@NonNull DeferredResultWrapper deferredResultWrapper) {
-    return Integer.compare(this.hashCode(), deferredResultWrapper.hashCode());
+  /**
+   * @return the not modified response which directs the client to poll again after the hinted delay
+   */
+  public static ResponseEntity<?> retryResponse(RetryHint retryHint) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.addAll(LONG_POLLING_HEADERS);
+    headers.add(RetryHint.RETRY_AFTER_HEADER, String.valueOf(retryHint.getRetryAfterInMilli()));
+    headers.add(RetryHint.RETRY_JITTER_HEADER, String.valueOf(retryHint.getJitterInMilli()));
+    return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+  }
+
+  public DeferredResult<ResponseEntity<?>> getResult() {
+    return result;
   }
 }
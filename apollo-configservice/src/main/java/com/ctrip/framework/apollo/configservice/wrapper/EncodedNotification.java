@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A release notification encoded once and shared by all the long polling clients watching the same key.
+ *
+ * <p>Clients which used a different character case for the namespace name get a variant with their own namespace
+ * name, which is also encoded only once per distinct name.</p>
+ */
+public class EncodedNotification {
+  private static final Gson GSON = new Gson();
+  private static final HttpHeaders JSON_HEADERS = new HttpHeaders();
+
+  static {
+    JSON_HEADERS.setContentType(MediaType.APPLICATION_JSON);
+    JSON_HEADERS.putAll(DeferredResultWrapper.LONG_POLLING_HEADERS);
+  }
+
+  private final ApolloConfigNotification notification;
+  private final ResponseEntity<byte[]> response;
+  private final ConcurrentMap<String, ResponseEntity<byte[]>> responsesWithOriginalNamespaceName =
+      new ConcurrentHashMap<>();
+
+  public EncodedNotification(ApolloConfigNotification notification) {
+    this.notification = notification;
+    this.response = encode(notification);
+  }
+
+  public ApolloConfigNotification getNotification() {
+    return notification;
+  }
+
+  public String getNamespaceName() {
+    return notification.getNamespaceName();
+  }
+
+  public ResponseEntity<byte[]> getResponse() {
+    return response;
+  }
+
+  /**
+   * @param namespaceName the namespace name the client used, which might differ from the normalized one in case
+   */
+  public ResponseEntity<byte[]> getResponse(String namespaceName) {
+    if (namespaceName == null || namespaceName.equals(notification.getNamespaceName())) {
+      return response;
+    }
+    return responsesWithOriginalNamespaceName.computeIfAbsent(namespaceName, name -> {
+      ApolloConfigNotification rewritten = new ApolloConfigNotification(name, notification.getNotificationId());
+      rewritten.setMessages(notification.getMessages());
+      return encode(rewritten);
+    });
+  }
+
+  private static ResponseEntity<byte[]> encode(ApolloConfigNotification notification) {
+    byte[] body = GSON.toJson(Lists.newArrayList(notification)).getBytes(StandardCharsets.UTF_8);
+    return new ResponseEntity<>(body, JSON_HEADERS, HttpStatus.OK);
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
+
+import java.util.List;
+
+/**
+ * A persistent connection of a client which receives all the notifications of the keys it watches, e.g. a
+ * server-sent events stream or a websocket session.
+ */
+public interface NotificationStream extends NotificationReceiver {
+
+  /**
+   * Record the namespace name the client used, which is sent back instead of the normalized one
+   */
+  void recordNamespaceNameNormalizedResult(String originalNamespaceName, String normalizedNamespaceName);
+
+  /**
+   * Send the notifications found when the client subscribed
+   */
+  void send(List<ApolloConfigNotification> notifications);
+
+  /**
+   * Keep the idle connection from being closed by proxies
+   */
+  void sendHeartbeat();
+
+  /**
+   * Close the connection, the client is expected to subscribe again with its latest notification ids
+   */
+  void close();
+
+  /**
+   * Close the connection as the config service is shutting down, the client is directed to subscribe again after the
+   * hinted delay
+   */
+  void drain(RetryHint retryHint);
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The release messages scanned by the config service instance holding the scan lease, pushed to the other instances.
+ * An empty batch is pushed as the heartbeat of the lease holder.
+ */
+public class ReleaseMessageBatch {
+  private String owner;
+  private String token;
+  private long previousMaxIdScanned;
+  private List<ReleaseMessage> messages = Collections.emptyList();
+
+  public ReleaseMessageBatch() {
+  }
+
+  public ReleaseMessageBatch(String owner, String token, long previousMaxIdScanned, List<ReleaseMessage> messages) {
+    this.owner = owner;
+    this.token = token;
+    this.previousMaxIdScanned = previousMaxIdScanned;
+    this.messages = messages;
+  }
+
+  public String getOwner() {
+    return owner;
+  }
+
+  public void setOwner(String owner) {
+    this.owner = owner;
+  }
+
+  public String getToken() {
+    return token;
+  }
+
+  public void setToken(String token) {
+    this.token = token;
+  }
+
+  /**
+   * @return the max id scanned by the lease holder before these messages, or -1 if the messages are the missing ones
+   * found later
+   */
+  public long getPreviousMaxIdScanned() {
+    return previousMaxIdScanned;
+  }
+
+  public void setPreviousMaxIdScanned(long previousMaxIdScanned) {
+    this.previousMaxIdScanned = previousMaxIdScanned;
+  }
+
+  public List<ReleaseMessage> getMessages() {
+    return messages;
+  }
+
+  public void setMessages(List<ReleaseMessage> messages) {
+    this.messages = messages == null ? Collections.emptyList() : messages;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.ctrip.framework.apollo.biz.entity.Release;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The releases resolved for a client, with the cluster fallback, the public namespace and the gray release rules
+ * applied. Releases in lower index override those in higher index.
+ */
+public class ResolvedReleases {
+  private final String originalNamespace;
+  private final String namespace;
+  private final String clientIp;
+  private final String appClusterNameLoaded;
+  private final List<Release> releases;
+  private final String mergedReleaseKey;
+
+  /**
+   * @param originalNamespace the namespace name the client requested
+   * @param namespace         the normalized namespace name
+   */
+  public ResolvedReleases(String originalNamespace, String namespace, String clientIp, String appClusterNameLoaded,
+                          List<Release> releases) {
+    this.originalNamespace = originalNamespace;
+    this.namespace = namespace;
+    this.clientIp = clientIp;
+    this.appClusterNameLoaded = appClusterNameLoaded;
+    this.releases = releases;
+    this.mergedReleaseKey = releases.stream().map(Release::getReleaseKey)
+        .collect(Collectors.joining(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR));
+  }
+
+  public String getOriginalNamespace() {
+    return originalNamespace;
+  }
+
+  public String getNamespace() {
+    return namespace;
+  }
+
+  public String getClientIp() {
+    return clientIp;
+  }
+
+  public String getAppClusterNameLoaded() {
+    return appClusterNameLoaded;
+  }
+
+  public List<Release> getReleases() {
+    return releases;
+  }
+
+  public String getMergedReleaseKey() {
+    return mergedReleaseKey;
+  }
+}
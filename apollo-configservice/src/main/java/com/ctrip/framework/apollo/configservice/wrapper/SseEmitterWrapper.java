@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A notification stream of a client, each notification is sent as a {@value #NOTIFICATIONS_EVENT} event whose data
+ * is the same json array returned by the long polling endpoint.
+ *
+ * <p>When the config service is shutting down, a {@value #RETRY_EVENT} event carrying the retry hint is sent before
+ * the stream is completed. Its reconnection time is the delay picked in the jitter window, so that the standard event
+ * source clients spread their reconnections as well.</p>
+ */
+public class SseEmitterWrapper extends AbstractNotificationStream {
+  private static final Logger logger = LoggerFactory.getLogger(SseEmitterWrapper.class);
+  public static final String NOTIFICATIONS_EVENT = "notifications";
+  public static final String RETRY_EVENT = "retry";
+  private static final String HEARTBEAT_COMMENT = "heartbeat";
+
+  private final SseEmitter emitter;
+  // sends are serialized by the emitter, a blocked send of a slow client makes the others wait for it
+  private final AtomicInteger pendingSends = new AtomicInteger();
+
+  public SseEmitterWrapper(long timeoutInMilli) {
+    this(new SseEmitter(timeoutInMilli));
+  }
+
+  SseEmitterWrapper(SseEmitter emitter) {
+    this.emitter = emitter;
+  }
+
+  public void onTimeout(Runnable timeoutCallback) {
+    emitter.onTimeout(timeoutCallback);
+  }
+
+  public void onError(Consumer<Throwable> errorCallback) {
+    emitter.onError(errorCallback);
+  }
+
+  public void onCompletion(Runnable completionCallback) {
+    emitter.onCompletion(completionCallback);
+  }
+
+  /**
+   * Send a comment line to keep the idle connection from being closed by proxies, skipped if another event is being
+   * sent, so that the heartbeat never waits for a slow client
+   */
+  @Override
+  public void sendHeartbeat() {
+    if (pendingSends.get() > 0) {
+      return;
+    }
+    send(SseEmitter.event().comment(HEARTBEAT_COMMENT));
+  }
+
+  @Override
+  public void close() {
+    emitter.complete();
+  }
+
+  @Override
+  public void drain(RetryHint retryHint) {
+    send(SseEmitter.event().name(RETRY_EVENT).reconnectTime(retryHint.nextDelayInMilli())
+        .data(encodeRetryHint(retryHint), MediaType.APPLICATION_JSON));
+    close();
+  }
+
+  @Override
+  protected void sendNotifications(byte[] notifications) {
+    send(SseEmitter.event().name(NOTIFICATIONS_EVENT).data(notifications, MediaType.APPLICATION_JSON));
+  }
+
+  private void send(SseEmitter.SseEventBuilder event) {
+    pendingSends.incrementAndGet();
+    try {
+      emitter.send(event);
+    } catch (IOException | IllegalStateException ex) {
+      // the client is gone or the stream is completed, the completion callback will clean it up
+      logger.debug("Send to notification stream failed", ex);
+    } finally {
+      pendingSends.decrementAndGet();
+    }
+  }
+
+  public SseEmitter getEmitter() {
+    return emitter;
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.google.common.collect.Lists;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent watch key -> watchers registry used by long polling.
+ *
+ * <p>Keys are matched case insensitively. Register, unregister and lookup only lock the hash bin of the
+ * watch key involved, so there is no global monitor shared by all the long polling requests.</p>
+ *
+ * <p>Watchers are compared with equals/hashCode like the elements of a set, so registering an equal watcher twice
+ * under the same key is a no-op. They do not need to implement Comparable.</p>
+ */
+public class WatchKeyRegistry<T> {
+  private final ConcurrentMap<String, Set<T>> watchers = new ConcurrentHashMap<>();
+  private final LongAdder size = new LongAdder();
+
+  /**
+   * @return true if the watcher was not registered under the key before
+   */
+  public boolean register(String key, T watcher) {
+    boolean[] added = new boolean[1];
+    // add inside compute so that a concurrent unregister could not drop the set we are adding to
+    watchers.compute(normalize(key), (k, existing) -> {
+      Set<T> keyWatchers = existing == null ? ConcurrentHashMap.newKeySet() : existing;
+      added[0] = keyWatchers.add(watcher);
+      return keyWatchers;
+    });
+    if (added[0]) {
+      size.increment();
+    }
+    return added[0];
+  }
+
+  /**
+   * @return true if the watcher was registered under the key
+   */
+  public boolean unregister(String key, T watcher) {
+    boolean[] removed = new boolean[1];
+    watchers.computeIfPresent(normalize(key), (k, existing) -> {
+      removed[0] = existing.remove(watcher);
+      return existing.isEmpty() ? null : existing;
+    });
+    if (removed[0]) {
+      size.decrement();
+    }
+    return removed[0];
+  }
+
+  public boolean containsKey(String key) {
+    return watchers.containsKey(normalize(key));
+  }
+
+  /**
+   * @return a snapshot of the watchers registered under the key, never null
+   */
+  public List<T> get(String key) {
+    Set<T> keyWatchers = watchers.get(normalize(key));
+    if (keyWatchers == null) {
+      return Collections.emptyList();
+    }
+    return Lists.newArrayList(keyWatchers);
+  }
+
+  /**
+   * @return the total number of (key, watcher) registrations
+   */
+  public int size() {
+    return size.intValue();
+  }
+
+  /**
+   * @return the number of distinct watch keys
+   */
+  public int keyCount() {
+    return watchers.size();
+  }
+
+  /**
+   * @return the number of watchers of the most watched key, all the keys are iterated
+   */
+  public int maxWatchersPerKey() {
+    int max = 0;
+    for (Set<T> keyWatchers : watchers.values()) {
+      max = Math.max(max, keyWatchers.size());
+    }
+    return max;
+  }
+
+  /**
+   * Register the gauges of the registry, they are computed only when the metrics are collected
+   *
+   * @param channel how the watchers receive the notifications, e.g. long-polling
+   */
+  public void registerMetrics(MeterRegistry meterRegistry, String channel) {
+    Gauge.builder("apollo.notification.watchers", size, LongAdder::intValue)
+        .description("Registrations of the watch keys by the clients")
+        .tag("channel", channel)
+        .register(meterRegistry);
+    Gauge.builder("apollo.notification.watch-keys", watchers, ConcurrentMap::size)
+        .description("Distinct watch keys watched by the clients")
+        .tag("channel", channel)
+        .register(meterRegistry);
+    Gauge.builder("apollo.notification.watchers.max-per-key", this, WatchKeyRegistry::maxWatchersPerKey)
+        .description("Watchers of the most watched key")
+        .tag("channel", channel)
+        .register(meterRegistry);
+  }
+
+  private String normalize(String key) {
+    return key.toLowerCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.io.IOException;
+
+/**
+ * A notification stream over websocket, each notification is sent as a text message holding the same json array
+ * returned by the long polling endpoint, and the heartbeat is an empty text message.
+ *
+ * <p>When the config service is shutting down, the session is closed with {@link CloseStatus#SERVICE_RESTARTED} whose
+ * reason is the json object of the retry hint.</p>
+ */
+public class WebSocketSessionWrapper extends AbstractNotificationStream {
+  private static final Logger logger = LoggerFactory.getLogger(WebSocketSessionWrapper.class);
+  private static final TextMessage HEARTBEAT_MESSAGE = new TextMessage("");
+  //10 seconds
+  private static final int SEND_TIME_LIMIT = 10 * 1000;
+  //512KB
+  private static final int BUFFER_SIZE_LIMIT = 512 * 1024;
+
+  private final WebSocketSession session;
+
+  /**
+   * The notifications and the heartbeats are sent by the fan-out threads concurrently, so the session is
+   * decorated to serialize the sends, and a client which can't keep up is disconnected instead of blocking them.
+   */
+  public WebSocketSessionWrapper(WebSocketSession session) {
+    this.session = new ConcurrentWebSocketSessionDecorator(session, SEND_TIME_LIMIT, BUFFER_SIZE_LIMIT);
+  }
+
+  @Override
+  public void sendHeartbeat() {
+    send(HEARTBEAT_MESSAGE);
+  }
+
+  @Override
+  public void close() {
+    close(CloseStatus.NORMAL);
+  }
+
+  @Override
+  public void drain(RetryHint retryHint) {
+    close(CloseStatus.SERVICE_RESTARTED.withReason(encodeRetryHint(retryHint)));
+  }
+
+  private void close(CloseStatus status) {
+    try {
+      session.close(status);
+    } catch (IOException ex) {
+      logger.debug("Close notification websocket failed", ex);
+    }
+  }
+
+  @Override
+  protected void sendNotifications(byte[] notifications) {
+    send(new TextMessage(notifications));
+  }
+
+  private void send(TextMessage message) {
+    try {
+      session.sendMessage(message);
+    } catch (IOException | RuntimeException ex) {
+      // the client is gone or too slow, the session is closed and the close callback will clean it up
+      logger.debug("Send to notification websocket failed", ex);
+    }
+  }
+
+  public WebSocketSession getSession() {
+    return session;
+  }
+}
@@ -16,11 +16,16 @@
  */
 package com.ctrip.framework.apollo.metaservice.controller;
 
+import com.ctrip.framework.apollo.common.http.CompressedContent;
+import com.ctrip.framework.apollo.common.http.ETagUtil;
 import com.ctrip.framework.apollo.core.ServiceNameConsts;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
-import com.ctrip.framework.apollo.metaservice.service.DiscoveryService;
+import com.ctrip.framework.apollo.metaservice.service.ServiceListCache;
 import java.util.Collections;
 import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -29,10 +34,13 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/services")
 public class ServiceController {
 
-  private final DiscoveryService discoveryService;
+  private final ServiceListCache serviceListCache;
+  private final HttpHeaders jsonResponseHeaders;
 
-  public ServiceController(final DiscoveryService discoveryService) {
-    this.discoveryService = discoveryService;
+  public ServiceController(final ServiceListCache serviceListCache) {
+    this.serviceListCache = serviceListCache;
+    jsonResponseHeaders = new HttpHeaders();
+    jsonResponseHeaders.add("Content-Type", "application/json;charset=UTF-8");
   }
 
   /**
@@ -45,14 +53,25 @@ public class ServiceController {
   }
 
   @RequestMapping("/config")
-  public List<ServiceDTO> getConfigService(
+  public ResponseEntity<byte[]> getConfigService(
       @RequestParam(value = "appId", defaultValue = "") String appId,
-      @RequestParam(value = "ip", required = false) String clientIp) {
-    return discoveryService.getServiceInstances(ServiceNameConsts.APOLLO_CONFIGSERVICE);
+      @RequestParam(value = "ip", required = false) String clientIp,
+      HttpServletRequest request) {
+    return toResponse(serviceListCache.getServiceList(ServiceNameConsts.APOLLO_CONFIGSERVICE), request);
   }
 
   @RequestMapping("/admin")
-  public List<ServiceDTO> getAdminService() {
-    return discoveryService.getServiceInstances(ServiceNameConsts.APOLLO_ADMINSERVICE);
+  public ResponseEntity<byte[]> getAdminService(HttpServletRequest request) {
+    return toResponse(serviceListCache.getServiceList(ServiceNameConsts.APOLLO_ADMINSERVICE), request);
+  }
+
+  /**
+   * The service list is tagged with the hash of its content, so an unchanged list is answered with 304
+   */
+  private ResponseEntity<byte[]> toResponse(CompressedContent serviceList, HttpServletRequest request) {
+    if (ETagUtil.matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), serviceList.getReleaseKey())) {
+      return ETagUtil.notModified(serviceList.getReleaseKey());
+    }
+    return serviceList.toResponse(jsonResponseHeaders, request.getHeader(HttpHeaders.ACCEPT_ENCODING));
   }
 }
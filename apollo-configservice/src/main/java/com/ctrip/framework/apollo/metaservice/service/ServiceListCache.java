@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.metaservice.service;
+
+import com.ctrip.framework.apollo.common.http.CompressedContent;
+import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.GenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.stereotype.Service;
+
+/**
+ * Holds the encoded service lists, tagged with the hash of the content, so that the meta service answers the clients
+ * without asking the discovery service and serializing the lists on every request.
+ *
+ * <p>The lists are refreshed when the discovery client reports a change of the registry, e.g. eureka and consul
+ * publish {@link HeartbeatEvent}, and periodically for the discovery services without such events. A list whose
+ * instances are unchanged is not encoded again.</p>
+ *
+ * <p>The lists are serialized by the json message converter of the application, the same as the one used when the
+ * controller returned the lists.</p>
+ */
+@Service
+public class ServiceListCache implements InitializingBean {
+  private static final Logger logger = LoggerFactory.getLogger(ServiceListCache.class);
+  private static final Type SERVICES_TYPE = new ParameterizedTypeReference<List<ServiceDTO>>() {
+  }.getType();
+  private static final long REFRESH_INTERVAL_IN_SECONDS = 5;
+
+  private final DiscoveryService discoveryService;
+  private final GenericHttpMessageConverter<Object> jsonConverter;
+  private final ConcurrentMap<String, CompressedContent> serviceLists = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduledExecutorService;
+
+  public ServiceListCache(final DiscoveryService discoveryService, final HttpMessageConverters messageConverters) {
+    this.discoveryService = discoveryService;
+    this.jsonConverter = findJsonConverter(messageConverters);
+    this.scheduledExecutorService = new ScheduledThreadPoolExecutor(1,
+        ApolloThreadFactory.create("ServiceListCache", true));
+  }
+
+  @Override
+  public void afterPropertiesSet() {
+    scheduledExecutorService.scheduleWithFixedDelay(this::refresh, REFRESH_INTERVAL_IN_SECONDS,
+        REFRESH_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @return the encoded service list, whose release key is the hash of the content
+   */
+  public CompressedContent getServiceList(String serviceId) {
+    CompressedContent serviceList = serviceLists.get(serviceId);
+    if (serviceList != null) {
+      return serviceList;
+    }
+    // only the first request of each service loads the list, the later ones are refreshed in the background
+    return serviceLists.computeIfAbsent(serviceId, this::load);
+  }
+
+  @EventListener(HeartbeatEvent.class)
+  public void onHeartbeat() {
+    refresh();
+  }
+
+  void refresh() {
+    for (String serviceId : serviceLists.keySet()) {
+      try {
+        List<ServiceDTO> services = discoveryService.getServiceInstances(serviceId);
+        CompressedContent previous = serviceLists.get(serviceId);
+        String releaseKey = hash(services);
+        if (previous != null && releaseKey.equals(previous.getReleaseKey())) {
+          continue;
+        }
+        serviceLists.put(serviceId, encode(services, releaseKey));
+        if (previous != null) {
+          Tracer.logEvent("Apollo.MetaService.ServiceListChanged", serviceId);
+        }
+      } catch (Throwable ex) {
+        // the previous list is kept
+        logger.error("Refresh service list of {} failed", serviceId, ex);
+      }
+    }
+  }
+
+  private CompressedContent load(String serviceId) {
+    List<ServiceDTO> services = discoveryService.getServiceInstances(serviceId);
+    return encode(services, hash(services));
+  }
+
+  /**
+   * The hash of the instances, which is the release key of the encoded list
+   */
+  private String hash(List<ServiceDTO> services) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    for (ServiceDTO service : services) {
+      putField(hasher, service.getAppName());
+      putField(hasher, service.getInstanceId());
+      putField(hasher, service.getHomepageUrl());
+    }
+    return hasher.hash().toString();
+  }
+
+  private void putField(Hasher hasher, String field) {
+    // null and empty fields are serialized differently
+    hasher.putBoolean(field == null).putString(Strings.nullToEmpty(field), StandardCharsets.UTF_8).putChar('\0');
+  }
+
+  private CompressedContent encode(List<ServiceDTO> services, String releaseKey) {
+    ByteArrayHttpOutputMessage outputMessage = new ByteArrayHttpOutputMessage();
+    try {
+      jsonConverter.write(services, SERVICES_TYPE, MediaType.APPLICATION_JSON, outputMessage);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+    return CompressedContent.compress(outputMessage.body.toByteArray(), releaseKey);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static GenericHttpMessageConverter<Object> findJsonConverter(HttpMessageConverters messageConverters) {
+    for (HttpMessageConverter<?> converter : messageConverters.getConverters()) {
+      if (converter instanceof GenericHttpMessageConverter && ((GenericHttpMessageConverter<?>) converter)
+          .canWrite(SERVICES_TYPE, List.class, MediaType.APPLICATION_JSON)) {
+        return (GenericHttpMessageConverter<Object>) converter;
+      }
+    }
+    throw new IllegalStateException("No json message converter found to serialize the service lists");
+  }
+
+  private static class ByteArrayHttpOutputMessage implements HttpOutputMessage {
+    private final HttpHeaders headers = new HttpHeaders();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    @Override
+    public OutputStream getBody() {
+      return body;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return headers;
+    }
+  }
+}
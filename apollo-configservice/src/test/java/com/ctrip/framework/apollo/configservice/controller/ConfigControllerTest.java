@@ -17,31 +17,52 @@
 package com.ctrip.framework.apollo.configservice.controller;
 
 import com.ctrip.framework.apollo.biz.entity.Release;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.grayReleaseRule.GrayReleaseRulesHolder;
+import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.biz.service.ClusterService;
+import com.ctrip.framework.apollo.biz.service.ReleaseMessageService;
 import com.ctrip.framework.apollo.common.entity.AppNamespace;
+import com.ctrip.framework.apollo.common.exception.BadRequestException;
 import com.ctrip.framework.apollo.configservice.service.AppNamespaceServiceWithCache;
+import com.ctrip.framework.apollo.configservice.service.ConfigResponseServiceWithCache;
 import com.ctrip.framework.apollo.configservice.service.config.ConfigService;
 import com.ctrip.framework.apollo.configservice.util.InstanceConfigAuditUtil;
 import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
+import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.enums.ConfigSyncType;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 /**
@@ -50,6 +71,7 @@ import static org.mockito.Mockito.*;
 @RunWith(MockitoJUnitRunner.class)
 public class ConfigControllerTest {
   private ConfigController configController;
+  private ConfigResponseServiceWithCache configResponseService;
   @Mock
   private ConfigService configService;
   @Mock
@@ -73,13 +95,24 @@ public class ConfigControllerTest {
   @Mock
   private InstanceConfigAuditUtil instanceConfigAuditUtil;
   @Mock
+  private GrayReleaseRulesHolder grayReleaseRulesHolder;
+  @Mock
+  private ClusterService clusterService;
+  @Mock
+  private ReleaseMessageService releaseMessageService;
+  @Mock
+  private WatchKeysUtil watchKeysUtil;
+  @Mock
   private HttpServletRequest someRequest;
   private Gson gson = new Gson();
 
   @Before
   public void setUp() throws Exception {
+    configResponseService = new ConfigResponseServiceWithCache(configService, clusterService,
+        releaseMessageService, grayReleaseRulesHolder, namespaceUtil, watchKeysUtil, gson);
     configController = spy(new ConfigController(
-        configService, appNamespaceService, namespaceUtil, instanceConfigAuditUtil, gson
+        configService, appNamespaceService, namespaceUtil, instanceConfigAuditUtil, grayReleaseRulesHolder,
+        configResponseService, gson
     ));
 
     someAppId = "1";
@@ -103,6 +136,8 @@ public class ConfigControllerTest {
 
     someMessagesAsString = "someValidJson";
     when(configController.transformMessages(someMessagesAsString)).thenReturn(someNotificationMessages);
+    //notified ahead of the controller, so the messages are used to load the configs
+    when(someNotificationMessages.getDetails()).thenReturn(ImmutableMap.of("someNotifiedKey", 1L));
   }
 
   @Test
@@ -357,43 +392,6 @@ public class ConfigControllerTest {
         someClientIp, somePublicAppId, someDataCenter, somePublicNamespaceName, somePublicAppSideReleaseKey);
   }
 
-  @Test
-  public void testMergeConfigurations() throws Exception {
-    Gson gson = new Gson();
-    String key1 = "key1";
-    String value1 = "value1";
-    String anotherValue1 = "anotherValue1";
-
-    String key2 = "key2";
-    String value2 = "value2";
-
-    Map<String, String> config = ImmutableMap.of(key1, anotherValue1);
-    Map<String, String> anotherConfig = ImmutableMap.of(key1, value1, key2, value2);
-
-    Release releaseWithHighPriority = new Release();
-    releaseWithHighPriority.setConfigurations(gson.toJson(config));
-
-    Release releaseWithLowPriority = new Release();
-    releaseWithLowPriority.setConfigurations(gson.toJson(anotherConfig));
-
-    Map<String, String> result =
-        configController.mergeReleaseConfigurations(
-            Lists.newArrayList(releaseWithHighPriority, releaseWithLowPriority));
-
-    assertEquals(2, result.keySet().size());
-    assertEquals(anotherValue1, result.get(key1));
-    assertEquals(value2, result.get(key2));
-  }
-
-  @Test(expected = JsonSyntaxException.class)
-  public void testTransformConfigurationToMapFailed() throws Exception {
-    String someInvalidConfiguration = "xxx";
-    Release someRelease = new Release();
-    someRelease.setConfigurations(someInvalidConfiguration);
-
-    configController.mergeReleaseConfigurations(Lists.newArrayList(someRelease));
-  }
-
   @Test
   public void testQueryConfigForNoAppIdPlaceHolder() throws Exception {
     String someClientSideReleaseKey = "1";
@@ -441,6 +439,536 @@ public class ConfigControllerTest {
     assertEquals("foo", result.getConfigurations().get("apollo.public.bar"));
   }
 
+  @Test
+  public void testFindGrayReleaseIds() throws Exception {
+    String somePublicAppId = "somePublicAppId";
+    long someGrayReleaseId = 3;
+    long somePublicGrayReleaseId = 5;
+    AppNamespace somePublicAppNamespace =
+        assemblePublicAppNamespace(somePublicAppId, somePublicNamespaceName);
+
+    when(appNamespaceService.findPublicNamespaceByName(somePublicNamespaceName))
+        .thenReturn(somePublicAppNamespace);
+    //the app's gray release is of the data center cluster and the public one of the default cluster
+    for (String cluster : Lists.newArrayList(someClusterName, someDataCenter, defaultClusterName)) {
+      when(grayReleaseRulesHolder.findReleaseIdFromGrayReleaseRule(someAppId, someClientIp, someAppId, cluster,
+          somePublicNamespaceName)).thenReturn(someDataCenter.equals(cluster) ? someGrayReleaseId : null);
+      when(grayReleaseRulesHolder.findReleaseIdFromGrayReleaseRule(someAppId, someClientIp, somePublicAppId, cluster,
+          somePublicNamespaceName)).thenReturn(defaultClusterName.equals(cluster) ? somePublicGrayReleaseId : null);
+    }
+
+    assertEquals(someGrayReleaseId + "+" + somePublicGrayReleaseId, configController.findGrayReleaseIds(someAppId,
+        someClusterName, somePublicNamespaceName, someDataCenter, someClientIp));
+  }
+
+  @Test
+  public void testFindGrayReleaseIdsWithoutGrayRelease() throws Exception {
+    for (String cluster : Lists.newArrayList(someClusterName, someDataCenter, defaultClusterName)) {
+      when(grayReleaseRulesHolder.findReleaseIdFromGrayReleaseRule(someAppId, someClientIp, someAppId, cluster,
+          defaultNamespaceName)).thenReturn(null);
+    }
+
+    assertEquals("", configController.findGrayReleaseIds(someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someClientIp));
+    verify(appNamespaceService, never()).findPublicNamespaceByName(defaultNamespaceName);
+  }
+
+  @Test
+  public void testQueryEncodedConfigFromCache() throws Exception {
+    String someClientSideReleaseKey = "1";
+    String someServerSideNewReleaseKey = "2";
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideNewReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+
+    ResponseEntity<byte[]> response = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, someClientSideReleaseKey,
+        someClientIp, someMessagesAsString, false, someRequest, someResponse);
+    ResponseEntity<byte[]> anotherResponse = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, someClientSideReleaseKey,
+        someClientIp, someMessagesAsString, false, someRequest, someResponse);
+
+    ApolloConfig result = decodeApolloConfig(response);
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertSame(response.getBody(), anotherResponse.getBody());
+    assertEquals(someAppId, result.getAppId());
+    assertEquals(someClusterName, result.getCluster());
+    assertEquals(defaultNamespaceName, result.getNamespaceName());
+    assertEquals(someServerSideNewReleaseKey, result.getReleaseKey());
+    assertEquals("foo", result.getConfigurations().get("apollo.bar"));
+    verify(someRelease, times(1)).getConfigurations();
+    verify(instanceConfigAuditUtil, times(2)).audit(someAppId, someClusterName, someDataCenter,
+        someClientIp, someAppId, someClusterName, defaultNamespaceName, someServerSideNewReleaseKey);
+  }
+
+  @Test
+  public void testQueryEncodedConfigInvalidatedByReleaseMessage() throws Exception {
+    String someClientSideReleaseKey = "1";
+    String someServerSideNewReleaseKey = "2";
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideNewReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+
+    ResponseEntity<byte[]> response = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, someClientSideReleaseKey,
+        someClientIp, someMessagesAsString, false, someRequest, someResponse);
+
+    String someReleaseMessageKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
+        .join(someAppId, someClusterName, defaultNamespaceName);
+    configResponseService.handleMessage(new ReleaseMessage(someReleaseMessageKey), Topics.APOLLO_RELEASE_TOPIC);
+
+    ResponseEntity<byte[]> anotherResponse = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, someClientSideReleaseKey,
+        someClientIp, someMessagesAsString, false, someRequest, someResponse);
+
+    assertNotSame(response.getBody(), anotherResponse.getBody());
+    assertArrayEquals(response.getBody(), anotherResponse.getBody());
+    verify(someRelease, times(2)).getConfigurations();
+  }
+
+  @Test
+  public void testQueryEncodedConfigWithApolloConfigNotModified() throws Exception {
+    String someAppSideReleaseKey = "1";
+    String somePublicAppSideReleaseKey = "2";
+    String someClientSideReleaseKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
+        .join(someAppSideReleaseKey, somePublicAppSideReleaseKey);
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+    String somePublicAppId = "somePublicAppId";
+    AppNamespace somePublicAppNamespace =
+        assemblePublicAppNamespace(somePublicAppId, somePublicNamespaceName);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, somePublicNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someAppSideReleaseKey);
+    when(appNamespaceService.findPublicNamespaceByName(somePublicNamespaceName))
+        .thenReturn(somePublicAppNamespace);
+    when(configService.loadConfig(someAppId, someClientIp, somePublicAppId, someClusterName, somePublicNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(somePublicRelease);
+    when(somePublicRelease.getReleaseKey()).thenReturn(somePublicAppSideReleaseKey);
+
+    ResponseEntity<byte[]> response = configController.queryEncodedConfig(someAppId, someClusterName,
+        somePublicNamespaceName, someDataCenter, someClientSideReleaseKey,
+        someClientIp, someMessagesAsString, false, someRequest, someResponse);
+
+    assertNull(response);
+    verify(someResponse, times(1)).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(someRelease, never()).getConfigurations();
+    verify(somePublicRelease, never()).getConfigurations();
+  }
+
+  @Test
+  public void testQueryEncodedConfigWithETag() throws Exception {
+    String someServerSideReleaseKey = "2";
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, null)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+    when(someRequest.getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn("\"1\"", "\"2\"");
+
+    ResponseEntity<byte[]> response = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, "-1", someClientIp, null, false, someRequest, someResponse);
+    ResponseEntity<byte[]> anotherResponse = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, "-1", someClientIp, null, false, someRequest, someResponse);
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals("\"2\"", response.getHeaders().getETag());
+    assertEquals(HttpStatus.NOT_MODIFIED, anotherResponse.getStatusCode());
+    assertEquals("\"2\"", anotherResponse.getHeaders().getETag());
+    assertNull(anotherResponse.getBody());
+    // answered from the index without loading the releases, but still audited
+    verify(configService, times(1)).loadConfig(someAppId, someClientIp, someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, null);
+    verify(instanceConfigAuditUtil, times(2)).audit(someAppId, someClusterName, someDataCenter,
+        someClientIp, someAppId, someClusterName, defaultNamespaceName, someServerSideReleaseKey);
+  }
+
+  @Test
+  public void testQueryEncodedConfigNotModifiedFromIndex() throws Exception {
+    String someServerSideReleaseKey = "2";
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, null)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+
+    ResponseEntity<byte[]> response = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, "1", someClientIp, null, false, someRequest, someResponse);
+    ResponseEntity<byte[]> anotherResponse = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, someServerSideReleaseKey, someClientIp, null, false, someRequest,
+        someResponse);
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertNull(anotherResponse);
+    verify(someResponse, times(1)).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(configService, times(1)).loadConfig(someAppId, someClientIp, someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, null);
+    verify(instanceConfigAuditUtil, times(2)).audit(someAppId, someClusterName, someDataCenter,
+        someClientIp, someAppId, someClusterName, defaultNamespaceName, someServerSideReleaseKey);
+  }
+
+  @Test
+  public void testQueryEncodedConfigNotModifiedFromIndexWithHandledMessages() throws Exception {
+    String someServerSideReleaseKey = "2";
+    long someNotificationId = 10;
+    String someReleaseMessageKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
+        .join(someAppId, someClusterName, defaultNamespaceName);
+    ReleaseMessage someReleaseMessage = new ReleaseMessage(someReleaseMessageKey);
+    someReleaseMessage.setId(someNotificationId);
+    ApolloNotificationMessages someHandledMessages = new ApolloNotificationMessages();
+    someHandledMessages.put(someReleaseMessageKey, someNotificationId);
+    ApolloNotificationMessages someAheadMessages = new ApolloNotificationMessages();
+    someAheadMessages.put(someReleaseMessageKey, someNotificationId + 1);
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+
+    when(configController.transformMessages("handled")).thenReturn(someHandledMessages);
+    when(configController.transformMessages("ahead")).thenReturn(someAheadMessages);
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, null)).thenReturn(someRelease);
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someAheadMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+
+    configResponseService.handleMessage(someReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
+    configController.queryEncodedConfig(someAppId, someClusterName, defaultNamespaceName, someDataCenter, "1",
+        someClientIp, null, false, someRequest, someResponse);
+    // the client notified of the handled message is answered from the index
+    configController.queryEncodedConfig(someAppId, someClusterName, defaultNamespaceName, someDataCenter,
+        someServerSideReleaseKey, someClientIp, "handled", false, someRequest, someResponse);
+    // the client notified ahead of this instance resolves the releases with its messages
+    configController.queryEncodedConfig(someAppId, someClusterName, defaultNamespaceName, someDataCenter,
+        someServerSideReleaseKey, someClientIp, "ahead", false, someRequest, someResponse);
+
+    verify(someResponse, times(2)).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(configService, times(1)).loadConfig(someAppId, someClientIp, someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, null);
+    verify(configService, times(1)).loadConfig(someAppId, someClientIp, someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, someAheadMessages);
+  }
+
+  @Test
+  public void testQueryEncodedConfigNotModifiedFromIndexWithMessagesBeforeStartup() throws Exception {
+    String someServerSideReleaseKey = "2";
+    long someStartupNotificationId = 10;
+    String someReleaseMessageKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
+        .join(someAppId, someClusterName, defaultNamespaceName);
+    ApolloNotificationMessages someStartupMessages = new ApolloNotificationMessages();
+    someStartupMessages.put(someReleaseMessageKey, someStartupNotificationId);
+    ApolloNotificationMessages someAheadMessages = new ApolloNotificationMessages();
+    someAheadMessages.put(someReleaseMessageKey, someStartupNotificationId + 1);
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+
+    when(releaseMessageService.findLatestReleaseMessageId()).thenReturn(someStartupNotificationId);
+    when(configController.transformMessages("startup")).thenReturn(someStartupMessages);
+    when(configController.transformMessages("ahead")).thenReturn(someAheadMessages);
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, null)).thenReturn(someRelease);
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someAheadMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+
+    configResponseService.afterPropertiesSet();
+    configController.queryEncodedConfig(someAppId, someClusterName, defaultNamespaceName, someDataCenter, "1",
+        someClientIp, null, false, someRequest, someResponse);
+    // no release message is handled since startup, and the client notified before is answered from the index
+    configController.queryEncodedConfig(someAppId, someClusterName, defaultNamespaceName, someDataCenter,
+        someServerSideReleaseKey, someClientIp, "startup", false, someRequest, someResponse);
+    // while the client notified after startup resolves the releases with its messages
+    configController.queryEncodedConfig(someAppId, someClusterName, defaultNamespaceName, someDataCenter,
+        someServerSideReleaseKey, someClientIp, "ahead", false, someRequest, someResponse);
+
+    verify(someResponse, times(2)).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(configService, times(1)).loadConfig(someAppId, someClientIp, someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, null);
+    verify(configService, times(1)).loadConfig(someAppId, someClientIp, someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, someAheadMessages);
+  }
+
+  @Test
+  public void testQueryEncodedConfigWithETagInvalidatedByReleaseMessage() throws Exception {
+    String someServerSideReleaseKey = "2";
+    String someReleaseMessageKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
+        .join(someAppId, someClusterName, defaultNamespaceName);
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, null)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+    when(someRequest.getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn("\"1\"", "\"2\"");
+    when(watchKeysUtil.assembleAllWatchKeys(someAppId, someClusterName, defaultNamespaceName, someDataCenter))
+        .thenReturn(Sets.newHashSet(someReleaseMessageKey));
+
+    configController.queryEncodedConfig(someAppId, someClusterName, defaultNamespaceName, someDataCenter, "-1",
+        someClientIp, null, false, someRequest, someResponse);
+
+    configResponseService.handleMessage(new ReleaseMessage(someReleaseMessageKey), Topics.APOLLO_RELEASE_TOPIC);
+
+    ResponseEntity<byte[]> anotherResponse = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, "-1", someClientIp, null, false, someRequest, someResponse);
+
+    // still not modified, but resolved from the releases again
+    assertEquals(HttpStatus.NOT_MODIFIED, anotherResponse.getStatusCode());
+    verify(configService, times(2)).loadConfig(someAppId, someClientIp, someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, null);
+  }
+
+  @Test
+  public void testQueryEncodedConfigWithETagAndGrayReleaseRule() throws Exception {
+    String someServerSideReleaseKey = "2";
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, null)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(someRequest.getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn("\"2\"");
+    when(grayReleaseRulesHolder.hasGrayReleaseRule(someAppId, someClientIp, defaultNamespaceName)).thenReturn(true);
+
+    ResponseEntity<byte[]> response = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, "-1", someClientIp, null, false, someRequest, someResponse);
+    ResponseEntity<byte[]> anotherResponse = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, "-1", someClientIp, null, false, someRequest, someResponse);
+
+    // the clients with gray release rules are never answered from the index
+    assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+    assertEquals(HttpStatus.NOT_MODIFIED, anotherResponse.getStatusCode());
+    verify(configService, times(2)).loadConfig(someAppId, someClientIp, someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, null);
+    verify(watchKeysUtil, never()).assembleAllWatchKeys(anyString(), anyString(), anyString(), anyString());
+  }
+
+  @Test
+  public void testQueryEncodedConfigDelta() throws Exception {
+    String someClientSideReleaseKey = "1";
+    String someServerSideNewReleaseKey = "2";
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+    Release someClientSideRelease = mock(Release.class);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideNewReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+    when(someRelease.getConfigurations()).thenReturn("{\"apollo.bar\": \"foo\", \"apollo.foo\": \"bar\"}");
+    when(someClientSideRelease.getAppId()).thenReturn(someAppId);
+    when(someClientSideRelease.getClusterName()).thenReturn(someClusterName);
+    when(someClientSideRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+    when(someClientSideRelease.getConfigurations())
+        .thenReturn("{\"apollo.bar\": \"bar\", \"apollo.deleted\": \"foo\"}");
+    when(configService.findReleasesByReleaseKeys(Sets.newHashSet(someClientSideReleaseKey)))
+        .thenReturn(ImmutableMap.of(someClientSideReleaseKey, someClientSideRelease));
+
+    ResponseEntity<byte[]> response = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, someClientSideReleaseKey,
+        someClientIp, someMessagesAsString, true, someRequest, someResponse);
+    ResponseEntity<byte[]> anotherResponse = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, someClientSideReleaseKey,
+        someClientIp, someMessagesAsString, true, someRequest, someResponse);
+
+    ApolloConfig result = decodeApolloConfig(response);
+
+    assertSame(response.getBody(), anotherResponse.getBody());
+    assertEquals(someServerSideNewReleaseKey, result.getReleaseKey());
+    assertEquals(ConfigSyncType.DELTA, result.getConfigSyncType());
+    assertNull(result.getConfigurations());
+    assertEquals(3, result.getConfigurationChanges().size());
+    verify(configService, times(1)).findReleasesByReleaseKeys(anySet());
+  }
+
+  @Test
+  public void testQueryEncodedConfigDeltaWithPublicNamespaceAndUnchangedPublicRelease() throws Exception {
+    String someAppSideReleaseKey = "1";
+    String someClientSideAppReleaseKey = "0";
+    String somePublicAppSideReleaseKey = "2";
+    String somePublicAppId = "somePublicAppId";
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+    Release someClientSideAppRelease = mock(Release.class);
+    AppNamespace somePublicAppNamespace =
+        assemblePublicAppNamespace(somePublicAppId, somePublicNamespaceName);
+
+    when(someRelease.getConfigurations()).thenReturn("{\"apollo.public.foo\": \"foo-override\"}");
+    when(somePublicRelease.getConfigurations())
+        .thenReturn("{\"apollo.public.foo\": \"foo\", \"apollo.public.bar\": \"bar\"}");
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, somePublicNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someAppSideReleaseKey);
+    when(someRelease.getAppId()).thenReturn(someAppId);
+    when(someRelease.getClusterName()).thenReturn(someClusterName);
+    when(someRelease.getNamespaceName()).thenReturn(somePublicNamespaceName);
+    when(appNamespaceService.findPublicNamespaceByName(somePublicNamespaceName))
+        .thenReturn(somePublicAppNamespace);
+    when(configService.loadConfig(someAppId, someClientIp, somePublicAppId, someClusterName, somePublicNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(somePublicRelease);
+    when(somePublicRelease.getReleaseKey()).thenReturn(somePublicAppSideReleaseKey);
+    when(somePublicRelease.getAppId()).thenReturn(somePublicAppId);
+    when(somePublicRelease.getClusterName()).thenReturn(someDataCenter);
+    when(somePublicRelease.getNamespaceName()).thenReturn(somePublicNamespaceName);
+    when(someClientSideAppRelease.getAppId()).thenReturn(someAppId);
+    when(someClientSideAppRelease.getClusterName()).thenReturn(someClusterName);
+    when(someClientSideAppRelease.getNamespaceName()).thenReturn(somePublicNamespaceName);
+    when(someClientSideAppRelease.getConfigurations()).thenReturn("{}");
+    when(configService.findReleasesByReleaseKeys(Sets.newHashSet(someClientSideAppReleaseKey)))
+        .thenReturn(ImmutableMap.of(someClientSideAppReleaseKey, someClientSideAppRelease));
+
+    ResponseEntity<byte[]> response = configController.queryEncodedConfig(someAppId, someClusterName,
+        somePublicNamespaceName, someDataCenter, Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
+            .join(someClientSideAppReleaseKey, somePublicAppSideReleaseKey),
+        someClientIp, someMessagesAsString, true, someRequest, someResponse);
+
+    ApolloConfig result = decodeApolloConfig(response);
+
+    assertEquals(ConfigSyncType.DELTA, result.getConfigSyncType());
+    assertEquals(1, result.getConfigurationChanges().size());
+    assertEquals("foo-override", result.getConfigurationChanges().get(0).getNewValue());
+    // the unchanged public release is not looked up again
+    verify(configService, times(1)).findReleasesByReleaseKeys(Sets.newHashSet(someClientSideAppReleaseKey));
+    verify(configService, times(1)).findReleasesByReleaseKeys(anySet());
+  }
+
+  @Test
+  public void testQueryEncodedConfigDeltaWithoutClientSideReleaseKey() throws Exception {
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn("2");
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+
+    ResponseEntity<byte[]> response = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, "-1",
+        someClientIp, someMessagesAsString, true, someRequest, someResponse);
+
+    assertEquals("foo", decodeApolloConfig(response).getConfigurations().get("apollo.bar"));
+    verify(configService, never()).findReleasesByReleaseKeys(anySet());
+  }
+
+  @Test
+  public void testQueryEncodedConfigs() throws Exception {
+    String someServerSideReleaseKey = "1";
+    String somePublicReleaseKey = "2";
+    String somePublicAppId = "somePublicAppId";
+    String someUnknownNamespaceName = "someUnknownNamespace";
+
+    when(namespaceUtil.filterNamespaceName(someUnknownNamespaceName)).thenReturn(someUnknownNamespaceName);
+    when(namespaceUtil.normalizeNamespace(someAppId, someUnknownNamespaceName)).thenReturn(someUnknownNamespaceName);
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, null)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+    when(appNamespaceService.findPublicNamespaceByName(somePublicNamespaceName))
+        .thenReturn(assemblePublicAppNamespace(somePublicAppId, somePublicNamespaceName));
+    when(configService.loadConfig(someAppId, someClientIp, somePublicAppId, someClusterName, somePublicNamespaceName,
+        someDataCenter, null)).thenReturn(somePublicRelease);
+    when(somePublicRelease.getReleaseKey()).thenReturn(somePublicReleaseKey);
+    when(somePublicRelease.getAppId()).thenReturn(somePublicAppId);
+    when(somePublicRelease.getClusterName()).thenReturn(someClusterName);
+    when(somePublicRelease.getNamespaceName()).thenReturn(somePublicNamespaceName);
+
+    ResponseEntity<byte[]> response = configController.queryEncodedConfigs(someAppId, someClusterName,
+        Lists.newArrayList(defaultNamespaceName, someUnknownNamespaceName, somePublicNamespaceName,
+            defaultNamespaceName), someDataCenter, someClientIp, someRequest);
+
+    List<ApolloConfig> result = gson.fromJson(new String(response.getBody(), StandardCharsets.UTF_8),
+        new TypeToken<List<ApolloConfig>>() {
+        }.getType());
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    //the unknown namespace is left out and the duplicate one is only loaded once
+    assertEquals(2, result.size());
+    assertEquals(defaultNamespaceName, result.get(0).getNamespaceName());
+    assertEquals(someServerSideReleaseKey, result.get(0).getReleaseKey());
+    assertEquals("foo", result.get(0).getConfigurations().get("apollo.bar"));
+    assertEquals(somePublicNamespaceName, result.get(1).getNamespaceName());
+    assertEquals(somePublicReleaseKey, result.get(1).getReleaseKey());
+    assertEquals("foo", result.get(1).getConfigurations().get("apollo.public.bar"));
+    verify(configService, times(1)).loadConfig(someAppId, someClientIp, someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, null);
+    verify(instanceConfigAuditUtil, times(1)).audit(someAppId, someClusterName, someDataCenter,
+        someClientIp, somePublicAppId, someClusterName, somePublicNamespaceName, somePublicReleaseKey);
+  }
+
+  @Test
+  public void testQueryEncodedConfigsSharesCacheWithQueryEncodedConfig() throws Exception {
+    String someServerSideReleaseKey = "1";
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, null)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+
+    ResponseEntity<byte[]> response = configController.queryEncodedConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, "-1", someClientIp, null, false, someRequest, someResponse);
+    ResponseEntity<byte[]> batchResponse = configController.queryEncodedConfigs(someAppId, someClusterName,
+        Lists.newArrayList(defaultNamespaceName), someDataCenter, someClientIp, someRequest);
+    ResponseEntity<byte[]> anotherBatchResponse = configController.queryEncodedConfigs(someAppId, someClusterName,
+        Lists.newArrayList(defaultNamespaceName), someDataCenter, someClientIp, someRequest);
+
+    assertEquals("[" + new String(response.getBody(), StandardCharsets.UTF_8) + "]",
+        new String(batchResponse.getBody(), StandardCharsets.UTF_8));
+    //the whole response is encoded once as well
+    assertSame(batchResponse.getBody(), anotherBatchResponse.getBody());
+    verify(someRelease, times(1)).getConfigurations();
+  }
+
+  @Test
+  public void testQueryEncodedConfigsInvalidatedByReleaseMessage() throws Exception {
+    String someReleaseMessageKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
+        .join(someAppId, someClusterName, defaultNamespaceName);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, null)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn("1");
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+
+    ResponseEntity<byte[]> batchResponse = configController.queryEncodedConfigs(someAppId, someClusterName,
+        Lists.newArrayList(defaultNamespaceName), someDataCenter, someClientIp, someRequest);
+    configResponseService.handleMessage(new ReleaseMessage(someReleaseMessageKey), Topics.APOLLO_RELEASE_TOPIC);
+    ResponseEntity<byte[]> anotherBatchResponse = configController.queryEncodedConfigs(someAppId, someClusterName,
+        Lists.newArrayList(defaultNamespaceName), someDataCenter, someClientIp, someRequest);
+
+    assertNotSame(batchResponse.getBody(), anotherBatchResponse.getBody());
+    assertArrayEquals(batchResponse.getBody(), anotherBatchResponse.getBody());
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void testQueryEncodedConfigsWithTooManyNamespaces() throws Exception {
+    List<String> namespaces = Lists.newArrayList();
+    for (int i = 0; i <= 200; i++) {
+      namespaces.add("someNamespace" + i);
+    }
+
+    configController.queryEncodedConfigs(someAppId, someClusterName, namespaces, someDataCenter, someClientIp,
+        someRequest);
+  }
+
+  @Test
+  public void testMergedReleaseKeyEquals() throws Exception {
+    Release someRelease = new Release();
+    someRelease.setReleaseKey("someReleaseKey");
+    Release anotherRelease = new Release();
+    anotherRelease.setReleaseKey("anotherReleaseKey");
+    List<Release> releases = Lists.newArrayList(someRelease, anotherRelease);
+
+    assertTrue(ConfigController.mergedReleaseKeyEquals(releases, "someReleaseKey+anotherReleaseKey"));
+    assertFalse(ConfigController.mergedReleaseKeyEquals(releases, "someReleaseKey+anotherReleaseKe"));
+    assertFalse(ConfigController.mergedReleaseKeyEquals(releases, "someReleaseKey+anotherReleaseKey+"));
+    assertFalse(ConfigController.mergedReleaseKeyEquals(releases, "someReleaseKeyanotherReleaseKey"));
+    assertFalse(ConfigController.mergedReleaseKeyEquals(releases, "someReleaseKey"));
+    assertFalse(ConfigController.mergedReleaseKeyEquals(releases, "-1"));
+    assertTrue(ConfigController.mergedReleaseKeyEquals(Lists.newArrayList(someRelease), "someReleaseKey"));
+  }
+
   @Test
   public void testTransformMessages() throws Exception {
     String someKey = "someKey";
@@ -465,6 +993,10 @@ public class ConfigControllerTest {
     assertNull(configController.transformMessages(someInvalidMessages));
   }
 
+  private ApolloConfig decodeApolloConfig(ResponseEntity<byte[]> response) {
+    return gson.fromJson(new String(response.getBody(), StandardCharsets.UTF_8), ApolloConfig.class);
+  }
+
   private AppNamespace assemblePublicAppNamespace(String appId, String namespace) {
     return assembleAppNamespace(appId, namespace, true);
   }
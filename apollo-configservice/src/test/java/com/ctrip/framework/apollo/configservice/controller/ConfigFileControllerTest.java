@@ -19,31 +19,42 @@ package com.ctrip.framework.apollo.configservice.controller;
 import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.grayReleaseRule.GrayReleaseRulesHolder;
 import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.common.http.CompressedContent;
 import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
 import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.WatchKeyRegistry;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
 import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
@@ -74,15 +85,15 @@ public class ConfigFileControllerTest {
   private HttpServletResponse someResponse;
   @Mock
   private HttpServletRequest someRequest;
-  Multimap<String, String> watchedKeys2CacheKey;
-  Multimap<String, String> cacheKey2WatchedKeys;
+  WatchKeyRegistry<String> watchedKeys2CacheKey;
+  ConcurrentMap<String, Set<String>> cacheKey2WatchedKeys;
 
   private static final Gson GSON = new Gson();
 
   @Before
   public void setUp() throws Exception {
     configFileController = new ConfigFileController(
-        configController, namespaceUtil, watchKeysUtil, grayReleaseRulesHolder
+        configController, namespaceUtil, watchKeysUtil, grayReleaseRulesHolder, new SimpleMeterRegistry()
     );
 
     someAppId = "someAppId";
@@ -97,10 +108,10 @@ public class ConfigFileControllerTest {
         .thenReturn(false);
 
     watchedKeys2CacheKey =
-        (Multimap<String, String>) ReflectionTestUtils
+        (WatchKeyRegistry<String>) ReflectionTestUtils
             .getField(configFileController, "watchedKeys2CacheKey");
     cacheKey2WatchedKeys =
-        (Multimap<String, String>) ReflectionTestUtils
+        (ConcurrentMap<String, Set<String>>) ReflectionTestUtils
             .getField(configFileController, "cacheKey2WatchedKeys");
   }
 
@@ -130,23 +141,23 @@ public class ConfigFileControllerTest {
         .assembleAllWatchKeys(someAppId, someClusterName, someNamespace, someDataCenter))
         .thenReturn(watchKeys);
 
-    ResponseEntity<String> response =
+    ResponseEntity<byte[]> response =
         configFileController
             .queryConfigAsProperties(someAppId, someClusterName, someNamespace, someDataCenter,
                 someClientIp, someRequest, someResponse);
 
     assertEquals(2, watchedKeys2CacheKey.size());
-    assertEquals(2, cacheKey2WatchedKeys.size());
-    assertTrue(watchedKeys2CacheKey.containsEntry(someWatchKey, cacheKey));
-    assertTrue(watchedKeys2CacheKey.containsEntry(anotherWatchKey, cacheKey));
-    assertTrue(cacheKey2WatchedKeys.containsEntry(cacheKey, someWatchKey));
-    assertTrue(cacheKey2WatchedKeys.containsEntry(cacheKey, anotherWatchKey));
+    assertEquals(1, cacheKey2WatchedKeys.size());
+    assertTrue(watchedKeys2CacheKey.get(someWatchKey).contains(cacheKey));
+    assertTrue(watchedKeys2CacheKey.get(anotherWatchKey).contains(cacheKey));
+    assertEquals(watchKeys, cacheKey2WatchedKeys.get(cacheKey));
 
     assertEquals(HttpStatus.OK, response.getStatusCode());
-    assertTrue(response.getBody().contains(String.format("%s=%s", someKey, someValue)));
-    assertTrue(response.getBody().contains(String.format("%s=%s", anotherKey, anotherValue)));
+    String result = new String(response.getBody(), StandardCharsets.UTF_8);
+    assertTrue(result.contains(String.format("%s=%s", someKey, someValue)));
+    assertTrue(result.contains(String.format("%s=%s", anotherKey, anotherValue)));
 
-    ResponseEntity<String> anotherResponse =
+    ResponseEntity<byte[]> anotherResponse =
         configFileController
             .queryConfigAsProperties(someAppId, someClusterName, someNamespace, someDataCenter,
                 someClientIp, someRequest, someResponse);
@@ -179,19 +190,125 @@ public class ConfigFileControllerTest {
         .assembleAllWatchKeys(someAppId, someClusterName, someNamespace, someDataCenter))
         .thenReturn(watchKeys);
 
-    ResponseEntity<String> response =
+    ResponseEntity<byte[]> response =
         configFileController
             .queryConfigAsJson(someAppId, someClusterName, someNamespace, someDataCenter,
                 someClientIp, someRequest, someResponse);
 
     assertEquals(HttpStatus.OK, response.getStatusCode());
-    assertEquals(configurations, GSON.fromJson(response.getBody(), responseType));
+    assertEquals(configurations, GSON.fromJson(new String(response.getBody(), StandardCharsets.UTF_8), responseType));
+  }
+
+  @Test
+  public void testQueryConfigAsJsonWithGzip() throws Exception {
+    Type responseType = new TypeToken<Map<String, String>>(){}.getType();
+
+    Map<String, String> configurations = Maps.newHashMap();
+    for (int i = 0; i < 100; i++) {
+      configurations.put("someKey" + i, "someValue" + i);
+    }
+    ApolloConfig someApolloConfig = mock(ApolloConfig.class);
+    when(configController
+        .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
+            someRequest, someResponse)).thenReturn(someApolloConfig);
+    when(someApolloConfig.getConfigurations()).thenReturn(configurations);
+    when(watchKeysUtil
+        .assembleAllWatchKeys(someAppId, someClusterName, someNamespace, someDataCenter))
+        .thenReturn(Sets.newHashSet("someWatchKey"));
+    when(someRequest.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("gzip, deflate");
+
+    ResponseEntity<byte[]> response =
+        configFileController
+            .queryConfigAsJson(someAppId, someClusterName, someNamespace, someDataCenter,
+                someClientIp, someRequest, someResponse);
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals("gzip", response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    try (Reader reader = new InputStreamReader(
+        new GZIPInputStream(new ByteArrayInputStream(response.getBody())), StandardCharsets.UTF_8)) {
+      assertEquals(configurations, GSON.fromJson(reader, responseType));
+    }
+  }
+
+  @Test
+  public void testQueryConfigAsJsonWithETag() throws Exception {
+    String someReleaseKey = "someReleaseKey";
+    ApolloConfig someApolloConfig = mock(ApolloConfig.class);
+    when(configController
+        .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
+            someRequest, someResponse)).thenReturn(someApolloConfig);
+    when(someApolloConfig.getConfigurations()).thenReturn(ImmutableMap.of("someKey", "someValue"));
+    when(someApolloConfig.getReleaseKey()).thenReturn(someReleaseKey);
+    when(watchKeysUtil
+        .assembleAllWatchKeys(someAppId, someClusterName, someNamespace, someDataCenter))
+        .thenReturn(Sets.newHashSet("someWatchKey"));
+    when(someRequest.getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn(null, "\"someReleaseKey\"");
+
+    ResponseEntity<byte[]> response =
+        configFileController
+            .queryConfigAsJson(someAppId, someClusterName, someNamespace, someDataCenter,
+                someClientIp, someRequest, someResponse);
+
+    ResponseEntity<byte[]> anotherResponse =
+        configFileController
+            .queryConfigAsJson(someAppId, someClusterName, someNamespace, someDataCenter,
+                someClientIp, someRequest, someResponse);
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals("\"someReleaseKey\"", response.getHeaders().getETag());
+    assertEquals(HttpStatus.NOT_MODIFIED, anotherResponse.getStatusCode());
+    assertEquals("\"someReleaseKey\"", anotherResponse.getHeaders().getETag());
+    assertNull(anotherResponse.getBody());
+    // answered from the cache
+    verify(configController, times(1))
+        .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
+            someRequest, someResponse);
+  }
+
+  @Test
+  public void testQueryConfigWithGrayReleaseAndETag() throws Exception {
+    String someGrayReleaseKey = "someGrayReleaseKey";
+    String someGrayReleaseIds = "1";
+    when(grayReleaseRulesHolder.hasGrayReleaseRule(someAppId, someClientIp, someNamespace))
+        .thenReturn(true);
+    when(configController.findGrayReleaseIds(someAppId, someClusterName, someNamespace, someDataCenter,
+        someClientIp)).thenReturn(someGrayReleaseIds);
+
+    ApolloConfig someApolloConfig = mock(ApolloConfig.class);
+    when(someApolloConfig.getConfigurations()).thenReturn(ImmutableMap.of("someKey", "someValue"));
+    when(someApolloConfig.getReleaseKey()).thenReturn(someGrayReleaseKey);
+    when(configController
+        .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
+            someRequest, someResponse)).thenReturn(someApolloConfig);
+    when(someRequest.getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn("\"someReleaseKey\"",
+        "\"someGrayReleaseKey\"");
+
+    ResponseEntity<byte[]> response =
+        configFileController
+            .queryConfigAsProperties(someAppId, someClusterName, someNamespace, someDataCenter,
+                someClientIp, someRequest, someResponse);
+
+    ResponseEntity<byte[]> anotherResponse =
+        configFileController
+            .queryConfigAsProperties(someAppId, someClusterName, someNamespace, someDataCenter,
+                someClientIp, someRequest, someResponse);
+
+    // the gray release is tagged with its own release key, and answered from the cache
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals("\"someGrayReleaseKey\"", response.getHeaders().getETag());
+    assertEquals(HttpStatus.NOT_MODIFIED, anotherResponse.getStatusCode());
+    verify(configController, times(1))
+        .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
+            someRequest, someResponse);
   }
 
   @Test
   public void testQueryConfigWithGrayRelease() throws Exception {
     String someKey = "someKey";
     String someValue = "someValue";
+    String anotherClientIp = "10.1.1.2";
+    String someGrayReleaseIds = "1";
+    String someWatchKey = "someWatchKey";
     Type responseType = new TypeToken<Map<String, String>>(){}.getType();
 
     Map<String, String> configurations =
@@ -199,6 +316,15 @@ public class ConfigFileControllerTest {
 
     when(grayReleaseRulesHolder.hasGrayReleaseRule(someAppId, someClientIp, someNamespace))
         .thenReturn(true);
+    when(grayReleaseRulesHolder.hasGrayReleaseRule(someAppId, anotherClientIp, someNamespace))
+        .thenReturn(true);
+    when(configController.findGrayReleaseIds(someAppId, someClusterName, someNamespace, someDataCenter,
+        someClientIp)).thenReturn(someGrayReleaseIds);
+    when(configController.findGrayReleaseIds(someAppId, someClusterName, someNamespace, someDataCenter,
+        anotherClientIp)).thenReturn(someGrayReleaseIds);
+    when(watchKeysUtil
+        .assembleAllWatchKeys(someAppId, someClusterName, someNamespace, someDataCenter))
+        .thenReturn(Sets.newHashSet(someWatchKey));
 
     ApolloConfig someApolloConfig = mock(ApolloConfig.class);
     when(someApolloConfig.getConfigurations()).thenReturn(configurations);
@@ -206,24 +332,76 @@ public class ConfigFileControllerTest {
         .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
             someRequest, someResponse)).thenReturn(someApolloConfig);
 
-    ResponseEntity<String> response =
+    ResponseEntity<byte[]> response =
         configFileController
             .queryConfigAsJson(someAppId, someClusterName, someNamespace, someDataCenter,
                 someClientIp, someRequest, someResponse);
 
-    ResponseEntity<String> anotherResponse =
+    // another client loading the same gray release shares the cached config
+    ResponseEntity<byte[]> anotherResponse =
         configFileController
             .queryConfigAsJson(someAppId, someClusterName, someNamespace, someDataCenter,
-                someClientIp, someRequest, someResponse);
+                anotherClientIp, someRequest, someResponse);
 
-    verify(configController, times(2))
+    verify(configController, times(1))
         .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
             someRequest, someResponse);
 
+    String grayCacheKey = configFileController.assembleCacheKey(ConfigFileController.ConfigFileOutputFormat.JSON,
+        someAppId, someClusterName, someNamespace, someDataCenter) + "+gray+" + someGrayReleaseIds;
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(configurations, GSON.fromJson(new String(response.getBody(), StandardCharsets.UTF_8), responseType));
+    assertEquals(response, anotherResponse);
+    assertEquals(Sets.newHashSet(someWatchKey), cacheKey2WatchedKeys.get(grayCacheKey));
+    assertEquals(Lists.newArrayList(grayCacheKey), watchedKeys2CacheKey.get(someWatchKey));
+  }
+
+  @Test
+  public void testQueryConfigWithGrayReleaseRuleNotApplied() throws Exception {
+    ApolloConfig someApolloConfig = mock(ApolloConfig.class);
+    when(someApolloConfig.getConfigurations()).thenReturn(ImmutableMap.of("someKey", "someValue"));
+    when(grayReleaseRulesHolder.hasGrayReleaseRule(someAppId, someClientIp, someNamespace))
+        .thenReturn(true);
+    // the gray release rules are of other clusters
+    when(configController.findGrayReleaseIds(someAppId, someClusterName, someNamespace, someDataCenter,
+        someClientIp)).thenReturn("");
+    when(configController
+        .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
+            someRequest, someResponse)).thenReturn(someApolloConfig);
+
+    configFileController.queryConfigAsJson(someAppId, someClusterName, someNamespace, someDataCenter,
+        someClientIp, someRequest, someResponse);
+
+    String cacheKey = configFileController.assembleCacheKey(ConfigFileController.ConfigFileOutputFormat.JSON,
+        someAppId, someClusterName, someNamespace, someDataCenter);
+
+    assertTrue(cacheKey2WatchedKeys.containsKey(cacheKey));
+  }
+
+  @Test
+  public void testQueryConfigWithGrayReleaseChanged() throws Exception {
+    Map<String, String> configurations = ImmutableMap.of("someKey", "someValue");
+    ApolloConfig someApolloConfig = mock(ApolloConfig.class);
+    when(someApolloConfig.getConfigurations()).thenReturn(configurations);
+    when(grayReleaseRulesHolder.hasGrayReleaseRule(someAppId, someClientIp, someNamespace))
+        .thenReturn(true);
+    // the gray release rule is changed while the config is loaded
+    when(configController.findGrayReleaseIds(someAppId, someClusterName, someNamespace, someDataCenter,
+        someClientIp)).thenReturn("1", "2");
+    when(configController
+        .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
+            someRequest, someResponse)).thenReturn(someApolloConfig);
+
+    ResponseEntity<byte[]> response = configFileController
+        .queryConfigAsJson(someAppId, someClusterName, someNamespace, someDataCenter, someClientIp, someRequest,
+            someResponse);
+
     assertEquals(HttpStatus.OK, response.getStatusCode());
-    assertEquals(configurations, GSON.fromJson(response.getBody(), responseType));
-    assertTrue(watchedKeys2CacheKey.isEmpty());
     assertTrue(cacheKey2WatchedKeys.isEmpty());
+    verify(configController, times(2))
+        .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
+            someRequest, someResponse);
   }
 
   @Test
@@ -232,25 +410,25 @@ public class ConfigFileControllerTest {
     String anotherWatchKey = "anotherWatchKey";
     String someCacheKey = "someCacheKey";
     String anotherCacheKey = "anotherCacheKey";
-    String someValue = "someValue";
+    CompressedContent someValue = CompressedContent.compress("someValue".getBytes(StandardCharsets.UTF_8));
 
     ReleaseMessage someReleaseMessage = mock(ReleaseMessage.class);
     when(someReleaseMessage.getMessage()).thenReturn(someWatchKey);
 
-    Cache<String, String> cache =
-        (Cache<String, String>) ReflectionTestUtils.getField(configFileController, "localCache");
+    Cache<String, CompressedContent> cache =
+        (Cache<String, CompressedContent>) ReflectionTestUtils.getField(configFileController, "localCache");
     cache.put(someCacheKey, someValue);
     cache.put(anotherCacheKey, someValue);
 
-    watchedKeys2CacheKey.putAll(someWatchKey, Lists.newArrayList(someCacheKey, anotherCacheKey));
-    watchedKeys2CacheKey.putAll(anotherWatchKey, Lists.newArrayList(someCacheKey, anotherCacheKey));
-
-    cacheKey2WatchedKeys.putAll(someCacheKey, Lists.newArrayList(someWatchKey, anotherWatchKey));
-    cacheKey2WatchedKeys.putAll(anotherCacheKey, Lists.newArrayList(someWatchKey, anotherWatchKey));
+    for (String cacheKey : Lists.newArrayList(someCacheKey, anotherCacheKey)) {
+      watchedKeys2CacheKey.register(someWatchKey, cacheKey);
+      watchedKeys2CacheKey.register(anotherWatchKey, cacheKey);
+      cacheKey2WatchedKeys.put(cacheKey, Sets.newHashSet(someWatchKey, anotherWatchKey));
+    }
 
     configFileController.handleMessage(someReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
 
-    assertTrue(watchedKeys2CacheKey.isEmpty());
+    assertEquals(0, watchedKeys2CacheKey.size());
     assertTrue(cacheKey2WatchedKeys.isEmpty());
   }
 }
@@ -20,29 +20,42 @@ import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.message.Topics;
 import com.ctrip.framework.apollo.biz.utils.EntityManagerUtil;
+import com.ctrip.framework.apollo.common.exception.BadRequestException;
 import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
+import com.ctrip.framework.apollo.configservice.util.ClientNotificationsUtil;
+import com.ctrip.framework.apollo.configservice.util.LongPollingDrainUtil;
 import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
+import com.ctrip.framework.apollo.configservice.util.NotificationFanOutUtil;
 import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
 import com.ctrip.framework.apollo.configservice.wrapper.DeferredResultWrapper;
+import com.ctrip.framework.apollo.configservice.wrapper.WatchKeyRegistry;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
+import com.ctrip.framework.apollo.core.utils.NotificationsCodec;
 import com.google.common.base.Joiner;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.context.request.async.DeferredResult;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
@@ -77,19 +90,29 @@ public class NotificationControllerV2Test {
   @Mock
   private BizConfig bizConfig;
 
+  private NotificationFanOutUtil notificationFanOutUtil;
+  private LongPollingDrainUtil longPollingDrainUtil;
+  private SimpleMeterRegistry meterRegistry;
+
   private Gson gson;
 
-  private Multimap<String, DeferredResultWrapper> deferredResults;
+  private WatchKeyRegistry<DeferredResultWrapper> deferredResults;
 
   @Before
   public void setUp() throws Exception {
     gson = new Gson();
-    controller = new NotificationControllerV2(
-        watchKeysUtil, releaseMessageService, entityManagerUtil, namespaceUtil, gson, bizConfig
-    );
 
     when(bizConfig.releaseMessageNotificationBatch()).thenReturn(100);
     when(bizConfig.releaseMessageNotificationBatchIntervalInMilli()).thenReturn(5);
+    when(bizConfig.releaseMessageNotificationThreads()).thenReturn(2);
+
+    meterRegistry = new SimpleMeterRegistry();
+    notificationFanOutUtil = new NotificationFanOutUtil(bizConfig, meterRegistry);
+    longPollingDrainUtil = new LongPollingDrainUtil(bizConfig);
+    controller = new NotificationControllerV2(
+        watchKeysUtil, notificationFanOutUtil, new ClientNotificationsUtil(namespaceUtil, gson), releaseMessageService,
+        entityManagerUtil, longPollingDrainUtil, bizConfig, meterRegistry
+    );
 
     someAppId = "someAppId";
     someCluster = "someCluster";
@@ -106,7 +129,12 @@ public class NotificationControllerV2Test {
     when(namespaceUtil.normalizeNamespace(someAppId, somePublicNamespace)).thenReturn(somePublicNamespace);
 
     deferredResults =
-        (Multimap<String, DeferredResultWrapper>) ReflectionTestUtils.getField(controller, "deferredResults");
+        (WatchKeyRegistry<DeferredResultWrapper>) ReflectionTestUtils.getField(controller, "deferredResults");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    notificationFanOutUtil.destroy();
   }
 
   @Test
@@ -125,12 +153,16 @@ public class NotificationControllerV2Test {
             someDataCenter)).thenReturn(
         watchKeysMap);
 
-    DeferredResult<ResponseEntity<List<ApolloConfigNotification>>>
+    DeferredResult<ResponseEntity<?>>
         deferredResult = controller
         .pollNotification(someAppId, someCluster, notificationAsString, someDataCenter,
             someClientIp);
 
     assertEquals(watchKeysMap.size(), deferredResults.size());
+    assertEquals(1, meterRegistry.get("apollo.notification.clients").tag("channel", "long-polling").gauge().value(),
+        0);
+    assertEquals(watchKeysMap.size(),
+        meterRegistry.get("apollo.notification.watchers").tag("channel", "long-polling").gauge().value(), 0);
 
     assertWatchKeys(watchKeysMap, deferredResult);
   }
@@ -154,7 +186,7 @@ public class NotificationControllerV2Test {
             someDataCenter)).thenReturn(
         watchKeysMap);
 
-    DeferredResult<ResponseEntity<List<ApolloConfigNotification>>>
+    DeferredResult<ResponseEntity<?>>
         deferredResult = controller
         .pollNotification(someAppId, someCluster, notificationAsString, someDataCenter,
             someClientIp);
@@ -198,7 +230,7 @@ public class NotificationControllerV2Test {
             someDataCenter)).thenReturn(
         watchKeysMap);
 
-    DeferredResult<ResponseEntity<List<ApolloConfigNotification>>>
+    DeferredResult<ResponseEntity<?>>
         deferredResult = controller
         .pollNotification(someAppId, someCluster, notificationAsString, someDataCenter,
             someClientIp);
@@ -247,7 +279,7 @@ public class NotificationControllerV2Test {
         transformApolloConfigNotificationsToString(defaultNamespace, someNotificationId,
             somePublicNamespace, someNotificationId);
 
-    DeferredResult<ResponseEntity<List<ApolloConfigNotification>>>
+    DeferredResult<ResponseEntity<?>>
         deferredResult = controller
         .pollNotification(someAppId, someCluster, notificationAsString, someDataCenter,
             someClientIp);
@@ -266,6 +298,52 @@ public class NotificationControllerV2Test {
     assertEquals(yetAnotherNotificationId, notificationMessages.get(yetAnotherWatchKey).longValue());
   }
 
+  @Test
+  public void testPollNotificationWithBody() throws Exception {
+    String someWatchKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
+        .join(someAppId, someCluster, defaultNamespace);
+    long notificationId = someNotificationId + 1;
+
+    Multimap<String, String> watchKeysMap =
+        assembleMultiMap(defaultNamespace, Lists.newArrayList(someWatchKey));
+
+    when(watchKeysUtil
+        .assembleAllWatchKeys(someAppId, someCluster, Sets.newHashSet(defaultNamespace),
+            someDataCenter)).thenReturn(
+        watchKeysMap);
+
+    ReleaseMessage someReleaseMessage = mock(ReleaseMessage.class);
+    when(someReleaseMessage.getId()).thenReturn(notificationId);
+    when(someReleaseMessage.getMessage()).thenReturn(someWatchKey);
+    when(releaseMessageService
+        .findLatestReleaseMessagesGroupByMessages(Sets.newHashSet(someWatchKey)))
+        .thenReturn(Lists.newArrayList(someReleaseMessage));
+
+    byte[] notificationsContent =
+        NotificationsCodec.encode(ImmutableMap.of(defaultNamespace, someNotificationId));
+
+    DeferredResult<ResponseEntity<?>>
+        deferredResult = controller
+        .pollNotificationWithBody(someAppId, someCluster, someDataCenter, someClientIp,
+            notificationsContent);
+
+    ResponseEntity<List<ApolloConfigNotification>> result =
+        (ResponseEntity<List<ApolloConfigNotification>>) deferredResult.getResult();
+
+    assertEquals(HttpStatus.OK, result.getStatusCode());
+    assertEquals(NotificationsCodec.CONTENT_TYPE,
+        result.getHeaders().getFirst(NotificationsCodec.ACCEPT_NOTIFICATIONS_HEADER));
+    assertEquals(1, result.getBody().size());
+    assertEquals(defaultNamespace, result.getBody().get(0).getNamespaceName());
+    assertEquals(notificationId, result.getBody().get(0).getNotificationId());
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void testPollNotificationWithInvalidBody() throws Exception {
+    controller.pollNotificationWithBody(someAppId, someCluster, someDataCenter, someClientIp,
+        "someInvalidNotifications".getBytes(StandardCharsets.UTF_8));
+  }
+
   @Test
   public void testPollNotificationWithMultipleNamespacesAndHandleMessage() throws Exception {
     String someWatchKey = "someKey";
@@ -286,7 +364,7 @@ public class NotificationControllerV2Test {
         transformApolloConfigNotificationsToString(defaultNamespace, someNotificationId,
             somePublicNamespace, someNotificationId);
 
-    DeferredResult<ResponseEntity<List<ApolloConfigNotification>>>
+    DeferredResult<ResponseEntity<?>>
         deferredResult = controller
         .pollNotification(someAppId, someCluster, notificationAsString, someDataCenter,
             someClientIp);
@@ -299,16 +377,17 @@ public class NotificationControllerV2Test {
 
     controller.handleMessage(someReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
 
-    ResponseEntity<List<ApolloConfigNotification>> response =
-        (ResponseEntity<List<ApolloConfigNotification>>) deferredResult.getResult();
+    ResponseEntity<byte[]> response = (ResponseEntity<byte[]>) deferredResult.getResult();
+    List<ApolloConfigNotification> notifications = decodeNotifications(response);
 
-    assertEquals(1, response.getBody().size());
-    ApolloConfigNotification notification = response.getBody().get(0);
+    assertEquals(1, notifications.size());
+    ApolloConfigNotification notification = notifications.get(0);
     assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(MediaType.APPLICATION_JSON, response.getHeaders().getContentType());
     assertEquals(somePublicNamespace, notification.getNamespaceName());
     assertEquals(someId, notification.getNotificationId());
 
-    ApolloNotificationMessages notificationMessages = response.getBody().get(0).getMessages();
+    ApolloNotificationMessages notificationMessages = notification.getMessages();
     assertEquals(1, notificationMessages.getDetails().size());
     assertEquals(someId, notificationMessages.get(anotherWatchKey).longValue());
   }
@@ -318,7 +397,7 @@ public class NotificationControllerV2Test {
     String someWatchKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
         .join(someAppId, someCluster, defaultNamespace);
     int someBatch = 1;
-    int someBatchInterval = 10;
+    int someBatchInterval = 100;
 
     Multimap<String, String> watchKeysMap =
         assembleMultiMap(defaultNamespace, Lists.newArrayList(someWatchKey));
@@ -333,14 +412,18 @@ public class NotificationControllerV2Test {
     when(bizConfig.releaseMessageNotificationBatch()).thenReturn(someBatch);
     when(bizConfig.releaseMessageNotificationBatchIntervalInMilli()).thenReturn(someBatchInterval);
 
-    DeferredResult<ResponseEntity<List<ApolloConfigNotification>>>
+    DeferredResult<ResponseEntity<?>>
         deferredResult = controller
         .pollNotification(someAppId, someCluster, notificationAsString, someDataCenter,
             someClientIp);
-    DeferredResult<ResponseEntity<List<ApolloConfigNotification>>>
+    DeferredResult<ResponseEntity<?>>
         anotherDeferredResult = controller
         .pollNotification(someAppId, someCluster, notificationAsString, someDataCenter,
             someClientIp);
+    DeferredResult<ResponseEntity<?>>
+        yetAnotherDeferredResult = controller
+        .pollNotification(someAppId, someCluster, notificationAsString, someDataCenter,
+            someClientIp);
 
     long someId = 1;
     ReleaseMessage someReleaseMessage = new ReleaseMessage(someWatchKey);
@@ -348,12 +431,40 @@ public class NotificationControllerV2Test {
 
     controller.handleMessage(someReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
 
-    //in batch mode, at most one of them should have result
-    assertFalse(deferredResult.hasResult() && anotherDeferredResult.hasResult());
+    //in batch mode, each of the 2 threads notifies one batch per interval, so at most two of them should have result
+    assertFalse(deferredResult.hasResult() && anotherDeferredResult.hasResult()
+        && yetAnotherDeferredResult.hasResult());
 
-    //now both of them should have result
-    await().atMost(someBatchInterval * 500, TimeUnit.MILLISECONDS).untilAsserted(
-        () -> assertTrue(deferredResult.hasResult() && anotherDeferredResult.hasResult()));
+    //now all of them should have result
+    await().atMost(someBatchInterval * 50, TimeUnit.MILLISECONDS).untilAsserted(
+        () -> assertTrue(deferredResult.hasResult() && anotherDeferredResult.hasResult()
+            && yetAnotherDeferredResult.hasResult()));
+  }
+
+  @Test
+  public void testPollNotificationWhenDraining() throws Exception {
+    long someRetryAfter = 1000;
+    long someRetryJitter = 30000;
+    when(bizConfig.longPollingRetryAfterInMilli()).thenReturn((int) someRetryAfter);
+    when(bizConfig.longPollingRetryJitterInMilli()).thenReturn((int) someRetryJitter);
+
+    String notificationAsString =
+        transformApolloConfigNotificationsToString(defaultNamespace, someNotificationId);
+
+    longPollingDrainUtil.stop();
+
+    DeferredResult<ResponseEntity<?>>
+        deferredResult = controller
+        .pollNotification(someAppId, someCluster, notificationAsString, someDataCenter,
+            someClientIp);
+
+    assertTrue(deferredResult.hasResult());
+    ResponseEntity<?> response = (ResponseEntity<?>) deferredResult.getResult();
+    assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+    assertEquals(String.valueOf(someRetryAfter), response.getHeaders().getFirst(RetryHint.RETRY_AFTER_HEADER));
+    assertEquals(String.valueOf(someRetryJitter), response.getHeaders().getFirst(RetryHint.RETRY_JITTER_HEADER));
+    assertEquals(0, deferredResults.size());
+    verify(watchKeysUtil, never()).assembleAllWatchKeys(anyString(), anyString(), anySet(), anyString());
   }
 
   @Test
@@ -377,7 +488,7 @@ public class NotificationControllerV2Test {
         .assembleAllWatchKeys(appIdWithIncorrectCase, someCluster, Sets.newHashSet(defaultNamespace),
             someDataCenter)).thenReturn(watchKeysMap);
 
-    DeferredResult<ResponseEntity<List<ApolloConfigNotification>>>
+    DeferredResult<ResponseEntity<?>>
         deferredResult = controller
         .pollNotification(appIdWithIncorrectCase, someCluster, notificationAsString, someDataCenter,
             someClientIp);
@@ -390,11 +501,11 @@ public class NotificationControllerV2Test {
 
     assertTrue(deferredResult.hasResult());
 
-    ResponseEntity<List<ApolloConfigNotification>> response =
-        (ResponseEntity<List<ApolloConfigNotification>>) deferredResult.getResult();
+    ResponseEntity<byte[]> response = (ResponseEntity<byte[]>) deferredResult.getResult();
+    List<ApolloConfigNotification> notifications = decodeNotifications(response);
 
-    assertEquals(1, response.getBody().size());
-    ApolloConfigNotification notification = response.getBody().get(0);
+    assertEquals(1, notifications.size());
+    ApolloConfigNotification notification = notifications.get(0);
     assertEquals(HttpStatus.OK, response.getStatusCode());
     assertEquals(namespaceWithIncorrectCase, notification.getNamespaceName());
     assertEquals(someId, notification.getNotificationId());
@@ -405,6 +516,12 @@ public class NotificationControllerV2Test {
 
   }
 
+  private List<ApolloConfigNotification> decodeNotifications(ResponseEntity<byte[]> response) {
+    return gson.fromJson(new String(response.getBody(), StandardCharsets.UTF_8),
+        new TypeToken<List<ApolloConfigNotification>>() {
+        }.getType());
+  }
+
   private String transformApolloConfigNotificationsToString(
       String namespace, long notificationId) {
     List<ApolloConfigNotification> notifications =
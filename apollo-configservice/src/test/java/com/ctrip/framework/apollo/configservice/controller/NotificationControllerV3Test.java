@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.controller;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.common.exception.BadRequestException;
+import com.ctrip.framework.apollo.configservice.service.NotificationStreamService;
+import com.ctrip.framework.apollo.configservice.util.ClientNotificationsUtil;
+import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.SseEmitterWrapper;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NotificationControllerV3Test {
+  private NotificationControllerV3 controller;
+  private String someAppId;
+  private String someCluster;
+  private String defaultNamespace;
+  private String someDataCenter;
+  private long someNotificationId;
+  private String someClientIp;
+  @Mock
+  private NamespaceUtil namespaceUtil;
+  @Mock
+  private NotificationStreamService notificationStreamService;
+  @Mock
+  private BizConfig bizConfig;
+
+  private Gson gson;
+
+  @Before
+  public void setUp() throws Exception {
+    gson = new Gson();
+
+    controller = new NotificationControllerV3(new ClientNotificationsUtil(namespaceUtil, gson),
+        notificationStreamService, bizConfig);
+
+    someAppId = "someAppId";
+    someCluster = "someCluster";
+    defaultNamespace = ConfigConsts.NAMESPACE_APPLICATION;
+    someDataCenter = "someDC";
+    someNotificationId = 1;
+    someClientIp = "someClientIp";
+  }
+
+  @Test
+  public void testStreamNotifications() throws Exception {
+    when(bizConfig.notificationStreamTimeoutInMilli()).thenReturn(60000L);
+    when(namespaceUtil.filterNamespaceName(defaultNamespace)).thenReturn(defaultNamespace);
+    when(namespaceUtil.normalizeNamespace(someAppId, defaultNamespace)).thenReturn(defaultNamespace);
+
+    SseEmitter emitter = controller.streamNotifications(someAppId, someCluster,
+        transformApolloConfigNotificationsToString(defaultNamespace, someNotificationId), someDataCenter,
+        someClientIp);
+
+    assertEquals(60000L, emitter.getTimeout().longValue());
+
+    ArgumentCaptor<SseEmitterWrapper> streamCaptor = ArgumentCaptor.forClass(SseEmitterWrapper.class);
+    ArgumentCaptor<Map> notificationsCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(notificationStreamService, times(1)).subscribe(streamCaptor.capture(), eq(someAppId),
+        eq(someCluster), notificationsCaptor.capture(), eq(someDataCenter));
+
+    assertSame(emitter, streamCaptor.getValue().getEmitter());
+    assertEquals(1, notificationsCaptor.getValue().size());
+    assertEquals(someNotificationId,
+        ((ApolloConfigNotification) notificationsCaptor.getValue().get(defaultNamespace)).getNotificationId());
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void testStreamNotificationsWithInvalidNotifications() throws Exception {
+    try {
+      controller.streamNotifications(someAppId, someCluster, "someInvalidNotifications", someDataCenter,
+          someClientIp);
+    } finally {
+      verify(notificationStreamService, never()).subscribe(any(), anyString(), anyString(), anyMap(), any());
+    }
+  }
+
+  private String transformApolloConfigNotificationsToString(String namespace, long notificationId) {
+    return gson.toJson(Lists.newArrayList(new ApolloConfigNotification(namespace, notificationId)));
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.controller;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageScanner;
+import com.ctrip.framework.apollo.configservice.service.ReleaseMessageScanLeaseService;
+import com.ctrip.framework.apollo.configservice.wrapper.ReleaseMessageBatch;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpStatus;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReleaseMessageControllerTest {
+  private ReleaseMessageController releaseMessageController;
+  @Mock
+  private ReleaseMessageScanner releaseMessageScanner;
+  @Mock
+  private ReleaseMessageScanLeaseService releaseMessageScanLeaseService;
+  @Mock
+  private BizConfig bizConfig;
+  private String someToken;
+
+  @Before
+  public void setUp() throws Exception {
+    releaseMessageController = new ReleaseMessageController(releaseMessageScanner, releaseMessageScanLeaseService,
+        bizConfig);
+    someToken = "someToken";
+  }
+
+  @Test
+  public void testOnReleaseMessage() throws Exception {
+    long someId = 1;
+
+    when(bizConfig.releaseMessageBroadcastToken()).thenReturn(someToken);
+
+    assertEquals(HttpStatus.OK, releaseMessageController.onReleaseMessage(someId, someToken).getStatusCode());
+
+    verify(releaseMessageScanner, times(1)).triggerScan(someId);
+  }
+
+  @Test
+  public void testOnReleaseMessageWithInvalidToken() throws Exception {
+    long someId = 1;
+
+    when(bizConfig.releaseMessageBroadcastToken()).thenReturn(someToken);
+
+    assertEquals(HttpStatus.UNAUTHORIZED,
+        releaseMessageController.onReleaseMessage(someId, "anotherToken").getStatusCode());
+    assertEquals(HttpStatus.UNAUTHORIZED, releaseMessageController.onReleaseMessage(someId, null).getStatusCode());
+
+    verify(releaseMessageScanner, never()).triggerScan(anyLong());
+  }
+
+  @Test
+  public void testOnReleaseMessageWithoutTokenConfigured() throws Exception {
+    long someId = 1;
+
+    when(bizConfig.releaseMessageBroadcastToken()).thenReturn(null);
+
+    assertEquals(HttpStatus.UNAUTHORIZED,
+        releaseMessageController.onReleaseMessage(someId, someToken).getStatusCode());
+
+    verify(releaseMessageScanner, never()).triggerScan(anyLong());
+  }
+
+  @Test
+  public void testOnReleaseMessageBatch() throws Exception {
+    ReleaseMessageBatch someBatch = new ReleaseMessageBatch();
+    ReleaseMessageBatch anotherBatch = new ReleaseMessageBatch();
+
+    when(releaseMessageScanLeaseService.receiveBatch(someBatch)).thenReturn(true);
+    when(releaseMessageScanLeaseService.receiveBatch(anotherBatch)).thenReturn(false);
+
+    assertEquals(HttpStatus.OK, releaseMessageController.onReleaseMessageBatch(someBatch).getStatusCode());
+    assertEquals(HttpStatus.FORBIDDEN, releaseMessageController.onReleaseMessageBatch(anotherBatch).getStatusCode());
+  }
+}
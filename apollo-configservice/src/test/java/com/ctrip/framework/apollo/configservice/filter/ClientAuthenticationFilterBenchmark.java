@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.filter;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.configservice.util.AccessKeyUtil;
+import com.ctrip.framework.apollo.core.signature.HmacSha1Signer;
+import com.ctrip.framework.apollo.core.signature.Signature;
+import com.google.common.collect.Lists;
+import com.google.common.net.HttpHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the client authentication overhead of a config service request, the signature is signed by the last of the
+ * available secrets of the app. The baseline signs with a new Mac per secret and compares the base64 strings, as the
+ * filter did before the signers were reused.
+ *
+ * <p>Run it after {@code mvn test-compile -pl apollo-configservice} with the main method, or with
+ * {@code org.openjdk.jmh.Main ClientAuthenticationFilterBenchmark} and the test classpath of apollo-configservice.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientAuthenticationFilterBenchmark {
+  private static final String SOME_APP_ID = "someAppId";
+  private static final String SOME_PATH = "/configs/someAppId/default/application";
+  private static final String SOME_QUERY = "ip=10.0.0.1&releaseKey=20210101000000-abcdef0123456789";
+  private static final FilterChain NOOP_CHAIN = (request, response) -> {
+  };
+
+  @Param({"1", "3"})
+  private int secrets;
+
+  private List<String> availableSecrets;
+  private String timestamp;
+  private String signature;
+  private String authorization;
+  private String stringToSign;
+  private HmacSha1Signer signer;
+  private AccessKeyUtil accessKeyUtil;
+  private ClientAuthenticationFilter filter;
+  private ClientAuthenticationFilter filterWithVerifiedCache;
+  private MockHttpServletRequest request;
+  private MockHttpServletResponse response;
+
+  @Setup
+  public void setUp() {
+    availableSecrets = Lists.newArrayList();
+    for (int i = 0; i < secrets; i++) {
+      availableSecrets.add("someSecret" + i + "-0123456789abcdef");
+    }
+    String secret = availableSecrets.get(secrets - 1);
+
+    timestamp = String.valueOf(System.currentTimeMillis());
+    stringToSign = Signature.stringToSign(timestamp, SOME_PATH + "?" + SOME_QUERY);
+    signature = Signature.signature(timestamp, SOME_PATH + "?" + SOME_QUERY, secret);
+    authorization = "Apollo " + SOME_APP_ID + ":" + signature;
+    signer = new HmacSha1Signer(secret);
+
+    accessKeyUtil = new AccessKeyUtil(null) {
+      @Override
+      public List<String> findAvailableSecret(String appId) {
+        return availableSecrets;
+      }
+    };
+    filter = new ClientAuthenticationFilter(assembleBizConfig(0), accessKeyUtil);
+    filterWithVerifiedCache = new ClientAuthenticationFilter(assembleBizConfig(1000), accessKeyUtil);
+
+    request = new MockHttpServletRequest("GET", SOME_PATH);
+    request.setServletPath(SOME_PATH);
+    request.setQueryString(SOME_QUERY);
+    request.addHeader(Signature.HTTP_HEADER_TIMESTAMP, timestamp);
+    request.addHeader(HttpHeaders.AUTHORIZATION, authorization);
+    response = new MockHttpServletResponse();
+
+    //make sure the accepted path is measured instead of the rejected one
+    if (!baselineVerify() || !accessKeyUtilVerify()) {
+      throw new IllegalStateException("The signature is not verified");
+    }
+  }
+
+  @Benchmark
+  public String baselineSign() {
+    return Signature.signature(timestamp, SOME_PATH + "?" + SOME_QUERY, availableSecrets.get(0));
+  }
+
+  @Benchmark
+  public String signerSign() {
+    return signer.signString(stringToSign);
+  }
+
+  @Benchmark
+  public boolean baselineVerify() {
+    String signature = authorization.split(":")[1];
+    for (String secret : availableSecrets) {
+      if (Objects.equals(signature, Signature.signature(timestamp, SOME_PATH + "?" + SOME_QUERY, secret))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Benchmark
+  public boolean accessKeyUtilVerify() {
+    return accessKeyUtil.verifySignature(SOME_PATH, SOME_QUERY, timestamp, signature, availableSecrets);
+  }
+
+  @Benchmark
+  public int filter() throws Exception {
+    filter.doFilter(request, response, NOOP_CHAIN);
+    return response.getStatus();
+  }
+
+  @Benchmark
+  public int filterWithVerifiedCache() throws Exception {
+    filterWithVerifiedCache.doFilter(request, response, NOOP_CHAIN);
+    return response.getStatus();
+  }
+
+  private static BizConfig assembleBizConfig(int authCacheTtlInMilli) {
+    return new BizConfig(null) {
+      @Override
+      public int accessKeyAuthTimeDiffTolerance() {
+        //long enough for the whole run
+        return (int) TimeUnit.HOURS.toSeconds(1);
+      }
+
+      @Override
+      public int accessKeyAuthCacheTtlInMilli() {
+        return authCacheTtlInMilli;
+      }
+    };
+  }
+
+  public static void main(String[] args) throws Exception {
+    new Runner(new OptionsBuilder().include(ClientAuthenticationFilterBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+}
@@ -17,6 +17,7 @@
 package com.ctrip.framework.apollo.configservice.filter;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -106,14 +107,14 @@ public class ClientAuthenticationFilterTest {
   @Test
   public void testUnauthorized() throws Exception {
     String appId = "someAppId";
-    String availableSignature = "someSignature";
     List<String> secrets = Lists.newArrayList("someSecret");
     String oneMinAgoTimestamp = Long.toString(System.currentTimeMillis());
     String errorAuthorization = "Apollo someAppId:wrongSignature";
 
     when(accessKeyUtil.extractAppIdFromRequest(any())).thenReturn(appId);
     when(accessKeyUtil.findAvailableSecret(appId)).thenReturn(secrets);
-    when(accessKeyUtil.buildSignature(any(), any(), any(), any())).thenReturn(availableSignature);
+    when(accessKeyUtil.verifySignature(any(), any(), eq(oneMinAgoTimestamp), eq("wrongSignature"), eq(secrets)))
+        .thenReturn(false);
     when(request.getHeader(Signature.HTTP_HEADER_TIMESTAMP)).thenReturn(oneMinAgoTimestamp);
     when(request.getHeader(HttpHeaders.AUTHORIZATION)).thenReturn(errorAuthorization);
     when(bizConfig.accessKeyAuthTimeDiffTolerance()).thenReturn(60);
@@ -127,14 +128,14 @@ public class ClientAuthenticationFilterTest {
   @Test
   public void testAuthorizedSuccessfully() throws Exception {
     String appId = "someAppId";
-    String availableSignature = "someSignature";
     List<String> secrets = Lists.newArrayList("someSecret");
     String oneMinAgoTimestamp = Long.toString(System.currentTimeMillis());
     String correctAuthorization = "Apollo someAppId:someSignature";
 
     when(accessKeyUtil.extractAppIdFromRequest(any())).thenReturn(appId);
     when(accessKeyUtil.findAvailableSecret(appId)).thenReturn(secrets);
-    when(accessKeyUtil.buildSignature(any(), any(), any(), any())).thenReturn(availableSignature);
+    when(accessKeyUtil.verifySignature(any(), any(), eq(oneMinAgoTimestamp), eq("someSignature"), eq(secrets)))
+        .thenReturn(true);
     when(request.getHeader(Signature.HTTP_HEADER_TIMESTAMP)).thenReturn(oneMinAgoTimestamp);
     when(request.getHeader(HttpHeaders.AUTHORIZATION)).thenReturn(correctAuthorization);
     when(bizConfig.accessKeyAuthTimeDiffTolerance()).thenReturn(60);
@@ -146,4 +147,31 @@ public class ClientAuthenticationFilterTest {
     verify(response, never()).sendError(HttpServletResponse.SC_UNAUTHORIZED, "Unauthorized");
     verify(filterChain, times(1)).doFilter(request, response);
   }
+
+  @Test
+  public void testAuthorizedWithVerifiedSignatureCache() throws Exception {
+    String appId = "someAppId";
+    String someUri = "/configs/someAppId/default/application";
+    List<String> secrets = Lists.newArrayList("someSecret");
+    String timestamp = Long.toString(System.currentTimeMillis());
+    String correctAuthorization = "Apollo someAppId:someSignature";
+
+    when(bizConfig.accessKeyAuthCacheTtlInMilli()).thenReturn(10000);
+    clientAuthenticationFilter = new ClientAuthenticationFilter(bizConfig, accessKeyUtil);
+
+    when(accessKeyUtil.extractAppIdFromRequest(any())).thenReturn(appId);
+    when(accessKeyUtil.findAvailableSecret(appId)).thenReturn(secrets);
+    when(accessKeyUtil.verifySignature(someUri, null, timestamp, "someSignature", secrets)).thenReturn(true);
+    when(request.getRequestURI()).thenReturn(someUri);
+    when(request.getHeader(Signature.HTTP_HEADER_TIMESTAMP)).thenReturn(timestamp);
+    when(request.getHeader(HttpHeaders.AUTHORIZATION)).thenReturn(correctAuthorization);
+    when(bizConfig.accessKeyAuthTimeDiffTolerance()).thenReturn(60);
+
+    clientAuthenticationFilter.doFilter(request, response, filterChain);
+    clientAuthenticationFilter.doFilter(request, response, filterChain);
+
+    verify(accessKeyUtil, times(1)).verifySignature(someUri, null, timestamp, "someSignature", secrets);
+    verify(response, never()).sendError(HttpServletResponse.SC_UNAUTHORIZED, "Unauthorized");
+    verify(filterChain, times(2)).doFilter(request, response);
+  }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.filter;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReleaseMessageCacheReadinessFilterTest {
+
+  private ReleaseMessageCacheReadinessFilter releaseMessageCacheReadinessFilter;
+
+  @Mock
+  private ReleaseMessageServiceWithCache releaseMessageServiceWithCache;
+  @Mock
+  private HttpServletRequest request;
+  @Mock
+  private HttpServletResponse response;
+  @Mock
+  private FilterChain filterChain;
+
+  @Before
+  public void setUp() {
+    releaseMessageCacheReadinessFilter = new ReleaseMessageCacheReadinessFilter(releaseMessageServiceWithCache);
+  }
+
+  @Test
+  public void testInitialLoadNotCompleted() throws Exception {
+    when(releaseMessageServiceWithCache.isInitialLoadCompleted()).thenReturn(false);
+
+    releaseMessageCacheReadinessFilter.doFilter(request, response, filterChain);
+
+    verify(response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "ReleaseMessagesLoading");
+    verify(filterChain, never()).doFilter(request, response);
+  }
+
+  @Test
+  public void testInitialLoadCompleted() throws Exception {
+    when(releaseMessageServiceWithCache.isInitialLoadCompleted()).thenReturn(true);
+
+    releaseMessageCacheReadinessFilter.doFilter(request, response, filterChain);
+
+    verify(response, never()).sendError(anyInt(), anyString());
+    verify(filterChain).doFilter(request, response);
+  }
+}
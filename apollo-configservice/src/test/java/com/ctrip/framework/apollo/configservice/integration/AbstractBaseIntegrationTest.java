@@ -27,7 +27,9 @@ import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.repository.ReleaseMessageRepository;
 import com.ctrip.framework.apollo.biz.repository.ReleaseRepository;
 import com.ctrip.framework.apollo.biz.utils.ReleaseKeyGenerator;
+import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
 
+import org.junit.Before;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -51,6 +53,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.PostConstruct;
 
+import static org.awaitility.Awaitility.await;
+
 /**
  * @author Jason Song(song_s@ctrip.com)
  */
@@ -61,6 +65,8 @@ public abstract class AbstractBaseIntegrationTest {
   private ReleaseMessageRepository releaseMessageRepository;
   @Autowired
   private ReleaseRepository releaseRepository;
+  @Autowired
+  private ReleaseMessageServiceWithCache releaseMessageServiceWithCache;
 
   private static final Gson GSON = new Gson();
 
@@ -72,6 +78,12 @@ public abstract class AbstractBaseIntegrationTest {
     restTemplate.setErrorHandler(new DefaultResponseErrorHandler());
   }
 
+  @Before
+  public void waitForReleaseMessagesLoaded() {
+    //the client requests are rejected until then
+    await().atMost(10, TimeUnit.SECONDS).until(releaseMessageServiceWithCache::isInitialLoadCompleted);
+  }
+
   @Value("${local.server.port}")
   int port;
 
@@ -21,10 +21,15 @@ import com.google.common.base.Joiner;
 
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.enums.ConfigSyncType;
+import com.ctrip.framework.apollo.core.enums.ConfigurationChangeType;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.jdbc.Sql;
@@ -37,6 +42,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
@@ -84,6 +90,77 @@ public class ConfigControllerIntegrationTest extends AbstractBaseIntegrationTest
     assertEquals("v1", result.getConfigurations().get("k1"));
   }
 
+  @Test
+  @Sql(scripts = "/integration-test/test-release.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+  @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+  public void testQueryConfigWithIfNoneMatch() throws Exception {
+    ResponseEntity<ApolloConfig> response = restTemplate
+        .getForEntity("http://{baseurl}/configs/{appId}/{clusterName}/{namespace}", ApolloConfig.class,
+            getHostUrl(), someAppId, ConfigConsts.CLUSTER_NAME_DEFAULT, ConfigConsts.NAMESPACE_APPLICATION);
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals("\"TEST-RELEASE-KEY1\"", response.getHeaders().getETag());
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setIfNoneMatch(response.getHeaders().getETag());
+    ResponseEntity<ApolloConfig> anotherResponse = restTemplate
+        .exchange("http://{baseurl}/configs/{appId}/{clusterName}/{namespace}", HttpMethod.GET,
+            new HttpEntity<>(headers), ApolloConfig.class, getHostUrl(), someAppId,
+            ConfigConsts.CLUSTER_NAME_DEFAULT, ConfigConsts.NAMESPACE_APPLICATION);
+
+    assertEquals(HttpStatus.NOT_MODIFIED, anotherResponse.getStatusCode());
+    assertEquals("\"TEST-RELEASE-KEY1\"", anotherResponse.getHeaders().getETag());
+  }
+
+  @Test
+  @Sql(scripts = "/integration-test/test-release.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+  @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+  public void testQueryConfigFileWithIfNoneMatch() throws Exception {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setIfNoneMatch("\"TEST-RELEASE-KEY1\"");
+    ResponseEntity<String> response = restTemplate
+        .exchange("http://{baseurl}/configfiles/{appId}/{clusterName}/{namespace}", HttpMethod.GET,
+            new HttpEntity<>(headers), String.class, getHostUrl(), someAppId,
+            ConfigConsts.CLUSTER_NAME_DEFAULT, ConfigConsts.NAMESPACE_APPLICATION);
+
+    assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+    assertNull(response.getBody());
+  }
+
+  @Test
+  @Sql(scripts = "/integration-test/test-release.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+  @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+  public void testQueryConfigDeltaWithDefaultClusterAndDefaultNamespace() throws Exception {
+    ResponseEntity<ApolloConfig> response = restTemplate
+        .getForEntity("http://{baseurl}/configs/{appId}/{clusterName}/{namespace}?releaseKey={releaseKey}&delta=true",
+            ApolloConfig.class, getHostUrl(), someAppId, ConfigConsts.CLUSTER_NAME_DEFAULT,
+            ConfigConsts.NAMESPACE_APPLICATION, "TEST-GRAY-RELEASE-KEY1");
+    ApolloConfig result = response.getBody();
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals("TEST-RELEASE-KEY1", result.getReleaseKey());
+    assertEquals(ConfigSyncType.DELTA, result.getConfigSyncType());
+    assertEquals(1, result.getConfigurationChanges().size());
+    assertEquals("k1", result.getConfigurationChanges().get(0).getKey());
+    assertEquals("v1", result.getConfigurationChanges().get(0).getNewValue());
+    assertEquals(ConfigurationChangeType.MODIFIED, result.getConfigurationChanges().get(0).getChangeType());
+  }
+
+  @Test
+  @Sql(scripts = "/integration-test/test-release.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+  @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+  public void testQueryConfigDeltaWithUnknownReleaseKey() throws Exception {
+    ResponseEntity<ApolloConfig> response = restTemplate
+        .getForEntity("http://{baseurl}/configs/{appId}/{clusterName}/{namespace}?releaseKey={releaseKey}&delta=true",
+            ApolloConfig.class, getHostUrl(), someAppId, ConfigConsts.CLUSTER_NAME_DEFAULT,
+            ConfigConsts.NAMESPACE_APPLICATION, "someUnknownReleaseKey");
+    ApolloConfig result = response.getBody();
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertNull(result.getConfigSyncType());
+    assertEquals("v1", result.getConfigurations().get("k1"));
+  }
+
   @Test
   @Sql(scripts = "/integration-test/test-release.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
   @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
@@ -174,6 +251,32 @@ public class ConfigControllerIntegrationTest extends AbstractBaseIntegrationTest
     assertEquals("v2", result.getConfigurations().get("k2"));
   }
 
+  @Test
+  @Sql(scripts = "/integration-test/test-release.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+  @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+  public void testQueryConfigsInBatch() throws Exception {
+    String someUnknownNamespace = "someUnknownNamespace";
+    ResponseEntity<ApolloConfig[]> response = restTemplate
+        .getForEntity("http://{baseurl}/configs/batch?appId={appId}&cluster={clusterName}&namespaces={namespaces}"
+                + "&dataCenter={dataCenter}", ApolloConfig[].class, getHostUrl(), someAppId, someCluster,
+            String.join(",", ConfigConsts.NAMESPACE_APPLICATION, someNamespace, someUnknownNamespace,
+                somePublicNamespace), someDC);
+    ApolloConfig[] result = response.getBody();
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(3, result.length);
+    //fallback to the default cluster
+    assertEquals(ConfigConsts.CLUSTER_NAME_DEFAULT, result[0].getCluster());
+    assertEquals("TEST-RELEASE-KEY1", result[0].getReleaseKey());
+    assertEquals("v1", result[0].getConfigurations().get("k1"));
+    assertEquals(someNamespace, result[1].getNamespaceName());
+    assertEquals("TEST-RELEASE-KEY2", result[1].getReleaseKey());
+    //the public namespace of the data center
+    assertEquals(somePublicNamespace, result[2].getNamespaceName());
+    assertEquals("TEST-RELEASE-KEY4", result[2].getReleaseKey());
+    assertEquals("someDC-v1", result[2].getConfigurations().get("k1"));
+  }
+
   @Test
   @Sql(scripts = "/integration-test/test-release.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
   @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
@@ -16,8 +16,13 @@
  */
 package com.ctrip.framework.apollo.configservice.integration;
 
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageListenerMode;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageListenerStats;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageScanner;
+import com.ctrip.framework.apollo.configservice.controller.NotificationControllerV2;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.gson.Gson;
@@ -25,13 +30,17 @@ import com.google.gson.Gson;
 import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.utils.NotificationsCodec;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.jdbc.Sql;
 import org.springframework.test.util.ReflectionTestUtils;
@@ -56,6 +65,9 @@ public class NotificationControllerV2IntegrationTest extends AbstractBaseIntegra
   @Autowired
   private ReleaseMessageServiceWithCache releaseMessageServiceWithCache;
 
+  @Autowired
+  private ReleaseMessageScanner releaseMessageScanner;
+
   private String someAppId;
   private String someCluster;
   private String defaultNamespace;
@@ -102,6 +114,30 @@ public class NotificationControllerV2IntegrationTest extends AbstractBaseIntegra
     assertNotEquals(ConfigConsts.NOTIFICATION_ID_PLACEHOLDER, messages.get(key).longValue());
   }
 
+  @Test(timeout = 5000L)
+  @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+  public void testPollNotificationNotifiedOnListenerThread() throws Exception {
+    AtomicBoolean stop = new AtomicBoolean();
+    String key = assembleKey(someAppId, someCluster, defaultNamespace);
+    periodicSendMessage(executorService, key, stop);
+
+    ResponseEntity<List<ApolloConfigNotification>> result = restTemplate.exchange(
+        "http://{baseurl}/notifications/v2?appId={appId}&cluster={clusterName}&notifications={notifications}",
+        HttpMethod.GET, null, typeReference,
+        getHostUrl(), someAppId, someCluster,
+        transformApolloConfigNotificationsToString(defaultNamespace, ConfigConsts.NOTIFICATION_ID_PLACEHOLDER));
+
+    stop.set(true);
+
+    assertEquals(HttpStatus.OK, result.getStatusCode());
+    ReleaseMessageListenerStats stats = releaseMessageScanner.getListenerStats().stream()
+        .filter(listenerStats -> listenerStats.getListenerName()
+            .startsWith(NotificationControllerV2.class.getSimpleName()))
+        .findFirst().orElseThrow(IllegalStateException::new);
+    assertEquals(ReleaseMessageListenerMode.ASYNC, stats.getMode());
+    assertTrue(stats.getMessagesHandled() > 0);
+  }
+
   @Test(timeout = 5000L)
   @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
   public void testPollNotificationWithDefaultNamespaceAsFile() throws Exception {
@@ -251,6 +287,33 @@ public class NotificationControllerV2IntegrationTest extends AbstractBaseIntegra
     assertEquals(newNotificationId, messages.get(key).longValue());
   }
 
+  @Test(timeout = 5000L)
+  @Sql(scripts = "/integration-test/test-release.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+  @Sql(scripts = "/integration-test/test-release-message.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+  @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+  public void testPollNotificationWithBodyAndNotificationIdOutDated() throws Exception {
+    long someOutDatedNotificationId = 1;
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.valueOf(NotificationsCodec.CONTENT_TYPE));
+    byte[] notificationsContent = NotificationsCodec.encode(
+        ImmutableMap.of(defaultNamespace.toUpperCase(), someOutDatedNotificationId));
+
+    ResponseEntity<List<ApolloConfigNotification>> result = restTemplate.exchange(
+        "http://{baseurl}/notifications/v2?appId={appId}&cluster={clusterName}",
+        HttpMethod.POST, new HttpEntity<>(notificationsContent, headers), typeReference,
+        getHostUrl(), someAppId, someCluster);
+
+    long newNotificationId = 10;
+
+    List<ApolloConfigNotification> notifications = result.getBody();
+    assertEquals(HttpStatus.OK, result.getStatusCode());
+    assertEquals(NotificationsCodec.CONTENT_TYPE,
+        result.getHeaders().getFirst(NotificationsCodec.ACCEPT_NOTIFICATIONS_HEADER));
+    assertEquals(1, notifications.size());
+    assertEquals(defaultNamespace.toUpperCase(), notifications.get(0).getNamespaceName());
+    assertEquals(newNotificationId, notifications.get(0).getNotificationId());
+  }
+
   @Test(timeout = 5000L)
   @Sql(scripts = "/integration-test/test-release.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
   @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
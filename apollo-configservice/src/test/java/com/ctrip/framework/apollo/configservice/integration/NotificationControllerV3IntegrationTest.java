@@ -0,0 +1,154 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.integration;
+
+import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.net.UrlEscapers;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationControllerV3IntegrationTest extends AbstractBaseIntegrationTest {
+  @Autowired
+  private Gson gson;
+
+  @Autowired
+  private ReleaseMessageServiceWithCache releaseMessageServiceWithCache;
+
+  private String someAppId;
+  private String someCluster;
+  private String defaultNamespace;
+  private ExecutorService executorService;
+  private Type notificationsType;
+
+  @Before
+  public void setUp() throws Exception {
+    ReflectionTestUtils.invokeMethod(releaseMessageServiceWithCache, "reset");
+    someAppId = "someAppId";
+    someCluster = ConfigConsts.CLUSTER_NAME_DEFAULT;
+    defaultNamespace = ConfigConsts.NAMESPACE_APPLICATION;
+    executorService = Executors.newFixedThreadPool(1);
+    notificationsType = new TypeToken<List<ApolloConfigNotification>>() {
+    }.getType();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executorService.shutdownNow();
+  }
+
+  @Test(timeout = 10000L)
+  @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+  public void testStreamNotificationsOnTheSameConnection() throws Exception {
+    AtomicBoolean stop = new AtomicBoolean();
+    String key = assembleKey(someAppId, someCluster, defaultNamespace);
+    periodicSendMessage(executorService, key, stop);
+
+    HttpURLConnection connection = openStream(defaultNamespace, ConfigConsts.NOTIFICATION_ID_PLACEHOLDER);
+
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+      assertEquals(200, connection.getResponseCode());
+      assertTrue(connection.getContentType().startsWith("text/event-stream"));
+
+      ApolloConfigNotification someNotification = readNotification(reader);
+      ApolloConfigNotification anotherNotification = readNotification(reader);
+
+      assertEquals(defaultNamespace, someNotification.getNamespaceName());
+      assertTrue(someNotification.getMessages().has(key));
+      assertEquals(defaultNamespace, anotherNotification.getNamespaceName());
+      assertTrue(anotherNotification.getNotificationId() > someNotification.getNotificationId());
+    } finally {
+      stop.set(true);
+      connection.disconnect();
+    }
+  }
+
+  @Test(timeout = 10000L)
+  @Sql(scripts = "/integration-test/test-release.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+  @Sql(scripts = "/integration-test/test-release-message.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+  @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+  public void testStreamNotificationsWithOutdatedNotificationIdAndIncorrectCase() throws Exception {
+    String key = assembleKey(someAppId, someCluster, defaultNamespace);
+    long someOutDatedNotificationId = 1;
+    long newNotificationId = 10;
+    String someNamespaceWithIncorrectCase = defaultNamespace.toUpperCase();
+
+    HttpURLConnection connection = openStream(someNamespaceWithIncorrectCase, someOutDatedNotificationId);
+
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+      ApolloConfigNotification notification = readNotification(reader);
+
+      // the outdated notification is sent right after subscribing, with the namespace name the client used
+      assertEquals(someNamespaceWithIncorrectCase, notification.getNamespaceName());
+      assertEquals(newNotificationId, notification.getNotificationId());
+      assertEquals(newNotificationId, notification.getMessages().get(key).longValue());
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private HttpURLConnection openStream(String namespace, long notificationId) throws Exception {
+    String notifications = gson.toJson(Lists.newArrayList(new ApolloConfigNotification(namespace, notificationId)));
+    URL url = new URL(String.format("http://%s/notifications/v3/stream?appId=%s&cluster=%s&notifications=%s",
+        getHostUrl(), someAppId, someCluster, UrlEscapers.urlFormParameterEscaper().escape(notifications)));
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setReadTimeout(5000);
+    return connection;
+  }
+
+  private ApolloConfigNotification readNotification(BufferedReader reader) throws Exception {
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.startsWith("data:")) {
+        List<ApolloConfigNotification> notifications = gson.fromJson(line.substring("data:".length()),
+            notificationsType);
+        assertEquals(1, notifications.size());
+        return notifications.get(0);
+      }
+    }
+    throw new IllegalStateException("Notification stream is closed");
+  }
+
+  private String assembleKey(String appId, String cluster, String namespace) {
+    return Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR).join(appId, cluster, namespace);
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.integration;
+
+import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.net.UrlEscapers;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NotificationWebSocketIntegrationTest extends AbstractBaseIntegrationTest {
+  @Autowired
+  private Gson gson;
+
+  @Autowired
+  private ReleaseMessageServiceWithCache releaseMessageServiceWithCache;
+
+  private String someAppId;
+  private String someCluster;
+  private String defaultNamespace;
+  private ExecutorService executorService;
+  private Type notificationsType;
+  private BlockingQueue<String> receivedMessages;
+  private StandardWebSocketClient webSocketClient;
+
+  @Before
+  public void setUp() throws Exception {
+    ReflectionTestUtils.invokeMethod(releaseMessageServiceWithCache, "reset");
+    someAppId = "someAppId";
+    someCluster = ConfigConsts.CLUSTER_NAME_DEFAULT;
+    defaultNamespace = ConfigConsts.NAMESPACE_APPLICATION;
+    executorService = Executors.newFixedThreadPool(1);
+    notificationsType = new TypeToken<List<ApolloConfigNotification>>() {
+    }.getType();
+    receivedMessages = new LinkedBlockingQueue<>();
+    webSocketClient = new StandardWebSocketClient();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executorService.shutdownNow();
+  }
+
+  @Test(timeout = 10000L)
+  @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+  public void testStreamNotificationsOnTheSameSession() throws Exception {
+    AtomicBoolean stop = new AtomicBoolean();
+    String key = assembleKey(someAppId, someCluster, defaultNamespace);
+    periodicSendMessage(executorService, key, stop);
+
+    WebSocketSession session = null;
+    try {
+      session = connect(defaultNamespace, ConfigConsts.NOTIFICATION_ID_PLACEHOLDER);
+
+      ApolloConfigNotification someNotification = readNotification();
+      ApolloConfigNotification anotherNotification = readNotification();
+
+      assertEquals(defaultNamespace, someNotification.getNamespaceName());
+      assertTrue(someNotification.getMessages().has(key));
+      assertEquals(defaultNamespace, anotherNotification.getNamespaceName());
+      assertTrue(anotherNotification.getNotificationId() > someNotification.getNotificationId());
+    } finally {
+      stop.set(true);
+      if (session != null) {
+        session.close();
+      }
+    }
+  }
+
+  @Test(timeout = 10000L)
+  @Sql(scripts = "/integration-test/test-release.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+  @Sql(scripts = "/integration-test/test-release-message.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+  @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+  public void testStreamNotificationsWithOutdatedNotificationIdAndIncorrectCase() throws Exception {
+    String key = assembleKey(someAppId, someCluster, defaultNamespace);
+    long someOutDatedNotificationId = 1;
+    long newNotificationId = 10;
+    String someNamespaceWithIncorrectCase = defaultNamespace.toUpperCase();
+
+    WebSocketSession session = connect(someNamespaceWithIncorrectCase, someOutDatedNotificationId);
+
+    try {
+      ApolloConfigNotification notification = readNotification();
+
+      assertEquals(someNamespaceWithIncorrectCase, notification.getNamespaceName());
+      assertEquals(newNotificationId, notification.getNotificationId());
+      assertEquals(newNotificationId, notification.getMessages().get(key).longValue());
+    } finally {
+      session.close();
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testHandshakeWithInvalidNotifications() throws Exception {
+    URI uri = URI.create(String.format("ws://%s/notifications/v3/websocket?appId=%s&cluster=%s&notifications=%s",
+        getHostUrl(), someAppId, someCluster, "someInvalidNotifications"));
+
+    try {
+      webSocketClient.doHandshake(new TextWebSocketHandler(), null, uri).get();
+      fail("the handshake should be rejected");
+    } catch (ExecutionException ex) {
+      // rejected with 400 instead of being upgraded
+      assertTrue(ex.getCause().getMessage().contains("400"));
+    }
+  }
+
+  private WebSocketSession connect(String namespace, long notificationId) throws Exception {
+    String notifications = gson.toJson(Lists.newArrayList(new ApolloConfigNotification(namespace, notificationId)));
+    URI uri = URI.create(String.format("ws://%s/notifications/v3/websocket?appId=%s&cluster=%s&notifications=%s",
+        getHostUrl(), someAppId, someCluster, UrlEscapers.urlFormParameterEscaper().escape(notifications)));
+
+    return webSocketClient.doHandshake(new TextWebSocketHandler() {
+      @Override
+      protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        receivedMessages.add(message.getPayload());
+      }
+    }, null, uri).get(5, TimeUnit.SECONDS);
+  }
+
+  private ApolloConfigNotification readNotification() throws Exception {
+    String message;
+    do {
+      message = receivedMessages.take();
+      // skip the heartbeats
+    } while (message.isEmpty());
+
+    List<ApolloConfigNotification> notifications = gson.fromJson(message, notificationsType);
+    assertEquals(1, notifications.size());
+    return notifications.get(0);
+  }
+
+  private String assembleKey(String appId, String cluster, String namespace) {
+    return Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR).join(appId, cluster, namespace);
+  }
+}
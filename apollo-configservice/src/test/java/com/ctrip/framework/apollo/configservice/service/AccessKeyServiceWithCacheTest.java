@@ -80,7 +80,7 @@ public class AccessKeyServiceWithCacheTest {
     assertThat(accessKeyServiceWithCache.getAvailableSecrets(appId)).isEmpty();
 
     // Add access key, disable by default
-    when(accessKeyRepository.findFirst500ByDataChangeLastModifiedTimeGreaterThanOrderByDataChangeLastModifiedTimeAsc(new Date(0L)))
+    when(accessKeyRepository.findChangesIncludingDeleted(new Date(0L), 0L, 500))
         .thenReturn(Lists.newArrayList(firstAccessKey, secondAccessKey));
     when(accessKeyRepository.findAllById(anyList()))
         .thenReturn(Lists.newArrayList(firstAccessKey, secondAccessKey));
@@ -90,7 +90,7 @@ public class AccessKeyServiceWithCacheTest {
     // Update access key, enable both of them
     firstAccessKey = assembleAccessKey(1L, appId, "secret-1", true, false, 1577808002000L);
     secondAccessKey = assembleAccessKey(2L, appId, "secret-2", true, false, 1577808003000L);
-    when(accessKeyRepository.findFirst500ByDataChangeLastModifiedTimeGreaterThanOrderByDataChangeLastModifiedTimeAsc(new Date(1577808001000L)))
+    when(accessKeyRepository.findChangesIncludingDeleted(new Date(1577808001000L), 0L, 500))
         .thenReturn(Lists.newArrayList(firstAccessKey, secondAccessKey));
     when(accessKeyRepository.findAllById(anyList()))
         .thenReturn(Lists.newArrayList(firstAccessKey, secondAccessKey));
@@ -105,7 +105,7 @@ public class AccessKeyServiceWithCacheTest {
 
     // Update access key, disable the first one
     firstAccessKey = assembleAccessKey(1L, appId, "secret-1", false, false, 1577808004000L);
-    when(accessKeyRepository.findFirst500ByDataChangeLastModifiedTimeGreaterThanOrderByDataChangeLastModifiedTimeAsc(new Date(1577808003000L)))
+    when(accessKeyRepository.findChangesIncludingDeleted(new Date(1577808003000L), 0L, 500))
         .thenReturn(Lists.newArrayList(firstAccessKey));
     when(accessKeyRepository.findAllById(anyList()))
         .thenReturn(Lists.newArrayList(firstAccessKey, secondAccessKey));
@@ -114,6 +114,9 @@ public class AccessKeyServiceWithCacheTest {
         .containsExactly("secret-2"));
 
     // Delete access key, delete the second one
+    secondAccessKey = assembleAccessKey(2L, appId, "secret-2", true, true, 1577808004500L);
+    when(accessKeyRepository.findChangesIncludingDeleted(new Date(1577808004000L), 0L, 500))
+        .thenReturn(Lists.newArrayList(secondAccessKey));
     when(accessKeyRepository.findAllById(anyList()))
         .thenReturn(Lists.newArrayList(firstAccessKey));
 
@@ -121,7 +124,7 @@ public class AccessKeyServiceWithCacheTest {
         () -> assertThat(accessKeyServiceWithCache.getAvailableSecrets(appId)).isEmpty());
 
     // Add new access key in runtime, enable by default
-    when(accessKeyRepository.findFirst500ByDataChangeLastModifiedTimeGreaterThanOrderByDataChangeLastModifiedTimeAsc(new Date(1577808004000L)))
+    when(accessKeyRepository.findChangesIncludingDeleted(new Date(1577808004500L), 0L, 500))
         .thenReturn(Lists.newArrayList(thirdAccessKey));
     when(accessKeyRepository.findAllById(anyList()))
         .thenReturn(Lists.newArrayList(firstAccessKey, thirdAccessKey));
@@ -131,6 +134,30 @@ public class AccessKeyServiceWithCacheTest {
     reachabilityFence(accessKeyServiceWithCache);
   }
 
+  @Test
+  public void testLoadDeletedAccessKeysIncrementally() throws Exception {
+    String appId = "someAppId";
+    AccessKey someAccessKey = assembleAccessKey(1L, appId, "secret-1", true, false, 1577808000000L);
+    AccessKey anotherAccessKey = assembleAccessKey(2L, appId, "secret-2", true, false, 1577808001000L);
+    //no full rebuild during the test
+    when(bizConfig.accessKeyCacheRebuildInterval()).thenReturn(1);
+    when(bizConfig.accessKeyCacheRebuildIntervalTimeUnit()).thenReturn(TimeUnit.HOURS);
+    when(accessKeyRepository.findChangesIncludingDeleted(new Date(0L), 0L, 500))
+        .thenReturn(Lists.newArrayList(someAccessKey, anotherAccessKey));
+
+    accessKeyServiceWithCache.afterPropertiesSet();
+
+    assertThat(accessKeyServiceWithCache.getAvailableSecrets(appId)).containsExactly("secret-1", "secret-2");
+
+    AccessKey deletedAccessKey = assembleAccessKey(1L, appId, "secret-1", true, true, 1577808002000L);
+    when(accessKeyRepository.findChangesIncludingDeleted(new Date(1577808001000L), 0L, 500))
+        .thenReturn(Lists.newArrayList(deletedAccessKey));
+
+    await().untilAsserted(() -> assertThat(accessKeyServiceWithCache.getAvailableSecrets(appId))
+        .containsExactly("secret-2"));
+    reachabilityFence(accessKeyServiceWithCache);
+  }
+
   public AccessKey assembleAccessKey(Long id, String appId, String secret, boolean enabled,
       boolean deleted, long dataChangeLastModifiedTime) {
     AccessKey accessKey = new AccessKey();
@@ -20,6 +20,7 @@ import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.repository.AppNamespaceRepository;
 import com.ctrip.framework.apollo.common.entity.AppNamespace;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.awaitility.Awaitility;
 import org.junit.Before;
@@ -33,11 +34,18 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.when;
 
 /**
@@ -51,15 +59,20 @@ public class AppNamespaceServiceWithCacheTest {
 
   @Mock
   private BizConfig bizConfig;
+  @Mock
+  private CacheSnapshotService cacheSnapshotService;
 
   private int scanInterval;
   private TimeUnit scanIntervalTimeUnit;
   private Comparator<AppNamespace> appNamespaceComparator = (o1, o2) -> (int) (o1.getId() -
       o2.getId());
+  //store id -> AppNamespace, including the deleted ones
+  private Map<Long, AppNamespace> appNamespaceTable;
 
   @Before
   public void setUp() throws Exception {
-    appNamespaceServiceWithCache = new AppNamespaceServiceWithCache(appNamespaceRepository, bizConfig);
+    appNamespaceServiceWithCache = new AppNamespaceServiceWithCache(appNamespaceRepository, bizConfig,
+        cacheSnapshotService);
 
     scanInterval = 50;
     scanIntervalTimeUnit = TimeUnit.MILLISECONDS;
@@ -68,6 +81,16 @@ public class AppNamespaceServiceWithCacheTest {
     when(bizConfig.appNamespaceCacheScanInterval()).thenReturn(scanInterval);
     when(bizConfig.appNamespaceCacheScanIntervalTimeUnit()).thenReturn(scanIntervalTimeUnit);
 
+    appNamespaceTable = Maps.newConcurrentMap();
+    when(appNamespaceRepository.findChangesIncludingDeleted(any(Date.class), anyLong(), anyInt()))
+        .thenAnswer(invocation -> findChanges(invocation.getArgument(0), invocation.getArgument(1),
+            invocation.getArgument(2)));
+    when(appNamespaceRepository.findAllById(anyIterable())).thenAnswer(invocation -> StreamSupport
+        .stream(((Iterable<Long>) invocation.getArgument(0)).spliterator(), false)
+        .map(appNamespaceTable::get)
+        .filter(appNamespace -> appNamespace != null && !appNamespace.isDeleted())
+        .collect(Collectors.toList()));
+
     Awaitility.reset();
     Awaitility.setDefaultTimeout(scanInterval * 100, scanIntervalTimeUnit);
     Awaitility.setDefaultPollInterval(scanInterval, scanIntervalTimeUnit);
@@ -113,13 +136,6 @@ public class AppNamespaceServiceWithCacheTest {
     Set<String> publicNamespacesWithIncorrectCase = Sets.newHashSet(somePublicNamespaceWithIncorrectCase,
         anotherPublicNamespace);
 
-    List<Long> appNamespaceIds = Lists.newArrayList(somePrivateNamespaceId,
-        somePublicNamespaceId, anotherPrivateNamespaceId, yetAnotherPrivateNamespaceId,
-        anotherPublicNamespaceId);
-    List<AppNamespace> allAppNamespaces = Lists.newArrayList(somePrivateAppNamespace,
-        somePublicAppNamespace, anotherPrivateAppNamespace, yetAnotherPrivateAppNamespace,
-        anotherPublicAppNamespace);
-
     // Test init
     appNamespaceServiceWithCache.afterPropertiesSet();
 
@@ -144,11 +160,7 @@ public class AppNamespaceServiceWithCacheTest {
     assertTrue(appNamespaceServiceWithCache.findPublicNamespacesByNames(publicNamespacesWithIncorrectCase).isEmpty());
 
     // Add 1 private namespace and 1 public namespace
-    when(appNamespaceRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0)).thenReturn(Lists
-        .newArrayList(somePrivateAppNamespace, somePublicAppNamespace));
-    when(appNamespaceRepository.findAllById(Lists.newArrayList(somePrivateNamespaceId,
-        somePublicNamespaceId))).thenReturn(Lists.newArrayList(somePrivateAppNamespace,
-        somePublicAppNamespace));
+    save(somePrivateAppNamespace, somePublicAppNamespace);
 
     await().untilAsserted(() -> {
       assertEquals(somePrivateAppNamespace,
@@ -181,10 +193,7 @@ public class AppNamespaceServiceWithCacheTest {
     });
 
     // Add 2 private namespaces and 1 public namespace
-    when(appNamespaceRepository.findFirst500ByIdGreaterThanOrderByIdAsc(somePublicNamespaceId))
-        .thenReturn(Lists.newArrayList(anotherPrivateAppNamespace, yetAnotherPrivateAppNamespace,
-            anotherPublicAppNamespace));
-    when(appNamespaceRepository.findAllById(appNamespaceIds)).thenReturn(allAppNamespaces);
+    save(anotherPrivateAppNamespace, yetAnotherPrivateAppNamespace, anotherPublicAppNamespace);
 
     await().untilAsserted(() -> {
       check(Lists.newArrayList(somePrivateAppNamespace, yetAnotherPrivateAppNamespace,
@@ -238,16 +247,11 @@ public class AppNamespaceServiceWithCacheTest {
         (somePublicAppNamespace.getDataChangeLastModifiedTime(), 1));
 
     // Delete 1 private and 1 public
+    AppNamespace anotherPrivateAppNamespaceDeleted = assembleDeletedAppNamespace(anotherPrivateAppNamespace);
+    AppNamespace anotherPublicAppNamespaceDeleted = assembleDeletedAppNamespace(anotherPublicAppNamespace);
 
-    // should prepare for the case after deleted first, or in 2 rebuild intervals, all will be deleted
-    List<Long> appNamespaceIdsAfterDelete = Lists
-        .newArrayList(somePrivateNamespaceId, somePublicNamespaceId, yetAnotherPrivateNamespaceId);
-    when(appNamespaceRepository.findAllById(appNamespaceIdsAfterDelete)).thenReturn(Lists.newArrayList
-        (somePrivateAppNamespaceNew, yetAnotherPrivateAppNamespaceNew, somePublicAppNamespaceNew));
-
-    // do delete
-    when(appNamespaceRepository.findAllById(appNamespaceIds)).thenReturn(Lists.newArrayList
-        (somePrivateAppNamespaceNew, yetAnotherPrivateAppNamespaceNew, somePublicAppNamespaceNew));
+    save(somePrivateAppNamespaceNew, yetAnotherPrivateAppNamespaceNew, somePublicAppNamespaceNew,
+        anotherPrivateAppNamespaceDeleted, anotherPublicAppNamespaceDeleted);
 
     await().untilAsserted(() -> {
       assertNull(
@@ -281,6 +285,33 @@ public class AppNamespaceServiceWithCacheTest {
     });
   }
 
+  private void save(AppNamespace... appNamespaces) {
+    for (AppNamespace appNamespace : appNamespaces) {
+      appNamespaceTable.put(appNamespace.getId(), appNamespace);
+    }
+  }
+
+  private List<AppNamespace> findChanges(Date lastModifiedTime, long id, int limit) {
+    Comparator<AppNamespace> comparator = Comparator.comparing(AppNamespace::getDataChangeLastModifiedTime)
+        .thenComparing(AppNamespace::getId);
+    AppNamespace cursor = new AppNamespace();
+    cursor.setDataChangeLastModifiedTime(lastModifiedTime);
+    cursor.setId(id);
+    return appNamespaceTable.values().stream()
+        .filter(appNamespace -> comparator.compare(appNamespace, cursor) > 0)
+        .sorted(comparator)
+        .limit(limit)
+        .collect(Collectors.toList());
+  }
+
+  private AppNamespace assembleDeletedAppNamespace(AppNamespace appNamespace) {
+    AppNamespace deleted = assembleAppNamespace(appNamespace.getId(), appNamespace.getAppId(),
+        appNamespace.getName(), appNamespace.isPublic());
+    deleted.setDeleted(true);
+    deleted.setDataChangeLastModifiedTime(newDateWithDelta(appNamespace.getDataChangeLastModifiedTime(), 1));
+    return deleted;
+  }
+
   private void check(List<AppNamespace> someList, List<AppNamespace> anotherList) {
     someList.sort(appNamespaceComparator);
     anotherList.sort(appNamespaceComparator);
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.repository.ReleaseMessageRepository;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CacheSnapshotServiceTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+  @Mock
+  private BizConfig bizConfig;
+  @Mock
+  private ReleaseMessageRepository releaseMessageRepository;
+
+  private CacheSnapshotService cacheSnapshotService;
+  private File snapshotFile;
+  private ReleaseMessage someReleaseMessage;
+  private String someName;
+  private String someValue;
+
+  @Before
+  public void setUp() throws Exception {
+    snapshotFile = new File(temporaryFolder.getRoot(), "cache.snapshot");
+    someReleaseMessage = new ReleaseMessage("someAppId+someCluster+someNamespace");
+    someReleaseMessage.setId(10);
+    someName = "someName";
+    someValue = "someValue";
+
+    when(bizConfig.isConfigServiceCacheSnapshotEnabled()).thenReturn(true);
+    when(bizConfig.configServiceCacheSnapshotPath()).thenReturn(snapshotFile.getAbsolutePath());
+    when(bizConfig.configServiceCacheSnapshotIntervalInSeconds()).thenReturn(300);
+    when(releaseMessageRepository.findTopByOrderByIdDesc()).thenReturn(someReleaseMessage);
+
+    cacheSnapshotService = new CacheSnapshotService(bizConfig, releaseMessageRepository);
+    cacheSnapshotService.register(new SomeParticipant(someName, someValue));
+    cacheSnapshotService.register(new SomeParticipant("anotherName", "anotherValue"));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    cacheSnapshotService.destroy();
+  }
+
+  @Test
+  public void testSaveAndRestore() throws Exception {
+    cacheSnapshotService.saveSnapshot();
+
+    when(releaseMessageRepository.findById(someReleaseMessage.getId()))
+        .thenReturn(Optional.of(someReleaseMessage));
+
+    CacheSnapshotService anotherCacheSnapshotService = new CacheSnapshotService(bizConfig, releaseMessageRepository);
+    CacheSnapshotReader reader = anotherCacheSnapshotService.restore(someName);
+
+    assertEquals(someValue, reader.readString());
+    assertEquals(Long.MAX_VALUE, reader.readLong());
+    assertEquals("anotherValue", anotherCacheSnapshotService.restore("anotherName").readString());
+    assertNull(anotherCacheSnapshotService.restore("unknownName"));
+  }
+
+  @Test
+  public void testRestoreWithReleaseMessageReplacedByNewerOne() throws Exception {
+    cacheSnapshotService.saveSnapshot();
+
+    ReleaseMessage newerReleaseMessage = new ReleaseMessage(someReleaseMessage.getMessage());
+    newerReleaseMessage.setId(someReleaseMessage.getId() + 1);
+    when(releaseMessageRepository.findById(someReleaseMessage.getId())).thenReturn(Optional.empty());
+    when(releaseMessageRepository.findTopByMessageInOrderByIdDesc(
+        Collections.singletonList(someReleaseMessage.getMessage()))).thenReturn(newerReleaseMessage);
+
+    CacheSnapshotService anotherCacheSnapshotService = new CacheSnapshotService(bizConfig, releaseMessageRepository);
+
+    assertEquals(someValue, anotherCacheSnapshotService.restore(someName).readString());
+  }
+
+  @Test
+  public void testRestoreFromAnotherDatabase() throws Exception {
+    cacheSnapshotService.saveSnapshot();
+
+    ReleaseMessage anotherReleaseMessage = new ReleaseMessage("anotherAppId+someCluster+someNamespace");
+    anotherReleaseMessage.setId(someReleaseMessage.getId());
+    when(releaseMessageRepository.findById(someReleaseMessage.getId()))
+        .thenReturn(Optional.of(anotherReleaseMessage));
+
+    CacheSnapshotService anotherCacheSnapshotService = new CacheSnapshotService(bizConfig, releaseMessageRepository);
+
+    assertNull(anotherCacheSnapshotService.restore(someName));
+  }
+
+  @Test
+  public void testRestoreWithCorruptedSection() throws Exception {
+    cacheSnapshotService.saveSnapshot();
+
+    //the last byte of the first section, which is followed by the name, header and content of the second section
+    long secondSectionSize = (4 + "anotherName".length()) + (4 + 8) + (4 + "anotherValue".length() + 8);
+    corrupt(snapshotFile.length() - secondSectionSize - 1);
+
+    when(releaseMessageRepository.findById(someReleaseMessage.getId()))
+        .thenReturn(Optional.of(someReleaseMessage));
+
+    CacheSnapshotService anotherCacheSnapshotService = new CacheSnapshotService(bizConfig, releaseMessageRepository);
+
+    assertNull(anotherCacheSnapshotService.restore(someName));
+    assertEquals("anotherValue", anotherCacheSnapshotService.restore("anotherName").readString());
+  }
+
+  @Test
+  public void testRestoreWhenDisabled() throws Exception {
+    cacheSnapshotService.saveSnapshot();
+
+    when(bizConfig.isConfigServiceCacheSnapshotEnabled()).thenReturn(false);
+
+    CacheSnapshotService anotherCacheSnapshotService = new CacheSnapshotService(bizConfig, releaseMessageRepository);
+
+    assertNull(anotherCacheSnapshotService.restore(someName));
+  }
+
+  @Test
+  public void testDestroyWaitsForRunningSave() throws Exception {
+    BlockingParticipant blockingParticipant = new BlockingParticipant();
+    cacheSnapshotService.register(blockingParticipant);
+    ScheduledExecutorService executorService = (ScheduledExecutorService) ReflectionTestUtils
+        .getField(cacheSnapshotService, "executorService");
+
+    executorService.execute(cacheSnapshotService::saveSnapshot);
+    assertTrue(blockingParticipant.writing.await(5, TimeUnit.SECONDS));
+
+    CompletableFuture<Void> destroyed = CompletableFuture.runAsync(() -> {
+      try {
+        cacheSnapshotService.destroy();
+      } catch (Exception ex) {
+        throw new IllegalStateException(ex);
+      }
+    });
+
+    TimeUnit.MILLISECONDS.sleep(100);
+    assertFalse(destroyed.isDone());
+
+    blockingParticipant.proceed.countDown();
+    destroyed.get(5, TimeUnit.SECONDS);
+
+    //saved again after the running save, never at the same time
+    assertEquals(2, blockingParticipant.writes.get());
+    assertEquals(1, blockingParticipant.maxConcurrentWrites.get());
+    assertTrue(snapshotFile.isFile());
+  }
+
+  private void corrupt(long position) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw")) {
+      file.seek(position);
+      int value = file.read();
+      file.seek(position);
+      file.write(~value);
+    }
+  }
+
+  private static class SomeParticipant implements CacheSnapshotParticipant {
+    private final String name;
+    private final String value;
+
+    SomeParticipant(String name, String value) {
+      this.name = name;
+      this.value = value;
+    }
+
+    @Override
+    public String getSnapshotName() {
+      return name;
+    }
+
+    @Override
+    public void writeSnapshot(CacheSnapshotWriter writer) throws IOException {
+      writer.writeString(value);
+      writer.writeLong(Long.MAX_VALUE);
+    }
+  }
+
+  private static class BlockingParticipant implements CacheSnapshotParticipant {
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final CountDownLatch proceed = new CountDownLatch(1);
+    private final AtomicInteger writes = new AtomicInteger();
+    private final AtomicInteger concurrentWrites = new AtomicInteger();
+    private final AtomicInteger maxConcurrentWrites = new AtomicInteger();
+
+    @Override
+    public String getSnapshotName() {
+      return "blocking";
+    }
+
+    @Override
+    public void writeSnapshot(CacheSnapshotWriter writer) throws IOException {
+      maxConcurrentWrites.accumulateAndGet(concurrentWrites.incrementAndGet(), Math::max);
+      try {
+        writes.incrementAndGet();
+        writing.countDown();
+        proceed.await(5, TimeUnit.SECONDS);
+        writer.writeInt(0);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      } finally {
+        concurrentWrites.decrementAndGet();
+      }
+    }
+  }
+}
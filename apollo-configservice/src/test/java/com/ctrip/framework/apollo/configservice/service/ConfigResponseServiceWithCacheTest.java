@@ -0,0 +1,502 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.service;
+
+import com.ctrip.framework.apollo.biz.entity.Cluster;
+import com.ctrip.framework.apollo.biz.entity.Release;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.grayReleaseRule.GrayReleaseRulesHolder;
+import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.biz.service.ClusterService;
+import com.ctrip.framework.apollo.biz.service.ReleaseMessageService;
+import com.ctrip.framework.apollo.common.http.CompressedContent;
+import com.ctrip.framework.apollo.configservice.service.ConfigResponseServiceWithCache.IndexedReleaseKey;
+import com.ctrip.framework.apollo.configservice.service.config.ConfigService;
+import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
+import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.ResolvedReleases;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.dto.ConfigurationChange;
+import com.ctrip.framework.apollo.core.enums.ConfigSyncType;
+import com.ctrip.framework.apollo.core.enums.ConfigurationChangeType;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConfigResponseServiceWithCacheTest {
+  private ConfigResponseServiceWithCache configResponseService;
+  @Mock
+  private ConfigService configService;
+  @Mock
+  private ClusterService clusterService;
+  @Mock
+  private ReleaseMessageService releaseMessageService;
+  @Mock
+  private GrayReleaseRulesHolder grayReleaseRulesHolder;
+  @Mock
+  private NamespaceUtil namespaceUtil;
+  @Mock
+  private WatchKeysUtil watchKeysUtil;
+  private Gson gson = new Gson();
+
+  private String someAppId;
+  private String someClusterName;
+  private String someNamespaceName;
+  private String someDataCenter;
+  private String someClientIp;
+  private String someReleaseMessageKey;
+
+  @Before
+  public void setUp() throws Exception {
+    configResponseService = new ConfigResponseServiceWithCache(configService, clusterService, releaseMessageService,
+        grayReleaseRulesHolder, namespaceUtil, watchKeysUtil, gson);
+
+    someAppId = "someAppId";
+    someClusterName = "someClusterName";
+    someNamespaceName = "someNamespaceName";
+    someDataCenter = "someDC";
+    someClientIp = "someClientIp";
+    someReleaseMessageKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
+        .join(someAppId, someClusterName, someNamespaceName);
+  }
+
+  @Test
+  public void testFindEncodedConfigFromCache() throws Exception {
+    ResolvedReleases someResolvedReleases = assembleResolvedReleases(
+        assembleRelease(someAppId, someClusterName, someNamespaceName, "1", "{\"apollo.bar\": \"foo\"}"));
+
+    CompressedContent content = configResponseService.findEncodedConfig(someAppId, someResolvedReleases);
+    CompressedContent anotherContent = configResponseService.findEncodedConfig(someAppId,
+        assembleResolvedReleases(assembleRelease(someAppId, someClusterName, someNamespaceName, "1", "{}")));
+
+    ApolloConfig result = decodeApolloConfig(content);
+
+    // shared by the clients resolving the same releases
+    assertSame(content, anotherContent);
+    assertEquals(someAppId, result.getAppId());
+    assertEquals(someClusterName, result.getCluster());
+    assertEquals(someNamespaceName, result.getNamespaceName());
+    assertEquals("1", result.getReleaseKey());
+    assertEquals("foo", result.getConfigurations().get("apollo.bar"));
+  }
+
+  @Test
+  public void testFindEncodedConfigInvalidatedByReleaseMessage() throws Exception {
+    ResolvedReleases someResolvedReleases = assembleResolvedReleases(
+        assembleRelease(someAppId, someClusterName, someNamespaceName, "1", "{\"apollo.bar\": \"foo\"}"));
+
+    CompressedContent content = configResponseService.findEncodedConfig(someAppId, someResolvedReleases);
+
+    configResponseService.handleMessage(new ReleaseMessage(someReleaseMessageKey), Topics.APOLLO_RELEASE_TOPIC);
+
+    CompressedContent anotherContent = configResponseService.findEncodedConfig(someAppId, someResolvedReleases);
+
+    assertNotSame(content, anotherContent);
+    assertArrayEquals(content.getContent(false), anotherContent.getContent(false));
+  }
+
+  @Test
+  public void testFindEncodedConfigWithReleaseMessageOfAnotherChannel() throws Exception {
+    ResolvedReleases someResolvedReleases = assembleResolvedReleases(
+        assembleRelease(someAppId, someClusterName, someNamespaceName, "1", "{\"apollo.bar\": \"foo\"}"));
+
+    CompressedContent content = configResponseService.findEncodedConfig(someAppId, someResolvedReleases);
+
+    configResponseService.handleMessage(new ReleaseMessage(someReleaseMessageKey), "someOtherChannel");
+
+    assertSame(content, configResponseService.findEncodedConfig(someAppId, someResolvedReleases));
+  }
+
+  @Test
+  public void testFindEncodedConfigs() throws Exception {
+    String anotherNamespaceName = "anotherNamespaceName";
+    ResolvedReleases someResolvedReleases = assembleResolvedReleases(
+        assembleRelease(someAppId, someClusterName, someNamespaceName, "1", "{\"apollo.bar\": \"foo\"}"));
+    ResolvedReleases anotherResolvedReleases = new ResolvedReleases(anotherNamespaceName, anotherNamespaceName,
+        someClientIp, someClusterName, Lists.newArrayList(
+        assembleRelease(someAppId, someClusterName, anotherNamespaceName, "2", "{\"apollo.foo\": \"bar\"}")));
+    List<ResolvedReleases> resolvedReleasesList = Lists.newArrayList(someResolvedReleases, anotherResolvedReleases);
+
+    CompressedContent content = configResponseService.findEncodedConfigs(someAppId, resolvedReleasesList);
+    CompressedContent anotherContent = configResponseService.findEncodedConfigs(someAppId, resolvedReleasesList);
+
+    List<ApolloConfig> result = gson.fromJson(decodeContent(content), new TypeToken<List<ApolloConfig>>() {
+        }.getType());
+
+    assertSame(content, anotherContent);
+    assertEquals(2, result.size());
+    assertEquals(someNamespaceName, result.get(0).getNamespaceName());
+    assertEquals("foo", result.get(0).getConfigurations().get("apollo.bar"));
+    assertEquals(anotherNamespaceName, result.get(1).getNamespaceName());
+    assertEquals("bar", result.get(1).getConfigurations().get("apollo.foo"));
+    // the configs of each namespace are shared with the single namespace queries
+    assertEquals(String.format("[%s,%s]",
+        decodeContent(configResponseService.findEncodedConfig(someAppId, someResolvedReleases)),
+        decodeContent(configResponseService.findEncodedConfig(someAppId, anotherResolvedReleases))),
+        decodeContent(content));
+  }
+
+  @Test
+  public void testFindEncodedConfigsInvalidatedByReleaseMessage() throws Exception {
+    List<ResolvedReleases> resolvedReleasesList = Lists.newArrayList(assembleResolvedReleases(
+        assembleRelease(someAppId, someClusterName, someNamespaceName, "1", "{\"apollo.bar\": \"foo\"}")));
+
+    CompressedContent content = configResponseService.findEncodedConfigs(someAppId, resolvedReleasesList);
+
+    configResponseService.handleMessage(new ReleaseMessage(someReleaseMessageKey), Topics.APOLLO_RELEASE_TOPIC);
+
+    assertNotSame(content, configResponseService.findEncodedConfigs(someAppId, resolvedReleasesList));
+  }
+
+  @Test
+  public void testFindEncodedConfigDelta() throws Exception {
+    String someClientSideReleaseKey = "1";
+    ResolvedReleases someResolvedReleases = assembleResolvedReleases(assembleRelease(someAppId, someClusterName,
+        someNamespaceName, "2", "{\"apollo.bar\": \"foo\", \"apollo.foo\": \"bar\"}"));
+    Release someClientSideRelease = assembleRelease(someAppId, someClusterName, someNamespaceName,
+        someClientSideReleaseKey, "{\"apollo.bar\": \"bar\", \"apollo.deleted\": \"foo\"}");
+
+    when(configService.findReleasesByReleaseKeys(Sets.newHashSet(someClientSideReleaseKey)))
+        .thenReturn(ImmutableMap.of(someClientSideReleaseKey, someClientSideRelease));
+
+    CompressedContent content = configResponseService.findEncodedConfigDelta(someAppId, someResolvedReleases,
+        someClientSideReleaseKey);
+    CompressedContent anotherContent = configResponseService.findEncodedConfigDelta(someAppId, someResolvedReleases,
+        someClientSideReleaseKey);
+
+    ApolloConfig result = decodeApolloConfig(content);
+    Map<String, ConfigurationChange> changes = Maps.uniqueIndex(result.getConfigurationChanges(),
+        ConfigurationChange::getKey);
+
+    assertSame(content, anotherContent);
+    assertEquals("2", result.getReleaseKey());
+    assertEquals(ConfigSyncType.DELTA, result.getConfigSyncType());
+    assertNull(result.getConfigurations());
+    assertEquals(3, changes.size());
+    assertEquals(ConfigurationChangeType.MODIFIED, changes.get("apollo.bar").getChangeType());
+    assertEquals(ConfigurationChangeType.ADDED, changes.get("apollo.foo").getChangeType());
+    assertEquals(ConfigurationChangeType.DELETED, changes.get("apollo.deleted").getChangeType());
+    verify(configService, times(1)).findReleasesByReleaseKeys(anySet());
+  }
+
+  @Test
+  public void testFindEncodedConfigDeltaWithUnknownClientSideRelease() throws Exception {
+    String someClientSideReleaseKey = "1";
+    ResolvedReleases someResolvedReleases = assembleResolvedReleases(
+        assembleRelease(someAppId, someClusterName, someNamespaceName, "2", "{\"apollo.bar\": \"foo\"}"));
+
+    when(configService.findReleasesByReleaseKeys(Sets.newHashSet(someClientSideReleaseKey)))
+        .thenReturn(Collections.emptyMap());
+
+    assertNull(configResponseService.findEncodedConfigDelta(someAppId, someResolvedReleases,
+        someClientSideReleaseKey));
+  }
+
+  @Test
+  public void testFindEncodedConfigDeltaWithMismatchedReleaseKeyCount() throws Exception {
+    ResolvedReleases someResolvedReleases = assembleResolvedReleases(
+        assembleRelease(someAppId, someClusterName, someNamespaceName, "2", "{\"apollo.bar\": \"foo\"}"));
+
+    assertNull(configResponseService.findEncodedConfigDelta(someAppId, someResolvedReleases, "1+3"));
+    verify(configService, never()).findReleasesByReleaseKeys(anySet());
+  }
+
+  @Test
+  public void testFindEncodedConfigDeltaWithClientSideReleaseOfAnotherCluster() throws Exception {
+    String someClientSideReleaseKey = "1";
+    ResolvedReleases someResolvedReleases = assembleResolvedReleases(
+        assembleRelease(someAppId, someClusterName, someNamespaceName, "2", "{\"apollo.bar\": \"foo\"}"));
+    Release someClientSideRelease = assembleRelease(someAppId, "anotherClusterName", someNamespaceName,
+        someClientSideReleaseKey, "{\"apollo.bar\": \"bar\"}");
+
+    when(configService.findReleasesByReleaseKeys(Sets.newHashSet(someClientSideReleaseKey)))
+        .thenReturn(ImmutableMap.of(someClientSideReleaseKey, someClientSideRelease));
+
+    assertNull(configResponseService.findEncodedConfigDelta(someAppId, someResolvedReleases,
+        someClientSideReleaseKey));
+  }
+
+  @Test
+  public void testFindEncodedConfigDeltaWithClientSideReleaseOfGrayBranch() throws Exception {
+    String someClientSideReleaseKey = "1";
+    String anotherClientSideReleaseKey = "3";
+    String someBranchName = "someBranchName";
+    long someClusterId = 1;
+    Cluster someCluster = new Cluster();
+    someCluster.setId(someClusterId);
+    someCluster.setAppId(someAppId);
+    someCluster.setName(someClusterName);
+    Cluster someBranch = new Cluster();
+    someBranch.setAppId(someAppId);
+    someBranch.setName(someBranchName);
+    someBranch.setParentClusterId(someClusterId);
+    ResolvedReleases someResolvedReleases = assembleResolvedReleases(
+        assembleRelease(someAppId, someClusterName, someNamespaceName, "2", "{\"apollo.bar\": \"foo\"}"));
+
+    when(configService.findReleasesByReleaseKeys(Sets.newHashSet(someClientSideReleaseKey)))
+        .thenReturn(ImmutableMap.of(someClientSideReleaseKey, assembleRelease(someAppId, someBranchName,
+            someNamespaceName, someClientSideReleaseKey, "{\"apollo.bar\": \"bar\"}")));
+    when(configService.findReleasesByReleaseKeys(Sets.newHashSet(anotherClientSideReleaseKey)))
+        .thenReturn(ImmutableMap.of(anotherClientSideReleaseKey, assembleRelease(someAppId, someBranchName,
+            someNamespaceName, anotherClientSideReleaseKey, "{\"apollo.bar\": \"foo\"}")));
+    when(clusterService.findOne(someAppId, someBranchName)).thenReturn(someBranch);
+    when(clusterService.findOne(someClusterId)).thenReturn(someCluster);
+
+    ApolloConfig result = decodeApolloConfig(configResponseService.findEncodedConfigDelta(someAppId,
+        someResolvedReleases, someClientSideReleaseKey));
+    ApolloConfig anotherResult = decodeApolloConfig(configResponseService.findEncodedConfigDelta(someAppId,
+        someResolvedReleases, anotherClientSideReleaseKey));
+
+    assertEquals(ConfigSyncType.DELTA, result.getConfigSyncType());
+    assertEquals(1, result.getConfigurationChanges().size());
+    assertEquals("foo", result.getConfigurationChanges().get(0).getNewValue());
+    // the branch relation is remembered for the other delta
+    assertEquals(ConfigSyncType.DELTA, anotherResult.getConfigSyncType());
+    assertTrue(anotherResult.getConfigurationChanges().isEmpty());
+    verify(clusterService, times(1)).findOne(someAppId, someBranchName);
+    verify(clusterService, times(1)).findOne(someClusterId);
+  }
+
+  @Test
+  public void testIndexReleaseKey() throws Exception {
+    ResolvedReleases someResolvedReleases = assembleResolvedReleases(
+        assembleRelease(someAppId, someClusterName, someNamespaceName, "1", "{}"));
+
+    mockNamespaceNormalized();
+    when(watchKeysUtil.assembleAllWatchKeys(someAppId, someClusterName, someNamespaceName, someDataCenter))
+        .thenReturn(Sets.newHashSet(someReleaseMessageKey));
+
+    configResponseService.indexReleaseKey(someAppId, someClusterName, someDataCenter, someResolvedReleases,
+        configResponseService.getReleaseMessagesHandled());
+
+    IndexedReleaseKey indexedReleaseKey = configResponseService.findIndexedReleaseKey(someAppId, someClusterName,
+        someNamespaceName, someDataCenter, someClientIp);
+
+    assertEquals("1", indexedReleaseKey.getReleaseKey());
+    assertEquals(someClusterName, indexedReleaseKey.getAppClusterNameLoaded());
+    assertEquals(1, indexedReleaseKey.getReleases().size());
+    assertEquals(someAppId, indexedReleaseKey.getReleases().get(0).getAppId());
+    assertEquals(someClusterName, indexedReleaseKey.getReleases().get(0).getClusterName());
+    assertEquals(someNamespaceName, indexedReleaseKey.getReleases().get(0).getNamespaceName());
+    assertEquals("1", indexedReleaseKey.getReleases().get(0).getReleaseKey());
+    assertNull(configResponseService.findIndexedReleaseKey(someAppId, someClusterName, someNamespaceName,
+        "anotherDC", someClientIp));
+  }
+
+  @Test
+  public void testIndexReleaseKeyInvalidatedByReleaseMessage() throws Exception {
+    ResolvedReleases someResolvedReleases = assembleResolvedReleases(
+        assembleRelease(someAppId, someClusterName, someNamespaceName, "1", "{}"));
+
+    mockNamespaceNormalized();
+    when(watchKeysUtil.assembleAllWatchKeys(someAppId, someClusterName, someNamespaceName, someDataCenter))
+        .thenReturn(Sets.newHashSet(someReleaseMessageKey));
+
+    configResponseService.indexReleaseKey(someAppId, someClusterName, someDataCenter, someResolvedReleases,
+        configResponseService.getReleaseMessagesHandled());
+    configResponseService.handleMessage(new ReleaseMessage(someReleaseMessageKey), Topics.APOLLO_RELEASE_TOPIC);
+
+    assertNull(configResponseService.findIndexedReleaseKey(someAppId, someClusterName, someNamespaceName,
+        someDataCenter, someClientIp));
+  }
+
+  @Test
+  public void testIndexReleaseKeyWithReleaseMessageHandledSince() throws Exception {
+    ResolvedReleases someResolvedReleases = assembleResolvedReleases(
+        assembleRelease(someAppId, someClusterName, someNamespaceName, "1", "{}"));
+
+    mockNamespaceNormalized();
+
+    long releaseMessagesHandledBefore = configResponseService.getReleaseMessagesHandled();
+    configResponseService.handleMessage(new ReleaseMessage(someReleaseMessageKey), Topics.APOLLO_RELEASE_TOPIC);
+    // the releases resolved before the message might be stale
+    configResponseService.indexReleaseKey(someAppId, someClusterName, someDataCenter, someResolvedReleases,
+        releaseMessagesHandledBefore);
+
+    assertNull(configResponseService.findIndexedReleaseKey(someAppId, someClusterName, someNamespaceName,
+        someDataCenter, someClientIp));
+    verify(watchKeysUtil, never()).assembleAllWatchKeys(anyString(), anyString(), anyString(), anyString());
+  }
+
+  @Test
+  public void testIndexReleaseKeyWithGrayReleaseRule() throws Exception {
+    ResolvedReleases someResolvedReleases = assembleResolvedReleases(
+        assembleRelease(someAppId, someClusterName, someNamespaceName, "1", "{}"));
+
+    mockNamespaceNormalized();
+    when(grayReleaseRulesHolder.hasGrayReleaseRule(someAppId, someClientIp, someNamespaceName)).thenReturn(true);
+
+    configResponseService.indexReleaseKey(someAppId, someClusterName, someDataCenter, someResolvedReleases,
+        configResponseService.getReleaseMessagesHandled());
+
+    assertNull(configResponseService.findIndexedReleaseKey(someAppId, someClusterName, someNamespaceName,
+        someDataCenter, someClientIp));
+    verify(watchKeysUtil, never()).assembleAllWatchKeys(anyString(), anyString(), anyString(), anyString());
+  }
+
+  @Test
+  public void testIsNotifiedAhead() throws Exception {
+    long someNotificationId = 10;
+    ReleaseMessage someReleaseMessage = new ReleaseMessage(someReleaseMessageKey);
+    someReleaseMessage.setId(someNotificationId);
+
+    configResponseService.handleMessage(someReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
+
+    assertFalse(configResponseService.isNotifiedAhead(null));
+    assertFalse(configResponseService.isNotifiedAhead(new ApolloNotificationMessages()));
+    assertFalse(configResponseService.isNotifiedAhead(assembleMessages(someReleaseMessageKey, someNotificationId)));
+    assertTrue(configResponseService.isNotifiedAhead(
+        assembleMessages(someReleaseMessageKey, someNotificationId + 1)));
+    // not handled since startup
+    assertTrue(configResponseService.isNotifiedAhead(assembleMessages("anotherReleaseMessageKey", 1)));
+  }
+
+  @Test
+  public void testIsNotifiedAheadWithMessagesBeforeStartup() throws Exception {
+    long someStartupNotificationId = 10;
+
+    when(releaseMessageService.findLatestReleaseMessageId()).thenReturn(someStartupNotificationId);
+
+    configResponseService.afterPropertiesSet();
+
+    assertFalse(configResponseService.isNotifiedAhead(
+        assembleMessages(someReleaseMessageKey, someStartupNotificationId)));
+    assertTrue(configResponseService.isNotifiedAhead(
+        assembleMessages(someReleaseMessageKey, someStartupNotificationId + 1)));
+  }
+
+  @Test
+  public void testMergeConfigurations() throws Exception {
+    String key1 = "key1";
+    String value1 = "value1";
+    String anotherValue1 = "anotherValue1";
+
+    String key2 = "key2";
+    String value2 = "value2";
+
+    Map<String, String> config = ImmutableMap.of(key1, anotherValue1);
+    Map<String, String> anotherConfig = ImmutableMap.of(key1, value1, key2, value2);
+
+    Release releaseWithHighPriority = new Release();
+    releaseWithHighPriority.setConfigurations(gson.toJson(config));
+
+    Release releaseWithLowPriority = new Release();
+    releaseWithLowPriority.setConfigurations(gson.toJson(anotherConfig));
+
+    Map<String, String> result =
+        configResponseService.mergeReleaseConfigurations(
+            Lists.newArrayList(releaseWithHighPriority, releaseWithLowPriority));
+
+    assertEquals(2, result.keySet().size());
+    assertEquals(anotherValue1, result.get(key1));
+    assertEquals(value2, result.get(key2));
+  }
+
+  @Test(expected = JsonSyntaxException.class)
+  public void testTransformConfigurationToMapFailed() throws Exception {
+    String someInvalidConfiguration = "xxx";
+    Release someRelease = new Release();
+    someRelease.setConfigurations(someInvalidConfiguration);
+
+    configResponseService.mergeReleaseConfigurations(Lists.newArrayList(someRelease));
+  }
+
+  @Test
+  public void testCalcConfigurationChanges() throws Exception {
+    Map<String, String> clientSideConfigurations = ImmutableMap.of("k1", "v1", "k2", "v2", "k3", "v3");
+    Map<String, String> configurations = ImmutableMap.of("k1", "v1", "k2", "v2-new", "k4", "v4");
+
+    Map<String, ConfigurationChange> changes = Maps.uniqueIndex(
+        ConfigResponseServiceWithCache.calcConfigurationChanges(clientSideConfigurations, configurations),
+        ConfigurationChange::getKey);
+
+    assertEquals(3, changes.size());
+    assertEquals(ConfigurationChangeType.MODIFIED, changes.get("k2").getChangeType());
+    assertEquals("v2-new", changes.get("k2").getNewValue());
+    assertEquals(ConfigurationChangeType.DELETED, changes.get("k3").getChangeType());
+    assertNull(changes.get("k3").getNewValue());
+    assertEquals(ConfigurationChangeType.ADDED, changes.get("k4").getChangeType());
+    assertEquals("v4", changes.get("k4").getNewValue());
+  }
+
+  private void mockNamespaceNormalized() {
+    when(namespaceUtil.filterNamespaceName(someNamespaceName)).thenReturn(someNamespaceName);
+    when(namespaceUtil.normalizeNamespace(someAppId, someNamespaceName)).thenReturn(someNamespaceName);
+  }
+
+  private ApolloNotificationMessages assembleMessages(String releaseMessageKey, long notificationId) {
+    ApolloNotificationMessages messages = new ApolloNotificationMessages();
+    messages.put(releaseMessageKey, notificationId);
+    return messages;
+  }
+
+  private ResolvedReleases assembleResolvedReleases(Release release) {
+    return new ResolvedReleases(someNamespaceName, someNamespaceName, someClientIp, release.getClusterName(),
+        Lists.newArrayList(release));
+  }
+
+  private Release assembleRelease(String appId, String clusterName, String namespaceName, String releaseKey,
+                                  String configurations) {
+    Release release = new Release();
+    release.setAppId(appId);
+    release.setClusterName(clusterName);
+    release.setNamespaceName(namespaceName);
+    release.setReleaseKey(releaseKey);
+    release.setConfigurations(configurations);
+    return release;
+  }
+
+  private ApolloConfig decodeApolloConfig(CompressedContent content) {
+    return gson.fromJson(decodeContent(content), ApolloConfig.class);
+  }
+
+  private String decodeContent(CompressedContent content) {
+    return new String(content.getContent(false), StandardCharsets.UTF_8);
+  }
+}
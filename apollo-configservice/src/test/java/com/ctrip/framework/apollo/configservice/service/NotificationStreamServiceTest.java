@@ -0,0 +1,256 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.service;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.biz.utils.EntityManagerUtil;
+import com.ctrip.framework.apollo.configservice.util.ClientNotificationsUtil;
+import com.ctrip.framework.apollo.configservice.util.LongPollingDrainUtil;
+import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
+import com.ctrip.framework.apollo.configservice.util.NotificationFanOutUtil;
+import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.NotificationStream;
+import com.ctrip.framework.apollo.configservice.wrapper.WatchKeyRegistry;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
+import com.google.common.base.Joiner;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NotificationStreamServiceTest {
+  private NotificationStreamService notificationStreamService;
+  private ClientNotificationsUtil clientNotificationsUtil;
+  private LongPollingDrainUtil longPollingDrainUtil;
+  private String someAppId;
+  private String someCluster;
+  private String defaultNamespace;
+  private String someDataCenter;
+  private long someNotificationId;
+  @Mock
+  private ReleaseMessageServiceWithCache releaseMessageService;
+  @Mock
+  private EntityManagerUtil entityManagerUtil;
+  @Mock
+  private NamespaceUtil namespaceUtil;
+  @Mock
+  private WatchKeysUtil watchKeysUtil;
+  @Mock
+  private NotificationFanOutUtil notificationFanOutUtil;
+  @Mock
+  private BizConfig bizConfig;
+  @Mock
+  private NotificationStream someStream;
+
+  private Gson gson;
+
+  private WatchKeyRegistry<NotificationStream> streams;
+
+  @Before
+  public void setUp() throws Exception {
+    gson = new Gson();
+
+    when(bizConfig.notificationStreamTimeoutInMilli()).thenReturn(60000L);
+
+    clientNotificationsUtil = new ClientNotificationsUtil(namespaceUtil, gson);
+    longPollingDrainUtil = new LongPollingDrainUtil(bizConfig);
+    notificationStreamService = new NotificationStreamService(watchKeysUtil, notificationFanOutUtil,
+        clientNotificationsUtil, releaseMessageService, entityManagerUtil, longPollingDrainUtil, bizConfig,
+        new SimpleMeterRegistry());
+
+    someAppId = "someAppId";
+    someCluster = "someCluster";
+    defaultNamespace = ConfigConsts.NAMESPACE_APPLICATION;
+    someDataCenter = "someDC";
+    someNotificationId = 1;
+
+    when(namespaceUtil.filterNamespaceName(defaultNamespace)).thenReturn(defaultNamespace);
+    when(namespaceUtil.normalizeNamespace(someAppId, defaultNamespace)).thenReturn(defaultNamespace);
+
+    streams = (WatchKeyRegistry<NotificationStream>) ReflectionTestUtils.getField(notificationStreamService,
+        "streams");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    notificationStreamService.destroy();
+  }
+
+  @Test
+  public void testSubscribe() throws Exception {
+    String someWatchKey = "someKey";
+    String anotherWatchKey = "anotherKey";
+    Multimap<String, String> watchKeysMap = HashMultimap.create();
+    watchKeysMap.putAll(defaultNamespace, Lists.newArrayList(someWatchKey, anotherWatchKey));
+
+    when(watchKeysUtil.assembleAllWatchKeys(someAppId, someCluster, Sets.newHashSet(defaultNamespace),
+        someDataCenter)).thenReturn(watchKeysMap);
+
+    subscribe(someStream);
+
+    assertEquals(watchKeysMap.size(), streams.size());
+    assertEquals(Lists.newArrayList(someStream), streams.get(someWatchKey));
+    assertEquals(Lists.newArrayList(someStream), streams.get(anotherWatchKey));
+    verify(releaseMessageService, times(1))
+        .findLatestReleaseMessagesGroupByMessages(Sets.newHashSet(someWatchKey, anotherWatchKey));
+    verify(entityManagerUtil, times(1)).closeEntityManager();
+    verify(someStream, never()).send(anyList());
+
+    notificationStreamService.unsubscribe(someStream);
+
+    assertEquals(0, streams.size());
+  }
+
+  @Test
+  public void testSubscribeWhenDraining() throws Exception {
+    longPollingDrainUtil.stop();
+
+    subscribe(someStream);
+
+    verify(someStream, times(1)).drain(any(RetryHint.class));
+    verify(watchKeysUtil, never()).assembleAllWatchKeys(anyString(), anyString(), anySet(), anyString());
+    assertEquals(0, streams.size());
+  }
+
+  @Test
+  public void testSubscribeWithOutdatedNotificationId() throws Exception {
+    String someWatchKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
+        .join(someAppId, someCluster, defaultNamespace);
+    Multimap<String, String> watchKeysMap = HashMultimap.create();
+    watchKeysMap.put(defaultNamespace, someWatchKey);
+    long newNotificationId = someNotificationId + 1;
+    ReleaseMessage someReleaseMessage = new ReleaseMessage(someWatchKey);
+    someReleaseMessage.setId(newNotificationId);
+
+    when(watchKeysUtil.assembleAllWatchKeys(someAppId, someCluster, Sets.newHashSet(defaultNamespace),
+        someDataCenter)).thenReturn(watchKeysMap);
+    when(releaseMessageService.findLatestReleaseMessagesGroupByMessages(Sets.newHashSet(someWatchKey)))
+        .thenReturn(Lists.newArrayList(someReleaseMessage));
+
+    subscribe(someStream);
+
+    ArgumentCaptor<List> notificationsCaptor = ArgumentCaptor.forClass(List.class);
+    verify(someStream, times(1)).send(notificationsCaptor.capture());
+    ApolloConfigNotification notification = (ApolloConfigNotification) notificationsCaptor.getValue().get(0);
+    assertEquals(defaultNamespace, notification.getNamespaceName());
+    assertEquals(newNotificationId, notification.getNotificationId());
+  }
+
+  @Test
+  public void testHandleMessage() throws Exception {
+    String someWatchKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
+        .join(someAppId, someCluster, defaultNamespace);
+    Multimap<String, String> watchKeysMap = HashMultimap.create();
+    watchKeysMap.put(defaultNamespace, someWatchKey);
+
+    when(watchKeysUtil.assembleAllWatchKeys(someAppId, someCluster, Sets.newHashSet(defaultNamespace),
+        someDataCenter)).thenReturn(watchKeysMap);
+
+    subscribe(someStream);
+
+    long someId = 2;
+    ReleaseMessage someReleaseMessage = new ReleaseMessage(someWatchKey);
+    someReleaseMessage.setId(someId);
+
+    notificationStreamService.handleMessage(someReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
+
+    ArgumentCaptor<ApolloConfigNotification> notificationCaptor =
+        ArgumentCaptor.forClass(ApolloConfigNotification.class);
+    ArgumentCaptor<List> receiversCaptor = ArgumentCaptor.forClass(List.class);
+    verify(notificationFanOutUtil, times(1))
+        .fanOut(eq(someWatchKey), notificationCaptor.capture(), receiversCaptor.capture());
+
+    ApolloConfigNotification notification = notificationCaptor.getValue();
+    assertEquals(defaultNamespace, notification.getNamespaceName());
+    assertEquals(someId, notification.getNotificationId());
+    assertEquals(someId, notification.getMessages().get(someWatchKey).longValue());
+    assertEquals(1, receiversCaptor.getValue().size());
+    assertSame(someStream, receiversCaptor.getValue().get(0));
+  }
+
+  @Test
+  public void testHandleMessageWithoutStreams() throws Exception {
+    String someWatchKey = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR)
+        .join(someAppId, someCluster, defaultNamespace);
+
+    notificationStreamService.handleMessage(new ReleaseMessage(someWatchKey), Topics.APOLLO_RELEASE_TOPIC);
+
+    verify(notificationFanOutUtil, never()).fanOut(any(), any(), anyList());
+  }
+
+  @Test
+  public void testSendHeartbeats() throws Exception {
+    Multimap<String, String> watchKeysMap = HashMultimap.create();
+    watchKeysMap.put(defaultNamespace, "someKey");
+
+    when(watchKeysUtil.assembleAllWatchKeys(someAppId, someCluster, Sets.newHashSet(defaultNamespace),
+        someDataCenter)).thenReturn(watchKeysMap);
+
+    subscribe(someStream);
+
+    ReflectionTestUtils.invokeMethod(notificationStreamService, "sendHeartbeats");
+
+    // the sends are handed off to the fan-out threads instead of being made by the heartbeat thread
+    ArgumentCaptor<List> streamsCaptor = ArgumentCaptor.forClass(List.class);
+    ArgumentCaptor<Consumer> actionCaptor = ArgumentCaptor.forClass(Consumer.class);
+    verify(notificationFanOutUtil, times(2)).execute(streamsCaptor.capture(), actionCaptor.capture());
+    verify(someStream, never()).sendHeartbeat();
+    verify(someStream, never()).close();
+
+    assertTrue(streamsCaptor.getAllValues().get(0).isEmpty());
+    assertEquals(Lists.newArrayList(someStream), streamsCaptor.getAllValues().get(1));
+
+    actionCaptor.getAllValues().get(1).accept(someStream);
+
+    verify(someStream, times(1)).sendHeartbeat();
+  }
+
+  private void subscribe(NotificationStream stream) {
+    Map<String, ApolloConfigNotification> filteredNotifications = clientNotificationsUtil.resolveNotifications(
+        someAppId, gson.toJson(Lists.newArrayList(new ApolloConfigNotification(defaultNamespace,
+            someNotificationId))));
+
+    notificationStreamService.subscribe(stream, someAppId, someCluster, filteredNotifications, someDataCenter);
+  }
+}
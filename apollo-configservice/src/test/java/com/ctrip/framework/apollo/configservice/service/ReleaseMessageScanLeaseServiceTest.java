@@ -0,0 +1,162 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.service;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.Lease;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageScanner;
+import com.ctrip.framework.apollo.biz.repository.LeaseRepository;
+import com.ctrip.framework.apollo.configservice.wrapper.ReleaseMessageBatch;
+import com.ctrip.framework.apollo.metaservice.service.DiscoveryService;
+import com.google.common.collect.Lists;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReleaseMessageScanLeaseServiceTest {
+  private ReleaseMessageScanLeaseService releaseMessageScanLeaseService;
+  @Mock
+  private LeaseRepository leaseRepository;
+  @Mock
+  private DiscoveryService discoveryService;
+  @Mock
+  private BizConfig bizConfig;
+  @Mock
+  private ReleaseMessageScanner releaseMessageScanner;
+  private long leaseTimeout;
+
+  @Before
+  public void setUp() throws Exception {
+    releaseMessageScanLeaseService = new ReleaseMessageScanLeaseService(leaseRepository, discoveryService, bizConfig);
+
+    leaseTimeout = 100;
+    ReflectionTestUtils.setField(releaseMessageScanLeaseService, "releaseMessageScanner", releaseMessageScanner);
+    ReflectionTestUtils.setField(releaseMessageScanLeaseService, "leaseTimeout", leaseTimeout);
+  }
+
+  @Test
+  public void testCreateLeaseWhenAbsent() throws Exception {
+    when(leaseRepository.findByName(ReleaseMessageScanLeaseService.LEASE_NAME)).thenReturn(null);
+
+    releaseMessageScanLeaseService.maintainLease();
+
+    verify(leaseRepository, times(1)).save(any(Lease.class));
+    assertTrue(releaseMessageScanLeaseService.isLeader());
+    assertTrue(releaseMessageScanLeaseService.shouldScan());
+  }
+
+  @Test
+  public void testTakeOverWhenLeaseLapses() throws Exception {
+    long someVersion = 1;
+    Lease someLease = assembleLease("someOwner", "someToken", someVersion);
+
+    when(leaseRepository.findByName(ReleaseMessageScanLeaseService.LEASE_NAME)).thenReturn(someLease);
+    when(leaseRepository.takeOver(eq(ReleaseMessageScanLeaseService.LEASE_NAME), anyString(), anyString(),
+        eq(someVersion))).thenReturn(1);
+
+    releaseMessageScanLeaseService.maintainLease();
+
+    assertFalse(releaseMessageScanLeaseService.isLeader());
+
+    Thread.sleep(leaseTimeout + 10);
+
+    releaseMessageScanLeaseService.maintainLease();
+
+    assertTrue(releaseMessageScanLeaseService.isLeader());
+  }
+
+  @Test
+  public void testNotTakeOverWhenLeaseRenewed() throws Exception {
+    Lease someLease = assembleLease("someOwner", "someToken", 1);
+    Lease renewedLease = assembleLease("someOwner", "someToken", 2);
+
+    when(leaseRepository.findByName(ReleaseMessageScanLeaseService.LEASE_NAME)).thenReturn(someLease,
+        renewedLease);
+
+    releaseMessageScanLeaseService.maintainLease();
+    Thread.sleep(leaseTimeout + 10);
+    releaseMessageScanLeaseService.maintainLease();
+
+    assertFalse(releaseMessageScanLeaseService.isLeader());
+    verify(leaseRepository, never()).takeOver(anyString(), anyString(), anyString(), anyLong());
+  }
+
+  @Test
+  public void testStepDownWhenRenewFails() throws Exception {
+    //taken over by another instance after created
+    when(leaseRepository.findByName(ReleaseMessageScanLeaseService.LEASE_NAME)).thenReturn(null,
+        assembleLease("anotherOwner", "anotherToken", 2));
+    when(leaseRepository.renew(eq(ReleaseMessageScanLeaseService.LEASE_NAME), anyString())).thenReturn(1, 0);
+
+    releaseMessageScanLeaseService.maintainLease();
+    assertTrue(releaseMessageScanLeaseService.isLeader());
+
+    releaseMessageScanLeaseService.maintainLease();
+    assertTrue(releaseMessageScanLeaseService.isLeader());
+
+    releaseMessageScanLeaseService.maintainLease();
+    assertFalse(releaseMessageScanLeaseService.isLeader());
+  }
+
+  @Test
+  public void testReceiveBatch() throws Exception {
+    String someToken = "someToken";
+    long somePreviousMaxIdScanned = 1;
+    List<ReleaseMessage> someMessages = Lists.newArrayList(new ReleaseMessage("someMessage"));
+
+    when(leaseRepository.findByName(ReleaseMessageScanLeaseService.LEASE_NAME))
+        .thenReturn(assembleLease("someOwner", someToken, 1));
+
+    assertTrue(releaseMessageScanLeaseService.shouldScan());
+
+    assertTrue(releaseMessageScanLeaseService.receiveBatch(
+        new ReleaseMessageBatch("someOwner", someToken, somePreviousMaxIdScanned, someMessages)));
+
+    verify(releaseMessageScanner, times(1)).receiveMessages(somePreviousMaxIdScanned, someMessages);
+    //the heartbeat is received, so the lease is not read again
+    releaseMessageScanLeaseService.maintainLease();
+    verify(leaseRepository, times(1)).findByName(ReleaseMessageScanLeaseService.LEASE_NAME);
+    assertFalse(releaseMessageScanLeaseService.shouldScan());
+
+    assertFalse(releaseMessageScanLeaseService.receiveBatch(
+        new ReleaseMessageBatch("anotherOwner", "anotherToken", somePreviousMaxIdScanned, someMessages)));
+    verify(releaseMessageScanner, times(1)).receiveMessages(anyLong(), any());
+  }
+
+  private Lease assembleLease(String owner, String token, long version) {
+    Lease lease = new Lease(ReleaseMessageScanLeaseService.LEASE_NAME, owner, token);
+    lease.setVersion(version);
+    return lease;
+  }
+}
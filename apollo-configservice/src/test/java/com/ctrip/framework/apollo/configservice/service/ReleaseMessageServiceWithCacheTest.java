@@ -27,12 +27,17 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.domain.PageRequest;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import static org.awaitility.Awaitility.await;
@@ -53,6 +58,9 @@ public class ReleaseMessageServiceWithCacheTest {
   @Mock
   private BizConfig bizConfig;
 
+  @Mock
+  private CacheSnapshotService cacheSnapshotService;
+
   private int scanInterval;
 
   private TimeUnit scanIntervalTimeUnit;
@@ -61,7 +69,7 @@ public class ReleaseMessageServiceWithCacheTest {
 
   public void setUp() throws Exception {
     releaseMessageServiceWithCache = new ReleaseMessageServiceWithCache(
-        releaseMessageRepository, bizConfig
+        releaseMessageRepository, bizConfig, cacheSnapshotService
     );
 
     scanInterval = 10;
@@ -76,6 +84,7 @@ public class ReleaseMessageServiceWithCacheTest {
         (Collections.emptyList());
 
     releaseMessageServiceWithCache.afterPropertiesSet();
+    awaitInitialLoad();
 
     String someMessage = "someMessage";
     String anotherMessage = "anotherMessage";
@@ -98,6 +107,7 @@ public class ReleaseMessageServiceWithCacheTest {
         .thenReturn(Arrays.asList(someMsg, anotherMsg, anotherRepeatMsg));
 
     releaseMessageServiceWithCache.afterPropertiesSet();
+    awaitInitialLoad();
 
     verify(bizConfig).releaseMessageCacheScanInterval();
 
@@ -140,6 +150,7 @@ public class ReleaseMessageServiceWithCacheTest {
         .thenReturn(Collections.singletonList(antherMsg));
 
     releaseMessageServiceWithCache.afterPropertiesSet();
+    awaitInitialLoad();
 
     verify(releaseMessageRepository, times(1)).findFirst500ByIdGreaterThanOrderByIdAsc(500L);
 
@@ -170,6 +181,7 @@ public class ReleaseMessageServiceWithCacheTest {
         (someMessage));
 
     releaseMessageServiceWithCache.afterPropertiesSet();
+    awaitInitialLoad();
 
     ReleaseMessage latestReleaseMsg =
         releaseMessageServiceWithCache
@@ -214,6 +226,7 @@ public class ReleaseMessageServiceWithCacheTest {
         (someMessage));
 
     releaseMessageServiceWithCache.afterPropertiesSet();
+    awaitInitialLoad();
 
     ReleaseMessage latestReleaseMsg =
         releaseMessageServiceWithCache
@@ -245,6 +258,134 @@ public class ReleaseMessageServiceWithCacheTest {
     assertEquals(newLatestReleaseMsg, newLatestReleaseMsgGroupByMsgContent.get(0));
   }
 
+  @Test
+  public void testRestoreFromSnapshot() throws Exception {
+    String someMsgContent = "msg1";
+    String anotherMsgContent = "msg2";
+    long snapshotMaxIdScanned = 2;
+    ReleaseMessage newMsg = assembleReleaseMsg(3, anotherMsgContent);
+
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    CacheSnapshotWriter writer = new CacheSnapshotWriter(new DataOutputStream(snapshot));
+    writer.writeLong(snapshotMaxIdScanned);
+    writer.writeInt(2);
+    writer.writeLong(1);
+    writer.writeString(someMsgContent);
+    writer.writeLong(2);
+    writer.writeString(anotherMsgContent);
+    writer.flush();
+
+    when(cacheSnapshotService.restore(releaseMessageServiceWithCache.getSnapshotName()))
+        .thenReturn(new CacheSnapshotReader(ByteBuffer.wrap(snapshot.toByteArray())));
+    //only the messages newer than the snapshot are loaded
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(snapshotMaxIdScanned))
+        .thenReturn(Lists.newArrayList(newMsg));
+
+    releaseMessageServiceWithCache.afterPropertiesSet();
+    awaitInitialLoad();
+
+    assertEquals(1, releaseMessageServiceWithCache
+        .findLatestReleaseMessageForMessages(Sets.newHashSet(someMsgContent)).getId());
+    assertEquals(3, releaseMessageServiceWithCache
+        .findLatestReleaseMessageForMessages(Sets.newHashSet(anotherMsgContent)).getId());
+    verify(releaseMessageRepository, never()).findFirst500ByIdGreaterThanOrderByIdAsc(0L);
+    await().atMost(5, TimeUnit.SECONDS).untilAsserted(() ->
+        verify(cacheSnapshotService, times(1)).register(releaseMessageServiceWithCache));
+  }
+
+  @Test
+  public void testLoadReleaseMessagesInParallel() throws Exception {
+    String someMsgContent = "msg1";
+    String anotherMsgContent = "msg2";
+    String yetAnotherMsgContent = "msg3";
+    int pageSize = 2;
+    PageRequest page = PageRequest.of(0, pageSize);
+
+    when(bizConfig.releaseMessageCacheLoadPageSize()).thenReturn(pageSize);
+    when(bizConfig.releaseMessageCacheLoadParallelism()).thenReturn(2);
+    when(releaseMessageRepository.findTopByOrderByIdDesc()).thenReturn(assembleReleaseMsg(8, anotherMsgContent));
+    //partitioned into (0, 4] and (4, 8]
+    when(releaseMessageRepository.findByIdGreaterThanAndIdLessThanEqualOrderByIdAsc(0L, 4L, page))
+        .thenReturn(Lists.newArrayList(assembleReleaseMsg(1, someMsgContent),
+            assembleReleaseMsg(2, anotherMsgContent)));
+    when(releaseMessageRepository.findByIdGreaterThanAndIdLessThanEqualOrderByIdAsc(2L, 4L, page))
+        .thenReturn(Lists.newArrayList(assembleReleaseMsg(3, someMsgContent)));
+    when(releaseMessageRepository.findByIdGreaterThanAndIdLessThanEqualOrderByIdAsc(4L, 8L, page))
+        .thenReturn(Lists.newArrayList(assembleReleaseMsg(5, anotherMsgContent),
+            assembleReleaseMsg(6, someMsgContent)));
+    when(releaseMessageRepository.findByIdGreaterThanAndIdLessThanEqualOrderByIdAsc(6L, 8L, page))
+        .thenReturn(Lists.newArrayList(assembleReleaseMsg(8, anotherMsgContent)));
+    //saved during the load
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(8L))
+        .thenReturn(Lists.newArrayList(assembleReleaseMsg(9, yetAnotherMsgContent)));
+
+    assertFalse(releaseMessageServiceWithCache.isInitialLoadCompleted());
+
+    releaseMessageServiceWithCache.afterPropertiesSet();
+    awaitInitialLoad();
+
+    assertTrue(releaseMessageServiceWithCache.isInitialLoadCompleted());
+    assertEquals(1, releaseMessageServiceWithCache.getInitialLoadProgress(), 0);
+    assertEquals(6, releaseMessageServiceWithCache
+        .findLatestReleaseMessageForMessages(Sets.newHashSet(someMsgContent)).getId());
+    assertEquals(8, releaseMessageServiceWithCache
+        .findLatestReleaseMessageForMessages(Sets.newHashSet(anotherMsgContent)).getId());
+    assertEquals(9, releaseMessageServiceWithCache
+        .findLatestReleaseMessageForMessages(Sets.newHashSet(yetAnotherMsgContent)).getId());
+    verify(releaseMessageRepository, never()).findFirst500ByIdGreaterThanOrderByIdAsc(0L);
+  }
+
+  @Test
+  public void testInitialLoadInBackground() throws Exception {
+    String someMsgContent = "msg1";
+    CountDownLatch loadStarted = new CountDownLatch(1);
+    CountDownLatch loadReleased = new CountDownLatch(1);
+
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0L)).thenAnswer(invocation -> {
+      loadStarted.countDown();
+      loadReleased.await();
+      return Lists.newArrayList(assembleReleaseMsg(1, someMsgContent));
+    });
+
+    //not blocked by the load
+    releaseMessageServiceWithCache.afterPropertiesSet();
+
+    assertTrue(loadStarted.await(5, TimeUnit.SECONDS));
+    assertFalse(releaseMessageServiceWithCache.isInitialLoadCompleted());
+    verify(cacheSnapshotService, never()).register(releaseMessageServiceWithCache);
+
+    //skipped as it would be picked up by the catch-up scan
+    releaseMessageServiceWithCache.handleMessage(assembleReleaseMsg(2, someMsgContent), Topics.APOLLO_RELEASE_TOPIC);
+    assertNull(releaseMessageServiceWithCache.findLatestReleaseMessageForMessages(Sets.newHashSet(someMsgContent)));
+
+    loadReleased.countDown();
+    awaitInitialLoad();
+
+    assertEquals(1, releaseMessageServiceWithCache
+        .findLatestReleaseMessageForMessages(Sets.newHashSet(someMsgContent)).getId());
+    await().atMost(5, TimeUnit.SECONDS).untilAsserted(() ->
+        verify(cacheSnapshotService, times(1)).register(releaseMessageServiceWithCache));
+  }
+
+  @Test
+  public void testInitialLoadRetriedOnFailure() throws Exception {
+    String someMsgContent = "msg1";
+
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0L))
+        .thenThrow(new IllegalStateException("some exception"))
+        .thenReturn(Lists.newArrayList(assembleReleaseMsg(1, someMsgContent)));
+
+    releaseMessageServiceWithCache.afterPropertiesSet();
+    awaitInitialLoad();
+
+    assertEquals(1, releaseMessageServiceWithCache
+        .findLatestReleaseMessageForMessages(Sets.newHashSet(someMsgContent)).getId());
+  }
+
+  private void awaitInitialLoad() {
+    await().atMost(5, TimeUnit.SECONDS).until(releaseMessageServiceWithCache::isInitialLoadCompleted);
+  }
+
   private ReleaseMessage assembleReleaseMsg(long id, String msgContent) {
 
     ReleaseMessage msg = new ReleaseMessage(msgContent);
@@ -18,24 +18,46 @@ package com.ctrip.framework.apollo.configservice.service.config;
 
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
+import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.entity.Release;
 import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.message.Topics;
 import com.ctrip.framework.apollo.biz.service.ReleaseMessageService;
 import com.ctrip.framework.apollo.biz.service.ReleaseService;
 import com.ctrip.framework.apollo.biz.utils.ReleaseMessageKeyGenerator;
+import com.ctrip.framework.apollo.configservice.service.CacheSnapshotReader;
+import com.ctrip.framework.apollo.configservice.service.CacheSnapshotService;
+import com.ctrip.framework.apollo.configservice.service.CacheSnapshotWriter;
 
+import com.google.common.base.Strings;
+import com.google.common.cache.CacheStats;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -55,6 +77,11 @@ public class ConfigServiceWithCacheTest {
   private Release someRelease;
   @Mock
   private ReleaseMessage someReleaseMessage;
+  @Mock
+  private BizConfig bizConfig;
+  @Mock
+  private CacheSnapshotService cacheSnapshotService;
+  private SimpleMeterRegistry meterRegistry;
 
   private String someAppId;
   private String someClusterName;
@@ -68,6 +95,13 @@ public class ConfigServiceWithCacheTest {
     configServiceWithCache = new ConfigServiceWithCache();
     ReflectionTestUtils.setField(configServiceWithCache, "releaseService", releaseService);
     ReflectionTestUtils.setField(configServiceWithCache, "releaseMessageService", releaseMessageService);
+    ReflectionTestUtils.setField(configServiceWithCache, "bizConfig", bizConfig);
+    meterRegistry = new SimpleMeterRegistry();
+    ReflectionTestUtils.setField(configServiceWithCache, "meterRegistry", meterRegistry);
+    ReflectionTestUtils.setField(configServiceWithCache, "cacheSnapshotService", cacheSnapshotService);
+
+    when(bizConfig.configServiceCacheMaxSizeInMB()).thenReturn(256);
+    when(bizConfig.configServiceCacheRefreshThreads()).thenReturn(1);
 
     configServiceWithCache.initialize();
 
@@ -225,6 +259,131 @@ public class ConfigServiceWithCacheTest {
     verify(releaseService, times(2)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
   }
 
+  @Test
+  public void testHandleMessageForKeyNotCached() throws Exception {
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
+        (someReleaseMessage);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn
+        (someRelease);
+    when(someReleaseMessage.getMessage()).thenReturn(someKey);
+    when(someReleaseMessage.getId()).thenReturn(someNotificationId);
+
+    //nothing to refresh
+    configServiceWithCache.handleMessage(someReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
+
+    verify(releaseService, times(0)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+
+    Release release = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName,
+        someNotificationMessages);
+
+    assertEquals(someRelease, release);
+    verify(releaseService, times(1)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+  }
+
+  @Test
+  public void testFindLatestActiveReleaseWhileRefreshing() throws Exception {
+    long someNewNotificationId = someNotificationId + 1;
+    ReleaseMessage anotherReleaseMessage = mock(ReleaseMessage.class);
+    Release anotherRelease = mock(Release.class);
+    //hold the refresh tasks
+    ExecutorService refreshExecutorService = mock(ExecutorService.class);
+    ReflectionTestUtils.setField(configServiceWithCache, "refreshExecutorService", refreshExecutorService);
+
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
+        (someReleaseMessage);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn
+        (someRelease);
+    when(someReleaseMessage.getId()).thenReturn(someNotificationId);
+
+    Release release = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName,
+        someNotificationMessages);
+
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
+        (anotherReleaseMessage);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn
+        (anotherRelease);
+    when(anotherReleaseMessage.getMessage()).thenReturn(someKey);
+    when(anotherReleaseMessage.getId()).thenReturn(someNewNotificationId);
+
+    configServiceWithCache.handleMessage(anotherReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
+
+    ArgumentCaptor<Runnable> refreshTask = ArgumentCaptor.forClass(Runnable.class);
+    verify(refreshExecutorService, times(1)).execute(refreshTask.capture());
+
+    //the old release is served while refreshing
+    Release stillOldRelease = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
+        someNamespaceName, someNotificationMessages);
+
+    assertEquals(someRelease, release);
+    assertEquals(someRelease, stillOldRelease);
+    verify(releaseService, times(1)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+
+    //the readers without client messages can't tell whether they are notified, so they wait for the new release
+    CompletableFuture<Release> newRelease = CompletableFuture.supplyAsync(() -> configServiceWithCache
+        .findLatestActiveRelease(someAppId, someClusterName, someNamespaceName, null));
+    //so do the notified clients
+    ApolloNotificationMessages someNotifiedMessages = new ApolloNotificationMessages();
+    someNotifiedMessages.put(someKey, someNewNotificationId);
+    CompletableFuture<Release> anotherNewRelease = CompletableFuture.supplyAsync(() -> configServiceWithCache
+        .findLatestActiveRelease(someAppId, someClusterName, someNamespaceName, someNotifiedMessages));
+
+    TimeUnit.MILLISECONDS.sleep(100);
+    assertFalse(newRelease.isDone());
+    assertFalse(anotherNewRelease.isDone());
+
+    refreshTask.getValue().run();
+
+    assertEquals(anotherRelease, newRelease.get(5, TimeUnit.SECONDS));
+    assertEquals(anotherRelease, anotherNewRelease.get(5, TimeUnit.SECONDS));
+    assertEquals(anotherRelease, configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
+        someNamespaceName, someNotificationMessages));
+    //loaded only once by the refresh
+    verify(releaseService, times(2)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+  }
+
+  @Test
+  public void testCacheStats() throws Exception {
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
+        (someReleaseMessage);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn
+        (someRelease);
+    when(someReleaseMessage.getId()).thenReturn(someNotificationId);
+
+    configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName,
+        someNotificationMessages);
+    configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName,
+        someNotificationMessages);
+
+    CacheStats stats = configServiceWithCache.getCacheStats().get("latest");
+
+    assertEquals(1, stats.hitCount());
+    assertEquals(1, stats.missCount());
+    assertEquals(1, stats.loadSuccessCount());
+    assertEquals(1, meterRegistry.get("cache.gets").tag("type", "latest").tag("result", "hit")
+        .functionCounter().count(), 0);
+  }
+
+  @Test
+  public void testCacheBoundedBySize() throws Exception {
+    when(bizConfig.configServiceCacheMaxSizeInMB()).thenReturn(1);
+    configServiceWithCache.initialize();
+
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
+        (someReleaseMessage);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn
+        (someRelease);
+    when(someReleaseMessage.getId()).thenReturn(someNotificationId);
+    //larger than the whole cache
+    when(someRelease.getConfigurations()).thenReturn(Strings.repeat("a", 1024 * 1024));
+
+    configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName,
+        someNotificationMessages);
+    configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName,
+        someNotificationMessages);
+
+    verify(releaseService, times(2)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+  }
+
   @Test
   public void testFindLatestActiveReleaseWithReleaseMessageNotification() throws Exception {
     long someNewNotificationId = someNotificationId + 1;
@@ -252,12 +411,12 @@ public class ConfigServiceWithCacheTest {
 
     configServiceWithCache.handleMessage(anotherReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
 
-    Release shouldBeNewRelease = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
-        someNamespaceName, someNotificationMessages);
+    //refreshed asynchronously
+    await().untilAsserted(() -> assertEquals(anotherRelease, configServiceWithCache
+        .findLatestActiveRelease(someAppId, someClusterName, someNamespaceName, someNotificationMessages)));
 
     assertEquals(someRelease, release);
     assertEquals(someRelease, stillOldRelease);
-    assertEquals(anotherRelease, shouldBeNewRelease);
 
     verify(releaseMessageService, times(2)).findLatestReleaseMessageForMessages(Lists.newArrayList(someKey));
     verify(releaseService, times(2)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
@@ -292,4 +451,98 @@ public class ConfigServiceWithCacheTest {
     verify(releaseMessageService, times(1)).findLatestReleaseMessageForMessages(Lists.newArrayList(someKey));
     verify(releaseService, times(1)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
   }
+
+  @Test
+  public void testFindReleasesByReleaseKeys() throws Exception {
+    String someReleaseKey = "someReleaseKey";
+    String someUnknownReleaseKey = "someUnknownReleaseKey";
+    Set<String> releaseKeys = Sets.newHashSet(someReleaseKey, someUnknownReleaseKey);
+
+    when(releaseService.findByReleaseKeys(Collections.singleton(someReleaseKey)))
+        .thenReturn(Lists.newArrayList(someRelease));
+    when(releaseService.findByReleaseKeys(Collections.singleton(someUnknownReleaseKey)))
+        .thenReturn(Collections.emptyList());
+
+    Map<String, Release> releases = configServiceWithCache.findReleasesByReleaseKeys(releaseKeys);
+    Map<String, Release> anotherReleases = configServiceWithCache.findReleasesByReleaseKeys(releaseKeys);
+
+    assertEquals(1, releases.size());
+    assertEquals(someRelease, releases.get(someReleaseKey));
+    assertEquals(releases, anotherReleases);
+
+    verify(releaseService, times(1)).findByReleaseKeys(Collections.singleton(someReleaseKey));
+    //the unknown release keys are not cached
+    verify(releaseService, times(2)).findByReleaseKeys(Collections.singleton(someUnknownReleaseKey));
+  }
+
+  @Test
+  public void testRestoreFromSnapshot() throws Exception {
+    String anotherNamespaceName = "anotherNamespaceName";
+    String anotherKey = ReleaseMessageKeyGenerator.generate(someAppId, someClusterName, anotherNamespaceName);
+    String yetAnotherNamespaceName = "yetAnotherNamespaceName";
+    String yetAnotherKey = ReleaseMessageKeyGenerator.generate(someAppId, someClusterName, yetAnotherNamespaceName);
+    String someConfigurations = "{\"someKey\":\"someValue\"}";
+    String anotherConfigurations = "{\"someKey\":\"anotherValue\"}";
+    long anotherNotificationId = someNotificationId + 1;
+    Release anotherRelease = mock(Release.class);
+
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    CacheSnapshotWriter writer = new CacheSnapshotWriter(new DataOutputStream(snapshot));
+    writer.writeInt(3);
+    writeSnapshotEntry(writer, someKey, someNotificationId, someNamespaceName, someConfigurations);
+    writeSnapshotEntry(writer, anotherKey, someNotificationId, anotherNamespaceName, someConfigurations);
+    writeSnapshotEntry(writer, yetAnotherKey, someNotificationId, yetAnotherNamespaceName, someConfigurations);
+    writer.flush();
+
+    when(cacheSnapshotService.restore(configServiceWithCache.getSnapshotName()))
+        .thenReturn(new CacheSnapshotReader(ByteBuffer.wrap(snapshot.toByteArray())));
+    //another namespace is published again between the snapshot and the restart, and the release messages of yet
+    //another namespace are cleaned up
+    when(releaseMessageService.findLatestReleaseMessagesGroupByMessages(Lists.newArrayList(someKey, anotherKey,
+        yetAnotherKey))).thenReturn(Lists.newArrayList(assembleReleaseMessage(someNotificationId, someKey),
+        assembleReleaseMessage(anotherNotificationId, anotherKey)));
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(anotherKey)))
+        .thenReturn(assembleReleaseMessage(anotherNotificationId, anotherKey));
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, anotherNamespaceName))
+        .thenReturn(anotherRelease);
+    when(anotherRelease.getConfigurations()).thenReturn(anotherConfigurations);
+
+    configServiceWithCache.afterSingletonsInstantiated();
+
+    Release release = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
+        someNamespaceName, someNotificationMessages);
+
+    assertEquals(someConfigurations, release.getConfigurations());
+    assertEquals(someNamespaceName, release.getNamespaceName());
+    verify(releaseService, never()).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+    //the release published while down is loaded from database instead of the stale one in the snapshot
+    assertEquals(anotherConfigurations, configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
+        anotherNamespaceName, someNotificationMessages).getConfigurations());
+    verify(releaseService, times(1)).findLatestActiveRelease(someAppId, someClusterName, anotherNamespaceName);
+    assertNull(configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, yetAnotherNamespaceName,
+        someNotificationMessages));
+    verify(releaseService, times(1)).findLatestActiveRelease(someAppId, someClusterName, yetAnotherNamespaceName);
+    verify(cacheSnapshotService, times(1)).register(configServiceWithCache);
+  }
+
+  private ReleaseMessage assembleReleaseMessage(long id, String message) {
+    ReleaseMessage releaseMessage = new ReleaseMessage(message);
+    releaseMessage.setId(id);
+    return releaseMessage;
+  }
+
+  private void writeSnapshotEntry(CacheSnapshotWriter writer, String key, long notificationId,
+      String namespaceName, String configurations) throws Exception {
+    writer.writeString(key);
+    writer.writeLong(notificationId);
+    writer.writeLong(1);
+    writer.writeString("someReleaseKey");
+    writer.writeString("someReleaseName");
+    writer.writeString(someAppId);
+    writer.writeString(someClusterName);
+    writer.writeString(namespaceName);
+    writer.writeString(configurations);
+    writer.writeString(null);
+    writer.writeBoolean(false);
+  }
 }
@@ -98,6 +98,26 @@ public class AccessKeyUtilTest {
     assertThat(appId).isEqualTo("someAppId");
   }
 
+  @Test
+  public void testExtractAppIdFromRequest5() {
+    when(request.getServletPath()).thenReturn("/notifications/v3/stream");
+    when(request.getParameter("appId")).thenReturn("someAppId");
+
+    String appId = accessKeyUtil.extractAppIdFromRequest(request);
+
+    assertThat(appId).isEqualTo("someAppId");
+  }
+
+  @Test
+  public void testExtractAppIdFromRequest6() {
+    when(request.getServletPath()).thenReturn("/configs/batch");
+    when(request.getParameter("appId")).thenReturn("someAppId");
+
+    String appId = accessKeyUtil.extractAppIdFromRequest(request);
+
+    assertThat(appId).isEqualTo("someAppId");
+  }
+
   @Test
   public void buildSignature() {
     String path = "/configs/someAppId/default/application";
@@ -110,4 +130,20 @@ public class AccessKeyUtilTest {
     String expectedSignature = "WYjjyJFei6DYiaMlwZjew2O/Yqk=";
     assertThat(actualSignature).isEqualTo(expectedSignature);
   }
+
+  @Test
+  public void testVerifySignature() {
+    String path = "/configs/someAppId/default/application";
+    String query = "ip=10.0.0.1";
+    String timestamp = "1575018989200";
+    String signature = "WYjjyJFei6DYiaMlwZjew2O/Yqk=";
+    List<String> secrets = Lists.newArrayList("anotherSecret", "someSecret");
+
+    assertThat(accessKeyUtil.verifySignature(path, query, timestamp, signature, secrets)).isTrue();
+    assertThat(accessKeyUtil.verifySignature(path, query, timestamp, signature,
+        Lists.newArrayList("anotherSecret"))).isFalse();
+    assertThat(accessKeyUtil.verifySignature(path, null, timestamp, signature, secrets)).isFalse();
+    assertThat(accessKeyUtil.verifySignature(path, query, "1575018989201", signature, secrets)).isFalse();
+    assertThat(accessKeyUtil.verifySignature(path, query, timestamp, "invalid base64!", secrets)).isFalse();
+  }
 }
@@ -16,19 +16,30 @@
  */
 package com.ctrip.framework.apollo.configservice.util;
 
+import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.entity.Instance;
 import com.ctrip.framework.apollo.biz.entity.InstanceConfig;
 import com.ctrip.framework.apollo.biz.service.InstanceService;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
@@ -41,7 +52,10 @@ public class InstanceConfigAuditUtilTest {
 
   @Mock
   private InstanceService instanceService;
-  private BlockingQueue<InstanceConfigAuditUtil.InstanceConfigAuditModel> audits;
+  @Mock
+  private BizConfig bizConfig;
+  private SimpleMeterRegistry meterRegistry;
+  private List<Map<String, InstanceConfigAuditUtil.InstanceConfigAuditModel>> audits;
 
   private String someAppId;
   private String someConfigClusterName;
@@ -56,9 +70,12 @@ public class InstanceConfigAuditUtilTest {
 
   @Before
   public void setUp() throws Exception {
-    instanceConfigAuditUtil = new InstanceConfigAuditUtil(instanceService);
+    when(bizConfig.instanceConfigAuditWorkers()).thenReturn(2);
+    when(bizConfig.instanceConfigAuditFlushIntervalInMilli()).thenReturn(1000);
+    meterRegistry = new SimpleMeterRegistry();
+    instanceConfigAuditUtil = new InstanceConfigAuditUtil(instanceService, bizConfig, meterRegistry);
 
-    audits = (BlockingQueue<InstanceConfigAuditUtil.InstanceConfigAuditModel>)
+    audits = (List<Map<String, InstanceConfigAuditUtil.InstanceConfigAuditModel>>)
         ReflectionTestUtils.getField(instanceConfigAuditUtil, "audits");
 
     someAppId = "someAppId";
@@ -75,34 +92,242 @@ public class InstanceConfigAuditUtilTest {
         someConfigNamespace, someReleaseKey);
   }
 
+  @After
+  public void tearDown() throws Exception {
+    instanceConfigAuditUtil.destroy();
+  }
+
   @Test
   public void testAudit() throws Exception {
     boolean result = instanceConfigAuditUtil.audit(someAppId, someClusterName, someDataCenter,
         someIp, someConfigAppId, someConfigClusterName, someConfigNamespace, someReleaseKey);
 
-    InstanceConfigAuditUtil.InstanceConfigAuditModel audit = audits.poll();
+    List<InstanceConfigAuditUtil.InstanceConfigAuditModel> pending = pendingAudits();
 
     assertTrue(result);
-    assertTrue(Objects.equals(someAuditModel, audit));
+    assertEquals(1, pending.size());
+    assertTrue(Objects.equals(someAuditModel, pending.get(0)));
+  }
+
+  @Test
+  public void testAuditKeepsTheLatestOneOnly() throws Exception {
+    String anotherReleaseKey = "anotherReleaseKey";
+
+    instanceConfigAuditUtil.audit(someAppId, someClusterName, someDataCenter,
+        someIp, someConfigAppId, someConfigClusterName, someConfigNamespace, someReleaseKey);
+    instanceConfigAuditUtil.audit(someAppId, someClusterName, someDataCenter,
+        someIp, someConfigAppId, someConfigClusterName, someConfigNamespace, anotherReleaseKey);
+
+    List<InstanceConfigAuditUtil.InstanceConfigAuditModel> pending = pendingAudits();
+
+    assertEquals(1, pending.size());
+    assertEquals(anotherReleaseKey, pending.get(0).getReleaseKey());
+    assertEquals(1, meterRegistry.get("apollo.instance-config-audit.pending").gauge().value(), 0);
+  }
+
+  @Test
+  public void testAuditDroppedWhenTooManyPending() throws Exception {
+    int maxSize = 10000;
+    for (int i = 0; i < maxSize; i++) {
+      assertTrue(instanceConfigAuditUtil.audit(someAppId, someClusterName, someDataCenter,
+          someIp + i, someConfigAppId, someConfigClusterName, someConfigNamespace, someReleaseKey));
+    }
+
+    assertFalse(instanceConfigAuditUtil.audit(someAppId, someClusterName, someDataCenter,
+        someIp, someConfigAppId, someConfigClusterName, someConfigNamespace, someReleaseKey));
+    //the pending one could still be updated
+    assertTrue(instanceConfigAuditUtil.audit(someAppId, someClusterName, someDataCenter,
+        someIp + 0, someConfigAppId, someConfigClusterName, someConfigNamespace, someReleaseKey));
+    assertEquals(1, meterRegistry.get("apollo.instance-config-audit.dropped").counter().count(), 0);
   }
 
   @Test
   public void testDoAudit() throws Exception {
     long someInstanceId = 1;
-    Instance someInstance = mock(Instance.class);
+    Instance someInstance = assembleInstance(someInstanceId, someAppId);
+
+    when(instanceService.findInstancesByIps(someAppId, someClusterName, Sets.newHashSet(someIp)))
+        .thenReturn(Lists.newArrayList(), Lists.newArrayList(someInstance));
+
+    instanceConfigAuditUtil.doAudit(Lists.newArrayList(someAuditModel));
+
+    ArgumentCaptor<List<Instance>> instancesCaptor = ArgumentCaptor.forClass(List.class);
+    verify(instanceService, times(1)).batchCreateInstances(instancesCaptor.capture());
+    Instance newInstance = instancesCaptor.getValue().get(0);
+    assertEquals(1, instancesCaptor.getValue().size());
+    assertEquals(someAppId, newInstance.getAppId());
+    assertEquals(someClusterName, newInstance.getClusterName());
+    assertEquals(someDataCenter, newInstance.getDataCenter());
+    assertEquals(someIp, newInstance.getIp());
+    verify(instanceService, times(2)).findInstancesByIps(someAppId, someClusterName, Sets.newHashSet(someIp));
+    verify(instanceService, never()).findInstance(anyString(), anyString(), anyString(), anyString());
+    verify(instanceService, times(1)).findInstanceConfigsByInstanceIds(Sets.newHashSet(someInstanceId));
+
+    ArgumentCaptor<List<InstanceConfig>> captor = ArgumentCaptor.forClass(List.class);
+    verify(instanceService, times(1)).batchSaveInstanceConfigs(captor.capture());
+    InstanceConfig instanceConfig = captor.getValue().get(0);
+    assertEquals(1, captor.getValue().size());
+    assertEquals(someInstanceId, instanceConfig.getInstanceId());
+    assertEquals(someReleaseKey, instanceConfig.getReleaseKey());
+    assertEquals(someAuditModel.getOfferTime(), instanceConfig.getDataChangeLastModifiedTime());
+  }
+
+  @Test
+  public void testDoAuditWithCachedInstanceIds() throws Exception {
+    long someInstanceId = 1;
+
+    when(instanceService.findInstancesByIps(someAppId, someClusterName, Sets.newHashSet(someIp)))
+        .thenReturn(Lists.newArrayList(assembleInstance(someInstanceId, someAppId)));
+
+    instanceConfigAuditUtil.doAudit(Lists.newArrayList(someAuditModel));
+    instanceConfigAuditUtil.doAudit(Lists.newArrayList(assembleAuditModel("anotherConfigNamespace")));
+
+    verify(instanceService, times(1)).findInstancesByIps(anyString(), anyString(), anySet());
+    verify(instanceService, never()).batchCreateInstances(anyList());
+    verify(instanceService, times(2)).findInstanceConfigsByInstanceIds(Sets.newHashSet(someInstanceId));
+  }
+
+  @Test
+  public void testDoAuditWithInstancesOfDifferentApps() throws Exception {
+    long someInstanceId = 1;
+    long anotherInstanceId = 2;
+    String anotherAppId = "anotherAppId";
+    Instance anotherInstance = assembleInstance(anotherInstanceId, anotherAppId);
+
+    when(instanceService.findInstancesByIps(someAppId, someClusterName, Sets.newHashSet(someIp)))
+        .thenReturn(Lists.newArrayList(assembleInstance(someInstanceId, someAppId)));
+    when(instanceService.findInstancesByIps(anotherAppId, someClusterName, Sets.newHashSet(someIp)))
+        .thenReturn(Lists.newArrayList(anotherInstance));
+
+    instanceConfigAuditUtil.doAudit(Lists.newArrayList(someAuditModel,
+        new InstanceConfigAuditUtil.InstanceConfigAuditModel(anotherAppId, someClusterName, someDataCenter, someIp,
+            someConfigAppId, someConfigClusterName, someConfigNamespace, someReleaseKey)));
+
+    //each app is queried by the leading columns of the unique key
+    verify(instanceService, times(2)).findInstancesByIps(anyString(), anyString(), anySet());
+    verify(instanceService, never()).batchCreateInstances(anyList());
+    verify(instanceService, times(1)).findInstanceConfigsByInstanceIds(
+        Sets.newHashSet(someInstanceId, anotherInstanceId));
+  }
+
+  @Test
+  public void testDoAuditWithInstanceOfDifferentCase() throws Exception {
+    long someInstanceId = 1;
+    Instance someInstance = assembleInstance(someInstanceId, someAppId.toUpperCase());
 
-    when(someInstance.getId()).thenReturn(someInstanceId);
-    when(instanceService.createInstance(any(Instance.class))).thenReturn(someInstance);
+    //the database treats them as the same instance, so it's not created
+    when(instanceService.findInstancesByIps(someAppId, someClusterName, Sets.newHashSet(someIp)))
+        .thenReturn(Lists.newArrayList(someInstance));
+    when(instanceService.findInstance(someAppId, someClusterName, someDataCenter, someIp)).thenReturn(someInstance);
 
-    instanceConfigAuditUtil.doAudit(someAuditModel);
+    instanceConfigAuditUtil.doAudit(Lists.newArrayList(someAuditModel));
 
-    verify(instanceService, times(1)).findInstance(someAppId, someClusterName, someDataCenter,
-        someIp);
-    verify(instanceService, times(1)).createInstance(any(Instance.class));
-    verify(instanceService, times(1)).findInstanceConfig(someInstanceId, someConfigAppId,
-        someConfigNamespace);
-    verify(instanceService, times(1)).createInstanceConfig(any(InstanceConfig.class));
+    verify(instanceService, times(1)).batchCreateInstances(anyList());
+    verify(instanceService, times(1)).findInstance(someAppId, someClusterName, someDataCenter, someIp);
+    verify(instanceService, times(1)).findInstanceConfigsByInstanceIds(Sets.newHashSet(someInstanceId));
+    verify(instanceService, times(1)).batchSaveInstanceConfigs(anyList());
   }
 
+  @Test
+  public void testDoAuditWithExistedInstanceConfigs() throws Exception {
+    long someInstanceId = 1;
+    String anotherConfigNamespace = "anotherConfigNamespace";
+    String yetAnotherConfigNamespace = "yetAnotherConfigNamespace";
+    InstanceConfig changedInstanceConfig = assembleInstanceConfig(1, someInstanceId, someConfigNamespace,
+        "oldReleaseKey", new Date());
+    InstanceConfig recentlyAuditedInstanceConfig = assembleInstanceConfig(2, someInstanceId, anotherConfigNamespace,
+        someReleaseKey, new Date());
+    InstanceConfig longAgoAuditedInstanceConfig = assembleInstanceConfig(3, someInstanceId, yetAnotherConfigNamespace,
+        someReleaseKey, new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+
+    when(instanceService.findInstancesByIps(someAppId, someClusterName, Sets.newHashSet(someIp)))
+        .thenReturn(Lists.newArrayList(assembleInstance(someInstanceId, someAppId)));
+    when(instanceService.findInstanceConfigsByInstanceIds(Sets.newHashSet(someInstanceId))).thenReturn(
+        Lists.newArrayList(changedInstanceConfig, recentlyAuditedInstanceConfig, longAgoAuditedInstanceConfig));
+
+    instanceConfigAuditUtil.doAudit(Lists.newArrayList(someAuditModel,
+        assembleAuditModel(anotherConfigNamespace), assembleAuditModel(yetAnotherConfigNamespace)));
+
+    ArgumentCaptor<List<InstanceConfig>> captor = ArgumentCaptor.forClass(List.class);
+    verify(instanceService, times(1)).batchSaveInstanceConfigs(captor.capture());
+    verify(instanceService, never()).batchCreateInstances(anyList());
+    assertEquals(Lists.newArrayList(changedInstanceConfig, longAgoAuditedInstanceConfig), captor.getValue());
+    assertEquals(someReleaseKey, changedInstanceConfig.getReleaseKey());
+    assertEquals(someConfigClusterName, changedInstanceConfig.getConfigClusterName());
+  }
+
+  @Test
+  public void testFlush() throws Exception {
+    long someInstanceId = 1;
+
+    when(instanceService.findInstancesByIps(someAppId, someClusterName, Sets.newHashSet(someIp)))
+        .thenReturn(Lists.newArrayList(assembleInstance(someInstanceId, someAppId)));
+
+    instanceConfigAuditUtil.audit(someAppId, someClusterName, someDataCenter,
+        someIp, someConfigAppId, someConfigClusterName, someConfigNamespace, someReleaseKey);
+
+    for (Map<String, InstanceConfigAuditUtil.InstanceConfigAuditModel> shard : audits) {
+      instanceConfigAuditUtil.flush(shard);
+    }
+
+    assertTrue(pendingAudits().isEmpty());
+    verify(instanceService, times(1)).batchSaveInstanceConfigs(anyList());
+    assertEquals(1, meterRegistry.get("apollo.instance-config-audit.flush").timer().count());
 
+    //the same release key is audited already
+    assertTrue(instanceConfigAuditUtil.audit(someAppId, someClusterName, someDataCenter,
+        someIp, someConfigAppId, someConfigClusterName, someConfigNamespace, someReleaseKey));
+    assertTrue(pendingAudits().isEmpty());
+  }
+
+  @Test
+  public void testDestroyFlushesPendingAudits() throws Exception {
+    when(instanceService.findInstancesByIps(someAppId, someClusterName, Sets.newHashSet(someIp)))
+        .thenReturn(Lists.newArrayList(assembleInstance(1, someAppId)));
+
+    instanceConfigAuditUtil.afterPropertiesSet();
+    instanceConfigAuditUtil.audit(someAppId, someClusterName, someDataCenter,
+        someIp, someConfigAppId, someConfigClusterName, someConfigNamespace, someReleaseKey);
+
+    instanceConfigAuditUtil.destroy();
+
+    assertTrue(pendingAudits().isEmpty());
+    verify(instanceService, times(1)).batchSaveInstanceConfigs(anyList());
+  }
+
+  private List<InstanceConfigAuditUtil.InstanceConfigAuditModel> pendingAudits() {
+    List<InstanceConfigAuditUtil.InstanceConfigAuditModel> pending = Lists.newArrayList();
+    for (Map<String, InstanceConfigAuditUtil.InstanceConfigAuditModel> shard : audits) {
+      pending.addAll(shard.values());
+    }
+    return pending;
+  }
+
+  private InstanceConfigAuditUtil.InstanceConfigAuditModel assembleAuditModel(String configNamespace) {
+    return new InstanceConfigAuditUtil.InstanceConfigAuditModel(someAppId, someClusterName, someDataCenter, someIp,
+        someConfigAppId, someConfigClusterName, configNamespace, someReleaseKey);
+  }
+
+  private Instance assembleInstance(long id, String appId) {
+    Instance instance = new Instance();
+    instance.setId(id);
+    instance.setAppId(appId);
+    instance.setClusterName(someClusterName);
+    instance.setDataCenter(someDataCenter);
+    instance.setIp(someIp);
+    return instance;
+  }
+
+  private InstanceConfig assembleInstanceConfig(long id, long instanceId, String configNamespace, String releaseKey,
+      Date lastModifiedTime) {
+    InstanceConfig instanceConfig = new InstanceConfig();
+    instanceConfig.setId(id);
+    instanceConfig.setInstanceId(instanceId);
+    instanceConfig.setConfigAppId(someConfigAppId);
+    instanceConfig.setConfigClusterName(someConfigClusterName);
+    instanceConfig.setConfigNamespaceName(configNamespace);
+    instanceConfig.setReleaseKey(releaseKey);
+    instanceConfig.setDataChangeLastModifiedTime(lastModifiedTime);
+    return instanceConfig;
+  }
 }
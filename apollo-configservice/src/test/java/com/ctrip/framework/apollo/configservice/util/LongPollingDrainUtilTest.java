@@ -0,0 +1,163 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.configservice.wrapper.DeferredResultWrapper;
+import com.ctrip.framework.apollo.configservice.wrapper.NotificationStream;
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LongPollingDrainUtilTest {
+  private LongPollingDrainUtil longPollingDrainUtil;
+  @Mock
+  private BizConfig bizConfig;
+
+  private int someRetryAfter;
+  private int someRetryJitter;
+
+  @Before
+  public void setUp() throws Exception {
+    someRetryAfter = 1000;
+    someRetryJitter = 30000;
+    when(bizConfig.longPollingRetryAfterInMilli()).thenReturn(someRetryAfter);
+    when(bizConfig.longPollingRetryJitterInMilli()).thenReturn(someRetryJitter);
+
+    longPollingDrainUtil = new LongPollingDrainUtil(bizConfig);
+    longPollingDrainUtil.start();
+  }
+
+  @Test
+  public void testDrainInWaves() throws Exception {
+    int someDrainPeriod = 200;
+    when(bizConfig.longPollingDrainWaves()).thenReturn(3);
+    when(bizConfig.longPollingDrainPeriodInMilli()).thenReturn(someDrainPeriod);
+
+    List<DeferredResultWrapper> results = assembleDeferredResultWrappers(10);
+    for (DeferredResultWrapper result : results) {
+      assertTrue(longPollingDrainUtil.track(result));
+    }
+
+    long start = System.currentTimeMillis();
+    longPollingDrainUtil.stop();
+
+    assertTrue(System.currentTimeMillis() - start >= someDrainPeriod);
+    assertFalse(longPollingDrainUtil.isRunning());
+    for (DeferredResultWrapper result : results) {
+      assertRetryResponse(result);
+    }
+  }
+
+  @Test
+  public void testDrainStreamsWithRequests() throws Exception {
+    when(bizConfig.longPollingDrainWaves()).thenReturn(2);
+    when(bizConfig.longPollingDrainPeriodInMilli()).thenReturn(100);
+
+    DeferredResultWrapper someResult = new DeferredResultWrapper(60000);
+    NotificationStream someStream = mock(NotificationStream.class);
+    NotificationStream anotherStream = mock(NotificationStream.class);
+
+    assertTrue(longPollingDrainUtil.track(someResult));
+    assertTrue(longPollingDrainUtil.track(someStream));
+    assertTrue(longPollingDrainUtil.track(anotherStream));
+    longPollingDrainUtil.untrack(anotherStream);
+
+    longPollingDrainUtil.stop();
+
+    assertRetryResponse(someResult);
+    ArgumentCaptor<RetryHint> retryHintCaptor = ArgumentCaptor.forClass(RetryHint.class);
+    verify(someStream, times(1)).drain(retryHintCaptor.capture());
+    assertEquals(someRetryAfter, retryHintCaptor.getValue().getRetryAfterInMilli());
+    assertEquals(someRetryJitter, retryHintCaptor.getValue().getJitterInMilli());
+    verify(anotherStream, never()).drain(any(RetryHint.class));
+  }
+
+  @Test
+  public void testTrackStreamWhenDraining() throws Exception {
+    longPollingDrainUtil.stop();
+
+    NotificationStream someStream = mock(NotificationStream.class);
+
+    assertFalse(longPollingDrainUtil.track(someStream));
+    verify(someStream, times(1)).drain(any(RetryHint.class));
+  }
+
+  @Test
+  public void testCompletedRequestsAreNotDrained() throws Exception {
+    DeferredResultWrapper someResult = new DeferredResultWrapper(60000);
+    DeferredResultWrapper anotherResult = new DeferredResultWrapper(60000);
+    when(bizConfig.longPollingDrainWaves()).thenReturn(10);
+
+    longPollingDrainUtil.track(someResult);
+    longPollingDrainUtil.track(anotherResult);
+    longPollingDrainUtil.untrack(someResult);
+
+    assertEquals(1, longPollingDrainUtil.pendingCount());
+
+    longPollingDrainUtil.stop();
+
+    assertFalse(someResult.getResult().hasResult());
+    assertRetryResponse(anotherResult);
+  }
+
+  @Test
+  public void testTrackWhenDraining() throws Exception {
+    longPollingDrainUtil.stop();
+
+    DeferredResultWrapper someResult = new DeferredResultWrapper(60000);
+
+    assertTrue(longPollingDrainUtil.isDraining());
+    assertFalse(longPollingDrainUtil.track(someResult));
+    assertEquals(0, longPollingDrainUtil.pendingCount());
+    assertRetryResponse(someResult);
+  }
+
+  private void assertRetryResponse(DeferredResultWrapper result) {
+    assertTrue(result.getResult().hasResult());
+    ResponseEntity<?> response = (ResponseEntity<?>) result.getResult().getResult();
+    assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+    assertEquals(String.valueOf(someRetryAfter), response.getHeaders().getFirst(RetryHint.RETRY_AFTER_HEADER));
+    assertEquals(String.valueOf(someRetryJitter), response.getHeaders().getFirst(RetryHint.RETRY_JITTER_HEADER));
+  }
+
+  private List<DeferredResultWrapper> assembleDeferredResultWrappers(int size) {
+    List<DeferredResultWrapper> results = Lists.newArrayList();
+    for (int i = 0; i < size; i++) {
+      results.add(new DeferredResultWrapper(60000));
+    }
+    return results;
+  }
+}
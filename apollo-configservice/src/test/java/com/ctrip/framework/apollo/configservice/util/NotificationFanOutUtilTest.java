@@ -0,0 +1,223 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.configservice.wrapper.DeferredResultWrapper;
+import com.ctrip.framework.apollo.configservice.wrapper.NotificationReceiver;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NotificationFanOutUtilTest {
+  private NotificationFanOutUtil notificationFanOutUtil;
+  private SimpleMeterRegistry meterRegistry;
+  @Mock
+  private BizConfig bizConfig;
+
+  private String someWatchKey;
+  private String someNamespace;
+  private long someNotificationId;
+  private Gson gson;
+
+  @Before
+  public void setUp() throws Exception {
+    when(bizConfig.releaseMessageNotificationBatch()).thenReturn(10);
+    when(bizConfig.releaseMessageNotificationBatchIntervalInMilli()).thenReturn(10);
+    when(bizConfig.releaseMessageNotificationThreads()).thenReturn(2);
+
+    meterRegistry = new SimpleMeterRegistry();
+    notificationFanOutUtil = new NotificationFanOutUtil(bizConfig, meterRegistry);
+
+    someWatchKey = "someAppId+default+someNamespace";
+    someNamespace = "someNamespace";
+    someNotificationId = 1;
+    gson = new Gson();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    notificationFanOutUtil.destroy();
+  }
+
+  @Test
+  public void testFanOutInCallerThread() throws Exception {
+    List<DeferredResultWrapper> results = assembleDeferredResultWrappers(10);
+
+    notificationFanOutUtil.fanOut(someWatchKey, assembleNotification(), results);
+
+    Object someBody = ((ResponseEntity<?>) results.get(0).getResult().getResult()).getBody();
+    for (DeferredResultWrapper result : results) {
+      ResponseEntity<byte[]> response = (ResponseEntity<byte[]>) result.getResult().getResult();
+      // the encoded notification is shared by all the clients
+      assertSame(someBody, response.getBody());
+      assertNotification(someNamespace, response);
+    }
+    assertEquals(1, meterRegistry.get("apollo.notification.fan-out").timer().count());
+    assertEquals(10, meterRegistry.get("apollo.notification.fan-out.receivers").summary().max(), 0);
+  }
+
+  @Test
+  public void testFanOutInBatches() throws Exception {
+    int someClients = 35;
+    List<DeferredResultWrapper> results = assembleDeferredResultWrappers(someClients);
+
+    notificationFanOutUtil.fanOut(someWatchKey, assembleNotification(), results);
+
+    // 4 batches paced with 10ms between each other
+    await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> {
+      for (DeferredResultWrapper result : results) {
+        assertTrue(result.getResult().hasResult());
+      }
+    });
+    for (DeferredResultWrapper result : results) {
+      assertNotification(someNamespace, (ResponseEntity<byte[]>) result.getResult().getResult());
+    }
+    await().atMost(1, TimeUnit.SECONDS).untilAsserted(
+        () -> assertEquals(1, meterRegistry.get("apollo.notification.fan-out").timer().count()));
+  }
+
+  @Test
+  public void testFanOutDoesNotBlockCaller() throws Exception {
+    // 100 batches, 2 threads with a batch per 10ms each, so it takes about 500ms to notify all of them
+    int someClients = 1000;
+    Thread callerThread = Thread.currentThread();
+    Set<Thread> notifyingThreads = Sets.newConcurrentHashSet();
+    AtomicInteger notified = new AtomicInteger();
+    List<NotificationReceiver> receivers = Lists.newArrayList();
+    for (int i = 0; i < someClients; i++) {
+      receivers.add(notification -> {
+        notifyingThreads.add(Thread.currentThread());
+        notified.incrementAndGet();
+      });
+    }
+
+    long start = System.nanoTime();
+    notificationFanOutUtil.fanOut(someWatchKey, assembleNotification(), receivers);
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertTrue(elapsed < 200);
+    assertTrue(meterRegistry.get("apollo.notification.fan-out.pending-batches").gauge().value() > 0);
+    await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertEquals(someClients, notified.get()));
+    assertFalse(notifyingThreads.contains(callerThread));
+    assertEquals(0, meterRegistry.get("apollo.notification.fan-out.pending-batches").gauge().value(), 0);
+  }
+
+  @Test
+  public void testExecuteWithBlockingReceiver() throws Exception {
+    // 3 batches, the first one is blocked by its first receiver
+    int someReceivers = 25;
+    CountDownLatch blockingLatch = new CountDownLatch(1);
+    Thread callerThread = Thread.currentThread();
+    Set<Thread> executingThreads = Sets.newConcurrentHashSet();
+    Set<Integer> executed = Sets.newConcurrentHashSet();
+    List<DeferredResultWrapper> receivers = assembleDeferredResultWrappers(someReceivers);
+
+    notificationFanOutUtil.execute(receivers, receiver -> {
+      int index = receivers.indexOf(receiver);
+      executingThreads.add(Thread.currentThread());
+      if (index == 0) {
+        try {
+          blockingLatch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      executed.add(index);
+    });
+
+    await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertEquals(15, executed.size()));
+    assertFalse(executed.contains(0));
+
+    blockingLatch.countDown();
+
+    await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertEquals(someReceivers, executed.size()));
+    assertFalse(executingThreads.contains(callerThread));
+  }
+
+  @Test
+  public void testFanOutWithOriginalNamespaceName() throws Exception {
+    String someOriginalNamespace = someNamespace.toUpperCase();
+    DeferredResultWrapper someResult = new DeferredResultWrapper(1000);
+    DeferredResultWrapper anotherResult = new DeferredResultWrapper(1000);
+    anotherResult.recordNamespaceNameNormalizedResult(someOriginalNamespace, someNamespace);
+
+    notificationFanOutUtil.fanOut(someWatchKey, assembleNotification(), Lists.newArrayList(someResult, anotherResult));
+
+    assertNotification(someNamespace, (ResponseEntity<byte[]>) someResult.getResult().getResult());
+    assertNotification(someOriginalNamespace, (ResponseEntity<byte[]>) anotherResult.getResult().getResult());
+  }
+
+  @Test
+  public void testTokenBucket() throws Exception {
+    TokenBucket tokenBucket = new TokenBucket(2, 1, TimeUnit.SECONDS);
+
+    assertEquals(0, tokenBucket.reserve(2));
+    long waitNanos = tokenBucket.reserve(1);
+    assertTrue(waitNanos > TimeUnit.MILLISECONDS.toNanos(400) && waitNanos <= TimeUnit.MILLISECONDS.toNanos(500));
+    // the debt is queued up for the next acquirer
+    assertTrue(tokenBucket.reserve(1) > waitNanos);
+  }
+
+  private void assertNotification(String namespace, ResponseEntity<byte[]> response) {
+    List<ApolloConfigNotification> notifications = gson.fromJson(
+        new String(response.getBody(), StandardCharsets.UTF_8),
+        new TypeToken<List<ApolloConfigNotification>>() {
+        }.getType());
+
+    assertEquals(1, notifications.size());
+    assertEquals(namespace, notifications.get(0).getNamespaceName());
+    assertEquals(someNotificationId, notifications.get(0).getNotificationId());
+    assertEquals(someNotificationId, notifications.get(0).getMessages().get(someWatchKey).longValue());
+  }
+
+  private ApolloConfigNotification assembleNotification() {
+    ApolloConfigNotification notification = new ApolloConfigNotification(someNamespace, someNotificationId);
+    notification.addMessage(someWatchKey, someNotificationId);
+    return notification;
+  }
+
+  private List<DeferredResultWrapper> assembleDeferredResultWrappers(int size) {
+    List<DeferredResultWrapper> results = Lists.newArrayList();
+    for (int i = 0; i < size; i++) {
+      results.add(new DeferredResultWrapper(1000));
+    }
+    return results;
+  }
+}
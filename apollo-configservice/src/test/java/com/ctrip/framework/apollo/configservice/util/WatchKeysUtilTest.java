@@ -33,7 +33,12 @@ import java.util.Collection;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -176,6 +181,43 @@ public class WatchKeysUtilTest {
     assertWatchKeys(somePublicAppId, clusters, somePublicNamespace, watchKeysMap.get(somePublicNamespace));
   }
 
+  @Test
+  public void testResolutionPlanMemoizedUntilAppNamespacesChange() throws Exception {
+    when(appNamespaceService.getVersion()).thenReturn(1L);
+
+    NamespaceResolutionPlan plan =
+        watchKeysUtil.getResolutionPlan(someAppId, someCluster, somePublicNamespace, someDC);
+    Set<String> watchKeys =
+        watchKeysUtil.assembleAllWatchKeys(someAppId, someCluster, somePublicNamespace, someDC);
+
+    assertFalse(plan.isBelongsToAppId());
+    assertEquals(somePublicAppId, plan.getPublicFallbackPlan().getAppId());
+    assertSame(plan.getWatchKeys(), watchKeys);
+    verify(appNamespaceService, times(1)).findPublicNamespacesByNames(Sets.newHashSet(somePublicNamespace));
+
+    when(appNamespaceService.getVersion()).thenReturn(2L);
+
+    NamespaceResolutionPlan anotherPlan =
+        watchKeysUtil.getResolutionPlan(someAppId, someCluster, somePublicNamespace, someDC);
+
+    assertEquals(plan.getWatchKeys(), anotherPlan.getWatchKeys());
+    //the fallback plans are shared
+    assertSame(plan.getPublicFallbackPlan(), anotherPlan.getPublicFallbackPlan());
+    verify(appNamespaceService, times(2)).findPublicNamespacesByNames(Sets.newHashSet(somePublicNamespace));
+  }
+
+  @Test
+  public void testResolutionPlanForApplicationNamespace() throws Exception {
+    NamespaceResolutionPlan plan = watchKeysUtil
+        .getResolutionPlan(someAppId, defaultCluster, ConfigConsts.NAMESPACE_APPLICATION, defaultCluster);
+
+    assertTrue(plan.isBelongsToAppId());
+    assertNull(plan.getPublicFallbackPlan());
+    assertEquals(Lists.newArrayList(defaultCluster), plan.getAppFallbackPlan().getClusterNames());
+    assertWatchKeys(someAppId, Sets.newHashSet(defaultCluster), ConfigConsts.NAMESPACE_APPLICATION,
+        plan.getWatchKeys());
+  }
+
   private void assertWatchKeys(String appId, Set<String> clusters, String namespaceName,
                                Collection<String> watchedKeys) {
     for (String cluster : clusters) {
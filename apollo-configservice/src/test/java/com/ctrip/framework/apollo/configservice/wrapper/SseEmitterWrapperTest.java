@@ -0,0 +1,154 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.schedule.RetryHint;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SseEmitterWrapperTest {
+  @Mock
+  private SseEmitter emitter;
+  private SseEmitterWrapper emitterWrapper;
+  private String someNamespace;
+  private long someNotificationId;
+
+  @Before
+  public void setUp() throws Exception {
+    emitterWrapper = new SseEmitterWrapper(emitter);
+    someNamespace = "someNamespace";
+    someNotificationId = 1;
+  }
+
+  @Test
+  public void testOnNotification() throws Exception {
+    ApolloConfigNotification notification = new ApolloConfigNotification(someNamespace, someNotificationId);
+
+    emitterWrapper.onNotification(new EncodedNotification(notification));
+
+    assertEquals(String.format("event:notifications\ndata:[{\"namespaceName\":\"%s\",\"notificationId\":%d}]\n\n",
+        someNamespace, someNotificationId), captureSentEvent());
+  }
+
+  @Test
+  public void testOnNotificationWithOriginalNamespaceName() throws Exception {
+    String someOriginalNamespace = someNamespace.toUpperCase();
+    emitterWrapper.recordNamespaceNameNormalizedResult(someOriginalNamespace, someNamespace);
+
+    emitterWrapper.onNotification(
+        new EncodedNotification(new ApolloConfigNotification(someNamespace, someNotificationId)));
+
+    assertEquals(String.format("event:notifications\ndata:[{\"namespaceName\":\"%s\",\"notificationId\":%d}]\n\n",
+        someOriginalNamespace, someNotificationId), captureSentEvent());
+  }
+
+  @Test
+  public void testSendNotifications() throws Exception {
+    String someOriginalNamespace = someNamespace.toUpperCase();
+    emitterWrapper.recordNamespaceNameNormalizedResult(someOriginalNamespace, someNamespace);
+
+    emitterWrapper.send(Lists.newArrayList(new ApolloConfigNotification(someNamespace, someNotificationId)));
+
+    assertEquals(String.format("event:notifications\ndata:[{\"namespaceName\":\"%s\",\"notificationId\":%d}]\n\n",
+        someOriginalNamespace, someNotificationId), captureSentEvent());
+  }
+
+  @Test
+  public void testSendHeartbeat() throws Exception {
+    emitterWrapper.sendHeartbeat();
+
+    assertEquals(":heartbeat\n\n", captureSentEvent());
+  }
+
+  @Test
+  public void testSendHeartbeatWhileSending() throws Exception {
+    CountDownLatch sendingLatch = new CountDownLatch(1);
+    CountDownLatch blockingLatch = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      sendingLatch.countDown();
+      blockingLatch.await();
+      return null;
+    }).when(emitter).send(any(SseEmitter.SseEventBuilder.class));
+
+    Thread sendingThread = new Thread(() -> emitterWrapper.send(
+        Lists.newArrayList(new ApolloConfigNotification(someNamespace, someNotificationId))));
+    sendingThread.start();
+    assertTrue(sendingLatch.await(5, TimeUnit.SECONDS));
+
+    // the heartbeat is skipped instead of waiting for the slow client
+    emitterWrapper.sendHeartbeat();
+
+    blockingLatch.countDown();
+    sendingThread.join();
+
+    verify(emitter, times(1)).send(any(SseEmitter.SseEventBuilder.class));
+  }
+
+  @Test
+  public void testDrain() throws Exception {
+    emitterWrapper.drain(new RetryHint(1000, 0));
+
+    assertEquals("event:retry\nretry:1000\ndata:{\"retryAfterInMilli\":1000,\"jitterInMilli\":0}\n\n",
+        captureSentEvent());
+    verify(emitter, times(1)).complete();
+  }
+
+  @Test
+  public void testSendFailed() throws Exception {
+    doThrow(new IOException("Broken pipe")).when(emitter).send(any(SseEmitter.SseEventBuilder.class));
+
+    // the failure is left to the completion callback
+    emitterWrapper.sendHeartbeat();
+  }
+
+  private String captureSentEvent() throws Exception {
+    ArgumentCaptor<SseEmitter.SseEventBuilder> eventCaptor = ArgumentCaptor.forClass(SseEmitter.SseEventBuilder.class);
+    verify(emitter, times(1)).send(eventCaptor.capture());
+
+    StringBuilder event = new StringBuilder();
+    for (ResponseBodyEmitter.DataWithMediaType data : eventCaptor.getValue().build()) {
+      if (data.getData() instanceof byte[]) {
+        event.append(new String((byte[]) data.getData(), StandardCharsets.UTF_8));
+      } else {
+        event.append(data.getData());
+      }
+    }
+    return event.toString();
+  }
+}
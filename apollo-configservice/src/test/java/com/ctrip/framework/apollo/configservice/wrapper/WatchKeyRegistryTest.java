@@ -0,0 +1,203 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WatchKeyRegistryTest {
+  private WatchKeyRegistry<Object> registry;
+
+  @Before
+  public void setUp() throws Exception {
+    registry = new WatchKeyRegistry<>();
+  }
+
+  @Test
+  public void testRegisterAndGet() throws Exception {
+    String someKey = "someAppId+default+application";
+    Object someWatcher = new Object();
+    Object anotherWatcher = new Object();
+
+    assertTrue(registry.register(someKey, someWatcher));
+    assertTrue(registry.register(someKey, anotherWatcher));
+    assertFalse(registry.register(someKey, someWatcher));
+
+    List<Object> watchers = registry.get(someKey);
+
+    assertEquals(2, watchers.size());
+    assertTrue(watchers.contains(someWatcher));
+    assertTrue(watchers.contains(anotherWatcher));
+    assertEquals(2, registry.size());
+    assertEquals(1, registry.keyCount());
+  }
+
+  @Test
+  public void testEqualWatchersAreRegisteredOnce() throws Exception {
+    String someKey = "someKey";
+    String someWatcher = new String("someWatcher");
+    String anotherEqualWatcher = new String("someWatcher");
+
+    assertTrue(registry.register(someKey, someWatcher));
+    assertFalse(registry.register(someKey, anotherEqualWatcher));
+    assertEquals(1, registry.size());
+    assertTrue(registry.unregister(someKey, anotherEqualWatcher));
+    assertFalse(registry.containsKey(someKey));
+  }
+
+  @Test
+  public void testKeyIsCaseInsensitive() throws Exception {
+    String someKey = "someAppId+default+application";
+    Object someWatcher = new Object();
+
+    registry.register(someKey, someWatcher);
+
+    assertTrue(registry.containsKey(someKey.toUpperCase()));
+    assertEquals(Lists.newArrayList(someWatcher), registry.get(someKey.toLowerCase()));
+    assertTrue(registry.unregister(someKey.toUpperCase(), someWatcher));
+    assertFalse(registry.containsKey(someKey));
+  }
+
+  @Test
+  public void testUnregister() throws Exception {
+    String someKey = "someKey";
+    Object someWatcher = new Object();
+    Object anotherWatcher = new Object();
+
+    registry.register(someKey, someWatcher);
+    registry.register(someKey, anotherWatcher);
+
+    assertTrue(registry.unregister(someKey, someWatcher));
+    assertFalse(registry.unregister(someKey, someWatcher));
+    assertEquals(Lists.newArrayList(anotherWatcher), registry.get(someKey));
+
+    assertTrue(registry.unregister(someKey, anotherWatcher));
+    assertFalse(registry.containsKey(someKey));
+    assertTrue(registry.get(someKey).isEmpty());
+    assertEquals(0, registry.size());
+    assertEquals(0, registry.keyCount());
+  }
+
+  @Test
+  public void testGetReturnsSnapshot() throws Exception {
+    String someKey = "someKey";
+    Object someWatcher = new Object();
+
+    registry.register(someKey, someWatcher);
+    List<Object> snapshot = registry.get(someKey);
+    registry.register(someKey, new Object());
+    registry.unregister(someKey, someWatcher);
+
+    assertEquals(Lists.newArrayList(someWatcher), snapshot);
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    registry.registerMetrics(meterRegistry, "someChannel");
+
+    String someKey = "someAppId+default+application";
+    String anotherKey = "someAppId+default+anotherNamespace";
+    Object someWatcher = new Object();
+    Object anotherWatcher = new Object();
+
+    registry.register(someKey, someWatcher);
+    registry.register(someKey, anotherWatcher);
+    registry.register(anotherKey, someWatcher);
+
+    assertEquals(2, registry.maxWatchersPerKey());
+    assertEquals(3, meterRegistry.get("apollo.notification.watchers").tag("channel", "someChannel").gauge().value(),
+        0);
+    assertEquals(2, meterRegistry.get("apollo.notification.watch-keys").gauge().value(), 0);
+    assertEquals(2, meterRegistry.get("apollo.notification.watchers.max-per-key").gauge().value(), 0);
+
+    registry.unregister(someKey, anotherWatcher);
+
+    assertEquals(2, meterRegistry.get("apollo.notification.watchers").gauge().value(), 0);
+    assertEquals(1, meterRegistry.get("apollo.notification.watchers.max-per-key").gauge().value(), 0);
+  }
+
+  @Test
+  public void testConcurrentRegisterAndUnregister() throws Exception {
+    int threads = 8;
+    int watchersPerThread = 2000;
+    String[] keys = {"someAppId+default+application", "someAppId+default+TEST1.public",
+        "anotherAppId+someCluster+application"};
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    CountDownLatch startLatch = new CountDownLatch(1);
+    List<Future<List<Object>>> futures = Lists.newArrayList();
+
+    try {
+      for (int i = 0; i < threads; i++) {
+        futures.add(executorService.submit(() -> {
+          startLatch.await();
+          List<Object> kept = Lists.newArrayList();
+          for (int j = 0; j < watchersPerThread; j++) {
+            Object watcher = new Object();
+            for (String key : keys) {
+              assertTrue(registry.register(key, watcher));
+            }
+            assertTrue(registry.containsKey(keys[j % keys.length].toUpperCase()));
+            if (j % 100 == 0) {
+              assertFalse(registry.get(keys[j % keys.length]).isEmpty());
+            }
+            if (j % 2 == 0) {
+              for (String key : keys) {
+                assertTrue(registry.unregister(key.toLowerCase(), watcher));
+              }
+            } else {
+              kept.add(watcher);
+            }
+          }
+          return kept;
+        }));
+      }
+
+      startLatch.countDown();
+
+      Set<Object> kept = Sets.newIdentityHashSet();
+      for (Future<List<Object>> future : futures) {
+        kept.addAll(future.get(30, TimeUnit.SECONDS));
+      }
+
+      // make sure all the kept watchers survived the concurrent unregisters of others
+      for (String key : keys) {
+        List<Object> watchers = registry.get(key);
+        assertEquals(kept.size(), watchers.size());
+        assertTrue(kept.containsAll(watchers));
+      }
+      assertEquals(threads * watchersPerThread / 2, kept.size());
+      assertEquals(kept.size() * keys.length, registry.size());
+      assertEquals(keys.length, registry.keyCount());
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+}
@@ -17,32 +17,57 @@
 package com.ctrip.framework.apollo.metaservice.controller;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.ctrip.framework.apollo.common.controller.HttpMessageConverterConfiguration;
 import com.ctrip.framework.apollo.core.ServiceNameConsts;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
 import com.ctrip.framework.apollo.metaservice.service.DiscoveryService;
+import com.ctrip.framework.apollo.metaservice.service.ServiceListCache;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import javax.servlet.http.HttpServletRequest;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ServiceControllerTest {
+  private static final Type SERVICES_TYPE = new TypeToken<List<ServiceDTO>>() {
+  }.getType();
 
   @Mock
   private DiscoveryService discoveryService;
-
   @Mock
+  private HttpServletRequest request;
+
   private List<ServiceDTO> someServices;
 
   private ServiceController serviceController;
 
+  private Gson gson = new Gson();
+
   @Before
   public void setUp() throws Exception {
-    serviceController = new ServiceController(discoveryService);
+    serviceController = new ServiceController(new ServiceListCache(discoveryService,
+        new HttpMessageConverterConfiguration().messageConverters()));
+
+    ServiceDTO someService = new ServiceDTO();
+    someService.setAppName("someAppName");
+    someService.setInstanceId("someInstanceId");
+    someService.setHomepageUrl("http://someHost:8080/");
+    someServices = Lists.newArrayList(someService);
   }
 
   @Test
@@ -58,7 +83,29 @@ public class ServiceControllerTest {
     when(discoveryService.getServiceInstances(ServiceNameConsts.APOLLO_CONFIGSERVICE))
         .thenReturn(someServices);
 
-    assertEquals(someServices, serviceController.getConfigService(someAppId, someClientIp));
+    ResponseEntity<byte[]> response = serviceController.getConfigService(someAppId, someClientIp, request);
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertNotNull(response.getHeaders().getETag());
+    assertEquals(someServices.get(0).toString(), parse(response).get(0).toString());
+  }
+
+  @Test
+  public void testGetConfigServiceNotModified() {
+    String someAppId = "someAppId";
+
+    when(discoveryService.getServiceInstances(ServiceNameConsts.APOLLO_CONFIGSERVICE))
+        .thenReturn(someServices);
+
+    ResponseEntity<byte[]> response = serviceController.getConfigService(someAppId, null, request);
+
+    when(request.getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn(response.getHeaders().getETag());
+
+    ResponseEntity<byte[]> anotherResponse = serviceController.getConfigService(someAppId, null, request);
+
+    assertEquals(HttpStatus.NOT_MODIFIED, anotherResponse.getStatusCode());
+    assertEquals(response.getHeaders().getETag(), anotherResponse.getHeaders().getETag());
+    verify(discoveryService, times(1)).getServiceInstances(ServiceNameConsts.APOLLO_CONFIGSERVICE);
   }
 
   @Test
@@ -66,7 +113,13 @@ public class ServiceControllerTest {
     when(discoveryService.getServiceInstances(ServiceNameConsts.APOLLO_ADMINSERVICE))
         .thenReturn(someServices);
 
-    assertEquals(someServices, serviceController.getAdminService());
+    ResponseEntity<byte[]> response = serviceController.getAdminService(request);
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(someServices.get(0).toString(), parse(response).get(0).toString());
+  }
 
+  private List<ServiceDTO> parse(ResponseEntity<byte[]> response) {
+    return gson.fromJson(new String(response.getBody(), StandardCharsets.UTF_8), SERVICES_TYPE);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.metaservice.service;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ctrip.framework.apollo.common.controller.HttpMessageConverterConfiguration;
+import com.ctrip.framework.apollo.common.http.CompressedContent;
+import com.ctrip.framework.apollo.core.ServiceNameConsts;
+import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ServiceListCacheTest {
+
+  @Mock
+  private DiscoveryService discoveryService;
+
+  private ServiceListCache serviceListCache;
+
+  private String someServiceId;
+
+  @Before
+  public void setUp() throws Exception {
+    serviceListCache = new ServiceListCache(discoveryService,
+        new HttpMessageConverterConfiguration().messageConverters());
+    someServiceId = ServiceNameConsts.APOLLO_CONFIGSERVICE;
+  }
+
+  @Test
+  public void testGetServiceListFromCache() {
+    when(discoveryService.getServiceInstances(someServiceId)).thenReturn(assembleServices("http://someHost/"));
+
+    CompressedContent serviceList = serviceListCache.getServiceList(someServiceId);
+
+    assertSame(serviceList, serviceListCache.getServiceList(someServiceId));
+    verify(discoveryService, times(1)).getServiceInstances(someServiceId);
+  }
+
+  @Test
+  public void testRefresh() {
+    when(discoveryService.getServiceInstances(someServiceId)).thenReturn(assembleServices("http://someHost/"),
+        assembleServices("http://someHost/"), assembleServices("http://someHost/", "http://anotherHost/"));
+
+    CompressedContent serviceList = serviceListCache.getServiceList(someServiceId);
+
+    serviceListCache.onHeartbeat();
+    CompressedContent unchangedServiceList = serviceListCache.getServiceList(someServiceId);
+
+    serviceListCache.onHeartbeat();
+    CompressedContent changedServiceList = serviceListCache.getServiceList(someServiceId);
+
+    // the unchanged list is not encoded again
+    assertSame(serviceList, unchangedServiceList);
+    assertNotEquals(serviceList.getReleaseKey(), changedServiceList.getReleaseKey());
+    assertTrue(new String(changedServiceList.getContent(false)).contains("http://anotherHost/"));
+  }
+
+  @Test
+  public void testSerializedByMessageConverter() {
+    List<ServiceDTO> services = assembleServices("http://someHost/");
+    services.get(0).setInstanceId(null);
+    when(discoveryService.getServiceInstances(someServiceId)).thenReturn(services);
+
+    CompressedContent serviceList = serviceListCache.getServiceList(someServiceId);
+
+    // the same as the message converter of the application writes, which leaves out the null fields
+    assertEquals(new Gson().toJson(services),
+        new String(serviceList.getContent(false), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testRefreshFailed() {
+    when(discoveryService.getServiceInstances(someServiceId)).thenReturn(assembleServices("http://someHost/"))
+        .thenThrow(new RuntimeException("some exception"));
+
+    CompressedContent serviceList = serviceListCache.getServiceList(someServiceId);
+
+    serviceListCache.refresh();
+
+    assertSame(serviceList, serviceListCache.getServiceList(someServiceId));
+  }
+
+  private List<ServiceDTO> assembleServices(String... homepageUrls) {
+    List<ServiceDTO> services = Lists.newArrayList();
+    for (String homepageUrl : homepageUrls) {
+      ServiceDTO service = new ServiceDTO();
+      service.setAppName(someServiceId);
+      service.setInstanceId(homepageUrl);
+      service.setHomepageUrl(homepageUrl);
+      services.add(service);
+    }
+    return services;
+  }
+}
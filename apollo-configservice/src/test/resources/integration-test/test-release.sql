@@ -20,14 +20,16 @@ INSERT INTO Cluster (AppId, Name) VALUES ('someAppId', 'default');
 INSERT INTO Cluster (AppId, Name) VALUES ('someAppId', 'someCluster');
 INSERT INTO Cluster (AppId, Name) VALUES ('somePublicAppId', 'default');
 INSERT INTO Cluster (AppId, Name) VALUES ('somePublicAppId', 'someDC');
+INSERT INTO Cluster (AppId, Name, ParentClusterId)
+  SELECT 'someAppId', 'gray-branch-1', Id FROM Cluster WHERE AppId = 'someAppId' AND Name = 'default';
 
-INSERT INTO AppNamespace (AppId, Name, IsPublic) VALUES ('someAppId', 'application', false);
-INSERT INTO AppNamespace (AppId, Name, IsPublic) VALUES ('someAppId', 'someNamespace', true);
-INSERT INTO AppNamespace (AppId, Name, IsPublic) VALUES ('someAppId', 'someNamespace.xml', false);
-INSERT INTO AppNamespace (AppId, Name, IsPublic) VALUES ('someAppId', 'anotherNamespace', false);
-INSERT INTO AppNamespace (AppId, Name, IsPublic) VALUES ('somePublicAppId', 'application', false);
-INSERT INTO AppNamespace (AppId, Name, IsPublic) VALUES ('somePublicAppId', 'somePublicNamespace', true);
-INSERT INTO AppNamespace (AppId, Name, IsPublic) VALUES ('somePublicAppId', 'anotherNamespace', true);
+INSERT INTO AppNamespace (AppId, Name, IsPublic, DataChange_LastTime) VALUES ('someAppId', 'application', false, CURRENT_TIMESTAMP);
+INSERT INTO AppNamespace (AppId, Name, IsPublic, DataChange_LastTime) VALUES ('someAppId', 'someNamespace', true, CURRENT_TIMESTAMP);
+INSERT INTO AppNamespace (AppId, Name, IsPublic, DataChange_LastTime) VALUES ('someAppId', 'someNamespace.xml', false, CURRENT_TIMESTAMP);
+INSERT INTO AppNamespace (AppId, Name, IsPublic, DataChange_LastTime) VALUES ('someAppId', 'anotherNamespace', false, CURRENT_TIMESTAMP);
+INSERT INTO AppNamespace (AppId, Name, IsPublic, DataChange_LastTime) VALUES ('somePublicAppId', 'application', false, CURRENT_TIMESTAMP);
+INSERT INTO AppNamespace (AppId, Name, IsPublic, DataChange_LastTime) VALUES ('somePublicAppId', 'somePublicNamespace', true, CURRENT_TIMESTAMP);
+INSERT INTO AppNamespace (AppId, Name, IsPublic, DataChange_LastTime) VALUES ('somePublicAppId', 'anotherNamespace', true, CURRENT_TIMESTAMP);
 
 INSERT INTO Namespace (AppId, ClusterName, NamespaceName) VALUES ('someAppId', 'default', 'application');
 INSERT INTO Namespace (AppId, ClusterName, NamespaceName) VALUES ('someAppId', 'default', 'someNamespace.xml');
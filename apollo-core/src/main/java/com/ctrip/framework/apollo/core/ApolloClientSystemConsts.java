@@ -136,4 +136,34 @@ public class ApolloClientSystemConsts {
    * enable property names cache environment variables
    */
   public static final String APOLLO_PROPERTY_NAMES_CACHE_ENABLE_ENVIRONMENT_VARIABLES = "APOLLO_PROPERTY_NAMES_CACHE_ENABLE";
+
+  /**
+   * enable notification stream
+   */
+  public static final String APOLLO_NOTIFICATION_STREAM_ENABLE = "apollo.notification.stream.enable";
+
+  /**
+   * enable notification stream environment variables
+   */
+  public static final String APOLLO_NOTIFICATION_STREAM_ENABLE_ENVIRONMENT_VARIABLES = "APOLLO_NOTIFICATION_STREAM_ENABLE";
+
+  /**
+   * enable delta config responses
+   */
+  public static final String APOLLO_CONFIG_DELTA_ENABLE = "apollo.config.delta.enable";
+
+  /**
+   * enable delta config responses environment variables
+   */
+  public static final String APOLLO_CONFIG_DELTA_ENABLE_ENVIRONMENT_VARIABLES = "APOLLO_CONFIG_DELTA_ENABLE";
+
+  /**
+   * enable batch config loading
+   */
+  public static final String APOLLO_CONFIG_BATCH_ENABLE = "apollo.config.batch.enable";
+
+  /**
+   * enable batch config loading environment variables
+   */
+  public static final String APOLLO_CONFIG_BATCH_ENABLE_ENVIRONMENT_VARIABLES = "APOLLO_CONFIG_BATCH_ENABLE";
 }
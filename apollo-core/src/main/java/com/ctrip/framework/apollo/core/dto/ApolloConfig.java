@@ -16,6 +16,8 @@
  */
 package com.ctrip.framework.apollo.core.dto;
 
+import com.ctrip.framework.apollo.core.enums.ConfigSyncType;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -33,6 +35,13 @@ public class ApolloConfig {
 
   private String releaseKey;
 
+  private ConfigSyncType configSyncType;
+
+  /**
+   * the changes relative to the release key of the client, only present in a {@link ConfigSyncType#DELTA} response
+   */
+  private List<ConfigurationChange> configurationChanges;
+
   public ApolloConfig() {
   }
 
@@ -66,6 +75,14 @@ public class ApolloConfig {
     return configurations;
   }
 
+  public ConfigSyncType getConfigSyncType() {
+    return configSyncType;
+  }
+
+  public List<ConfigurationChange> getConfigurationChanges() {
+    return configurationChanges;
+  }
+
   public void setAppId(String appId) {
     this.appId = appId;
   }
@@ -86,6 +103,14 @@ public class ApolloConfig {
     this.configurations = configurations;
   }
 
+  public void setConfigSyncType(ConfigSyncType configSyncType) {
+    this.configSyncType = configSyncType;
+  }
+
+  public void setConfigurationChanges(List<ConfigurationChange> configurationChanges) {
+    this.configurationChanges = configurationChanges;
+  }
+
   @Override
   public String toString() {
     final StringBuilder sb = new StringBuilder("ApolloConfig{");
@@ -94,6 +119,8 @@ public class ApolloConfig {
     sb.append(", namespaceName='").append(namespaceName).append('\'');
     sb.append(", configurations=").append(configurations);
     sb.append(", releaseKey='").append(releaseKey).append('\'');
+    sb.append(", configSyncType=").append(configSyncType);
+    sb.append(", configurationChanges=").append(configurationChanges);
     sb.append('}');
     return sb.toString();
   }
@@ -44,6 +44,20 @@ public class ExponentialSchedulePolicy implements SchedulePolicy {
     return delayTime;
   }
 
+  /**
+   * Delay as directed by the server instead of the exponential delay, bounded by the upper bound. If the next attempt
+   * fails as well, the delay doubles from the directed one, so the clients spread by the server keep apart.
+   *
+   * @param directedDelayTime the delay directed by the server, in the same unit as the bounds
+   */
+  public long fail(long directedDelayTime) {
+    long delayTime = Math.min(Math.max(directedDelayTime, delayTimeLowerBound), delayTimeUpperBound);
+
+    lastDelayTime = delayTime;
+
+    return delayTime;
+  }
+
   @Override
   public void success() {
     lastDelayTime = 0;
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.core.schedule;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The delay directed by the config service before the client comes back, e.g. when the config service is shutting
+ * down and completes the long polling requests early.
+ *
+ * <p>The client waits {@link #getRetryAfterInMilli()} plus a random part of {@link #getJitterInMilli()}, so that the
+ * clients released at the same time spread their reconnections over the jitter window.</p>
+ */
+public class RetryHint {
+  /**
+   * The response header of the delay in milliseconds
+   */
+  public static final String RETRY_AFTER_HEADER = "Apollo-Retry-After";
+  /**
+   * The response header of the jitter window in milliseconds
+   */
+  public static final String RETRY_JITTER_HEADER = "Apollo-Retry-Jitter";
+
+  private final long retryAfterInMilli;
+  private final long jitterInMilli;
+
+  public RetryHint(long retryAfterInMilli, long jitterInMilli) {
+    this.retryAfterInMilli = Math.max(retryAfterInMilli, 0);
+    this.jitterInMilli = Math.max(jitterInMilli, 0);
+  }
+
+  public long getRetryAfterInMilli() {
+    return retryAfterInMilli;
+  }
+
+  public long getJitterInMilli() {
+    return jitterInMilli;
+  }
+
+  /**
+   * @return the delay before the next attempt, picked randomly in the jitter window
+   */
+  public long nextDelayInMilli() {
+    if (jitterInMilli == 0) {
+      return retryAfterInMilli;
+    }
+    return retryAfterInMilli + ThreadLocalRandom.current().nextLong(jitterInMilli + 1);
+  }
+
+  /**
+   * @return the hint, or null if the retry after header is absent or malformed
+   */
+  public static RetryHint fromHeaders(String retryAfter, String jitter) {
+    if (retryAfter == null) {
+      return null;
+    }
+    try {
+      long retryAfterInMilli = Long.parseLong(retryAfter.trim());
+      long jitterInMilli = jitter == null ? 0 : Long.parseLong(jitter.trim());
+      return new RetryHint(retryAfterInMilli, jitterInMilli);
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "RetryHint{" +
+        "retryAfterInMilli=" + retryAfterInMilli +
+        ", jitterInMilli=" + jitterInMilli +
+        '}';
+  }
+}
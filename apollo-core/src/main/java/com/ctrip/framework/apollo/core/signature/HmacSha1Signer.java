@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.core.signature;
+
+import com.google.common.io.BaseEncoding;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs with one secret. The Mac is keyed once, and the signing Macs are cloned from it and kept in a small pool, as
+ * keying a Mac costs more than signing a short string. The pool is bounded, so the Macs held don't grow with the
+ * threads signing.
+ */
+public class HmacSha1Signer {
+
+  private static final String ALGORITHM_NAME = "HmacSHA1";
+  private static final int MAX_POOLED_MACS = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+
+  private final SecretKeySpec secretKey;
+  private final Mac prototype;
+  private final BlockingQueue<Mac> pooledMacs = new ArrayBlockingQueue<>(MAX_POOLED_MACS);
+
+  public HmacSha1Signer(String secret) {
+    this.secretKey = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM_NAME);
+    this.prototype = newMac();
+  }
+
+  public byte[] sign(String stringToSign) {
+    Mac mac = borrowMac();
+    try {
+      //doFinal resets the mac to the keyed state, so it could be reused
+      return mac.doFinal(stringToSign.getBytes(StandardCharsets.UTF_8));
+    } finally {
+      //the mac is dropped when the pool is full
+      pooledMacs.offer(mac);
+    }
+  }
+
+  public String signString(String stringToSign) {
+    return BaseEncoding.base64().encode(sign(stringToSign));
+  }
+
+  /**
+   * Compare in constant time, so that the time taken doesn't tell how much of the signature is correct
+   *
+   * @param signature the decoded signature
+   */
+  public boolean verify(String stringToSign, byte[] signature) {
+    return signature != null && MessageDigest.isEqual(sign(stringToSign), signature);
+  }
+
+  private Mac borrowMac() {
+    Mac mac = pooledMacs.poll();
+    if (mac != null) {
+      return mac;
+    }
+    try {
+      //the prototype is never used to sign, so it stays in the keyed state
+      return (Mac) prototype.clone();
+    } catch (CloneNotSupportedException e) {
+      //the provider doesn't support cloning, key a new one instead
+      return newMac();
+    }
+  }
+
+  private Mac newMac() {
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM_NAME);
+      mac.init(secretKey);
+      return mac;
+    } catch (GeneralSecurityException e) {
+      throw new IllegalArgumentException(e.toString());
+    }
+  }
+}
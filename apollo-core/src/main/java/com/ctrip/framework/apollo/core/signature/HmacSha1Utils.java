@@ -30,17 +30,28 @@ public class HmacSha1Utils {
 
   private static final String ALGORITHM_NAME = "HmacSHA1";
   private static final String ENCODING = "UTF-8";
+  //creating the mac costs more than signing, so it's reused by the thread
+  private static final ThreadLocal<Mac> MAC = new ThreadLocal<Mac>() {
+    @Override
+    protected Mac initialValue() {
+      try {
+        return Mac.getInstance(ALGORITHM_NAME);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalArgumentException(e.toString());
+      }
+    }
+  };
 
   public static String signString(String stringToSign, String accessKeySecret) {
     try {
-      Mac mac = Mac.getInstance(ALGORITHM_NAME);
+      Mac mac = MAC.get();
       mac.init(new SecretKeySpec(
           accessKeySecret.getBytes(ENCODING),
           ALGORITHM_NAME
       ));
       byte[] signData = mac.doFinal(stringToSign.getBytes(ENCODING));
       return BaseEncoding.base64().encode(signData);
-    } catch (NoSuchAlgorithmException | UnsupportedEncodingException | InvalidKeyException e) {
+    } catch (UnsupportedEncodingException | InvalidKeyException e) {
       throw new IllegalArgumentException(e.toString());
     }
   }
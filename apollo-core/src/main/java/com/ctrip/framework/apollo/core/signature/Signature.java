@@ -17,6 +17,7 @@
 package com.ctrip.framework.apollo.core.signature;
 
 import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
 import com.google.common.net.HttpHeaders;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -36,8 +37,25 @@ public class Signature {
   public static final String HTTP_HEADER_TIMESTAMP = "Timestamp";
 
   public static String signature(String timestamp, String pathWithQuery, String secret) {
-    String stringToSign = timestamp + DELIMITER + pathWithQuery;
-    return HmacSha1Utils.signString(stringToSign, secret);
+    return HmacSha1Utils.signString(stringToSign(timestamp, pathWithQuery), secret);
+  }
+
+  public static String stringToSign(String timestamp, String pathWithQuery) {
+    return timestamp + DELIMITER + pathWithQuery;
+  }
+
+  /**
+   * @return the decoded signature, or null if it's not valid base64
+   */
+  public static byte[] decodeSignature(String signature) {
+    if (signature == null) {
+      return null;
+    }
+    try {
+      return BaseEncoding.base64().decode(signature);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
   }
 
   public static Map<String, String> buildHttpHeaders(String url, String appId, String secret) {
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.core.utils;
+
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The compact encoding of the client side notifications posted to the long polling endpoint, instead of the json in
+ * the url.
+ *
+ * <p>The content is a version byte, followed by the number of notifications as an int, and then each notification as
+ * the namespace name in the length-prefixed modified UTF-8 of {@link DataOutputStream#writeUTF(String)} and the
+ * notification id as a long.</p>
+ */
+public class NotificationsCodec {
+  public static final String CONTENT_TYPE = "application/vnd.apollo.notifications";
+  /**
+   * The response header by which the config service advertises that it accepts the notifications posted in
+   * {@link #CONTENT_TYPE}
+   */
+  public static final String ACCEPT_NOTIFICATIONS_HEADER = "Apollo-Accept-Notifications";
+  private static final int VERSION = 1;
+  // the empty namespace name length and the notification id
+  private static final int MIN_NOTIFICATION_SIZE = 2 + 8;
+
+  /**
+   * @param notifications the notifications, which might be a concurrent map being modified
+   */
+  public static byte[] encode(Map<String, Long> notifications) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(5 + notifications.size() * 32);
+    DataOutputStream data = new DataOutputStream(out);
+    int size = 0;
+    try {
+      data.writeByte(VERSION);
+      // the size is filled in after the entries are written, as the map might be modified in between
+      data.writeInt(0);
+      for (Map.Entry<String, Long> entry : notifications.entrySet()) {
+        data.writeUTF(entry.getKey());
+        data.writeLong(entry.getValue());
+        size++;
+      }
+      data.flush();
+    } catch (IOException ex) {
+      // never happens when writing to memory
+      throw new IllegalStateException(ex);
+    }
+    byte[] content = out.toByteArray();
+    content[1] = ByteUtil.int3(size);
+    content[2] = ByteUtil.int2(size);
+    content[3] = ByteUtil.int1(size);
+    content[4] = ByteUtil.int0(size);
+    return content;
+  }
+
+  /**
+   * @throws IllegalArgumentException if the content is not valid
+   */
+  public static List<ApolloConfigNotification> decode(byte[] content) {
+    if (content == null || content.length == 0) {
+      throw new IllegalArgumentException("Empty notifications");
+    }
+    DataInputStream data = new DataInputStream(new ByteArrayInputStream(content));
+    try {
+      int version = data.readUnsignedByte();
+      if (version != VERSION) {
+        throw new IllegalArgumentException("Unsupported notifications version: " + version);
+      }
+      int size = data.readInt();
+      // check the size against the content length, so that a forged size could not allocate a huge list
+      if (size < 0 || size > data.available() / MIN_NOTIFICATION_SIZE) {
+        throw new IllegalArgumentException("Invalid number of notifications: " + size);
+      }
+      List<ApolloConfigNotification> notifications = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        String namespaceName = data.readUTF();
+        long notificationId = data.readLong();
+        notifications.add(new ApolloConfigNotification(namespaceName, notificationId));
+      }
+      if (data.available() > 0) {
+        throw new IllegalArgumentException("Unexpected trailing bytes of notifications");
+      }
+      return notifications;
+    } catch (IOException ex) {
+      throw new IllegalArgumentException("Invalid notifications", ex);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.core.schedule;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RetryHintTest {
+
+  @Test
+  public void testFromHeaders() {
+    RetryHint hint = RetryHint.fromHeaders("1000", " 3000 ");
+
+    Assert.assertEquals(1000, hint.getRetryAfterInMilli());
+    Assert.assertEquals(3000, hint.getJitterInMilli());
+
+    Assert.assertEquals(0, RetryHint.fromHeaders("1000", null).getJitterInMilli());
+    Assert.assertNull(RetryHint.fromHeaders(null, "3000"));
+    Assert.assertNull(RetryHint.fromHeaders("soon", "3000"));
+  }
+
+  @Test
+  public void testNextDelayIsInJitterWindow() {
+    RetryHint hint = new RetryHint(1000, 3000);
+
+    for (int i = 0; i < 100; i++) {
+      long delay = hint.nextDelayInMilli();
+      Assert.assertTrue(delay >= 1000 && delay <= 4000);
+    }
+    Assert.assertEquals(1000, new RetryHint(1000, 0).nextDelayInMilli());
+    Assert.assertEquals(0, new RetryHint(-1, -1).nextDelayInMilli());
+  }
+
+  @Test
+  public void testExponentialDelayContinuesFromDirectedDelay() {
+    ExponentialSchedulePolicy policy = new ExponentialSchedulePolicy(1000, 120000);
+
+    Assert.assertEquals(5000, policy.fail(5000));
+    Assert.assertEquals(10000, policy.fail());
+    Assert.assertEquals(120000, policy.fail(300000));
+    Assert.assertEquals(1000, policy.fail(10));
+
+    policy.success();
+    Assert.assertEquals(1000, policy.fail());
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.core.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class HmacSha1SignerTest {
+
+  private static final String STRING_TO_SIGN = "1576478257344\n/configs/100004458/default/application?ip=10.0.0.1";
+  private static final String SECRET = "df23df3f59884980844ff3dada30fa97";
+  private static final String SIGNATURE = "EoKyziXvKqzHgwx+ijDJwgVTDgE=";
+
+  @Test
+  public void testSignString() {
+    HmacSha1Signer signer = new HmacSha1Signer(SECRET);
+
+    //the reused mac signs the same as a new one
+    assertEquals(SIGNATURE, signer.signString(STRING_TO_SIGN));
+    assertEquals(SIGNATURE, signer.signString(STRING_TO_SIGN));
+    assertEquals(HmacSha1Utils.signString("another", SECRET), signer.signString("another"));
+  }
+
+  @Test
+  public void testVerify() {
+    HmacSha1Signer signer = new HmacSha1Signer(SECRET);
+
+    assertTrue(signer.verify(STRING_TO_SIGN, Signature.decodeSignature(SIGNATURE)));
+    assertFalse(signer.verify(STRING_TO_SIGN + "&foo=bar", Signature.decodeSignature(SIGNATURE)));
+    assertFalse(new HmacSha1Signer("anotherSecret").verify(STRING_TO_SIGN, Signature.decodeSignature(SIGNATURE)));
+    assertFalse(signer.verify(STRING_TO_SIGN, Signature.decodeSignature("not-base64!")));
+    assertFalse(signer.verify(STRING_TO_SIGN, Signature.decodeSignature(null)));
+  }
+
+  @Test
+  public void testSignConcurrently() throws Exception {
+    final HmacSha1Signer signer = new HmacSha1Signer(SECRET);
+    ExecutorService executorService = Executors.newFixedThreadPool(4);
+    try {
+      Future<?>[] futures = new Future<?>[100];
+      for (int i = 0; i < futures.length; i++) {
+        futures[i] = executorService.submit(new Callable<String>() {
+          @Override
+          public String call() {
+            return signer.signString(STRING_TO_SIGN);
+          }
+        });
+      }
+      for (Future<?> future : futures) {
+        assertEquals(SIGNATURE, future.get());
+      }
+      //the macs kept don't grow with the threads signing
+      Field pooledMacsField = HmacSha1Signer.class.getDeclaredField("pooledMacs");
+      pooledMacsField.setAccessible(true);
+      BlockingQueue<?> pooledMacs = (BlockingQueue<?>) pooledMacsField.get(signer);
+      assertTrue(pooledMacs.size() + pooledMacs.remainingCapacity() <= 8);
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+}
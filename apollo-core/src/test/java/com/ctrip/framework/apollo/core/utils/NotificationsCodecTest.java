@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.core.utils;
+
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NotificationsCodecTest {
+
+  @Test
+  public void testEncodeAndDecode() {
+    Map<String, Long> notifications = new LinkedHashMap<>();
+    notifications.put("application", 1L);
+    notifications.put("FX.apollo", -1L);
+    notifications.put("命名空间", Long.MAX_VALUE);
+
+    List<ApolloConfigNotification> decoded = NotificationsCodec.decode(NotificationsCodec.encode(notifications));
+
+    Assert.assertEquals(3, decoded.size());
+    Assert.assertEquals("application", decoded.get(0).getNamespaceName());
+    Assert.assertEquals(1L, decoded.get(0).getNotificationId());
+    Assert.assertEquals("FX.apollo", decoded.get(1).getNamespaceName());
+    Assert.assertEquals(-1L, decoded.get(1).getNotificationId());
+    Assert.assertEquals("命名空间", decoded.get(2).getNamespaceName());
+    Assert.assertEquals(Long.MAX_VALUE, decoded.get(2).getNotificationId());
+  }
+
+  @Test
+  public void testEncodeIsCompact() {
+    Map<String, Long> notifications = new LinkedHashMap<>();
+    notifications.put("application", 1L);
+
+    // version + size + (length + "application" + id)
+    Assert.assertEquals(1 + 4 + 2 + 11 + 8, NotificationsCodec.encode(notifications).length);
+  }
+
+  @Test
+  public void testDecodeInvalidContent() {
+    Map<String, Long> notifications = new LinkedHashMap<>();
+    notifications.put("application", 1L);
+    byte[] content = NotificationsCodec.encode(notifications);
+
+    assertInvalid(null);
+    assertInvalid(new byte[0]);
+    // unsupported version
+    assertInvalid(new byte[]{2, 0, 0, 0, 0});
+    // forged size
+    assertInvalid(new byte[]{1, 0x7f, 0, 0, 0});
+    // truncated
+    assertInvalid(Arrays.copyOf(content, content.length - 1));
+    // trailing bytes
+    assertInvalid(Arrays.copyOf(content, content.length + 1));
+  }
+
+  private void assertInvalid(byte[] content) {
+    try {
+      NotificationsCodec.decode(content);
+      Assert.fail("the content should be invalid");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+}
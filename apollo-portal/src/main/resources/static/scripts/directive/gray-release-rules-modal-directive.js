@@ -88,7 +88,7 @@ function rulesModalDirective($translate, toastr, AppUtil, EventManager, Instance
                 var oldIPs = branch.editingRuleItem.draftIpList;
                 if (newIps && newIps.length > 0) {
                     newIps.forEach(function (IP) {
-                        if (!AppUtil.checkIPV4(IP)) {
+                        if (!AppUtil.checkIPV4(IP) && !AppUtil.checkIPV4CIDR(IP)) {
                             toastr.error($translate.instant('RulesModal.ChooseInstances', { ip: IP }));
                         } else if (oldIPs.indexOf(IP) < 0) {
                             oldIPs.push(IP);
@@ -0,0 +1,32 @@
+--
+-- Copyright 2021 Apollo Authors
+--
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+-- http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+--
+# Dump of table lease
+# ------------------------------------------------------------
+
+Use ApolloConfigDB;
+
+DROP TABLE IF EXISTS `Lease`;
+
+CREATE TABLE `Lease` (
+  `Id` int(11) unsigned NOT NULL AUTO_INCREMENT COMMENT '自增主键',
+  `Name` varchar(128) NOT NULL DEFAULT '' COMMENT '租约名称',
+  `Owner` varchar(256) NOT NULL DEFAULT '' COMMENT '租约持有者',
+  `Token` varchar(64) NOT NULL DEFAULT '' COMMENT '持有者每次获取租约时生成的令牌',
+  `Version` bigint(20) unsigned NOT NULL DEFAULT '0' COMMENT '每次续约递增的版本号',
+  `DataChange_LastTime` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '最后修改时间',
+  PRIMARY KEY (`Id`),
+  UNIQUE KEY `UK_Name` (`Name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='租约';
@@ -241,6 +241,24 @@ CREATE TABLE `Item` (
 
 
 
+# Dump of table lease
+# ------------------------------------------------------------
+
+DROP TABLE IF EXISTS `Lease`;
+
+CREATE TABLE `Lease` (
+  `Id` int(11) unsigned NOT NULL AUTO_INCREMENT COMMENT '自增主键',
+  `Name` varchar(128) NOT NULL DEFAULT '' COMMENT '租约名称',
+  `Owner` varchar(256) NOT NULL DEFAULT '' COMMENT '租约持有者',
+  `Token` varchar(64) NOT NULL DEFAULT '' COMMENT '持有者每次获取租约时生成的令牌',
+  `Version` bigint(20) unsigned NOT NULL DEFAULT '0' COMMENT '每次续约递增的版本号',
+  `DataChange_LastTime` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '最后修改时间',
+  PRIMARY KEY (`Id`),
+  UNIQUE KEY `UK_Name` (`Name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='租约';
+
+
+
 # Dump of table namespace
 # ------------------------------------------------------------
 